@@ -0,0 +1,187 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost-based admission control for history queries. Each query is given a
+ * cost, estimated from its time span, limit and family; clients spend tokens
+ * from a per-client {@link TokenBucket} and heavy queries additionally need
+ * one of a limited number of global execution slots.
+ * 
+ * @author bonino
+ *
+ */
+public class AdmissionController
+{
+    // the number of estimated data points corresponding to one token
+    public static final long POINTS_PER_TOKEN = 1000;
+
+    // the cost multiplier of queries on all the streams of a device
+    public static final long ALL_STREAMS_FACTOR = 4;
+
+    // the number of client buckets above which idle clients are forgotten
+    private static final int MAX_TRACKED_CLIENTS = 1024;
+
+    // the configuration
+    private final HistoryConfiguration configuration;
+
+    // the client buckets, indexed by client address
+    private final ConcurrentMap<String, TokenBucket> clients;
+
+    // the global slots for heavy queries
+    private final Semaphore heavySlots;
+
+    // the number of rejected requests
+    private final AtomicLong rejected;
+
+    public AdmissionController(HistoryConfiguration configuration)
+    {
+        this.configuration = configuration;
+        this.clients = new ConcurrentHashMap<>();
+        this.heavySlots = new Semaphore(
+                Math.max(1, configuration.getHeavyConcurrency()));
+        this.rejected = new AtomicLong();
+    }
+
+    /**
+     * Estimates the cost of the given query, in tokens. The cost grows with
+     * the number of data points the query may return, estimated from the
+     * queried range and bounded by the query limit. Rollups older than the
+     * tier retention are aggregated from all the raw data points in range,
+     * whatever the limit on buckets.
+     * 
+     * @param query
+     *            the query
+     * @param now
+     *            the current time, in milliseconds
+     * @return the query cost, at least 1
+     */
+    public long estimateCost(HistoryQuery query, long now)
+    {
+        // rollups are served from memory within the tier retention
+        RollupTier tier = query.getTier();
+        if ((tier != null) && tier.covers(query.getStart().getTime(), now))
+            return 1;
+
+        long end = (query.getEnd() != null) ? query.getEnd().getTime() : now;
+        long spanHours = Math.max(1,
+                (end - query.getStart().getTime()) / (60L * 60L * 1000L));
+
+        long points = spanHours * this.configuration.getPointsPerHour();
+        if ((tier == null) && (query.getLimit() > 0))
+            points = Math.min(points, query.getLimit());
+        if (!query.isDeviceSpecific())
+            points *= ALL_STREAMS_FACTOR;
+
+        return 1 + points / POINTS_PER_TOKEN;
+    }
+
+    /**
+     * Charges the given cost on the bucket of the given client
+     * 
+     * @param client
+     *            the client identifier
+     * @param cost
+     *            the query cost
+     * @return 0 if the query is admitted, otherwise the time after which the
+     *         client may retry, in milliseconds
+     */
+    public long admit(String client, long cost)
+    {
+        long now = System.currentTimeMillis();
+
+        TokenBucket bucket = this.clients.get(client);
+        if (bucket == null)
+        {
+            if (this.clients.size() >= MAX_TRACKED_CLIENTS)
+                this.forgetIdleClients(now);
+
+            TokenBucket created = new TokenBucket(
+                    this.configuration.getClientCapacity(),
+                    this.configuration.getClientRefill(), now);
+            bucket = this.clients.putIfAbsent(client, created);
+            if (bucket == null)
+                bucket = created;
+        }
+
+        long retryAfter = bucket.tryConsume(cost, now);
+        if (retryAfter > 0)
+            this.rejected.incrementAndGet();
+        return retryAfter;
+    }
+
+    /**
+     * Gives back the given cost to the bucket of the given client, for queries
+     * admitted by {@link #admit(String, long)} which could not run
+     * 
+     * @param client
+     *            the client identifier
+     * @param cost
+     *            the query cost
+     */
+    public void refund(String client, long cost)
+    {
+        TokenBucket bucket = this.clients.get(client);
+        if (bucket != null)
+            bucket.refund(cost, System.currentTimeMillis());
+    }
+
+    /**
+     * Acquires a global execution slot if the given cost identifies a heavy
+     * query, without waiting.
+     * 
+     * @param cost
+     *            the query cost
+     * @return true if the query can run
+     */
+    public boolean acquire(long cost)
+    {
+        if ((cost < this.configuration.getHeavyCost())
+                || this.heavySlots.tryAcquire())
+            return true;
+
+        this.rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Releases the slot acquired by {@link #acquire(long)} for the same cost
+     * 
+     * @param cost
+     *            the query cost
+     */
+    public void release(long cost)
+    {
+        if (cost >= this.configuration.getHeavyCost())
+            this.heavySlots.release();
+    }
+
+    /**
+     * Provides the number of requests rejected so far
+     * 
+     * @return the rejected requests
+     */
+    public long getRejected()
+    {
+        return this.rejected.get();
+    }
+
+    private void forgetIdleClients(long now)
+    {
+        Iterator<Map.Entry<String, TokenBucket>> iterator = this.clients
+                .entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            if (iterator.next().getValue().isFull(now))
+                iterator.remove();
+        }
+    }
+}
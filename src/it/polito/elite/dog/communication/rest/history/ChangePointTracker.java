@@ -0,0 +1,151 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+import it.polito.elite.dog.addons.storage.EventDataStream;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Tracks the last point stored for each event stream, to drop consecutive
+ * duplicates before they reach the EventStore. A duplicate is stored anyway
+ * when the last stored point is older than the heartbeat, so that the
+ * history keeps proving the state is still current. The number of streams is
+ * bounded, the streams least recently written are forgotten first, their next
+ * point being stored anyway.
+ *
+ * @author bonino
+ *
+ */
+public class ChangePointTracker
+{
+    // the last stored point of each stream, least recently written first
+    private final LinkedHashMap<EventStreamKey, LastPoint> streams;
+
+    // the maximum number of streams
+    private int maxStreams;
+
+    /**
+     * Creates a tracker
+     *
+     * @param maxStreams
+     *            the maximum number of streams
+     */
+    public ChangePointTracker(int maxStreams)
+    {
+        this.streams = new LinkedHashMap<>();
+        this.maxStreams = maxStreams;
+    }
+
+    /**
+     * Provides the tracking state of the given stream, callers shall
+     * synchronize on it while compressing and storing points
+     *
+     * @param key
+     *            the stream key
+     * @return the tracking state
+     */
+    public synchronized LastPoint getLastPoint(EventStreamKey key)
+    {
+        // move the state last, as the most recently written
+        LastPoint last = this.streams.remove(key);
+        if (last == null)
+            last = new LastPoint();
+        this.streams.put(key, last);
+
+        this.evict();
+        return last;
+    }
+
+    /**
+     * Changes the maximum number of streams, forgetting the least recently
+     * written ones if needed
+     *
+     * @param maxStreams
+     *            the maximum number of streams
+     */
+    public synchronized void setMaxStreams(int maxStreams)
+    {
+        this.maxStreams = maxStreams;
+        this.evict();
+    }
+
+    /**
+     * Forgets all the tracked streams, e.g., when the underlying store changes
+     */
+    public synchronized void clear()
+    {
+        this.streams.clear();
+    }
+
+    private void evict()
+    {
+        Iterator<LastPoint> eldest = this.streams.values().iterator();
+        while (this.streams.size() > Math.max(1, this.maxStreams))
+        {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * The last point stored for a stream. Not thread safe.
+     */
+    public static class LastPoint
+    {
+        private String value;
+        private long at = Long.MIN_VALUE;
+
+        /**
+         * Drops from the given stream the points repeating the previous value
+         * within the heartbeat, and records the last kept point
+         *
+         * @param stream
+         *            the stream to compress, in time order
+         * @param heartbeat
+         *            the time after which a duplicate is kept, in
+         *            milliseconds
+         * @return the compressed stream
+         */
+        public EventDataStream compress(EventDataStream stream, long heartbeat)
+        {
+            EventDataStream changes = new EventDataStream(stream.getName(),
+                    stream.getParams(), stream.getDeviceUri());
+            for (EventDataPoint point : stream.getDatapoints())
+            {
+                long at = (point.getAt() != null) ? point.getAt().getTime()
+                        : 0;
+
+                // points older than the last stored one cannot be judged
+                if (at < this.at)
+                {
+                    changes.addDatapoint(point);
+                    continue;
+                }
+
+                boolean same = (this.at != Long.MIN_VALUE)
+                        && ((point.getValue() == null) ? (this.value == null)
+                                : point.getValue().equals(this.value));
+                if ((!same) || (at - this.at >= heartbeat))
+                {
+                    changes.addDatapoint(point);
+                    this.value = point.getValue();
+                    this.at = at;
+                }
+            }
+            return changes;
+        }
+
+        /**
+         * Forgets the last point, e.g., when storing failed
+         */
+        public void reset()
+        {
+            this.value = null;
+            this.at = Long.MIN_VALUE;
+        }
+    }
+}
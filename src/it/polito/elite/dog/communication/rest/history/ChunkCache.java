@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataStream;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the data points of the past sub-ranges planned by the
+ * {@link QueryPlanner}, so that queries sharing them read from the
+ * EventStore only the sub-ranges not seen before. The cache is bounded in
+ * the total number of points, evicting the least recently used sub-ranges
+ * first. Inserts invalidate the sub-ranges they touch; a sub-range read while
+ * an insert was in progress is not cached. Thread safe.
+ *
+ * @author bonino
+ *
+ */
+public class ChunkCache
+{
+    // the time after which a sub-range is not expected to change anymore,
+    // in milliseconds
+    public static final long SETTLE_TIME = 60L * 1000L;
+
+    // the maximum number of cached points, each sub-range counting as a
+    // point more, so that empty ones are bounded too
+    private final long capacity;
+
+    // the cached sub-ranges, least recently used first
+    private final LinkedHashMap<Chunk, EventDataStream> chunks;
+
+    // the number of cached points, as bounded by the capacity
+    private long size;
+
+    // changed by every invalidation, to recognize stale sub-ranges
+    private long generation;
+
+    /**
+     * Creates a cache
+     *
+     * @param capacity
+     *            the maximum number of cached points
+     */
+    public ChunkCache(long capacity)
+    {
+        this.capacity = capacity;
+        this.chunks = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Provides the current generation, to be taken before reading the
+     * EventStore and passed to
+     * {@link #put(EventStreamKey, long, long, EventDataStream, long)}
+     *
+     * @return the generation
+     */
+    public synchronized long getGeneration()
+    {
+        return this.generation;
+    }
+
+    /**
+     * Provides the cached points of a sub-range
+     *
+     * @param key
+     *            the stream key
+     * @param start
+     *            the sub-range start, in milliseconds since the epoch
+     * @param end
+     *            the sub-range end, in milliseconds since the epoch
+     * @return the stream, not to be modified, or null if not cached
+     */
+    public synchronized EventDataStream get(EventStreamKey key, long start,
+            long end)
+    {
+        return this.chunks.get(new Chunk(key, start, end));
+    }
+
+    /**
+     * Caches the points of a sub-range, unless it may still change or the
+     * stream changed since the given generation
+     *
+     * @param key
+     *            the stream key
+     * @param start
+     *            the sub-range start, in milliseconds since the epoch
+     * @param end
+     *            the sub-range end, in milliseconds since the epoch
+     * @param stream
+     *            the stream, not to be modified afterwards
+     * @param generation
+     *            the generation taken before reading the sub-range
+     */
+    public synchronized void put(EventStreamKey key, long start, long end,
+            EventDataStream stream, long generation)
+    {
+        long points = ChunkCache.sizeOf(stream);
+        if ((generation != this.generation) || (points > this.capacity)
+                || (end >= System.currentTimeMillis() - SETTLE_TIME))
+            return;
+
+        EventDataStream replaced = this.chunks
+                .put(new Chunk(key, start, end), stream);
+        this.size += points - ChunkCache.sizeOf(replaced);
+
+        Iterator<EventDataStream> eldest = this.chunks.values().iterator();
+        while (this.size > this.capacity)
+        {
+            this.size -= ChunkCache.sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Forgets the cached sub-ranges overlapping the given range of a stream
+     *
+     * @param key
+     *            the stream key
+     * @param start
+     *            the range start, in milliseconds since the epoch
+     * @param end
+     *            the range end, in milliseconds since the epoch
+     */
+    public synchronized void invalidate(EventStreamKey key, long start,
+            long end)
+    {
+        this.generation++;
+
+        Iterator<Map.Entry<Chunk, EventDataStream>> chunks = this.chunks
+                .entrySet().iterator();
+        while (chunks.hasNext())
+        {
+            Map.Entry<Chunk, EventDataStream> chunk = chunks.next();
+            if (chunk.getKey().key.equals(key) && (chunk.getKey().start <= end)
+                    && (chunk.getKey().end >= start))
+            {
+                this.size -= ChunkCache.sizeOf(chunk.getValue());
+                chunks.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets all the cached sub-ranges, e.g., when the underlying store
+     * changes
+     */
+    public synchronized void clear()
+    {
+        this.generation++;
+        this.chunks.clear();
+        this.size = 0;
+    }
+
+    private static long sizeOf(EventDataStream stream)
+    {
+        if (stream == null)
+            return 0;
+        return (stream.getDatapoints() != null)
+                ? stream.getDatapoints().size() + 1 : 1;
+    }
+
+    private static class Chunk
+    {
+        private final EventStreamKey key;
+        private final long start;
+        private final long end;
+
+        public Chunk(EventStreamKey key, long start, long end)
+        {
+            this.key = key;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            final int prime = 31;
+            int result = this.key.hashCode();
+            result = prime * result + (int) (this.start ^ (this.start >>> 32));
+            result = prime * result + (int) (this.end ^ (this.end >>> 32));
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Chunk))
+                return false;
+            Chunk other = (Chunk) obj;
+            return (this.start == other.start) && (this.end == other.end)
+                    && this.key.equals(other.key);
+        }
+    }
+}
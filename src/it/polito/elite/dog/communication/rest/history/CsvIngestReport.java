@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The JSON outcome of a CSV upload: the number of accepted and rejected rows
+ * and, for the first rejected rows, the line at which they start and the
+ * reason they have been rejected.
+ *
+ * @author bonino
+ *
+ */
+public class CsvIngestReport
+{
+    // the maximum number of rejected rows described in a report
+    public static final int MAX_ERRORS = 100;
+
+    // the number of rows turned into data points
+    private long accepted;
+
+    // the number of rows rejected
+    private long rejected;
+
+    // the first rejected rows
+    private List<RowError> errors;
+
+    // true if the accepted rows have been stored
+    private boolean stored;
+
+    public CsvIngestReport()
+    {
+        this.errors = new ArrayList<>();
+    }
+
+    /**
+     * Adds the given partial report, e.g., of a chunk of the same upload
+     * following the ones already added
+     *
+     * @param other
+     *            the report to add
+     */
+    public void add(CsvIngestReport other)
+    {
+        this.accepted += other.accepted;
+        this.rejected += other.rejected;
+        for (RowError error : other.errors)
+        {
+            if (this.errors.size() >= MAX_ERRORS)
+                break;
+            this.errors.add(error);
+        }
+    }
+
+    /**
+     * Records an accepted row
+     */
+    public void accept()
+    {
+        this.accepted++;
+    }
+
+    /**
+     * Records a rejected row
+     *
+     * @param line
+     *            the line at which the row starts, from 1
+     * @param reason
+     *            the rejection reason
+     */
+    public void reject(long line, String reason)
+    {
+        this.rejected++;
+        if (this.errors.size() < MAX_ERRORS)
+            this.errors.add(new RowError(line, reason));
+    }
+
+    public long getAccepted()
+    {
+        return accepted;
+    }
+
+    public long getRejected()
+    {
+        return rejected;
+    }
+
+    public List<RowError> getErrors()
+    {
+        return errors;
+    }
+
+    public boolean isStored()
+    {
+        return stored;
+    }
+
+    public void setStored(boolean stored)
+    {
+        this.stored = stored;
+    }
+
+    /**
+     * A rejected row
+     */
+    public static class RowError
+    {
+        private final long line;
+        private final String reason;
+
+        public RowError(long line, String reason)
+        {
+            this.line = line;
+            this.reason = reason;
+        }
+
+        public long getLine()
+        {
+            return line;
+        }
+
+        public String getReason()
+        {
+            return reason;
+        }
+    }
+}
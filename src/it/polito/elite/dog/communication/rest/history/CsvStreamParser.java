@@ -0,0 +1,432 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+import it.polito.elite.dog.addons.storage.EventDataStream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses the CSV uploads of event data, one data point per row with the
+ * timestamp, the value and, optionally, the unit of measure. Fields may be
+ * quoted, with doubled quotes standing for a quote, and quoted fields may
+ * span several lines. If the first row is a header naming the at (or
+ * timestamp), value and unit columns, columns are taken in that order,
+ * otherwise they are positional. Rows that cannot be parsed are rejected one
+ * by one and described in a {@link CsvIngestReport}, blank lines are skipped.
+ * Large uploads are split into chunks of whole rows, parsed in parallel.
+ * Instances are immutable.
+ *
+ * @author bonino
+ *
+ */
+public class CsvStreamParser
+{
+    // the timestamp format for milliseconds since the epoch
+    public static final String EPOCH = "epoch";
+
+    // the approximate number of characters parsed by each task
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    // the field separator
+    private final char delimiter;
+
+    // true if the first row is a header
+    private final boolean header;
+
+    // the timestamp pattern, or EPOCH
+    private final String timestampFormat;
+
+    // the threads parsing large uploads, null to parse in the caller thread
+    private final ExecutorService executor;
+
+    /**
+     * Creates a parser
+     *
+     * @param delimiter
+     *            the field separator, a single character or "tab"; null for a
+     *            comma
+     * @param header
+     *            true if the first row is a header
+     * @param timestampFormat
+     *            a {@link SimpleDateFormat} pattern or {@link #EPOCH}
+     * @param executor
+     *            the threads parsing large uploads, null to parse them in the
+     *            caller thread
+     * @throws IllegalArgumentException
+     *             if the delimiter or the timestamp format are invalid
+     */
+    public CsvStreamParser(String delimiter, boolean header,
+            String timestampFormat, ExecutorService executor)
+    {
+        if ((delimiter == null) || (delimiter.isEmpty()))
+            this.delimiter = ',';
+        else if (delimiter.equalsIgnoreCase("tab"))
+            this.delimiter = '\t';
+        else if ((delimiter.length() == 1) && (delimiter.charAt(0) != '"')
+                && (delimiter.charAt(0) != '\n')
+                && (delimiter.charAt(0) != '\r'))
+            this.delimiter = delimiter.charAt(0);
+        else
+            throw new IllegalArgumentException(
+                    "Invalid delimiter: " + delimiter);
+
+        // fail early on malformed patterns
+        if (!EPOCH.equalsIgnoreCase(timestampFormat))
+            new SimpleDateFormat(timestampFormat);
+
+        this.header = header;
+        this.timestampFormat = timestampFormat;
+        this.executor = executor;
+    }
+
+    /**
+     * Parses the given CSV data, adding the data points of the accepted rows
+     * to the given stream, in row order
+     *
+     * @param csvData
+     *            the CSV data
+     * @param stream
+     *            the stream receiving the data points
+     * @return the parsing report
+     * @throws IllegalArgumentException
+     *             if the header does not name the required columns
+     * @throws IOException
+     *             if parsing is interrupted
+     */
+    public CsvIngestReport parse(String csvData, EventDataStream stream)
+            throws IOException
+    {
+        CsvIngestReport report = new CsvIngestReport();
+        if (csvData == null)
+            return report;
+
+        // the columns of timestamps, values and units
+        int[] columns = { 0, 1, 2 };
+        int position = 0;
+        long line = 1;
+        if (this.header)
+        {
+            int end = this.recordEnd(csvData, 0);
+            List<String> names = new ArrayList<>();
+            if (this.split(csvData, 0, end, names))
+                columns = CsvStreamParser.columns(names);
+            line += CsvStreamParser.countLines(csvData, 0, end);
+            position = end;
+        }
+
+        List<Chunk> chunks = this.chunks(csvData, position, line);
+        List<List<EventDataPoint>> points = new ArrayList<>();
+        if ((this.executor == null) || (chunks.size() < 2))
+        {
+            for (Chunk chunk : chunks)
+                points.add(this.parse(csvData, chunk, columns, report));
+        }
+        else
+        {
+            // each chunk gets its own report, merged in order
+            final String data = csvData;
+            final int[] selected = columns;
+            List<Future<CsvIngestReport>> reports = new ArrayList<>();
+            for (final Chunk chunk : chunks)
+            {
+                final List<EventDataPoint> chunkPoints = new ArrayList<>();
+                points.add(chunkPoints);
+                reports.add(
+                        this.executor.submit(new Callable<CsvIngestReport>() {
+
+                            @Override
+                            public CsvIngestReport call() throws Exception
+                            {
+                                CsvIngestReport partial = new CsvIngestReport();
+                                chunkPoints.addAll(CsvStreamParser.this.parse(
+                                        data, chunk, selected, partial));
+                                return partial;
+                            }
+                        }));
+            }
+
+            try
+            {
+                for (Future<CsvIngestReport> partial : reports)
+                    report.add(partial.get());
+            }
+            catch (InterruptedException e)
+            {
+                for (Future<CsvIngestReport> partial : reports)
+                    partial.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while parsing the CSV data");
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IOException("Unable to parse the CSV data",
+                        e.getCause());
+            }
+        }
+
+        for (List<EventDataPoint> chunkPoints : points)
+        {
+            for (EventDataPoint point : chunkPoints)
+                stream.addDatapoint(point);
+        }
+        return report;
+    }
+
+    /**
+     * Parses the rows of a chunk
+     */
+    private List<EventDataPoint> parse(String data, Chunk chunk,
+            int[] columns, CsvIngestReport report)
+    {
+        List<EventDataPoint> points = new ArrayList<>();
+        SimpleDateFormat format = EPOCH.equalsIgnoreCase(this.timestampFormat)
+                ? null : new SimpleDateFormat(this.timestampFormat);
+        List<String> fields = new ArrayList<>();
+
+        int position = chunk.start;
+        long line = chunk.line;
+        while (position < chunk.end)
+        {
+            int end = this.recordEnd(data, position);
+            fields.clear();
+            boolean closed = this.split(data, position, end, fields);
+
+            if (!closed)
+                report.reject(line, "unterminated quoted field");
+            else if ((fields.size() > 1) || (!fields.get(0).isEmpty()))
+            {
+                String reason = this.toPoint(fields, columns, format, points);
+                if (reason == null)
+                    report.accept();
+                else
+                    report.reject(line, reason);
+            }
+
+            line += CsvStreamParser.countLines(data, position, end);
+            position = end;
+        }
+        return points;
+    }
+
+    /**
+     * Converts the fields of a row into a data point
+     *
+     * @return null if the point has been added, the rejection reason
+     *         otherwise
+     */
+    private String toPoint(List<String> fields, int[] columns,
+            SimpleDateFormat format, List<EventDataPoint> points)
+    {
+        if ((fields.size() <= columns[0]) || (fields.size() <= columns[1]))
+            return "expected at least " + (Math.max(columns[0], columns[1]) + 1)
+                    + " fields, found " + fields.size();
+
+        String text = fields.get(columns[0]);
+        Date at = null;
+        if (format == null)
+        {
+            try
+            {
+                at = new Date(Long.parseLong(text));
+            }
+            catch (NumberFormatException e)
+            {
+                // reported below
+            }
+        }
+        else
+        {
+            // the whole field shall be a timestamp
+            ParsePosition position = new ParsePosition(0);
+            at = format.parse(text, position);
+            if (position.getIndex() != text.length())
+                at = null;
+        }
+        if (at == null)
+            return "invalid timestamp: " + text;
+
+        String value = fields.get(columns[1]);
+        if (value.isEmpty())
+            return "missing value";
+
+        String unit = ((columns[2] >= 0) && (fields.size() > columns[2]))
+                ? fields.get(columns[2]) : null;
+        if ((unit != null) && (unit.isEmpty()))
+            unit = null;
+
+        points.add(new EventDataPoint(at, value, unit));
+        return null;
+    }
+
+    /**
+     * Splits the data into chunks of whole rows of about {@link #CHUNK_SIZE}
+     * characters, keeping track of the line at which each chunk starts
+     */
+    private List<Chunk> chunks(String data, int start, long line)
+    {
+        List<Chunk> chunks = new ArrayList<>();
+        int chunkStart = start;
+        long chunkLine = line;
+        boolean quoted = false;
+        for (int i = start; i < data.length(); i++)
+        {
+            char c = data.charAt(i);
+            if (c == '"')
+                quoted = !quoted;
+            else if (c == '\n')
+            {
+                line++;
+                if ((!quoted) && (i + 1 - chunkStart >= CHUNK_SIZE))
+                {
+                    chunks.add(new Chunk(chunkStart, i + 1, chunkLine));
+                    chunkStart = i + 1;
+                    chunkLine = line;
+                }
+            }
+        }
+        if (chunkStart < data.length())
+            chunks.add(new Chunk(chunkStart, data.length(), chunkLine));
+        return chunks;
+    }
+
+    /**
+     * Finds the end of the row starting at the given position, i.e., the
+     * position following its line break, or the data length
+     */
+    private int recordEnd(String data, int start)
+    {
+        boolean quoted = false;
+        for (int i = start; i < data.length(); i++)
+        {
+            char c = data.charAt(i);
+            if (c == '"')
+                quoted = !quoted;
+            else if ((c == '\n') && (!quoted))
+                return i + 1;
+        }
+        return data.length();
+    }
+
+    /**
+     * Splits the row between the given positions into fields; unquoted fields
+     * are trimmed
+     *
+     * @return false if a quoted field is not terminated
+     */
+    private boolean split(String data, int start, int end, List<String> fields)
+    {
+        // drop the line break
+        if ((end > start) && (data.charAt(end - 1) == '\n'))
+            end--;
+        if ((end > start) && (data.charAt(end - 1) == '\r'))
+            end--;
+
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        for (int i = start; i < end; i++)
+        {
+            char c = data.charAt(i);
+            if (quoted)
+            {
+                if (c != '"')
+                    field.append(c);
+                else if ((i + 1 < end) && (data.charAt(i + 1) == '"'))
+                {
+                    field.append('"');
+                    i++;
+                }
+                else
+                    quoted = false;
+            }
+            else if (c == '"')
+            {
+                // text before the opening quote is whitespace only
+                field.setLength(0);
+                quoted = true;
+                wasQuoted = true;
+            }
+            else if (c == this.delimiter)
+            {
+                fields.add(wasQuoted ? field.toString()
+                        : field.toString().trim());
+                field.setLength(0);
+                wasQuoted = false;
+            }
+            else if (!wasQuoted)
+                field.append(c);
+        }
+        fields.add(wasQuoted ? field.toString() : field.toString().trim());
+        return !quoted;
+    }
+
+    /**
+     * Maps the header names on the timestamp, value and unit columns
+     */
+    private static int[] columns(List<String> names)
+    {
+        int[] columns = { -1, -1, -1 };
+        for (int i = 0; i < names.size(); i++)
+        {
+            String name = names.get(i).toLowerCase();
+            if (name.equals("at") || name.equals("timestamp"))
+                columns[0] = i;
+            else if (name.equals("value"))
+                columns[1] = i;
+            else if (name.equals("unit"))
+                columns[2] = i;
+        }
+
+        // unnamed columns are positional
+        if ((columns[0] < 0) && (columns[1] < 0) && (columns[2] < 0))
+            return new int[] { 0, 1, 2 };
+        if ((columns[0] < 0) || (columns[1] < 0))
+            throw new IllegalArgumentException(
+                    "The CSV header shall name the at and value columns");
+        return columns;
+    }
+
+    private static long countLines(String data, int start, int end)
+    {
+        long lines = 0;
+        for (int i = start; i < end; i++)
+        {
+            if (data.charAt(i) == '\n')
+                lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * A range of whole rows
+     */
+    private static class Chunk
+    {
+        private final int start;
+        private final int end;
+        private final long line;
+
+        public Chunk(int start, int end, long line)
+        {
+            this.start = start;
+            this.end = end;
+            this.line = line;
+        }
+    }
+}
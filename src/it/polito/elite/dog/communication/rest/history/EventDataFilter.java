@@ -0,0 +1,451 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+import it.polito.elite.dog.addons.storage.EventDataStream;
+import it.polito.elite.dog.addons.storage.EventStoreInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A filter on the data points of event streams, as requested through the
+ * filter query parameter. A filter is a list of clauses separated by
+ * semicolons, all of which shall hold for a point to be returned:
+ * <ul>
+ * <li>value comparisons: value&gt;30, value&gt;=30, value&lt;30, value&lt;=30,
+ * value=on, value!=on (numeric if both sides are numbers)</li>
+ * <li>value in set: value in (on,off)</li>
+ * <li>time of day windows: time 08:00-18:30 (windows may cross midnight)</li>
+ * <li>day of week windows: day mon-fri, day sat,sun</li>
+ * <li>change-only: changes, i.e., points equal to the previous returned one
+ * are dropped</li>
+ * </ul>
+ * Times and days refer to the gateway time zone. Instances are immutable,
+ * the evaluation state lives in the {@link Pass} created for each query.
+ *
+ * @author bonino
+ *
+ */
+public class EventDataFilter
+{
+    private static final Pattern COMPARISON = Pattern
+            .compile("value\\s*(>=|<=|!=|>|<|=)\\s*(.+)");
+    private static final Pattern IN = Pattern
+            .compile("value\\s+in\\s*\\((.*)\\)");
+    private static final Pattern TIME = Pattern.compile(
+            "time\\s+(\\d{1,2}):(\\d{2})\\s*-\\s*(\\d{1,2}):(\\d{2})");
+    private static final Pattern DAY = Pattern.compile("day\\s+(.+)");
+    private static final List<String> DAYS = Arrays.asList("sun", "mon",
+            "tue", "wed", "thu", "fri", "sat");
+
+    // the clauses, in their normalized text form
+    private final List<String> clauses;
+
+    // the predicates on single points
+    private final List<Predicate> predicates;
+
+    // true to drop points equal to the previous one
+    private final boolean changesOnly;
+
+    private EventDataFilter(List<String> clauses, List<Predicate> predicates,
+            boolean changesOnly)
+    {
+        this.clauses = clauses;
+        this.predicates = predicates;
+        this.changesOnly = changesOnly;
+    }
+
+    /**
+     * Parses the given filter
+     *
+     * @param filter
+     *            the filter text, null or empty for no filter
+     * @return the filter, or null if no filter is given
+     * @throws IllegalArgumentException
+     *             if the filter is malformed
+     */
+    public static EventDataFilter parse(String filter)
+    {
+        if ((filter == null) || (filter.trim().isEmpty()))
+            return null;
+
+        List<String> clauses = new ArrayList<>();
+        List<Predicate> predicates = new ArrayList<>();
+        boolean changesOnly = false;
+
+        for (String part : filter.split(";"))
+        {
+            String clause = part.trim().replaceAll("\\s+", " ");
+            if (clause.isEmpty())
+                continue;
+            clauses.add(clause);
+
+            Matcher matcher;
+            if (clause.equalsIgnoreCase("changes"))
+                changesOnly = true;
+            else if ((matcher = IN.matcher(clause)).matches())
+            {
+                Set<String> values = new HashSet<>();
+                for (String value : matcher.group(1).split(","))
+                    values.add(value.trim());
+                predicates.add(new ValueIn(values));
+            }
+            else if ((matcher = COMPARISON.matcher(clause)).matches())
+                predicates.add(new ValueComparison(matcher.group(1),
+                        matcher.group(2).trim()));
+            else if ((matcher = TIME.matcher(clause)).matches())
+                predicates.add(new TimeOfDay(
+                        EventDataFilter.minuteOfDay(matcher.group(1),
+                                matcher.group(2)),
+                        EventDataFilter.minuteOfDay(matcher.group(3),
+                                matcher.group(4))));
+            else if ((matcher = DAY.matcher(clause)).matches())
+                predicates.add(new DayOfWeek(
+                        EventDataFilter.parseDays(matcher.group(1))));
+            else
+                throw new IllegalArgumentException(
+                        "Unknown filter clause: " + clause);
+        }
+
+        return new EventDataFilter(clauses, predicates, changesOnly);
+    }
+
+    /**
+     * Applies the filter to a whole stream
+     *
+     * @param stream
+     *            the stream to filter
+     * @param offset
+     *            the number of matching points to skip
+     * @param limit
+     *            the maximum number of matching points to return
+     * @return a new stream with the matching points only
+     */
+    public EventDataStream apply(EventDataStream stream, int offset, int limit)
+    {
+        EventDataStream filtered = new EventDataStream(stream.getName(),
+                stream.getParams(), stream.getDeviceUri());
+        Pass pass = this.newPass(offset, limit);
+        if (stream.getDatapoints() != null)
+        {
+            for (EventDataPoint point : stream.getDatapoints())
+            {
+                if (pass.isComplete())
+                    break;
+                pass.offer(point, filtered);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * Starts a streaming evaluation of the filter, points shall be offered in
+     * time order
+     *
+     * @param offset
+     *            the number of matching points to skip
+     * @param limit
+     *            the maximum number of matching points to return
+     * @return the evaluation state
+     */
+    public Pass newPass(int offset, int limit)
+    {
+        return new Pass(offset, limit);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.clauses.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof EventDataFilter))
+            return false;
+        return this.clauses.equals(((EventDataFilter) obj).clauses);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder();
+        for (String clause : this.clauses)
+        {
+            if (text.length() > 0)
+                text.append(';');
+            text.append(clause);
+        }
+        return text.toString();
+    }
+
+    private static int minuteOfDay(String hours, String minutes)
+    {
+        int hour = Integer.parseInt(hours);
+        int minute = Integer.parseInt(minutes);
+        if ((hour > 24) || (minute > 59) || ((hour == 24) && (minute > 0)))
+            throw new IllegalArgumentException(
+                    "Invalid time: " + hours + ":" + minutes);
+        return hour * 60 + minute;
+    }
+
+    private static boolean[] parseDays(String days)
+    {
+        boolean[] selected = new boolean[DAYS.size()];
+        for (String part : days.split(","))
+        {
+            String[] range = part.trim().toLowerCase().split("\\s*-\\s*");
+            int from = DAYS.indexOf(range[0]);
+            int to = (range.length > 1) ? DAYS.indexOf(range[1]) : from;
+            if ((from < 0) || (to < 0) || (range.length > 2))
+                throw new IllegalArgumentException("Invalid days: " + days);
+
+            // ranges may wrap around the week end, e.g., fri-mon
+            int day = from;
+            selected[day] = true;
+            while (day != to)
+            {
+                day = (day + 1) % DAYS.size();
+                selected[day] = true;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * The evaluation state of a filter over a sequence of points, including
+     * the offset and limit to apply on matching points. Not thread safe.
+     */
+    public class Pass
+    {
+        private final Calendar calendar;
+        private int skip;
+        private int remaining;
+
+        // the value of the last matching point, for change-only filters
+        private String previous;
+        private boolean hasPrevious;
+
+        private Pass(int offset, int limit)
+        {
+            this.calendar = Calendar.getInstance();
+            this.skip = Math.max(offset, 0);
+            this.remaining = (limit == EventStoreInfo.UNLIMITED_SIZE) ? -1
+                    : limit;
+        }
+
+        /**
+         * Checks whether the limit has been reached
+         *
+         * @return true if no more points can be accepted
+         */
+        public boolean isComplete()
+        {
+            return this.remaining == 0;
+        }
+
+        /**
+         * Evaluates the filter on the given point and adds it to the target
+         * stream if it matches and falls within the requested offset and
+         * limit
+         *
+         * @param point
+         *            the point to evaluate
+         * @param target
+         *            the stream collecting the result
+         * @return true if the point has been added
+         */
+        public boolean offer(EventDataPoint point, EventDataStream target)
+        {
+            if ((this.remaining == 0) || (!this.matches(point)))
+                return false;
+
+            if (this.skip > 0)
+            {
+                this.skip--;
+                return false;
+            }
+
+            target.addDatapoint(point);
+            if (this.remaining > 0)
+                this.remaining--;
+            return true;
+        }
+
+        private boolean matches(EventDataPoint point)
+        {
+            if (point.getAt() != null)
+                this.calendar.setTime(point.getAt());
+
+            for (Predicate predicate : EventDataFilter.this.predicates)
+            {
+                if (!predicate.test(point, this.calendar))
+                    return false;
+            }
+
+            if (EventDataFilter.this.changesOnly)
+            {
+                String value = point.getValue();
+                if (this.hasPrevious && ((value == null)
+                        ? (this.previous == null) : value.equals(this.previous)))
+                    return false;
+                this.previous = value;
+                this.hasPrevious = true;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A condition on a single data point
+     */
+    private static interface Predicate
+    {
+        /**
+         * @param point
+         *            the point to test
+         * @param calendar
+         *            a calendar set at the point timestamp
+         * @return true if the point satisfies the condition
+         */
+        boolean test(EventDataPoint point, Calendar calendar);
+    }
+
+    private static class ValueComparison implements Predicate
+    {
+        private final String operator;
+        private final String operand;
+        private final Double number;
+
+        public ValueComparison(String operator, String operand)
+        {
+            this.operator = operator;
+            this.operand = operand;
+            this.number = EventDataFilter.toNumber(operand);
+
+            if ((this.number == null) && (!operator.equals("="))
+                    && (!operator.equals("!=")))
+                throw new IllegalArgumentException(
+                        "Not a number: " + operand);
+        }
+
+        @Override
+        public boolean test(EventDataPoint point, Calendar calendar)
+        {
+            Double value = EventDataFilter.toNumber(point.getValue());
+
+            // textual equality if either side is not a number
+            if ((value == null) || (this.number == null))
+            {
+                if (this.operator.equals("="))
+                    return this.operand.equals(point.getValue());
+                else if (this.operator.equals("!="))
+                    return !this.operand.equals(point.getValue());
+                return false;
+            }
+
+            int comparison = value.compareTo(this.number);
+            switch (this.operator)
+            {
+                case ">":
+                    return comparison > 0;
+                case ">=":
+                    return comparison >= 0;
+                case "<":
+                    return comparison < 0;
+                case "<=":
+                    return comparison <= 0;
+                case "!=":
+                    return comparison != 0;
+                default:
+                    return comparison == 0;
+            }
+        }
+    }
+
+    private static class ValueIn implements Predicate
+    {
+        private final Set<String> values;
+
+        public ValueIn(Set<String> values)
+        {
+            this.values = values;
+        }
+
+        @Override
+        public boolean test(EventDataPoint point, Calendar calendar)
+        {
+            return this.values.contains(point.getValue());
+        }
+    }
+
+    private static class TimeOfDay implements Predicate
+    {
+        private final int from;
+        private final int to;
+
+        public TimeOfDay(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean test(EventDataPoint point, Calendar calendar)
+        {
+            if (point.getAt() == null)
+                return false;
+
+            int minute = calendar.get(Calendar.HOUR_OF_DAY) * 60
+                    + calendar.get(Calendar.MINUTE);
+            if (this.from <= this.to)
+                return (minute >= this.from) && (minute < this.to);
+
+            // the window crosses midnight
+            return (minute >= this.from) || (minute < this.to);
+        }
+    }
+
+    private static class DayOfWeek implements Predicate
+    {
+        private final boolean[] days;
+
+        public DayOfWeek(boolean[] days)
+        {
+            this.days = days;
+        }
+
+        @Override
+        public boolean test(EventDataPoint point, Calendar calendar)
+        {
+            return (point.getAt() != null)
+                    && this.days[calendar.get(Calendar.DAY_OF_WEEK) - 1];
+        }
+    }
+
+    private static Double toNumber(String value)
+    {
+        if (value == null)
+            return null;
+        try
+        {
+            return Double.valueOf(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+import it.polito.elite.dog.addons.storage.EventDataStream;
+import it.polito.elite.dog.addons.storage.EventDataStreamSet;
+import it.polito.elite.dog.addons.storage.EventStoreInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the partial results extracted from several EventStores into a
+ * single result, sorting data points by timestamp and applying offset and
+ * limit on the merged data. Stores may hold the same data, e.g., replicas or
+ * the old and the new store during a swap: points read from several stores
+ * with the same timestamp and value are merged once.
+ * 
+ * @author bonino
+ *
+ */
+public class EventDataMerger
+{
+    /**
+     * Provides the limit to use when querying each store, so that the merged
+     * result can still honour the given offset and limit
+     * 
+     * @param offset
+     *            the global offset
+     * @param limit
+     *            the global limit
+     * @return the per-store limit
+     */
+    public static int partialLimit(int offset, int limit)
+    {
+        return (limit == EventStoreInfo.UNLIMITED_SIZE)
+                ? EventStoreInfo.UNLIMITED_SIZE : offset + limit;
+    }
+
+    /**
+     * Merges partial streams of the same notification / state
+     * 
+     * @param partials
+     *            the partial streams, each sorted by timestamp
+     * @param offset
+     *            the global offset
+     * @param limit
+     *            the global limit
+     * @return the merged stream, null if no partial stream is given
+     */
+    public static EventDataStream mergeStreams(List<EventDataStream> partials,
+            int offset, int limit)
+    {
+        EventDataStream first = null;
+        List<List<EventDataPoint>> sources = new ArrayList<>();
+        for (EventDataStream partial : partials)
+        {
+            if (partial == null)
+                continue;
+            if (first == null)
+                first = partial;
+            if (partial.getDatapoints() != null)
+                sources.add(partial.getDatapoints());
+        }
+
+        if (first == null)
+            return null;
+
+        EventDataStream merged = new EventDataStream(first.getName(),
+                first.getParams(), first.getDeviceUri());
+        merged.setDatapoints(EventDataMerger.merge(sources, offset, limit));
+        return merged;
+    }
+
+    /**
+     * Merges partial sets of the same device, streams with the same name and
+     * parameters are merged together and offset and limit are applied to
+     * each stream.
+     * 
+     * @param deviceId
+     *            the device URI
+     * @param partials
+     *            the partial sets
+     * @param offset
+     *            the global offset
+     * @param limit
+     *            the global limit
+     * @return the merged set
+     */
+    public static EventDataStreamSet mergeSets(String deviceId,
+            List<EventDataStreamSet> partials, int offset, int limit)
+    {
+        // group streams by name and parameters, keeping the first seen order
+        Map<String, List<EventDataStream>> groups = new LinkedHashMap<>();
+        for (EventDataStreamSet partial : partials)
+        {
+            if ((partial == null) || (partial.getDatastreams() == null))
+                continue;
+
+            for (EventDataStream stream : partial.getDatastreams())
+            {
+                String key = stream.getName() + "\u0000" + stream.getParams();
+                List<EventDataStream> group = groups.get(key);
+                if (group == null)
+                {
+                    group = new ArrayList<>();
+                    groups.put(key, group);
+                }
+                group.add(stream);
+            }
+        }
+
+        EventDataStreamSet merged = new EventDataStreamSet(deviceId);
+        for (List<EventDataStream> group : groups.values())
+            merged.addDatastream(
+                    EventDataMerger.mergeStreams(group, offset, limit));
+        return merged;
+    }
+
+    private static List<EventDataPoint> merge(
+            List<List<EventDataPoint>> sources, int offset, int limit)
+    {
+        // k-way merge on a heap of cursors
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(
+                Math.max(1, sources.size()));
+        for (int i = 0; i < sources.size(); i++)
+        {
+            if (!sources.get(i).isEmpty())
+                heap.add(new Cursor(sources.get(i), i));
+        }
+
+        // the copies of each value read at the current instant, by source
+        boolean overlapping = heap.size() > 1;
+        long instant = Long.MIN_VALUE;
+        Map<String, int[]> copies = new HashMap<>();
+
+        List<EventDataPoint> merged = new ArrayList<>();
+        int skipped = 0;
+        while ((!heap.isEmpty()) && ((limit == EventStoreInfo.UNLIMITED_SIZE)
+                || (merged.size() < limit)))
+        {
+            Cursor cursor = heap.poll();
+            EventDataPoint point = cursor.current();
+
+            boolean duplicate = false;
+            if (overlapping)
+            {
+                if (cursor.time() != instant)
+                {
+                    instant = cursor.time();
+                    copies.clear();
+                }
+
+                int[] counts = copies.get(point.getValue());
+                if (counts == null)
+                {
+                    counts = new int[sources.size()];
+                    copies.put(point.getValue(), counts);
+                }
+                duplicate = EventDataMerger.isDuplicate(counts,
+                        cursor.source);
+            }
+
+            // points already merged from another store are dropped
+            if (!duplicate)
+            {
+                if (skipped < offset)
+                    skipped++;
+                else
+                    merged.add(point);
+            }
+
+            if (cursor.advance())
+                heap.add(cursor);
+        }
+        return merged;
+    }
+
+    /**
+     * Counts a copy of a value read from the given source, the copy is a
+     * duplicate if another source already provided as many copies, i.e.,
+     * each value is merged as many times as held by the store holding most
+     * copies of it
+     */
+    private static boolean isDuplicate(int[] counts, int source)
+    {
+        counts[source]++;
+        for (int i = 0; i < counts.length; i++)
+        {
+            if ((i != source) && (counts[i] >= counts[source]))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * A position in a sorted list of data points
+     */
+    private static class Cursor implements Comparable<Cursor>
+    {
+        private final List<EventDataPoint> points;
+        private final int source;
+        private int index;
+
+        public Cursor(List<EventDataPoint> points, int source)
+        {
+            this.points = points;
+            this.source = source;
+        }
+
+        public EventDataPoint current()
+        {
+            return this.points.get(this.index);
+        }
+
+        public boolean advance()
+        {
+            return ++this.index < this.points.size();
+        }
+
+        private long time()
+        {
+            EventDataPoint point = this.current();
+            return (point.getAt() != null) ? point.getAt().getTime() : 0;
+        }
+
+        @Override
+        public int compareTo(Cursor other)
+        {
+            return Long.compare(this.time(), other.time());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataStream;
+import it.polito.elite.dog.addons.storage.EventDataStreamSet;
+
+import java.util.Date;
+
+/**
+ * Abstracts the retrieval of historical data from the EventStore, for the
+ * components of the history endpoint that run outside of a REST request,
+ * e.g., export jobs.
+ * 
+ * @author bonino
+ *
+ */
+public interface EventDataSource
+{
+    /**
+     * Provides all the event streams of the given family associated to the
+     * given device, one stream per notification or state.
+     * 
+     * @param deviceId
+     *            The URI of the device.
+     * @param start
+     *            The range start.
+     * @param end
+     *            The range end.
+     * @param offset
+     *            The offset from which results should start.
+     * @param limit
+     *            The maximum number of results.
+     * @param dataType
+     *            The {@link EventDataType} of the streams.
+     * @param type
+     *            The {@link EventType} of the streams.
+     * @return The event streams
+     */
+    public EventDataStreamSet getDeviceEventData(String deviceId, Date start,
+            Date end, int offset, int limit, EventDataType dataType,
+            EventType type);
+
+    /**
+     * Provides the given event stream.
+     * 
+     * @param key
+     *            The stream to extract.
+     * @param start
+     *            The range start.
+     * @param end
+     *            The range end.
+     * @param offset
+     *            The offset from which results should start.
+     * @param limit
+     *            The maximum number of results.
+     * @return The event stream
+     */
+    public EventDataStream getDeviceSpecificEventData(EventStreamKey key,
+            Date start, Date end, int offset, int limit);
+}
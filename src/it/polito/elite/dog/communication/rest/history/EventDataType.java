@@ -10,5 +10,51 @@ package it.polito.elite.dog.communication.rest.history;
 public enum EventDataType
 {
 	MEASURE,
-	NOTMEASURE
+	NOTMEASURE;
+
+	/**
+	 * Maps the REST path segment identifying the kind of events on the
+	 * corresponding data type, given the event type.
+	 * 
+	 * @param type
+	 *            the event type
+	 * @param segment
+	 *            the path segment, i.e., parametric or nonparametric for
+	 *            notifications and continuous or discrete for states
+	 * @return the data type or null if the segment is unknown
+	 */
+	public static EventDataType fromPathSegment(EventType type, String segment)
+	{
+		if (type == EventType.NOTIFICATION)
+		{
+			if ("parametric".equals(segment))
+				return MEASURE;
+			else if ("nonparametric".equals(segment))
+				return NOTMEASURE;
+		}
+		else if (type == EventType.STATE)
+		{
+			if ("continuous".equals(segment))
+				return MEASURE;
+			else if ("discrete".equals(segment))
+				return NOTMEASURE;
+		}
+		return null;
+	}
+
+	/**
+	 * Provides the REST path segment identifying this data type for the given
+	 * event type, the inverse of {@link #fromPathSegment(EventType, String)}.
+	 * 
+	 * @param type
+	 *            the event type
+	 * @return the path segment
+	 */
+	public String toPathSegment(EventType type)
+	{
+		if (type == EventType.NOTIFICATION)
+			return (this == MEASURE) ? "parametric" : "nonparametric";
+		else
+			return (this == MEASURE) ? "continuous" : "discrete";
+	}
 }
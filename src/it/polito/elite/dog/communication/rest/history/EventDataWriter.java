@@ -0,0 +1,800 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+import it.polito.elite.dog.addons.storage.EventDataStream;
+import it.polito.elite.dog.addons.storage.EventDataStreamSet;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+
+/**
+ * Writes event data streams directly on a {@link JsonGenerator}, producing
+ * the same document as the instance-wide object mapper (pretty printed, null
+ * values and empty arrays omitted, ISO 8601 dates in UTC) without any
+ * reflective bean introspection. Timestamps are formatted from a cache of
+ * the last formatted second or, if required, written as epoch milliseconds.
+ * Only the attributes in the given {@link FieldSelection} are written.
+ *
+ * Instances are thread safe.
+ *
+ * @author bonino
+ *
+ */
+public class EventDataWriter
+{
+    // the largest buffer kept for re-use by each thread, in characters
+    private static final int MAX_POOLED_BUFFER = 1024 * 1024;
+
+    // the factory creating the generators
+    private final JsonFactory factory;
+
+    // true to indent the output
+    private final boolean prettyPrint;
+
+    // true to write timestamps as epoch milliseconds
+    private final boolean epochMillis;
+
+    // the per-thread output buffers, re-used across responses
+    private final ThreadLocal<CharArrayWriter> buffers;
+
+    // the per-thread timestamp formatters
+    private final ThreadLocal<TimestampFormatter> formatters;
+
+    // the pool serializing the streams of large sets in parallel, null to
+    // always serialize on the calling thread
+    private final ForkJoinPool pool;
+
+    // the number of data points from which sets are serialized in parallel
+    private final long parallelThreshold;
+
+    /**
+     * Creates a writer using the given factory
+     *
+     * @param factory
+     *            the factory creating the JSON generators
+     * @param prettyPrint
+     *            true to indent the output
+     * @param epochMillis
+     *            true to write timestamps as epoch milliseconds rather than
+     *            ISO 8601 strings
+     * @param pool
+     *            the pool serializing the streams of large sets in parallel,
+     *            null to serialize on the calling thread only
+     * @param parallelThreshold
+     *            the number of data points from which the streams of a set
+     *            are serialized in parallel, 0 to disable
+     */
+    public EventDataWriter(JsonFactory factory, boolean prettyPrint,
+            boolean epochMillis, ForkJoinPool pool, long parallelThreshold)
+    {
+        this.factory = factory;
+        this.prettyPrint = prettyPrint;
+        this.epochMillis = epochMillis;
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+        this.buffers = new ThreadLocal<CharArrayWriter>() {
+
+            @Override
+            protected CharArrayWriter initialValue()
+            {
+                return new CharArrayWriter(4096);
+            }
+        };
+        this.formatters = new ThreadLocal<TimestampFormatter>() {
+
+            @Override
+            protected TimestampFormatter initialValue()
+            {
+                return new TimestampFormatter();
+            }
+        };
+    }
+
+    /**
+     * Serializes the given set of streams
+     *
+     * @param streamSet
+     *            the set to serialize
+     * @param fields
+     *            the attributes to include
+     * @return the JSON document
+     * @throws IOException
+     */
+    public String writeValueAsString(EventDataStreamSet streamSet,
+            FieldSelection fields) throws IOException
+    {
+        return this.writeValueAsString((Object) streamSet, fields);
+    }
+
+    /**
+     * Serializes the given stream
+     *
+     * @param stream
+     *            the stream to serialize
+     * @param fields
+     *            the attributes to include
+     * @return the JSON document
+     * @throws IOException
+     */
+    public String writeValueAsString(EventDataStream stream,
+            FieldSelection fields) throws IOException
+    {
+        return this.writeValueAsString((Object) stream, fields);
+    }
+
+    /**
+     * Serializes the given rollup buckets
+     *
+     * @param rollup
+     *            the rollup buckets to serialize
+     * @param fields
+     *            the attributes to include
+     * @return the JSON document
+     * @throws IOException
+     */
+    public String writeValueAsString(RollupStream rollup,
+            FieldSelection fields) throws IOException
+    {
+        return this.writeValueAsString((Object) rollup, fields);
+    }
+
+    /**
+     * Serializes the given stream statistics
+     *
+     * @param key
+     *            the stream key
+     * @param statistics
+     *            the statistics to serialize
+     * @param percentiles
+     *            the percentiles to include, between 0 and 100
+     * @return the JSON document
+     * @throws IOException
+     */
+    public String writeValueAsString(EventStreamKey key,
+            StreamStatistics statistics, double[] percentiles)
+            throws IOException
+    {
+        CharArrayWriter buffer = this.buffers.get();
+        try
+        {
+            JsonGenerator generator = this.createGenerator(buffer, 0);
+            this.write(generator, key, statistics, percentiles);
+            generator.close();
+            return buffer.toString();
+        }
+        finally
+        {
+            this.release(buffer);
+        }
+    }
+
+    /**
+     * Serializes the statistics of several streams of a device
+     *
+     * @param deviceUri
+     *            the device URI
+     * @param statistics
+     *            the statistics to serialize, by stream
+     * @param percentiles
+     *            the percentiles to include, between 0 and 100
+     * @return the JSON document
+     * @throws IOException
+     */
+    public String writeValueAsString(String deviceUri,
+            Map<EventStreamKey, StreamStatistics> statistics,
+            double[] percentiles) throws IOException
+    {
+        CharArrayWriter buffer = this.buffers.get();
+        try
+        {
+            JsonGenerator generator = this.createGenerator(buffer, 0);
+            generator.writeStartObject();
+            generator.writeStringField("deviceUri", deviceUri);
+            if (!statistics.isEmpty())
+            {
+                generator.writeArrayFieldStart("datastreams");
+                for (EventStreamKey key : statistics.keySet())
+                    this.write(generator, key, statistics.get(key),
+                            percentiles);
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+            generator.close();
+            return buffer.toString();
+        }
+        finally
+        {
+            this.release(buffer);
+        }
+    }
+
+    /**
+     * Writes the given set of streams on the given generator
+     *
+     * @param generator
+     * @param streamSet
+     * @param fields
+     * @throws IOException
+     */
+    public void write(JsonGenerator generator, EventDataStreamSet streamSet,
+            FieldSelection fields) throws IOException
+    {
+        generator.writeStartObject();
+        if ((streamSet.getDeviceUri() != null) && fields.includes("deviceUri"))
+            generator.writeStringField("deviceUri", streamSet.getDeviceUri());
+
+        List<EventDataStream> streams = streamSet.getDatastreams();
+        if ((streams != null) && (!streams.isEmpty()))
+        {
+            generator.writeArrayFieldStart("datastreams");
+            for (EventDataStream stream : streams)
+                this.write(generator, stream, fields);
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the given stream on the given generator
+     *
+     * @param generator
+     * @param stream
+     * @param fields
+     * @throws IOException
+     */
+    public void write(JsonGenerator generator, EventDataStream stream,
+            FieldSelection fields) throws IOException
+    {
+        this.writeStart(generator, stream, fields);
+
+        List<EventDataPoint> points = stream.getDatapoints();
+        if ((points != null) && (!points.isEmpty()))
+        {
+            generator.writeArrayFieldStart("datapoints");
+            if (fields.isDurations())
+            {
+                // each point lasts until the next one, the duration of the
+                // last point is unknown
+                Iterator<EventDataPoint> iterator = points.iterator();
+                EventDataPoint point = iterator.next();
+                while (point != null)
+                {
+                    EventDataPoint next = iterator.hasNext() ? iterator.next()
+                            : null;
+                    Long duration = null;
+                    if ((next != null) && (point.getAt() != null)
+                            && (next.getAt() != null))
+                        duration = next.getAt().getTime()
+                                - point.getAt().getTime();
+                    this.write(generator, point, fields, duration);
+                    point = next;
+                }
+            }
+            else
+            {
+                for (EventDataPoint point : points)
+                    this.write(generator, point, fields, null);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Starts writing the given stream on the given generator, i.e., opens the
+     * stream object and writes the stream attributes; data points, if any,
+     * shall follow in a datapoints array
+     *
+     * @param generator
+     * @param stream
+     * @param fields
+     * @throws IOException
+     */
+    public void writeStart(JsonGenerator generator, EventDataStream stream,
+            FieldSelection fields) throws IOException
+    {
+        generator.writeStartObject();
+        if ((stream.getName() != null) && fields.includes("name"))
+            generator.writeStringField("name", stream.getName());
+        if ((stream.getParams() != null) && fields.includes("params"))
+            generator.writeStringField("params", stream.getParams());
+        if ((stream.getDeviceUri() != null) && fields.includes("deviceUri"))
+            generator.writeStringField("deviceUri", stream.getDeviceUri());
+    }
+
+    /**
+     * Creates a generator writing on the given output stream, in UTF-8, with
+     * the same formatting used for complete documents
+     *
+     * @param out
+     * @return the generator
+     * @throws IOException
+     */
+    public JsonGenerator createGenerator(OutputStream out) throws IOException
+    {
+        JsonGenerator generator = this.factory.createGenerator(out,
+                JsonEncoding.UTF8);
+        if (this.prettyPrint)
+            generator.setPrettyPrinter(new NestedPrettyPrinter(0));
+        return generator;
+    }
+
+    /**
+     * Writes the given data point on the given generator
+     *
+     * @param generator
+     * @param point
+     * @param fields
+     * @throws IOException
+     */
+    public void write(JsonGenerator generator, EventDataPoint point,
+            FieldSelection fields) throws IOException
+    {
+        this.write(generator, point, fields, null);
+    }
+
+    /**
+     * Writes the given data point on the given generator, followed by its
+     * duration in milliseconds, if known
+     *
+     * @param generator
+     * @param point
+     * @param fields
+     * @param duration
+     * @throws IOException
+     */
+    public void write(JsonGenerator generator, EventDataPoint point,
+            FieldSelection fields, Long duration) throws IOException
+    {
+        generator.writeStartObject();
+        if ((point.getAt() != null) && fields.includes("at"))
+        {
+            generator.writeFieldName("at");
+            this.writeTimestamp(generator, point.getAt().getTime());
+        }
+        if ((point.getValue() != null) && fields.includes("value"))
+            generator.writeStringField("value", point.getValue());
+        if ((point.getUnit() != null) && fields.includes("unit"))
+            generator.writeStringField("unit", point.getUnit());
+        if ((duration != null) && fields.includes("duration"))
+            generator.writeNumberField("duration", duration);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the given rollup buckets on the given generator
+     *
+     * @param generator
+     * @param rollup
+     * @param fields
+     * @throws IOException
+     */
+    public void write(JsonGenerator generator, RollupStream rollup,
+            FieldSelection fields) throws IOException
+    {
+        generator.writeStartObject();
+        if ((rollup.getDeviceUri() != null) && fields.includes("deviceUri"))
+            generator.writeStringField("deviceUri", rollup.getDeviceUri());
+        if ((rollup.getName() != null) && fields.includes("name"))
+            generator.writeStringField("name", rollup.getName());
+        if ((rollup.getParams() != null) && fields.includes("params"))
+            generator.writeStringField("params", rollup.getParams());
+        if ((rollup.getResolution() != null) && fields.includes("resolution"))
+            generator.writeStringField("resolution", rollup.getResolution());
+        if ((rollup.getUnit() != null) && fields.includes("unit"))
+            generator.writeStringField("unit", rollup.getUnit());
+
+        List<RollupBucket> buckets = rollup.getBuckets();
+        if ((buckets != null) && (!buckets.isEmpty()))
+        {
+            generator.writeArrayFieldStart("buckets");
+            for (RollupBucket bucket : buckets)
+            {
+                generator.writeStartObject();
+                if (fields.includes("at"))
+                {
+                    generator.writeFieldName("at");
+                    this.writeTimestamp(generator, bucket.getStart());
+                }
+                if (fields.includes("count"))
+                    generator.writeNumberField("count", bucket.getCount());
+                if (fields.includes("min"))
+                    generator.writeNumberField("min", bucket.getMin());
+                if (fields.includes("max"))
+                    generator.writeNumberField("max", bucket.getMax());
+                if (fields.includes("sum"))
+                    generator.writeNumberField("sum", bucket.getSum());
+                if (fields.includes("first"))
+                    generator.writeNumberField("first", bucket.getFirst());
+                if (fields.includes("last"))
+                    generator.writeNumberField("last", bucket.getLast());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the given stream statistics on the given generator, the
+     * numeric summary being omitted if no value is numeric
+     *
+     * @param generator
+     * @param key
+     * @param statistics
+     * @param percentiles
+     * @throws IOException
+     */
+    public void write(JsonGenerator generator, EventStreamKey key,
+            StreamStatistics statistics, double[] percentiles)
+            throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeStringField("deviceUri", key.getDeviceId());
+        generator.writeStringField("name", key.getName());
+        if (!key.getParams().isEmpty())
+            generator.writeStringField("params", key.getParams());
+        if (statistics.getUnit() != null)
+            generator.writeStringField("unit", statistics.getUnit());
+
+        generator.writeNumberField("count", statistics.getCount());
+        if (statistics.getFirstAt() != null)
+        {
+            generator.writeFieldName("first");
+            this.writeTimestamp(generator, statistics.getFirstAt());
+            generator.writeFieldName("last");
+            this.writeTimestamp(generator, statistics.getLastAt());
+        }
+
+        generator.writeNumberField("numeric", statistics.getNumericCount());
+        if (statistics.getNumericCount() > 0)
+        {
+            generator.writeNumberField("min", statistics.getMin());
+            generator.writeNumberField("max", statistics.getMax());
+            generator.writeNumberField("mean", statistics.getMean());
+            generator.writeNumberField("stddev",
+                    statistics.getStandardDeviation());
+            generator.writeObjectFieldStart("percentiles");
+            for (double percentile : percentiles)
+            {
+                // whole percentiles are named without decimals, e.g., 99
+                generator.writeNumberField(
+                        (percentile == Math.rint(percentile))
+                                ? String.valueOf((long) percentile)
+                                : String.valueOf(percentile),
+                        statistics.getPercentile(percentile));
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the given join table on the given generator, column by column
+     *
+     * @param generator
+     * @param table
+     * @throws IOException
+     */
+    public void write(JsonGenerator generator, JoinTable table)
+            throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeFieldName("start");
+        this.writeTimestamp(generator, table.getStart());
+        generator.writeNumberField("step", table.getStep());
+
+        generator.writeArrayFieldStart("columns");
+        for (EventStreamKey column : table.getColumns())
+        {
+            generator.writeStartObject();
+            generator.writeStringField("deviceUri", column.getDeviceId());
+            generator.writeStringField("name", column.getName());
+            if ((column.getParams() != null) && (!column.getParams().isEmpty()))
+                generator.writeStringField("params", column.getParams());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("at");
+        for (int row = 0; row < table.getRows(); row++)
+            this.writeTimestamp(generator, table.getAt(row));
+        generator.writeEndArray();
+
+        // numeric values are written as numbers, empty cells as nulls
+        generator.writeArrayFieldStart("values");
+        for (int column = 0; column < table.getColumns().size(); column++)
+        {
+            generator.writeStartArray();
+            for (int row = 0; row < table.getRows(); row++)
+            {
+                String value = table.getValue(column, row);
+                Double number = EventDataWriter.toNumber(value);
+                if (value == null)
+                    generator.writeNull();
+                else if (number != null)
+                    generator.writeNumber(number);
+                else
+                    generator.writeString(value);
+            }
+            generator.writeEndArray();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the given join table as CSV, one row per grid instant with the
+     * instant first, after a header row naming the columns
+     *
+     * @param writer
+     * @param table
+     * @throws IOException
+     */
+    public void writeCsv(Writer writer, JoinTable table) throws IOException
+    {
+        writer.write("at");
+        for (EventStreamKey column : table.getColumns())
+        {
+            writer.write(',');
+            writer.write(EventDataWriter.toCsvField(column.getDeviceId() + "/"
+                    + column.getName()
+                    + (((column.getParams() != null)
+                            && (!column.getParams().isEmpty()))
+                                    ? "/" + column.getParams() : "")));
+        }
+        writer.write('\n');
+
+        TimestampFormatter formatter = this.formatters.get();
+        for (int row = 0; row < table.getRows(); row++)
+        {
+            long at = table.getAt(row);
+            writer.write(this.epochMillis ? String.valueOf(at)
+                    : formatter.format(at));
+            for (int column = 0; column < table.getColumns().size(); column++)
+            {
+                writer.write(',');
+                String value = table.getValue(column, row);
+                if (value != null)
+                    writer.write(EventDataWriter.toCsvField(value));
+            }
+            writer.write('\n');
+        }
+    }
+
+    private static String toCsvField(String value)
+    {
+        if ((value.indexOf(',') < 0) && (value.indexOf('"') < 0)
+                && (value.indexOf('\n') < 0) && (value.indexOf('\r') < 0))
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static Double toNumber(String value)
+    {
+        if (value == null)
+            return null;
+        try
+        {
+            double number = Double.parseDouble(value.trim());
+            return (Double.isNaN(number) || Double.isInfinite(number)) ? null
+                    : number;
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    private String writeValueAsString(Object value, FieldSelection fields)
+            throws IOException
+    {
+        CharArrayWriter buffer = this.buffers.get();
+        try
+        {
+            JsonGenerator generator = this.createGenerator(buffer, 0);
+            if ((value instanceof EventDataStreamSet)
+                    && this.isParallel((EventDataStreamSet) value))
+                this.writeParallel(generator, (EventDataStreamSet) value,
+                        fields);
+            else if (value instanceof EventDataStreamSet)
+                this.write(generator, (EventDataStreamSet) value, fields);
+            else if (value instanceof EventDataStream)
+                this.write(generator, (EventDataStream) value, fields);
+            else
+                this.write(generator, (RollupStream) value, fields);
+            generator.close();
+            return buffer.toString();
+        }
+        finally
+        {
+            this.release(buffer);
+        }
+    }
+
+    private boolean isParallel(EventDataStreamSet streamSet)
+    {
+        if ((this.pool == null) || (this.parallelThreshold <= 0)
+                || (streamSet.getDatastreams() == null)
+                || (streamSet.getDatastreams().size() < 2))
+            return false;
+
+        long points = 0;
+        for (EventDataStream stream : streamSet.getDatastreams())
+        {
+            if (stream.getDatapoints() != null)
+                points += stream.getDatapoints().size();
+        }
+        return points >= this.parallelThreshold;
+    }
+
+    /**
+     * Writes the given set as {@link #write(JsonGenerator, EventDataStreamSet,
+     * FieldSelection)} does, serializing each stream in parallel into a
+     * separate buffer and then copying the buffers in order
+     */
+    private void writeParallel(JsonGenerator generator,
+            EventDataStreamSet streamSet, final FieldSelection fields)
+            throws IOException
+    {
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (final EventDataStream stream : streamSet.getDatastreams())
+        {
+            tasks.add(new Callable<String>() {
+
+                @Override
+                public String call() throws Exception
+                {
+                    // streams are nested in the set object, indent them
+                    // accordingly
+                    CharArrayWriter buffer = new CharArrayWriter(4096);
+                    JsonGenerator nested = EventDataWriter.this
+                            .createGenerator(buffer, 1);
+                    EventDataWriter.this.write(nested, stream, fields);
+                    nested.close();
+                    return buffer.toString();
+                }
+            });
+        }
+
+        List<Future<String>> streams = this.pool.invokeAll(tasks);
+
+        generator.writeStartObject();
+        if ((streamSet.getDeviceUri() != null) && fields.includes("deviceUri"))
+            generator.writeStringField("deviceUri", streamSet.getDeviceUri());
+        generator.writeArrayFieldStart("datastreams");
+        try
+        {
+            for (Future<String> stream : streams)
+                generator.writeRawValue(stream.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while serializing streams");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Unable to serialize a stream",
+                    e.getCause());
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private void writeTimestamp(JsonGenerator generator, long time)
+            throws IOException
+    {
+        if (this.epochMillis)
+            generator.writeNumber(time);
+        else
+            generator.writeString(this.formatters.get().format(time));
+    }
+
+    private JsonGenerator createGenerator(CharArrayWriter buffer, int nesting)
+            throws IOException
+    {
+        JsonGenerator generator = this.factory.createGenerator(buffer);
+        if (this.prettyPrint)
+            generator.setPrettyPrinter(new NestedPrettyPrinter(nesting));
+        return generator;
+    }
+
+    private void release(CharArrayWriter buffer)
+    {
+        // do not keep huge buffers alive after a large response
+        if (buffer.size() > MAX_POOLED_BUFFER)
+            this.buffers.remove();
+        else
+            buffer.reset();
+    }
+
+    /**
+     * The default pretty printer, starting at the given nesting level to
+     * write values which will be embedded in an enclosing document
+     */
+    private static class NestedPrettyPrinter extends DefaultPrettyPrinter
+    {
+        private static final long serialVersionUID = 1L;
+
+        public NestedPrettyPrinter(int nesting)
+        {
+            this._nesting = nesting;
+        }
+    }
+
+    /**
+     * Formats timestamps as the object mapper does, i.e.,
+     * yyyy-MM-dd'T'HH:mm:ss.SSSZ in UTC, re-using the formatted date and time
+     * when consecutive timestamps fall in the same second. Not thread safe.
+     */
+    private static class TimestampFormatter
+    {
+        private final SimpleDateFormat sdf;
+        private final StringBuilder text;
+
+        // the second currently formatted in the text prefix
+        private long second = Long.MIN_VALUE;
+        private int prefixLength;
+
+        public TimestampFormatter()
+        {
+            this.sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.");
+            this.sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+            this.text = new StringBuilder(32);
+        }
+
+        public String format(long time)
+        {
+            // floor division, timestamps may precede the epoch
+            long second = time / 1000;
+            int millis = (int) (time % 1000);
+            if (millis < 0)
+            {
+                second--;
+                millis += 1000;
+            }
+
+            if (second != this.second)
+            {
+                this.text.setLength(0);
+                this.text.append(this.sdf.format(new Date(second * 1000)));
+                this.prefixLength = this.text.length();
+                this.second = second;
+            }
+
+            this.text.setLength(this.prefixLength);
+            if (millis < 100)
+                this.text.append('0');
+            if (millis < 10)
+                this.text.append('0');
+            this.text.append(millis).append("+0000");
+            return this.text.toString();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventStore;
+
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * An EventStore bound to the endpoint, together with the service properties
+ * describing the portion of the history it holds: devices whose URI starts
+ * with a given prefix and/or a time range. Stores without such properties
+ * hold everything.
+ * 
+ * @author bonino
+ *
+ */
+public class EventStoreBinding
+{
+    // the service property holding the prefix of the stored device URIs
+    public static final String DEVICE_PREFIX = "history.device.prefix";
+
+    // the service property holding the first stored instant, in milliseconds
+    // since the epoch
+    public static final String RANGE_START = "history.range.start";
+
+    // the service property holding the last stored instant, in milliseconds
+    // since the epoch
+    public static final String RANGE_END = "history.range.end";
+
+    // orders bindings by decreasing service ranking, then by increasing
+    // service id, as the OSGi framework does
+    public static final Comparator<EventStoreBinding> PRIORITY = new Comparator<EventStoreBinding>() {
+
+        @Override
+        public int compare(EventStoreBinding a, EventStoreBinding b)
+        {
+            if (a.ranking != b.ranking)
+                return (a.ranking > b.ranking) ? -1 : 1;
+            return Long.compare(a.serviceId, b.serviceId);
+        }
+    };
+
+    // the bound store
+    private final EventStore store;
+
+    // the prefix of the stored device URIs, empty for all devices
+    private final String devicePrefix;
+
+    // the stored range, in milliseconds since the epoch
+    private final long start;
+    private final long end;
+
+    // the service ranking and id
+    private final int ranking;
+    private final long serviceId;
+
+    /**
+     * Creates a binding from the service properties of the given store
+     * 
+     * @param store
+     *            the store
+     * @param properties
+     *            the store service properties, may be null
+     */
+    public EventStoreBinding(EventStore store, Map<String, ?> properties)
+    {
+        this.store = store;
+
+        Object prefix = (properties != null) ? properties.get(DEVICE_PREFIX)
+                : null;
+        this.devicePrefix = (prefix != null) ? prefix.toString() : "";
+        this.start = EventStoreBinding.getLong(properties, RANGE_START,
+                Long.MIN_VALUE);
+        this.end = EventStoreBinding.getLong(properties, RANGE_END,
+                Long.MAX_VALUE);
+        this.ranking = (int) EventStoreBinding.getLong(properties,
+                "service.ranking", 0);
+        this.serviceId = EventStoreBinding.getLong(properties, "service.id",
+                0);
+    }
+
+    public EventStore getStore()
+    {
+        return store;
+    }
+
+    public long getStart()
+    {
+        return start;
+    }
+
+    public long getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * Checks whether the store may hold data of the given device in the
+     * given range
+     * 
+     * @param deviceId
+     *            the device URI
+     * @param start
+     *            the range start, in milliseconds
+     * @param end
+     *            the range end, in milliseconds
+     * @return true if the store shall be queried
+     */
+    public boolean holds(String deviceId, long start, long end)
+    {
+        return ((deviceId == null) || deviceId.startsWith(this.devicePrefix))
+                && (start <= this.end) && (end >= this.start);
+    }
+
+    private static long getLong(Map<String, ?> properties, String key,
+            long defaultValue)
+    {
+        Object value = (properties != null) ? properties.get(key) : null;
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+        if (value != null)
+        {
+            try
+            {
+                return Long.parseLong(value.toString().trim());
+            }
+            catch (NumberFormatException e)
+            {
+                // malformed properties are ignored
+            }
+        }
+        return defaultValue;
+    }
+}
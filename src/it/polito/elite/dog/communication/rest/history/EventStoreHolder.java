@@ -0,0 +1,342 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the EventStores currently bound to the endpoint. Stores can be bound
+ * and unbound at any time: callers take the stores they need for the
+ * duration of a single request, so that requests in flight complete against
+ * the stores they started with, while new requests wait a bounded time when
+ * no store at all is bound.
+ * 
+ * @author bonino
+ *
+ */
+public class EventStoreHolder
+{
+    // the guard of the current stores
+    private final ReentrantLock lock;
+
+    // signalled when a store is bound
+    private final Condition bound;
+
+    // the current stores, by decreasing priority
+    private volatile List<EventStoreBinding> stores;
+
+    // the time at which the last store was unbound
+    private long unboundSince;
+
+    // the number of store bindings
+    private long bindings;
+
+    // the duration of the last gap without stores, in milliseconds
+    private long lastSwapLatency;
+
+    // the overall time spent without stores, in milliseconds
+    private long unavailableTime;
+
+    // the number of callers which gave up waiting for a store
+    private long timeouts;
+
+    public EventStoreHolder()
+    {
+        this.lock = new ReentrantLock();
+        this.bound = this.lock.newCondition();
+        this.stores = Collections.emptyList();
+        this.unboundSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Binds the given store
+     * 
+     * @param store
+     *            the store to bind
+     * @param properties
+     *            the store service properties
+     */
+    public void add(EventStore store, Map<String, ?> properties)
+    {
+        this.lock.lock();
+        try
+        {
+            if (this.stores.isEmpty() && (this.bindings > 0))
+            {
+                // a gap without stores ends, the initial binding is not a
+                // swap
+                this.lastSwapLatency = System.currentTimeMillis()
+                        - this.unboundSince;
+                this.unavailableTime += this.lastSwapLatency;
+            }
+            else if (!this.stores.isEmpty())
+            {
+                // greedy replacement or additional store, no gap at all
+                this.lastSwapLatency = 0;
+            }
+
+            // copy on write, callers iterate without locking
+            List<EventStoreBinding> stores = new ArrayList<>(this.stores);
+            stores.add(new EventStoreBinding(store, properties));
+            Collections.sort(stores, EventStoreBinding.PRIORITY);
+            this.stores = stores;
+
+            this.bindings++;
+            this.bound.signalAll();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Unbinds the given store
+     * 
+     * @param store
+     *            the store to unbind
+     * @return true if the store was bound
+     */
+    public boolean remove(EventStore store)
+    {
+        this.lock.lock();
+        try
+        {
+            List<EventStoreBinding> stores = new ArrayList<>(this.stores);
+            boolean removed = false;
+            Iterator<EventStoreBinding> iterator = stores.iterator();
+            while (iterator.hasNext())
+            {
+                if (iterator.next().getStore() == store)
+                {
+                    iterator.remove();
+                    removed = true;
+                }
+            }
+            this.stores = stores;
+
+            if (removed && stores.isEmpty())
+                this.unboundSince = System.currentTimeMillis();
+            return removed;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Provides the stores possibly holding data of the given device in the
+     * given range, waiting at most the given time if no store is bound.
+     * 
+     * @param deviceId
+     *            the device URI
+     * @param start
+     *            the range start, in milliseconds
+     * @param end
+     *            the range end, in milliseconds
+     * @param timeout
+     *            the maximum wait, in milliseconds
+     * @return the matching stores, by decreasing priority, empty if none
+     *         matches, or null if no store has been bound in time
+     */
+    public List<EventStoreBinding> acquire(String deviceId, long start,
+            long end, long timeout)
+    {
+        List<EventStoreBinding> stores = this.await(timeout);
+        if (stores == null)
+            return null;
+
+        List<EventStoreBinding> matching = new ArrayList<>();
+        for (EventStoreBinding binding : stores)
+        {
+            if (binding.holds(deviceId, start, end))
+                matching.add(binding);
+        }
+        return matching;
+    }
+
+    /**
+     * Provides the store owning data of the given device at the given
+     * instant, i.e., the store with the highest priority among the given ones
+     * which holds the instant
+     * 
+     * @param stores
+     *            the candidate stores, by decreasing priority
+     * @param deviceId
+     *            the device URI
+     * @param at
+     *            the data instant, in milliseconds
+     * @return the owning store or null if no store holds the instant
+     */
+    public static EventStoreBinding owner(List<EventStoreBinding> stores,
+            String deviceId, long at)
+    {
+        for (EventStoreBinding binding : stores)
+        {
+            if (binding.holds(deviceId, at, at))
+                return binding;
+        }
+        return null;
+    }
+
+    /**
+     * Provides the range around the given instant in which the given store
+     * keeps owning data of the given device, i.e., its own range without the
+     * ranges of the stores with higher priority, so that the owner of
+     * subsequent data in the range needs no lookup
+     * 
+     * @param stores
+     *            the candidate stores, by decreasing priority
+     * @param owner
+     *            the store owning the given instant
+     * @param deviceId
+     *            the device URI
+     * @param at
+     *            the data instant, in milliseconds
+     * @return the owned range, as {start, end} in milliseconds
+     */
+    public static long[] ownedRange(List<EventStoreBinding> stores,
+            EventStoreBinding owner, String deviceId, long at)
+    {
+        long start = owner.getStart();
+        long end = owner.getEnd();
+        for (EventStoreBinding binding : stores)
+        {
+            if (binding == owner)
+                break;
+            if (!binding.holds(deviceId, Long.MIN_VALUE, Long.MAX_VALUE))
+                continue;
+
+            // higher priority stores do not hold the instant itself
+            if (binding.getEnd() < at)
+                start = Math.max(start, binding.getEnd() + 1);
+            else if (binding.getStart() > at)
+                end = Math.min(end, binding.getStart() - 1);
+        }
+        return new long[] { start, end };
+    }
+
+    /**
+     * Checks whether at least one store is currently bound
+     * 
+     * @return true if available
+     */
+    public boolean isAvailable()
+    {
+        return !this.stores.isEmpty();
+    }
+
+    /**
+     * Provides the number of bound stores
+     * 
+     * @return the number of stores
+     */
+    public int size()
+    {
+        return this.stores.size();
+    }
+
+    public long getSwaps()
+    {
+        this.lock.lock();
+        try
+        {
+            // the first binding is not a swap
+            return Math.max(0, this.bindings - 1);
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    public long getLastSwapLatency()
+    {
+        this.lock.lock();
+        try
+        {
+            return this.lastSwapLatency;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Provides the overall time spent without stores since the first
+     * binding, including the current gap if any
+     * 
+     * @return the unavailable time, in milliseconds
+     */
+    public long getUnavailableTime()
+    {
+        this.lock.lock();
+        try
+        {
+            long current = (this.stores.isEmpty() && (this.bindings > 0))
+                    ? System.currentTimeMillis() - this.unboundSince : 0;
+            return this.unavailableTime + current;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    public long getTimeouts()
+    {
+        this.lock.lock();
+        try
+        {
+            return this.timeouts;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    private List<EventStoreBinding> await(long timeout)
+    {
+        // fast path, stores are copied on write
+        List<EventStoreBinding> stores = this.stores;
+        if (!stores.isEmpty())
+            return stores;
+
+        this.lock.lock();
+        try
+        {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (this.stores.isEmpty() && (remaining > 0))
+                remaining = this.bound.awaitNanos(remaining);
+
+            if (this.stores.isEmpty())
+            {
+                this.timeouts++;
+                return null;
+            }
+            return this.stores;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return this.stores.isEmpty() ? null : this.stores;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+/**
+ * Identifies a single event stream handled by the history endpoint, i.e., the
+ * (device, name, parameters) triple together with the event family the stream
+ * belongs to. Instances are immutable and can safely be used as map keys.
+ * 
+ * @author bonino
+ *
+ */
+public class EventStreamKey
+{
+    // the device uri
+    private final String deviceId;
+
+    // the notification / state name
+    private final String name;
+
+    // the notification / state parameters, never null
+    private final String params;
+
+    // the event data type
+    private final EventDataType dataType;
+
+    // the event type
+    private final EventType type;
+
+    /**
+     * Builds a new key for the given stream.
+     * 
+     * @param deviceId
+     *            The URI of the device.
+     * @param name
+     *            The name of the notification or state.
+     * @param params
+     *            The notification or state parameters, null is treated as the
+     *            empty string.
+     * @param dataType
+     *            The {@link EventDataType} of the stream.
+     * @param type
+     *            The {@link EventType} of the stream.
+     */
+    public EventStreamKey(String deviceId, String name, String params,
+            EventDataType dataType, EventType type)
+    {
+        this.deviceId = deviceId;
+        this.name = name;
+        this.params = (params != null) ? params : "";
+        this.dataType = dataType;
+        this.type = type;
+    }
+
+    public String getDeviceId()
+    {
+        return deviceId;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getParams()
+    {
+        return params;
+    }
+
+    public EventDataType getDataType()
+    {
+        return dataType;
+    }
+
+    public EventType getType()
+    {
+        return type;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result
+                + ((dataType == null) ? 0 : dataType.hashCode());
+        result = prime * result
+                + ((deviceId == null) ? 0 : deviceId.hashCode());
+        result = prime * result + ((name == null) ? 0 : name.hashCode());
+        result = prime * result + params.hashCode();
+        result = prime * result + ((type == null) ? 0 : type.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof EventStreamKey))
+            return false;
+        EventStreamKey other = (EventStreamKey) obj;
+        return (this.dataType == other.dataType) && (this.type == other.type)
+                && equalsOrNull(this.deviceId, other.deviceId)
+                && equalsOrNull(this.name, other.name)
+                && this.params.equals(other.params);
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.type + "/" + this.dataType + "/" + this.deviceId + "/"
+                + this.name + (this.params.isEmpty() ? "" : "/" + this.params);
+    }
+
+    private static boolean equalsOrNull(String a, String b)
+    {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+}
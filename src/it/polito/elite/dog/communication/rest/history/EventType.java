@@ -3,5 +3,33 @@ package it.polito.elite.dog.communication.rest.history;
 public enum EventType
 {
 	STATE,
-	NOTIFICATION
+	NOTIFICATION;
+
+	/**
+	 * Maps the REST path segment identifying an event family on the
+	 * corresponding event type.
+	 * 
+	 * @param segment
+	 *            the path segment, i.e., notifications or states
+	 * @return the event type or null if the segment is unknown
+	 */
+	public static EventType fromPathSegment(String segment)
+	{
+		if ("notifications".equals(segment))
+			return NOTIFICATION;
+		else if ("states".equals(segment))
+			return STATE;
+		return null;
+	}
+
+	/**
+	 * Provides the REST path segment identifying this event type, the inverse
+	 * of {@link #fromPathSegment(String)}.
+	 * 
+	 * @return the path segment
+	 */
+	public String toPathSegment()
+	{
+		return (this == NOTIFICATION) ? "notifications" : "states";
+	}
 }
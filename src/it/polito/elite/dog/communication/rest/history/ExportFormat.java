@@ -0,0 +1,51 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+/**
+ * The formats supported by export jobs, all artifacts are gzip-compressed.
+ * 
+ * @author bonino
+ *
+ */
+public enum ExportFormat
+{
+    CSV("csv"),
+    JSON("json"),
+    BINARY("bin"),
+    TIMESERIES("dts");
+
+    // the artifact file extension, before the compression suffix
+    private final String extension;
+
+    private ExportFormat(String extension)
+    {
+        this.extension = extension;
+    }
+
+    public String getExtension()
+    {
+        return extension;
+    }
+
+    /**
+     * Parses the format name given in an export request, ignoring case
+     * 
+     * @param format
+     *            the format name, CSV if null
+     * @return the format or null if unknown
+     */
+    public static ExportFormat fromName(String format)
+    {
+        if (format == null)
+            return CSV;
+
+        for (ExportFormat candidate : ExportFormat.values())
+        {
+            if (candidate.name().equalsIgnoreCase(format))
+                return candidate;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * A background export of historical data into a compressed file, serialized
+ * as JSON to report the job status and progress.
+ * 
+ * @author bonino
+ *
+ */
+public class ExportJob
+{
+    /**
+     * The export job life cycle
+     */
+    public enum Status
+    {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    /**
+     * An event family to export
+     */
+    public static class Family
+    {
+        private final EventType type;
+        private final EventDataType dataType;
+
+        public Family(EventType type, EventDataType dataType)
+        {
+            this.type = type;
+            this.dataType = dataType;
+        }
+
+        public EventType getType()
+        {
+            return type;
+        }
+
+        public EventDataType getDataType()
+        {
+            return dataType;
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.type.toPathSegment() + "/"
+                    + this.dataType.toPathSegment(this.type);
+        }
+    }
+
+    // the job id
+    private final String id;
+
+    // the devices to export
+    private final List<String> devices;
+
+    // the families to export
+    private final List<Family> families;
+
+    // the exported range
+    private final Date start;
+    private final Date end;
+
+    // the artifact format
+    private final ExportFormat format;
+
+    // the artifact
+    private final File file;
+
+    // the submission time
+    private final Date created;
+
+    // the job status
+    private volatile Status status;
+
+    // the number of (device, family) pairs already exported
+    private volatile int processed;
+
+    // the number of exported data points
+    private volatile long exportedPoints;
+
+    // the completion time
+    private volatile Date completed;
+
+    // the failure cause, if any
+    private volatile String error;
+
+    public ExportJob(String id, List<String> devices, List<Family> families,
+            Date start, Date end, ExportFormat format, File file)
+    {
+        this.id = id;
+        this.devices = devices;
+        this.families = families;
+        this.start = start;
+        this.end = end;
+        this.format = format;
+        this.file = file;
+        this.created = new Date();
+        this.status = Status.QUEUED;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    public void setStatus(Status status)
+    {
+        this.status = status;
+        if ((status != Status.QUEUED) && (status != Status.RUNNING))
+            this.completed = new Date();
+    }
+
+    /**
+     * Checks whether the job is still queued or running
+     * 
+     * @return true if the job is not finished
+     */
+    @JsonIgnore
+    public boolean isActive()
+    {
+        return (this.status == Status.QUEUED)
+                || (this.status == Status.RUNNING);
+    }
+
+    public String getFormat()
+    {
+        return format.name().toLowerCase();
+    }
+
+    @JsonIgnore
+    public ExportFormat getExportFormat()
+    {
+        return format;
+    }
+
+    @JsonIgnore
+    public List<String> getDevices()
+    {
+        return devices;
+    }
+
+    @JsonIgnore
+    public List<Family> getFamilies()
+    {
+        return families;
+    }
+
+    public Date getStart()
+    {
+        return start;
+    }
+
+    public Date getEnd()
+    {
+        return end;
+    }
+
+    @JsonIgnore
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Provides the job progress, as the fraction of (device, family) pairs
+     * already exported
+     * 
+     * @return the progress, between 0 and 1
+     */
+    public double getProgress()
+    {
+        int total = this.devices.size() * this.families.size();
+        return (total > 0) ? ((double) this.processed / total) : 1.0;
+    }
+
+    public void setProcessed(int processed)
+    {
+        this.processed = processed;
+    }
+
+    public long getExportedPoints()
+    {
+        return exportedPoints;
+    }
+
+    public void setExportedPoints(long exportedPoints)
+    {
+        this.exportedPoints = exportedPoints;
+    }
+
+    /**
+     * Provides the size of the compressed artifact, available once the job
+     * is completed
+     * 
+     * @return the artifact size in bytes, or null
+     */
+    public Long getSize()
+    {
+        return (this.status == Status.COMPLETED) ? this.file.length() : null;
+    }
+
+    public Date getCreated()
+    {
+        return created;
+    }
+
+    public Date getCompleted()
+    {
+        return completed;
+    }
+
+    public String getError()
+    {
+        return error;
+    }
+
+    public void setError(String error)
+    {
+        this.error = error;
+    }
+}
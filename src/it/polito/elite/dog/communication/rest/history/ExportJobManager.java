@@ -0,0 +1,634 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+import it.polito.elite.dog.addons.storage.EventDataStream;
+import it.polito.elite.dog.addons.storage.EventDataStreamSet;
+import it.polito.elite.dog.communication.rest.history.ExportJob.Family;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs export jobs in the background, one at a time, paging through the
+ * EventStore and streaming the extracted data points into gzip-compressed
+ * files on the local disk. Finished artifacts are kept for
+ * {@link #RETENTION} milliseconds.
+ * 
+ * @author bonino
+ *
+ */
+public class ExportJobManager
+{
+    // the number of points requested to the EventStore at each page
+    public static final int PAGE_SIZE = 5000;
+
+    // how long finished jobs and their artifacts are kept, in milliseconds
+    public static final long RETENTION = 24L * 60L * 60L * 1000L;
+
+    // the binary format magic number and version
+    private static final int BINARY_MAGIC = 0x444f4758; // DOGX
+    private static final int BINARY_VERSION = 1;
+    private static final int TIMESERIES_MAGIC = 0x444f4754; // DOGT
+
+    // the source of exported data
+    private final EventDataSource source;
+
+    // the mapper used for JSON artifacts
+    private final ObjectMapper mapper;
+
+    // the directory holding the artifacts
+    private final File directory;
+
+    // the date pattern used in CSV artifacts
+    private final String datePattern;
+
+    // the jobs, indexed by id
+    private final ConcurrentMap<String, ExportJob> jobs;
+
+    // the background executor
+    private final ExecutorService executor;
+
+    // the maximum number of jobs queued or running at the same time
+    private volatile int maxJobs;
+
+    // the maximum total size of the artifacts, in bytes
+    private volatile long maxBytes;
+
+    /**
+     * Creates a new manager
+     * 
+     * @param source
+     *            the source of historical data
+     * @param mapper
+     *            the mapper used to write JSON artifacts
+     * @param directory
+     *            the directory where artifacts are stored
+     * @param datePattern
+     *            the date pattern used in CSV artifacts, the same accepted by
+     *            CSV inserts
+     */
+    public ExportJobManager(EventDataSource source, ObjectMapper mapper,
+            File directory, String datePattern)
+    {
+        this.source = source;
+        this.mapper = mapper;
+        this.directory = directory;
+        this.datePattern = datePattern;
+        this.jobs = new ConcurrentHashMap<>();
+        this.maxJobs = Integer.MAX_VALUE;
+        this.maxBytes = Long.MAX_VALUE;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "history-export");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+
+        // clean artifacts left by a previous run
+        this.directory.mkdirs();
+        File[] leftovers = this.directory.listFiles();
+        if (leftovers != null)
+        {
+            for (File leftover : leftovers)
+                leftover.delete();
+        }
+    }
+
+    /**
+     * Sets the limits on the queued jobs and on the disk space taken by the
+     * artifacts, running jobs exceeding the disk space fail
+     * 
+     * @param maxJobs
+     *            the maximum number of jobs queued or running
+     * @param maxBytes
+     *            the maximum total size of the artifacts, in bytes
+     */
+    public void setLimits(int maxJobs, long maxBytes)
+    {
+        this.maxJobs = maxJobs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Checks whether the artifacts fill the allowed disk space
+     * 
+     * @return true if no further job shall be accepted
+     */
+    public boolean isFull()
+    {
+        this.purge();
+        return this.getStoredBytes() >= this.maxBytes;
+    }
+
+    /**
+     * Queues a new export job
+     * 
+     * @param devices
+     *            the devices to export
+     * @param families
+     *            the event families to export
+     * @param start
+     *            the range start
+     * @param end
+     *            the range end
+     * @param format
+     *            the artifact format
+     * @return the queued job, or null if too many jobs are already queued or
+     *         running
+     */
+    public synchronized ExportJob submit(List<String> devices,
+            List<Family> families, Date start, Date end, ExportFormat format)
+    {
+        this.purge();
+
+        int active = 0;
+        for (ExportJob job : this.jobs.values())
+        {
+            if (job.isActive())
+                active++;
+        }
+        if (active >= this.maxJobs)
+            return null;
+
+        String id = UUID.randomUUID().toString();
+        final ExportJob job = new ExportJob(id, devices, families, start, end,
+                format, new File(this.directory,
+                        id + "." + format.getExtension() + ".gz"));
+        this.jobs.put(id, job);
+
+        this.executor.execute(new Runnable() {
+
+            @Override
+            public void run()
+            {
+                ExportJobManager.this.run(job);
+            }
+        });
+
+        return job;
+    }
+
+    /**
+     * Provides the job with the given id
+     * 
+     * @param id
+     *            the job id
+     * @return the job or null if unknown
+     */
+    public ExportJob get(String id)
+    {
+        return this.jobs.get(id);
+    }
+
+    /**
+     * Cancels the given job, if still running, and deletes its artifact
+     * 
+     * @param id
+     *            the job id
+     * @return the removed job or null if unknown
+     */
+    public ExportJob remove(String id)
+    {
+        ExportJob job = this.jobs.remove(id);
+        if (job != null)
+        {
+            if (job.isActive())
+                job.setStatus(ExportJob.Status.CANCELLED);
+            job.getFile().delete();
+        }
+        return job;
+    }
+
+    /**
+     * Stops the background executor, running jobs are abandoned.
+     */
+    public void shutdown()
+    {
+        this.executor.shutdownNow();
+    }
+
+    private void purge()
+    {
+        long now = System.currentTimeMillis();
+        Iterator<ExportJob> iterator = this.jobs.values().iterator();
+        while (iterator.hasNext())
+        {
+            ExportJob job = iterator.next();
+            if ((!job.isActive()) && (job.getCompleted() != null)
+                    && (now - job.getCompleted().getTime() > RETENTION))
+            {
+                iterator.remove();
+                job.getFile().delete();
+            }
+        }
+    }
+
+    private long getStoredBytes()
+    {
+        // including the partial artifact of the running job
+        long bytes = 0;
+        for (ExportJob job : this.jobs.values())
+            bytes += job.getFile().length() + ExportJobManager
+                    .getPartialFile(job).length();
+        return bytes;
+    }
+
+    private static File getPartialFile(ExportJob job)
+    {
+        return new File(job.getFile().getPath() + ".part");
+    }
+
+    private void run(ExportJob job)
+    {
+        if (job.getStatus() != ExportJob.Status.QUEUED)
+            return;
+
+        job.setStatus(ExportJob.Status.RUNNING);
+
+        // write to a temporary file, so that partial artifacts are never
+        // served, within the disk space left by the other artifacts
+        File partial = ExportJobManager.getPartialFile(job);
+        long budget = this.maxBytes - this.getStoredBytes();
+        try
+        {
+            try (OutputStream out = new GZIPOutputStream(
+                    new BufferedOutputStream(new LimitedOutputStream(
+                            new FileOutputStream(partial), budget)),
+                    64 * 1024))
+            {
+                RowWriter writer = this.createWriter(job.getExportFormat(),
+                        out);
+                this.export(job, writer);
+                writer.close();
+            }
+
+            if (job.getStatus() == ExportJob.Status.RUNNING)
+            {
+                if (!partial.renameTo(job.getFile()))
+                    throw new IOException("Unable to rename " + partial);
+                job.setStatus(ExportJob.Status.COMPLETED);
+            }
+        }
+        catch (Exception e)
+        {
+            job.setError(e.getMessage());
+            job.setStatus(ExportJob.Status.FAILED);
+        }
+        finally
+        {
+            partial.delete();
+        }
+    }
+
+    private void export(ExportJob job, RowWriter writer) throws IOException
+    {
+        int processed = 0;
+        long exported = 0;
+
+        for (String device : job.getDevices())
+        {
+            for (Family family : job.getFamilies())
+            {
+                // page through the EventStore, one page per request
+                int offset = 0;
+                int pagePoints = 0;
+                do
+                {
+                    if (job.getStatus() != ExportJob.Status.RUNNING)
+                        return;
+
+                    EventDataStreamSet page = this.source.getDeviceEventData(
+                            device, job.getStart(), job.getEnd(), offset,
+                            PAGE_SIZE, family.getDataType(), family.getType());
+
+                    pagePoints = 0;
+                    if ((page != null) && (page.getDatastreams() != null))
+                    {
+                        for (EventDataStream stream : page.getDatastreams())
+                        {
+                            if (stream.getDatapoints() == null)
+                                continue;
+
+                            for (EventDataPoint point : stream
+                                    .getDatapoints())
+                            {
+                                writer.write(device, family, stream, point);
+                                pagePoints++;
+                            }
+                        }
+                    }
+
+                    offset += PAGE_SIZE;
+                    exported += pagePoints;
+                    job.setExportedPoints(exported);
+
+                    // depending on the store, limits apply to the whole set or
+                    // to each stream, a short page ends the extraction in
+                    // both cases
+                } while (pagePoints >= PAGE_SIZE);
+
+                job.setProcessed(++processed);
+            }
+        }
+    }
+
+    private RowWriter createWriter(ExportFormat format, OutputStream out)
+            throws IOException
+    {
+        switch (format)
+        {
+            case JSON:
+                return new JsonRowWriter(out);
+            case BINARY:
+                return new BinaryRowWriter(out);
+            case TIMESERIES:
+                return new TimeSeriesRowWriter(out);
+            default:
+                return new CsvRowWriter(out);
+        }
+    }
+
+    private static String escape(String field)
+    {
+        if (field == null)
+            return "";
+        if ((field.indexOf(',') < 0) && (field.indexOf('"') < 0)
+                && (field.indexOf('\n') < 0))
+            return field;
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String orEmpty(String field)
+    {
+        return (field != null) ? field : "";
+    }
+
+    /**
+     * Writes exported rows in a given format
+     */
+    private interface RowWriter
+    {
+        public void write(String device, Family family,
+                EventDataStream stream, EventDataPoint point)
+                throws IOException;
+
+        public void close() throws IOException;
+    }
+
+    /**
+     * One line per point: device, family, name, params, at, value, unit
+     */
+    private class CsvRowWriter implements RowWriter
+    {
+        private final Writer writer;
+        private final SimpleDateFormat sdf;
+
+        public CsvRowWriter(OutputStream out) throws IOException
+        {
+            this.writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            this.sdf = new SimpleDateFormat(
+                    ExportJobManager.this.datePattern);
+            this.writer.write("device,family,name,params,at,value,unit\n");
+        }
+
+        @Override
+        public void write(String device, Family family,
+                EventDataStream stream, EventDataPoint point)
+                throws IOException
+        {
+            this.writer.write(ExportJobManager.escape(device));
+            this.writer.write(',');
+            this.writer.write(family.toString());
+            this.writer.write(',');
+            this.writer.write(ExportJobManager.escape(stream.getName()));
+            this.writer.write(',');
+            this.writer.write(ExportJobManager.escape(stream.getParams()));
+            this.writer.write(',');
+            if (point.getAt() != null)
+                this.writer.write(this.sdf.format(point.getAt()));
+            this.writer.write(',');
+            this.writer.write(ExportJobManager.escape(point.getValue()));
+            this.writer.write(',');
+            this.writer.write(ExportJobManager.escape(point.getUnit()));
+            this.writer.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.writer.flush();
+        }
+    }
+
+    /**
+     * A JSON array of row objects
+     */
+    private class JsonRowWriter implements RowWriter
+    {
+        private final JsonGenerator generator;
+
+        public JsonRowWriter(OutputStream out) throws IOException
+        {
+            this.generator = ExportJobManager.this.mapper.getFactory()
+                    .createGenerator(out, JsonEncoding.UTF8);
+            this.generator.writeStartArray();
+        }
+
+        @Override
+        public void write(String device, Family family,
+                EventDataStream stream, EventDataPoint point)
+                throws IOException
+        {
+            this.generator.writeStartObject();
+            this.generator.writeStringField("device", device);
+            this.generator.writeStringField("family", family.toString());
+            this.generator.writeStringField("name", stream.getName());
+            if ((stream.getParams() != null)
+                    && (!stream.getParams().isEmpty()))
+                this.generator.writeStringField("params", stream.getParams());
+            this.generator.writeObjectField("at", point.getAt());
+            this.generator.writeStringField("value", point.getValue());
+            if (point.getUnit() != null)
+                this.generator.writeStringField("unit", point.getUnit());
+            this.generator.writeEndObject();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.generator.writeEndArray();
+            this.generator.flush();
+        }
+    }
+
+    /**
+     * Fails writes beyond the given number of bytes
+     */
+    private static class LimitedOutputStream extends FilterOutputStream
+    {
+        // the bytes which can still be written
+        private long remaining;
+
+        public LimitedOutputStream(OutputStream out, long limit)
+        {
+            super(out);
+            this.remaining = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            this.reserve(1);
+            this.out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            this.reserve(len);
+            this.out.write(b, off, len);
+        }
+
+        private void reserve(int bytes) throws IOException
+        {
+            if (bytes > this.remaining)
+                throw new IOException("Export exceeding the disk space limit");
+            this.remaining -= bytes;
+        }
+    }
+
+    /**
+     * A magic number and version, followed by length-prefixed UTF-8 rows
+     */
+    private class BinaryRowWriter implements RowWriter
+    {
+        private final DataOutputStream out;
+
+        public BinaryRowWriter(OutputStream out) throws IOException
+        {
+            this.out = new DataOutputStream(out);
+            this.out.writeInt(BINARY_MAGIC);
+            this.out.writeInt(BINARY_VERSION);
+        }
+
+        @Override
+        public void write(String device, Family family,
+                EventDataStream stream, EventDataPoint point)
+                throws IOException
+        {
+            this.out.writeUTF(device);
+            this.out.writeUTF(family.toString());
+            this.out.writeUTF(ExportJobManager.orEmpty(stream.getName()));
+            this.out.writeUTF(ExportJobManager.orEmpty(stream.getParams()));
+            this.out.writeLong(
+                    (point.getAt() != null) ? point.getAt().getTime() : 0);
+            this.out.writeUTF(ExportJobManager.orEmpty(point.getValue()));
+            this.out.writeUTF(ExportJobManager.orEmpty(point.getUnit()));
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.out.flush();
+        }
+    }
+
+    /**
+     * A magic number and version, followed by blocks of consecutive points of
+     * the same stream: the family, then the length-prefixed stream in the
+     * compact time series encoding (see {@link TimeSeriesCodec}). Blocks hold
+     * at most {@link ExportJobManager#PAGE_SIZE} points, longer streams span
+     * several consecutive blocks.
+     */
+    private class TimeSeriesRowWriter implements RowWriter
+    {
+        private final DataOutputStream out;
+
+        // the stream being accumulated and its family
+        private EventDataStream current;
+        private Family family;
+
+        public TimeSeriesRowWriter(OutputStream out) throws IOException
+        {
+            this.out = new DataOutputStream(out);
+            this.out.writeInt(TIMESERIES_MAGIC);
+            this.out.writeInt(BINARY_VERSION);
+        }
+
+        @Override
+        public void write(String device, Family family,
+                EventDataStream stream, EventDataPoint point)
+                throws IOException
+        {
+            if ((this.current == null) || (this.family != family)
+                    || (!device.equals(this.current.getDeviceUri()))
+                    || (!ExportJobManager.orEmpty(stream.getName()).equals(
+                            ExportJobManager.orEmpty(this.current.getName())))
+                    || (!ExportJobManager.orEmpty(stream.getParams()).equals(
+                            ExportJobManager
+                                    .orEmpty(this.current.getParams()))))
+            {
+                this.flush();
+                this.current = new EventDataStream(stream.getName(),
+                        stream.getParams(), device);
+                this.family = family;
+            }
+            this.current.addDatapoint(point);
+
+            // a block never holds more than a page, the next point of the
+            // stream starts a new one
+            if (this.current.getDatapoints().size() >= PAGE_SIZE)
+                this.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.flush();
+            this.out.flush();
+        }
+
+        private void flush() throws IOException
+        {
+            if (this.current == null)
+                return;
+
+            byte[] block = TimeSeriesCodec.encode(this.current);
+            this.out.writeUTF(this.family.toString());
+            this.out.writeInt(block.length);
+            this.out.write(block);
+            this.current = null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.List;
+
+/**
+ * The JSON body of an export job submission.
+ * 
+ * @author bonino
+ *
+ */
+public class ExportJobRequest
+{
+    // the URIs of the devices to export
+    private List<String> devices;
+
+    // the event families to export, as REST paths, e.g., states/continuous.
+    // If empty all families are exported.
+    private List<String> families;
+
+    // the range start, EPOCH if not given
+    private String start;
+
+    // the range end, NOW if not given
+    private String end;
+
+    // the artifact format, CSV if not given
+    private String format;
+
+    public List<String> getDevices()
+    {
+        return devices;
+    }
+
+    public void setDevices(List<String> devices)
+    {
+        this.devices = devices;
+    }
+
+    public List<String> getFamilies()
+    {
+        return families;
+    }
+
+    public void setFamilies(List<String> families)
+    {
+        this.families = families;
+    }
+
+    public String getStart()
+    {
+        return start;
+    }
+
+    public void setStart(String start)
+    {
+        this.start = start;
+    }
+
+    public String getEnd()
+    {
+        return end;
+    }
+
+    public void setEnd(String end)
+    {
+        this.end = end;
+    }
+
+    public String getFormat()
+    {
+        return format;
+    }
+
+    public void setFormat(String format)
+    {
+        this.format = format;
+    }
+}
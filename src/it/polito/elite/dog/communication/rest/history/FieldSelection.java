@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The set of stream and data point attributes to include in a history
+ * response, as requested through the fields query parameter, e.g.,
+ * fields=at,value. Instances are immutable and can be part of query keys.
+ *
+ * @author bonino
+ *
+ */
+public class FieldSelection
+{
+    // the attributes that can be selected, raw data and rollups
+    public static final Set<String> FIELDS = Collections
+            .unmodifiableSet(new HashSet<>(Arrays.asList("deviceUri", "name",
+                    "params", "resolution", "unit", "at", "value", "duration",
+                    "count", "min", "max", "sum", "first", "last")));
+
+    // the selection of all the attributes
+    public static final FieldSelection ALL = new FieldSelection(FIELDS, true,
+            false);
+
+    // the selected attributes
+    private final Set<String> fields;
+
+    // true if no selection has been requested
+    private final boolean all;
+
+    // true if data points shall carry their duration, i.e., the time until
+    // the next point
+    private final boolean durations;
+
+    private FieldSelection(Set<String> fields, boolean all, boolean durations)
+    {
+        this.fields = fields;
+        this.all = all;
+        this.durations = durations;
+    }
+
+    /**
+     * Parses a comma-separated list of attribute names
+     *
+     * @param fields
+     *            the list to parse, null or empty to select all the
+     *            attributes
+     * @return the corresponding selection, or null if an attribute is
+     *         unknown
+     */
+    public static FieldSelection parse(String fields)
+    {
+        if ((fields == null) || (fields.trim().isEmpty()))
+            return ALL;
+
+        // sorted, to have equal selections for equal sets of attributes
+        Set<String> selected = new TreeSet<>();
+        for (String field : fields.split(","))
+        {
+            String name = field.trim();
+            if (!FIELDS.contains(name))
+                return null;
+            selected.add(name);
+        }
+
+        return new FieldSelection(Collections.unmodifiableSet(selected),
+                false, false);
+    }
+
+    /**
+     * Checks whether all the attributes are selected, i.e., whether no
+     * projection shall be applied
+     *
+     * @return
+     */
+    public boolean isAll()
+    {
+        return this.all;
+    }
+
+    /**
+     * Provides the same selection, with data point durations enabled
+     *
+     * @return the selection including durations
+     */
+    public FieldSelection withDurations()
+    {
+        return new FieldSelection(this.fields, this.all, true);
+    }
+
+    /**
+     * Checks whether data points shall carry their duration
+     *
+     * @return true if durations shall be written
+     */
+    public boolean isDurations()
+    {
+        return this.durations;
+    }
+
+    /**
+     * Checks whether the given attribute is selected
+     *
+     * @param field
+     *            the attribute name
+     * @return true if the attribute shall be included in the response
+     */
+    public boolean includes(String field)
+    {
+        return this.all || this.fields.contains(field);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (this.all ? 0 : this.fields.hashCode())
+                + (this.durations ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof FieldSelection))
+            return false;
+        FieldSelection other = (FieldSelection) obj;
+        return (this.all == other.all) && (this.durations == other.durations)
+                && this.fields.equals(other.fields);
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.all ? "*" : this.fields.toString();
+    }
+}
@@ -0,0 +1,606 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.Dictionary;
+
+import org.osgi.service.cm.ConfigurationException;
+
+/**
+ * An immutable snapshot of the history endpoint configuration, as received
+ * from the OSGi Configuration Admin. Missing properties take their default
+ * value.
+ * 
+ * @author bonino
+ *
+ */
+public class HistoryConfiguration
+{
+    // ------------ property names ------------
+
+    // the maximum number of threads reading from the stores in parallel
+    public static final String FEDERATION_THREADS = "federation.threads";
+
+    // the maximum number of streams whose rollup tiers are kept in memory
+    public static final String ROLLUP_SERIES_MAX = "rollup.series.max";
+
+    // the token bucket capacity of each client
+    public static final String CLIENT_CAPACITY = "admission.client.capacity";
+
+    // the tokens given back to each client per second
+    public static final String CLIENT_REFILL = "admission.client.refill";
+
+    // the cost from which a query is considered heavy
+    public static final String HEAVY_COST = "admission.heavy.cost";
+
+    // the maximum number of heavy queries running at the same time
+    public static final String HEAVY_CONCURRENCY = "admission.heavy.concurrency";
+
+    // the expected data points per stream and hour, used to estimate costs
+    public static final String POINTS_PER_HOUR = "admission.points.per.hour";
+
+    // the maximum queried range, in seconds, 0 means unlimited
+    public static final String MAX_RANGE = "query.max.range";
+
+    // the maximum number of returned results, 0 means unlimited
+    public static final String MAX_LIMIT = "query.max.limit";
+
+    // the maximum time a request waits for an EventStore to be bound, in
+    // milliseconds
+    public static final String STORE_WAIT_TIMEOUT = "store.wait.timeout";
+
+    // the number of last known good responses kept to survive store swaps,
+    // for each response format
+    public static final String STORE_BUFFER_SIZE = "store.buffer.size";
+
+    // the maximum total size of the last known good responses of each
+    // response format, in bytes
+    public static final String STORE_BUFFER_BYTES = "store.buffer.bytes";
+
+    // true to write data point timestamps as epoch milliseconds
+    public static final String JSON_EPOCH_MILLIS = "json.timestamps.epoch";
+
+    // the number of data points from which the streams of a response are
+    // serialized in parallel, 0 means never
+    public static final String JSON_PARALLEL_THRESHOLD = "json.parallel.threshold";
+
+    // true to drop consecutive duplicates of discrete states and
+    // non-parametric notifications on insert
+    public static final String INSERT_DEDUP = "insert.dedup";
+
+    // the time after which a duplicate is stored anyway, in seconds
+    public static final String INSERT_DEDUP_HEARTBEAT = "insert.dedup.heartbeat";
+
+    // the number of recent timestamps of each stream checked for duplicate
+    // points on insert, 0 to store duplicates
+    public static final String INSERT_DEDUP_WINDOW = "insert.dedup.window";
+
+    // the maximum number of streams tracked for duplicate points on insert,
+    // the streams least recently written are forgotten first
+    public static final String INSERT_DEDUP_STREAMS = "insert.dedup.streams";
+
+    // the maximum number of Idempotency-Key values remembered
+    public static final String INSERT_IDEMPOTENCY_SIZE = "insert.idempotency.size";
+
+    // the time an Idempotency-Key value is remembered, in seconds
+    public static final String INSERT_IDEMPOTENCY_TTL = "insert.idempotency.ttl";
+
+    // the number of points fetched at once by pipelined reads
+    public static final String PIPELINE_CHUNK_SIZE = "pipeline.chunk.size";
+
+    // the number of chunks fetched ahead of serialization by pipelined reads
+    public static final String PIPELINE_CHUNKS = "pipeline.chunks";
+
+    // the maximum number of threads reading ahead for pipelined reads, the
+    // pipelined reads exceeding it are read by the requesting thread
+    public static final String PIPELINE_THREADS = "pipeline.threads";
+
+    // the number of daily summaries cached by statistics queries, 0 to
+    // disable caching
+    public static final String STATS_CACHE_SIZE = "stats.cache.size";
+
+    // true to prepare the serializers and query the EventStore on
+    // activation, before the first request
+    public static final String WARMUP = "warmup";
+
+    // the device whose history is queried on activation, none if not given
+    public static final String WARMUP_DEVICE = "warmup.device";
+
+    // the event family queried on activation, e.g., states/continuous
+    public static final String WARMUP_FAMILY = "warmup.family";
+
+    // the range queried on activation, in seconds before the current time
+    public static final String WARMUP_RANGE = "warmup.range";
+
+    // the span of the aligned sub-ranges read in parallel by whole-range
+    // queries, in seconds, 0 not to split ranges
+    public static final String PLANNER_SPLIT_SPAN = "planner.split.span";
+
+    // the maximum number of sub-ranges of a query
+    public static final String PLANNER_SPLIT_MAX = "planner.split.max";
+
+    // the number of points of past sub-ranges cached, 0 to disable caching
+    public static final String PLANNER_CACHE_POINTS = "planner.cache.points";
+
+    // the interval between reads of the streams followed by live clients,
+    // in milliseconds
+    public static final String LIVE_POLL_INTERVAL = "live.poll.interval";
+
+    // the maximum number of live clients connected at the same time
+    public static final String LIVE_MAX_CLIENTS = "live.max.clients";
+
+    // the time after which live clients are asked to reconnect, in seconds
+    public static final String LIVE_MAX_DURATION = "live.max.duration";
+
+    // the maximum number of export jobs queued or running at the same time
+    public static final String EXPORT_MAX_JOBS = "export.max.jobs";
+
+    // the maximum total size of the export artifacts on disk, in bytes
+    public static final String EXPORT_MAX_BYTES = "export.max.bytes";
+
+    // ------------ values ------------
+
+    private final int federationThreads;
+    private final int rollupSeriesMax;
+    private final long clientCapacity;
+    private final double clientRefill;
+    private final long heavyCost;
+    private final int heavyConcurrency;
+    private final long pointsPerHour;
+    private final long maxRange;
+    private final int maxLimit;
+    private final long storeWaitTimeout;
+    private final int storeBufferSize;
+    private final long storeBufferBytes;
+    private final boolean jsonEpochMillis;
+    private final long jsonParallelThreshold;
+    private final boolean insertDedup;
+    private final long insertDedupHeartbeat;
+    private final int insertDedupWindow;
+    private final int insertDedupStreams;
+    private final int insertIdempotencySize;
+    private final long insertIdempotencyTtl;
+    private final int pipelineChunkSize;
+    private final int pipelineChunks;
+    private final int pipelineThreads;
+    private final int statsCacheSize;
+    private final boolean warmUp;
+    private final String warmUpDevice;
+    private final EventType warmUpType;
+    private final EventDataType warmUpDataType;
+    private final long warmUpRange;
+    private final long plannerSplitSpan;
+    private final int plannerSplitMax;
+    private final long plannerCachePoints;
+    private final long livePollInterval;
+    private final int liveMaxClients;
+    private final long liveMaxDuration;
+    private final int exportMaxJobs;
+    private final long exportMaxBytes;
+
+    /**
+     * Creates the default configuration
+     */
+    public HistoryConfiguration()
+    {
+        this.federationThreads = 16;
+        this.rollupSeriesMax = 128;
+        this.clientCapacity = 1000;
+        this.clientRefill = 10;
+        this.heavyCost = 100;
+        this.heavyConcurrency = 4;
+        this.pointsPerHour = 60;
+        this.maxRange = 0;
+        this.maxLimit = 0;
+        this.storeWaitTimeout = 5000;
+        this.storeBufferSize = 64;
+        this.storeBufferBytes = 8L * 1024L * 1024L;
+        this.jsonEpochMillis = false;
+        this.jsonParallelThreshold = 50000;
+        this.insertDedup = false;
+        this.insertDedupHeartbeat = 3600L * 1000L;
+        this.insertDedupWindow = 1024;
+        this.insertDedupStreams = 4096;
+        this.insertIdempotencySize = 10000;
+        this.insertIdempotencyTtl = 24L * 3600L * 1000L;
+        this.pipelineChunkSize = 1000;
+        this.pipelineChunks = 2;
+        this.pipelineThreads = 8;
+        this.statsCacheSize = 2000;
+        this.warmUp = true;
+        this.warmUpDevice = null;
+        this.warmUpType = EventType.STATE;
+        this.warmUpDataType = EventDataType.MEASURE;
+        this.warmUpRange = 3600L * 1000L;
+        this.plannerSplitSpan = 24L * 3600L * 1000L;
+        this.plannerSplitMax = 8;
+        this.plannerCachePoints = 50000;
+        this.livePollInterval = 1000;
+        this.liveMaxClients = 256;
+        this.liveMaxDuration = 600L * 1000L;
+        this.exportMaxJobs = 4;
+        this.exportMaxBytes = 1024L * 1024L * 1024L;
+    }
+
+    /**
+     * Creates a configuration from the given properties
+     * 
+     * @param properties
+     *            the properties, as provided by the Configuration Admin
+     * @throws ConfigurationException
+     *             if a property is malformed
+     */
+    public HistoryConfiguration(Dictionary<String, ?> properties)
+            throws ConfigurationException
+    {
+        HistoryConfiguration defaults = new HistoryConfiguration();
+
+        this.federationThreads = (int) HistoryConfiguration.getLong(
+                properties, FEDERATION_THREADS, defaults.federationThreads);
+        this.rollupSeriesMax = (int) HistoryConfiguration.getLong(properties,
+                ROLLUP_SERIES_MAX, defaults.rollupSeriesMax);
+        this.clientCapacity = HistoryConfiguration.getLong(properties,
+                CLIENT_CAPACITY, defaults.clientCapacity);
+        this.clientRefill = HistoryConfiguration.getDouble(properties,
+                CLIENT_REFILL, defaults.clientRefill);
+        this.heavyCost = HistoryConfiguration.getLong(properties, HEAVY_COST,
+                defaults.heavyCost);
+        this.heavyConcurrency = (int) HistoryConfiguration.getLong(properties,
+                HEAVY_CONCURRENCY, defaults.heavyConcurrency);
+        this.pointsPerHour = HistoryConfiguration.getLong(properties,
+                POINTS_PER_HOUR, defaults.pointsPerHour);
+        this.maxRange = HistoryConfiguration.getLong(properties, MAX_RANGE,
+                defaults.maxRange) * 1000L;
+        this.maxLimit = (int) HistoryConfiguration.getLong(properties,
+                MAX_LIMIT, defaults.maxLimit);
+        this.storeWaitTimeout = HistoryConfiguration.getLong(properties,
+                STORE_WAIT_TIMEOUT, defaults.storeWaitTimeout);
+        this.storeBufferSize = (int) HistoryConfiguration.getLong(properties,
+                STORE_BUFFER_SIZE, defaults.storeBufferSize);
+        this.storeBufferBytes = HistoryConfiguration.getLong(properties,
+                STORE_BUFFER_BYTES, defaults.storeBufferBytes);
+        this.jsonEpochMillis = HistoryConfiguration.getBoolean(properties,
+                JSON_EPOCH_MILLIS, defaults.jsonEpochMillis);
+        this.jsonParallelThreshold = HistoryConfiguration.getLong(properties,
+                JSON_PARALLEL_THRESHOLD, defaults.jsonParallelThreshold);
+        this.insertDedup = HistoryConfiguration.getBoolean(properties,
+                INSERT_DEDUP, defaults.insertDedup);
+        this.insertDedupHeartbeat = HistoryConfiguration.getLong(properties,
+                INSERT_DEDUP_HEARTBEAT, defaults.insertDedupHeartbeat / 1000L)
+                * 1000L;
+        this.insertDedupWindow = (int) HistoryConfiguration.getLong(properties,
+                INSERT_DEDUP_WINDOW, defaults.insertDedupWindow);
+        this.insertDedupStreams = (int) HistoryConfiguration.getLong(
+                properties, INSERT_DEDUP_STREAMS, defaults.insertDedupStreams);
+        this.insertIdempotencySize = (int) HistoryConfiguration.getLong(
+                properties, INSERT_IDEMPOTENCY_SIZE,
+                defaults.insertIdempotencySize);
+        this.insertIdempotencyTtl = HistoryConfiguration.getLong(properties,
+                INSERT_IDEMPOTENCY_TTL, defaults.insertIdempotencyTtl / 1000L)
+                * 1000L;
+        this.pipelineChunkSize = (int) HistoryConfiguration.getLong(properties,
+                PIPELINE_CHUNK_SIZE, defaults.pipelineChunkSize);
+        this.pipelineChunks = (int) HistoryConfiguration.getLong(properties,
+                PIPELINE_CHUNKS, defaults.pipelineChunks);
+        this.pipelineThreads = (int) HistoryConfiguration.getLong(properties,
+                PIPELINE_THREADS, defaults.pipelineThreads);
+        this.statsCacheSize = (int) HistoryConfiguration.getLong(properties,
+                STATS_CACHE_SIZE, defaults.statsCacheSize);
+        this.warmUp = HistoryConfiguration.getBoolean(properties, WARMUP,
+                defaults.warmUp);
+        Object device = properties.get(WARMUP_DEVICE);
+        this.warmUpDevice = ((device != null)
+                && (!device.toString().trim().isEmpty()))
+                        ? device.toString().trim() : defaults.warmUpDevice;
+        this.warmUpRange = HistoryConfiguration.getLong(properties,
+                WARMUP_RANGE, defaults.warmUpRange / 1000L) * 1000L;
+        this.plannerSplitSpan = HistoryConfiguration.getLong(properties,
+                PLANNER_SPLIT_SPAN, defaults.plannerSplitSpan / 1000L)
+                * 1000L;
+        this.plannerSplitMax = (int) HistoryConfiguration.getLong(properties,
+                PLANNER_SPLIT_MAX, defaults.plannerSplitMax);
+        this.plannerCachePoints = HistoryConfiguration.getLong(properties,
+                PLANNER_CACHE_POINTS, defaults.plannerCachePoints);
+        this.livePollInterval = Math.max(100, HistoryConfiguration.getLong(
+                properties, LIVE_POLL_INTERVAL, defaults.livePollInterval));
+        this.liveMaxClients = (int) HistoryConfiguration.getLong(properties,
+                LIVE_MAX_CLIENTS, defaults.liveMaxClients);
+        this.liveMaxDuration = HistoryConfiguration.getLong(properties,
+                LIVE_MAX_DURATION, defaults.liveMaxDuration / 1000L) * 1000L;
+        this.exportMaxJobs = (int) HistoryConfiguration.getLong(properties,
+                EXPORT_MAX_JOBS, defaults.exportMaxJobs);
+        this.exportMaxBytes = HistoryConfiguration.getLong(properties,
+                EXPORT_MAX_BYTES, defaults.exportMaxBytes);
+
+        // the family is given as REST path, e.g., states/continuous
+        Object family = properties.get(WARMUP_FAMILY);
+        if (family != null)
+        {
+            String segments[] = family.toString().trim().split("/");
+            this.warmUpType = EventType.fromPathSegment(segments[0]);
+            this.warmUpDataType = (segments.length == 2)
+                    ? EventDataType.fromPathSegment(this.warmUpType,
+                            segments[1])
+                    : null;
+            if (this.warmUpDataType == null)
+                throw new ConfigurationException(WARMUP_FAMILY,
+                        "Unknown event family: " + family);
+        }
+        else
+        {
+            this.warmUpType = defaults.warmUpType;
+            this.warmUpDataType = defaults.warmUpDataType;
+        }
+    }
+
+    public int getFederationThreads()
+    {
+        return federationThreads;
+    }
+
+    public int getRollupSeriesMax()
+    {
+        return rollupSeriesMax;
+    }
+
+    public long getClientCapacity()
+    {
+        return clientCapacity;
+    }
+
+    public double getClientRefill()
+    {
+        return clientRefill;
+    }
+
+    public long getHeavyCost()
+    {
+        return heavyCost;
+    }
+
+    public int getHeavyConcurrency()
+    {
+        return heavyConcurrency;
+    }
+
+    public long getPointsPerHour()
+    {
+        return pointsPerHour;
+    }
+
+    /**
+     * Provides the maximum queried range
+     * 
+     * @return the maximum range in milliseconds, 0 if unlimited
+     */
+    public long getMaxRange()
+    {
+        return maxRange;
+    }
+
+    public int getMaxLimit()
+    {
+        return maxLimit;
+    }
+
+    public long getStoreWaitTimeout()
+    {
+        return storeWaitTimeout;
+    }
+
+    public int getStoreBufferSize()
+    {
+        return storeBufferSize;
+    }
+
+    /**
+     * Provides the maximum total size of the last known good responses
+     * 
+     * @return the size in bytes
+     */
+    public long getStoreBufferBytes()
+    {
+        return storeBufferBytes;
+    }
+
+    public boolean isJsonEpochMillis()
+    {
+        return jsonEpochMillis;
+    }
+
+    public long getJsonParallelThreshold()
+    {
+        return jsonParallelThreshold;
+    }
+
+    public boolean isInsertDedup()
+    {
+        return insertDedup;
+    }
+
+    /**
+     * Provides the time after which a duplicate is stored anyway
+     * 
+     * @return the heartbeat in milliseconds
+     */
+    public long getInsertDedupHeartbeat()
+    {
+        return insertDedupHeartbeat;
+    }
+
+    public int getInsertDedupWindow()
+    {
+        return insertDedupWindow;
+    }
+
+    public int getInsertDedupStreams()
+    {
+        return insertDedupStreams;
+    }
+
+    public int getInsertIdempotencySize()
+    {
+        return insertIdempotencySize;
+    }
+
+    /**
+     * Provides the time an Idempotency-Key value is remembered
+     * 
+     * @return the time in milliseconds
+     */
+    public long getInsertIdempotencyTtl()
+    {
+        return insertIdempotencyTtl;
+    }
+
+    public int getPipelineChunkSize()
+    {
+        return pipelineChunkSize;
+    }
+
+    public int getPipelineChunks()
+    {
+        return pipelineChunks;
+    }
+
+    public int getPipelineThreads()
+    {
+        return pipelineThreads;
+    }
+
+    public int getStatsCacheSize()
+    {
+        return statsCacheSize;
+    }
+
+    public boolean isWarmUp()
+    {
+        return warmUp;
+    }
+
+    public String getWarmUpDevice()
+    {
+        return warmUpDevice;
+    }
+
+    public EventType getWarmUpType()
+    {
+        return warmUpType;
+    }
+
+    public EventDataType getWarmUpDataType()
+    {
+        return warmUpDataType;
+    }
+
+    /**
+     * Provides the range queried on activation
+     * 
+     * @return the range in milliseconds
+     */
+    public long getWarmUpRange()
+    {
+        return warmUpRange;
+    }
+
+    /**
+     * Provides the span of the sub-ranges read in parallel
+     * 
+     * @return the span in milliseconds, 0 not to split ranges
+     */
+    public long getPlannerSplitSpan()
+    {
+        return plannerSplitSpan;
+    }
+
+    public int getPlannerSplitMax()
+    {
+        return plannerSplitMax;
+    }
+
+    public long getPlannerCachePoints()
+    {
+        return plannerCachePoints;
+    }
+
+    public long getLivePollInterval()
+    {
+        return livePollInterval;
+    }
+
+    public int getLiveMaxClients()
+    {
+        return liveMaxClients;
+    }
+
+    /**
+     * Provides the time after which live clients are asked to reconnect
+     * 
+     * @return the time in milliseconds
+     */
+    public long getLiveMaxDuration()
+    {
+        return liveMaxDuration;
+    }
+
+    public int getExportMaxJobs()
+    {
+        return exportMaxJobs;
+    }
+
+    public long getExportMaxBytes()
+    {
+        return exportMaxBytes;
+    }
+
+    private static boolean getBoolean(Dictionary<String, ?> properties,
+            String key, boolean defaultValue)
+    {
+        Object value = properties.get(key);
+        if (value == null)
+            return defaultValue;
+        if (value instanceof Boolean)
+            return (Boolean) value;
+
+        return Boolean.parseBoolean(value.toString().trim());
+    }
+
+    private static long getLong(Dictionary<String, ?> properties, String key,
+            long defaultValue) throws ConfigurationException
+    {
+        Object value = properties.get(key);
+        if (value == null)
+            return defaultValue;
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+
+        try
+        {
+            return Long.parseLong(value.toString().trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigurationException(key, "Not a number: " + value, e);
+        }
+    }
+
+    private static double getDouble(Dictionary<String, ?> properties,
+            String key, double defaultValue) throws ConfigurationException
+    {
+        Object value = properties.get(key);
+        if (value == null)
+            return defaultValue;
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+
+        try
+        {
+            return Double.parseDouble(value.toString().trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigurationException(key, "Not a number: " + value, e);
+        }
+    }
+}
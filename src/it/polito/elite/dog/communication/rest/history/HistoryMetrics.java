@@ -0,0 +1,85 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal registry of named counters describing the endpoint behavior,
+ * exposed as JSON by the metrics resource.
+ * 
+ * @author bonino
+ *
+ */
+public class HistoryMetrics
+{
+    // the counters, indexed by name
+    private final ConcurrentMap<String, AtomicLong> counters;
+
+    public HistoryMetrics()
+    {
+        this.counters = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Provides the counter with the given name, creating it if needed
+     * 
+     * @param name
+     *            the counter name
+     * @return the counter
+     */
+    public AtomicLong counter(String name)
+    {
+        AtomicLong counter = this.counters.get(name);
+        if (counter == null)
+        {
+            AtomicLong created = new AtomicLong();
+            counter = this.counters.putIfAbsent(name, created);
+            if (counter == null)
+                counter = created;
+        }
+        return counter;
+    }
+
+    /**
+     * Increments the counter with the given name
+     * 
+     * @param name
+     *            the counter name
+     */
+    public void increment(String name)
+    {
+        this.counter(name).incrementAndGet();
+    }
+
+    /**
+     * Sets the value of the counter with the given name, for gauges
+     * 
+     * @param name
+     *            the counter name
+     * @param value
+     *            the new value
+     */
+    public void set(String name, long value)
+    {
+        this.counter(name).set(value);
+    }
+
+    /**
+     * Provides a sorted snapshot of all the counters
+     * 
+     * @return the counter values, indexed by name
+     */
+    public Map<String, Long> snapshot()
+    {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> counter : this.counters.entrySet())
+            snapshot.put(counter.getKey(), counter.getValue().get());
+        return snapshot;
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.Date;
+
+/**
+ * A history query after parameter parsing and default resolution. Two
+ * requests asking for the same data map on equal queries, which makes
+ * instances usable as keys to share work among concurrent requests.
+ * 
+ * @author bonino
+ *
+ */
+public class HistoryQuery
+{
+    // the device uri
+    private final String deviceId;
+
+    // the notification / state name, null for queries on all the streams of
+    // the device
+    private final String name;
+
+    // the notification / state parameters, never null
+    private final String params;
+
+    // the range start
+    private final Date start;
+
+    // the range end, null if the range is open, i.e., ends when the query is
+    // executed
+    private final Date end;
+
+    // the result offset
+    private final int offset;
+
+    // the result limit
+    private final int limit;
+
+    // the aggregation flag, only meaningful for queries on all streams
+    private final boolean aggregate;
+
+    // the rollup tier, null for raw data
+    private final RollupTier tier;
+
+    // the event data type
+    private final EventDataType dataType;
+
+    // the event type
+    private final EventType type;
+
+    // the attributes to include in the response
+    private final FieldSelection fields;
+
+    // the filter on returned data points, null if none
+    private final EventDataFilter filter;
+
+    public HistoryQuery(String deviceId, String name, String params,
+            Date start, Date end, int offset, int limit, boolean aggregate,
+            RollupTier tier, EventDataType dataType, EventType type,
+            FieldSelection fields, EventDataFilter filter)
+    {
+        this.deviceId = deviceId;
+        this.name = name;
+        this.params = (params != null) ? params : "";
+        this.start = start;
+        this.end = end;
+        this.offset = offset;
+        this.limit = limit;
+        this.aggregate = aggregate;
+        this.tier = tier;
+        this.dataType = dataType;
+        this.type = type;
+        this.fields = (fields != null) ? fields : FieldSelection.ALL;
+        this.filter = filter;
+    }
+
+    /**
+     * Checks whether the query targets a single event stream
+     * 
+     * @return true if a notification / state name is given
+     */
+    public boolean isDeviceSpecific()
+    {
+        return this.name != null;
+    }
+
+    /**
+     * Provides the key of the stream targeted by device-specific queries
+     * 
+     * @return the stream key
+     */
+    public EventStreamKey getStreamKey()
+    {
+        return new EventStreamKey(this.deviceId, this.name, this.params,
+                this.dataType, this.type);
+    }
+
+    public String getDeviceId()
+    {
+        return deviceId;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getParams()
+    {
+        return params;
+    }
+
+    public Date getStart()
+    {
+        return start;
+    }
+
+    public Date getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * Provides the range end, resolving open ranges to the current time
+     * 
+     * @return the range end
+     */
+    public Date resolveEnd()
+    {
+        return (this.end != null) ? this.end : new Date();
+    }
+
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    public boolean isAggregate()
+    {
+        return aggregate;
+    }
+
+    public RollupTier getTier()
+    {
+        return tier;
+    }
+
+    public EventDataType getDataType()
+    {
+        return dataType;
+    }
+
+    public EventType getType()
+    {
+        return type;
+    }
+
+    public FieldSelection getFields()
+    {
+        return fields;
+    }
+
+    public EventDataFilter getFilter()
+    {
+        return filter;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (aggregate ? 1231 : 1237);
+        result = prime * result
+                + ((dataType == null) ? 0 : dataType.hashCode());
+        result = prime * result
+                + ((deviceId == null) ? 0 : deviceId.hashCode());
+        result = prime * result + ((end == null) ? 0 : end.hashCode());
+        result = prime * result + fields.hashCode();
+        result = prime * result + ((filter == null) ? 0 : filter.hashCode());
+        result = prime * result + limit;
+        result = prime * result + ((name == null) ? 0 : name.hashCode());
+        result = prime * result + offset;
+        result = prime * result + params.hashCode();
+        result = prime * result + ((start == null) ? 0 : start.hashCode());
+        result = prime * result + ((tier == null) ? 0 : tier.hashCode());
+        result = prime * result + ((type == null) ? 0 : type.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof HistoryQuery))
+            return false;
+        HistoryQuery other = (HistoryQuery) obj;
+        return (this.aggregate == other.aggregate)
+                && (this.offset == other.offset)
+                && (this.limit == other.limit)
+                && (this.dataType == other.dataType)
+                && (this.type == other.type) && (this.tier == other.tier)
+                && HistoryQuery.equalsOrNull(this.deviceId, other.deviceId)
+                && HistoryQuery.equalsOrNull(this.name, other.name)
+                && this.params.equals(other.params)
+                && this.fields.equals(other.fields)
+                && HistoryQuery.equalsOrNull(this.filter, other.filter)
+                && HistoryQuery.equalsOrNull(this.start, other.start)
+                && HistoryQuery.equalsOrNull(this.end, other.end);
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.type + "/" + this.dataType + "/" + this.deviceId
+                + ((this.name != null) ? "/" + this.name : "")
+                + (this.params.isEmpty() ? "" : "/" + this.params) + "["
+                + this.start.getTime() + ","
+                + ((this.end != null) ? this.end.getTime() : "now") + "]";
+    }
+
+    private static boolean equalsOrNull(Object a, Object b)
+    {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+}
@@ -4,8 +4,10 @@
 package it.polito.elite.dog.communication.rest.history;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.AnnotationIntrospector;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
 import it.polito.elite.dog.addons.storage.EventDataPoint;
@@ -13,25 +15,54 @@ import it.polito.elite.dog.addons.storage.EventDataStream;
 import it.polito.elite.dog.addons.storage.EventDataStreamSet;
 import it.polito.elite.dog.addons.storage.EventStore;
 import it.polito.elite.dog.addons.storage.EventStoreInfo;
+import it.polito.elite.dog.communication.rest.history.LiveSubscriber.LiveFrame;
 import it.polito.elite.dog.communication.rest.history.api.HistoryRESTApi;
 import it.polito.elite.dog.core.library.util.LogHelper;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.concurrent.atomic.AtomicReference;
-
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Path;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.osgi.framework.BundleContext;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
 import org.osgi.service.log.LogService;
 
 /**
@@ -39,7 +70,7 @@ import org.osgi.service.log.LogService;
  * 
  */
 @Path("/api/v1/history/")
-public class HistoryRESTEndpoint implements HistoryRESTApi
+public class HistoryRESTEndpoint implements HistoryRESTApi, ManagedService
 {
     // the service logger
     private LogHelper logger;
@@ -48,25 +79,155 @@ public class HistoryRESTEndpoint implements HistoryRESTApi
     // status
     private BundleContext context;
 
-    // the atomic reference to the EventStore service
-    private AtomicReference<EventStore> eventStore;
+    // the holder of the EventStore service, which may be swapped at runtime
+    private EventStoreHolder eventStore;
+
+    // the last known good responses, served while no store is bound
+    private volatile ResponseBuffer<HistoryQuery, String> lastKnownGood;
+
+    // the last known good binary time series responses
+    private volatile ResponseBuffer<HistoryQuery, byte[]> lastKnownTimeSeries;
+
+    // the endpoint metrics
+    private HistoryMetrics metrics;
+
+    // the bounded pool reading from single stores, in parallel with the
+    // requesting threads
+    private ThreadPoolExecutor federation;
+
+    // the bounded pool producing the chunks of pipelined reads, one thread
+    // per request
+    private ThreadPoolExecutor pipelines;
+
+    // the number of points read from the store at once when filtering
+    private static final int FILTER_PAGE_SIZE = 5000;
+
+    // the number of points read from the store at once when building rollups
+    private static final int ROLLUP_PAGE_SIZE = 5000;
+
+    // the maximum number of streams joined by a single request
+    private static final int MAX_JOIN_SERIES = 64;
+
+    // the number of points read at once when looking back for the last
+    // point before a join grid
+    private static final int JOIN_LOOKBACK_LIMIT = 100;
+
+    // the last stored point of discrete streams, to drop duplicates
+    private ChangePointTracker changePoints;
+
+    // the recently stored points of each stream, to drop the points of
+    // retried uploads, null if disabled
+    private volatile RecentPointIndex recentPoints;
+
+    // the recently applied uploads, by Idempotency-Key
+    private volatile IdempotencyRegistry idempotency;
+
+    // the statistics of whole past days, by stream
+    private volatile StatisticsCache statisticsCache;
+
+    // the planner of the ranges read from the EventStore
+    private QueryPlanner planner;
+
+    // the past sub-ranges read by planned queries
+    private volatile ChunkCache chunks;
 
     // the instance-level mapper
     private ObjectMapper mapper;
 
+    // the parsers of request bodies, built once
+    private ObjectReader pointsReader;
+    private ObjectReader joinReader;
+    private ObjectReader exportReader;
+
+    // the activation time, for the time-to-ready metric
+    private long activationTime;
+
+    // the warm-up query of the last warm-up started, null if none
+    private String warmedUp;
+
+    // the writer of event data responses, bypassing the mapper
+    private volatile EventDataWriter jsonWriter;
+
+    // the pool serializing the streams of large responses in parallel
+    private ForkJoinPool serialization;
+
+    // the rollup tiers maintained on ingest
+    private RollupStore rollups;
+
+    // the fan-out of new data points to live clients
+    private LiveStreamHub live;
+
+    // the thread reading the streams followed by live clients and warming
+    // the endpoint up
+    private volatile ScheduledExecutorService background;
+
+    // the history queries in flight
+    private SingleFlight<HistoryQuery, String> inflight;
+
+    // the binary time series queries in flight
+    private SingleFlight<HistoryQuery, byte[]> inflightTimeSeries;
+
+    // the current configuration
+    private volatile HistoryConfiguration configuration;
+
+    // the admission control for history queries
+    private volatile AdmissionController admission;
+
+    // the date format used by request parameters and CSV data
+    public static final String DATE_PATTERN = "yyyy-MM-dd'T'HH:mm:ss.SSSXX";
+
     // the date parser
     // prepare the parameters
     SimpleDateFormat sdf;
 
+    // the background export jobs
+    private ExportJobManager exports;
+
+    // the access to historical data for components running outside of a
+    // request, e.g., export jobs and pipelined reads
+    private EventDataSource dataSource;
+
     /**
      * Constructor
      */
     public HistoryRESTEndpoint()
     {
-        // initialize the atomic reference
-        this.eventStore = new AtomicReference<>();
-
-        this.sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXX");
+        // initialize the store holder
+        this.eventStore = new EventStoreHolder();
+
+        // initialize the metrics
+        this.metrics = new HistoryMetrics();
+
+        // initialize the de-duplication of concurrent queries
+        this.inflight = new SingleFlight<>();
+        this.inflightTimeSeries = new SingleFlight<>();
+
+        // initialize the planning of store reads
+        this.planner = new QueryPlanner();
+
+        // start with the default configuration
+        this.configuration = new HistoryConfiguration();
+        this.admission = new AdmissionController(this.configuration);
+        this.rollups = new RollupStore(
+                this.configuration.getRollupSeriesMax());
+        this.lastKnownGood = new ResponseBuffer<>(
+                this.configuration.getStoreBufferSize(),
+                this.configuration.getStoreBufferBytes());
+        this.lastKnownTimeSeries = new ResponseBuffer<>(
+                this.configuration.getStoreBufferSize(),
+                this.configuration.getStoreBufferBytes());
+        this.recentPoints = this.createRecentPointIndex(this.configuration);
+        this.idempotency = new IdempotencyRegistry(
+                this.configuration.getInsertIdempotencySize(),
+                this.configuration.getInsertIdempotencyTtl());
+        this.changePoints = new ChangePointTracker(
+                this.configuration.getInsertDedupStreams());
+        this.statisticsCache = new StatisticsCache(
+                this.configuration.getStatsCacheSize());
+        this.chunks = new ChunkCache(
+                this.configuration.getPlannerCachePoints());
+
+        this.sdf = new SimpleDateFormat(HistoryRESTEndpoint.DATE_PATTERN);
 
         // initialize the instance-wide object mapper
         this.mapper = new ObjectMapper();
@@ -87,6 +248,28 @@ public class HistoryRESTEndpoint implements HistoryRESTApi
         this.mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS,
                 false);
 
+        // the parsers of request bodies, built once instead of at every
+        // request
+        this.pointsReader = this.mapper
+                .readerFor(this.mapper.getTypeFactory().constructCollectionType(
+                        ArrayList.class, EventDataPoint.class));
+        this.joinReader = this.mapper.readerFor(JoinRequest.class);
+        this.exportReader = this.mapper.readerFor(ExportJobRequest.class);
+
+        // the fast-path writer of event data, equivalent to the mapper, with
+        // the pool serializing large responses in parallel
+        this.serialization = new ForkJoinPool();
+        this.jsonWriter = new EventDataWriter(this.mapper.getFactory(), true,
+                this.configuration.isJsonEpochMillis(), this.serialization,
+                this.configuration.getJsonParallelThreshold());
+
+        // initialize the live fan-out, server-sent events need single-line
+        // data
+        this.live = new LiveStreamHub(
+                this.mapper.writer()
+                        .without(SerializationFeature.INDENT_OUTPUT),
+                LiveStreamHub.DEFAULT_BUFFER_SIZE);
+
     }
 
     /**
@@ -99,12 +282,85 @@ public class HistoryRESTEndpoint implements HistoryRESTApi
     {
         // store the bundle context
         this.context = context;
+        this.activationTime = System.currentTimeMillis();
 
         // init the logger with a null logger
         this.logger = new LogHelper(this.context);
 
+        // the threads reading from single stores; reads are never queued,
+        // when all the threads are busy the requesting thread reads by
+        // itself, so that no read waits for another one to be scheduled
+        int threads = Math.max(1, this.configuration.getFederationThreads());
+        this.federation = new ThreadPoolExecutor(threads, threads, 60L,
+                TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                HistoryRESTEndpoint.daemonThreads("history-federation"),
+                new RejectedExecutionHandler() {
+
+                    @Override
+                    public void rejectedExecution(Runnable r,
+                            ThreadPoolExecutor executor)
+                    {
+                        if (executor.isShutdown())
+                            throw new RejectedExecutionException(
+                                    "The history endpoint is deactivated");
+                        r.run();
+                    }
+                });
+        this.federation.allowCoreThreadTimeOut(true);
+
+        // the producers of pipelined reads; producers are never queued, when
+        // all the threads are busy the requesting thread reads by itself
+        threads = Math.max(1, this.configuration.getPipelineThreads());
+        this.pipelines = new ThreadPoolExecutor(threads, threads, 60L,
+                TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                HistoryRESTEndpoint.daemonThreads("history-pipeline"));
+        this.pipelines.allowCoreThreadTimeOut(true);
+
+        // the thread pushing to live clients the points written by other
+        // bundles
+        this.background = Executors.newSingleThreadScheduledExecutor(
+                HistoryRESTEndpoint.daemonThreads("history-background"));
+        this.scheduleLivePoll();
+
+        // the access to historical data outside of requests
+        this.dataSource = new EventDataSource() {
+
+            @Override
+            public EventDataStreamSet getDeviceEventData(String deviceId,
+                    Date start, Date end, int offset, int limit,
+                    EventDataType dataType, EventType type)
+            {
+                return HistoryRESTEndpoint.this.fetchDeviceEventData(deviceId,
+                        start, end, offset, limit, false, dataType, type);
+            }
+
+            @Override
+            public EventDataStream getDeviceSpecificEventData(
+                    EventStreamKey key, Date start, Date end, int offset,
+                    int limit)
+            {
+                return HistoryRESTEndpoint.this.fetchDeviceSpecificEventData(
+                        key.getDeviceId(), key.getName(), key.getParams(),
+                        start, end, offset, limit, key.getDataType(),
+                        key.getType());
+            }
+        };
+
+        // prepare the export jobs, storing artifacts in the bundle data area
+        File exportDirectory = this.context.getDataFile("exports");
+        if (exportDirectory == null)
+            exportDirectory = new File(System.getProperty("java.io.tmpdir"),
+                    "dog-history-exports");
+        this.exports = new ExportJobManager(this.dataSource, this.mapper,
+                exportDirectory, HistoryRESTEndpoint.DATE_PATTERN);
+        this.exports.setLimits(this.configuration.getExportMaxJobs(),
+                this.configuration.getExportMaxBytes());
+
         // log the activation
         this.logger.log(LogService.LOG_INFO, "Activated....");
+
+        // prepare for the first requests, if enabled
+        this.startWarmUp();
     }
 
     /**
@@ -112,6 +368,27 @@ public class HistoryRESTEndpoint implements HistoryRESTApi
      */
     public void deactivate()
     {
+        // stop export jobs
+        this.exports.shutdown();
+        this.exports = null;
+
+        // disconnect the live clients, and stop the warm-up if still
+        // running
+        this.background.shutdownNow();
+        this.background = null;
+        this.live.close();
+        synchronized (this)
+        {
+            this.warmedUp = null;
+        }
+
+        // stop the parallel store queries
+        this.pipelines.shutdownNow();
+        this.federation.shutdownNow();
+
+        // stop the parallel serialization
+        this.serialization.shutdown();
+
         // null the context
         this.context = null;
 
@@ -122,16 +399,225 @@ public class HistoryRESTEndpoint implements HistoryRESTApi
         this.logger = null;
     }
 
+    @Override
+    public void updated(Dictionary<String, ?> properties)
+            throws ConfigurationException
+    {
+        // null properties mean that the configuration has been deleted
+        HistoryConfiguration configuration = (properties != null)
+                ? new HistoryConfiguration(properties)
+                : new HistoryConfiguration();
+
+        HistoryConfiguration previous = this.configuration;
+        this.configuration = configuration;
+        this.rollups.setMaxSeries(configuration.getRollupSeriesMax());
+        ExportJobManager exports = this.exports;
+        if (exports != null)
+            exports.setLimits(configuration.getExportMaxJobs(),
+                    configuration.getExportMaxBytes());
+        HistoryRESTEndpoint.resize(this.federation,
+                configuration.getFederationThreads());
+        HistoryRESTEndpoint.resize(this.pipelines,
+                configuration.getPipelineThreads());
+        this.lastKnownGood = new ResponseBuffer<>(
+                configuration.getStoreBufferSize(),
+                configuration.getStoreBufferBytes());
+        this.lastKnownTimeSeries = new ResponseBuffer<>(
+                configuration.getStoreBufferSize(),
+                configuration.getStoreBufferBytes());
+
+        // client budgets and heavy slots are only reset if their own
+        // settings change, otherwise a refill would be granted and queries
+        // running on the previous slots would not count
+        if ((configuration.getClientCapacity() != previous
+                .getClientCapacity())
+                || (configuration.getClientRefill() != previous
+                        .getClientRefill())
+                || (configuration.getHeavyCost() != previous.getHeavyCost())
+                || (configuration.getHeavyConcurrency() != previous
+                        .getHeavyConcurrency())
+                || (configuration.getPointsPerHour() != previous
+                        .getPointsPerHour()))
+            this.admission = new AdmissionController(configuration);
+
+        // the recent uploads are only forgotten if their own settings
+        // change, otherwise retries would be stored twice
+        if (configuration.getInsertDedupWindow() != previous
+                .getInsertDedupWindow())
+            this.recentPoints = this.createRecentPointIndex(configuration);
+        else if (this.recentPoints != null)
+            this.recentPoints
+                    .setMaxStreams(configuration.getInsertDedupStreams());
+        this.changePoints.setMaxStreams(configuration.getInsertDedupStreams());
+        if ((configuration.getInsertIdempotencySize() != previous
+                .getInsertIdempotencySize())
+                || (configuration.getInsertIdempotencyTtl() != previous
+                        .getInsertIdempotencyTtl()))
+            this.idempotency = new IdempotencyRegistry(
+                    configuration.getInsertIdempotencySize(),
+                    configuration.getInsertIdempotencyTtl());
+
+        this.statisticsCache = new StatisticsCache(
+                configuration.getStatsCacheSize());
+        this.chunks = new ChunkCache(configuration.getPlannerCachePoints());
+        this.jsonWriter = new EventDataWriter(this.mapper.getFactory(), true,
+                configuration.isJsonEpochMillis(), this.serialization,
+                configuration.getJsonParallelThreshold());
+
+        if (this.logger != null)
+            this.logger.log(LogService.LOG_INFO, "Configuration updated");
+
+        // a warm-up query may have been configured
+        this.startWarmUp();
+    }
+
+    /**
+     * Starts warming the endpoint up in the background, unless disabled or
+     * already started with the same warm-up query
+     */
+    private void startWarmUp()
+    {
+        final HistoryConfiguration configuration = this.configuration;
+        ScheduledExecutorService background = this.background;
+        if ((!configuration.isWarmUp()) || (background == null))
+            return;
+
+        // the configuration may be delivered after activation, with a query
+        // still to run
+        String target = configuration.getWarmUpDevice() + "/"
+                + configuration.getWarmUpType() + "/"
+                + configuration.getWarmUpDataType();
+        synchronized (this)
+        {
+            if (target.equals(this.warmedUp))
+                return;
+            this.warmedUp = target;
+        }
+
+        background.submit(new Runnable() {
+
+            @Override
+            public void run()
+            {
+                HistoryRESTEndpoint.this.warmUp(configuration);
+            }
+        });
+    }
+
+    private void warmUp(HistoryConfiguration configuration)
+    {
+        long start = System.currentTimeMillis();
+        try
+        {
+            this.warmUpSerializers();
+            if (configuration.getWarmUpDevice() != null)
+                this.warmUpQuery(configuration);
+
+            // the time to ready counts from activation, the first time only
+            long now = System.currentTimeMillis();
+            this.metrics.set("warmup.time", now - start);
+            this.metrics.counter("warmup.ready.time").compareAndSet(0,
+                    Math.max(1, now - this.activationTime));
+
+            LogHelper logger = this.logger;
+            if (logger != null)
+                logger.log(LogService.LOG_INFO,
+                        "Warmed up in " + (now - start) + " ms");
+        }
+        catch (IOException | RuntimeException e)
+        {
+            this.metrics.increment("warmup.failures");
+            LogHelper logger = this.logger;
+            if (logger != null)
+                logger.log(LogService.LOG_WARNING, "Unable to warm up", e);
+        }
+    }
+
+    /**
+     * Writes and parses sample documents of each kind handled by requests,
+     * so that the first requests do not pay for building the serializers and
+     * loading their classes
+     */
+    private void warmUpSerializers() throws IOException
+    {
+        EventDataPoint point = new EventDataPoint(new Date(), "0.0", "W");
+        EventDataStream stream = new EventDataStream("warmup", "", "warmup");
+        stream.setDatapoints(
+                new ArrayList<>(Collections.singletonList(point)));
+        EventDataStreamSet streamSet = new EventDataStreamSet("warmup");
+        streamSet.addDatastream(stream);
+
+        // responses
+        this.jsonWriter.writeValueAsString(streamSet, FieldSelection.ALL);
+        this.jsonWriter.writeValueAsString(stream, FieldSelection.ALL);
+        this.live.toFrame("warmup", point);
+        this.mapper.writeValueAsString(new CsvIngestReport());
+        TimeSeriesCodec.decode(TimeSeriesCodec.encode(streamSet));
+
+        // request bodies
+        this.pointsReader.readValue(
+                this.mapper.writeValueAsString(stream.getDatapoints()));
+        this.joinReader.readValue("{}");
+        this.exportReader.readValue("{}");
+        new CsvStreamParser(null, false, CsvStreamParser.EPOCH, null).parse(
+                "0,0.0,W\n", new EventDataStream("warmup", "", "warmup"));
+    }
+
+    /**
+     * Runs the configured warm-up query as a request would, waiting for an
+     * EventStore if none is bound yet
+     */
+    private void warmUpQuery(HistoryConfiguration configuration)
+            throws IOException
+    {
+        long now = System.currentTimeMillis();
+        HistoryQuery query = new HistoryQuery(configuration.getWarmUpDevice(),
+                null, null, new Date(now - configuration.getWarmUpRange()),
+                new Date(now), 0, EventStoreInfo.UNLIMITED_SIZE, true, null,
+                configuration.getWarmUpDataType(),
+                configuration.getWarmUpType(), FieldSelection.ALL, null);
+        this.serializeQuery(query);
+    }
+
+    private RecentPointIndex createRecentPointIndex(
+            HistoryConfiguration configuration)
+    {
+        return (configuration.getInsertDedupWindow() > 0)
+                ? new RecentPointIndex(configuration.getInsertDedupWindow(),
+                        configuration.getInsertDedupStreams())
+                : null;
+    }
+
+    private void clearRecentPoints()
+    {
+        RecentPointIndex recentPoints = this.recentPoints;
+        if (recentPoints != null)
+            recentPoints.clear();
+    }
+
     /**
-     * Binds the event store service needed for extracting / putting required
-     * historical data.
+     * Binds an event store service needed for extracting / putting required
+     * historical data. Several stores may be bound, each holding the portion
+     * of the history described by its service properties (see
+     * {@link EventStoreBinding}).
      * 
      * @param store
+     * @param properties
      */
-    public void addedEventStore(EventStore store)
+    public void addedEventStore(EventStore store, Map<String, Object> properties)
     {
-        // store the reference to the event store
-        this.eventStore.set(store);
+        // store the reference to the event store, requests in flight
+        // complete against the stores they started with
+        this.eventStore.add(store, properties);
+
+        // rollups shall be re-built from the new store, and the last stored
+        // points may differ
+        this.rollups.clear();
+        this.changePoints.clear();
+        this.clearRecentPoints();
+        this.statisticsCache.clear();
+        this.planner.clear();
+        this.chunks.clear();
     }
 
     /**
@@ -141,65 +627,106 @@ public class HistoryRESTEndpoint implements HistoryRESTApi
      */
     public void removedEventStore(EventStore store)
     {
-        // remove the reference to the given event store
-        this.eventStore.compareAndSet(store, null);
+        // remove the reference to the given event store, if it was the last
+        // one new requests wait for a replacement
+        if (this.eventStore.remove(store) && (!this.eventStore.isAvailable())
+                && (this.logger != null))
+            this.logger.log(LogService.LOG_WARNING,
+                    "EventStore unbound, waiting for a replacement");
+
+        // the last stored points may have gone with the store
+        this.changePoints.clear();
+        this.clearRecentPoints();
+        this.statisticsCache.clear();
+        this.planner.clear();
+        this.chunks.clear();
     }
 
     @Override
     public String getAllDeviceParametricNotifications(String deviceId,
             String startDate, String endDate, Integer offset, Integer limit,
+            String fields, String filter, HttpServletRequest httpRequest,
             HttpServletResponse httpResponse)
     {
         this.setCORSSupport(httpResponse);
         return this.getDeviceEventData(deviceId, startDate, endDate, offset,
-                limit, null, EventDataType.MEASURE, EventType.NOTIFICATION);
+                limit, null, EventDataType.MEASURE, EventType.NOTIFICATION,
+                null, fields, filter, httpRequest);
     }
 
     @Override
     public String getAllDeviceNonParametricNotifications(String deviceId,
             String startDate, String endDate, Integer offset, Integer limit,
-            Boolean aggregate, HttpServletResponse httpResponse)
+            Boolean aggregate, Boolean transitions, String fields,
+            String filter, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
     {
         this.setCORSSupport(httpResponse);
         return this.getDeviceEventData(deviceId, startDate, endDate, offset,
                 limit, aggregate, EventDataType.NOTMEASURE,
-                EventType.NOTIFICATION);
+                EventType.NOTIFICATION, transitions, fields, filter,
+                httpRequest);
     }
 
     @Override
     public String getAllDeviceContinuousStates(String deviceId,
             String startDate, String endDate, Integer offset, Integer limit,
+            String fields, String filter, HttpServletRequest httpRequest,
             HttpServletResponse httpResponse)
     {
         this.setCORSSupport(httpResponse);
         return this.getDeviceEventData(deviceId, startDate, endDate, offset,
-                limit, null, EventDataType.MEASURE, EventType.STATE);
+                limit, null, EventDataType.MEASURE, EventType.STATE, null,
+                fields, filter, httpRequest);
     }
 
     @Override
     public String getAllDeviceDiscreteStates(String deviceId, String startDate,
             String endDate, Integer offset, Integer limit, Boolean aggregate,
-            HttpServletResponse httpResponse)
+            Boolean transitions, String fields, String filter,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
     {
         this.setCORSSupport(httpResponse);
         return this.getDeviceEventData(deviceId, startDate, endDate, offset,
-                limit, aggregate, EventDataType.NOTMEASURE, EventType.STATE);
+                limit, aggregate, EventDataType.NOTMEASURE, EventType.STATE,
+                transitions, fields, filter, httpRequest);
     }
 
     private String getDeviceEventData(String deviceId, String startDate,
             String endDate, Integer offset, Integer limit, Boolean aggregate,
-            EventDataType dataType, EventType type)
+            EventDataType dataType, EventType type, Boolean transitions,
+            String fields, String filter, HttpServletRequest httpRequest)
     {
-        // The extracted notifications as JSON
-        String extractedNotificationsJSON = "";
+        // if the aggregate parameter is not specified, set the default at true,
+        // i.e., results will be aggregated in a single stream.
+        if (aggregate == null)
+        {
+            aggregate = true;
+        }
+
+        // by default all the points are returned
+        if (transitions == null)
+            transitions = false;
+
+        return this.executeQuery(
+                this.parseQuery(deviceId, null, null, startDate, endDate,
+                        offset, limit, aggregate, null, dataType, type,
+                        transitions, fields, filter),
+                this.getClientId(httpRequest));
+    }
 
+    private HistoryQuery parseQuery(String deviceId, String name, String params,
+            String startDate, String endDate, Integer offset, Integer limit,
+            boolean aggregate, String resolution, EventDataType dataType,
+            EventType type, boolean transitions, String fields, String filter)
+    {
         // parse the dates if present
-        Date start = new Date(0); // default, starts from the epoch
+        Date start = null;
         if ((startDate != null) && (!startDate.isEmpty()))
         {
             try
             {
-                start = this.sdf.parse(startDate);
+                start = this.parseDate(startDate);
             }
             catch (ParseException e)
             {
@@ -209,13 +736,14 @@ public class HistoryRESTEndpoint implements HistoryRESTApi
             }
         }
 
-        // parse the dates if present
-        Date end = new Date(); // default, the current time
+        // parse the dates if present, the default (null) is the current time
+        // at query execution
+        Date end = null;
         if ((endDate != null) && (!endDate.isEmpty()))
         {
             try
             {
-                end = sdf.parse(endDate);
+                end = this.parseDate(endDate);
             }
             catch (ParseException e)
             {
@@ -225,6 +753,21 @@ public class HistoryRESTEndpoint implements HistoryRESTApi
             }
         }
 
+        return this.parseQuery(deviceId, name, params, start, end, offset,
+                limit, aggregate, resolution, dataType, type, transitions,
+                fields, filter);
+    }
+
+    private HistoryQuery parseQuery(String deviceId, String name, String params,
+            Date start, Date end, Integer offset, Integer limit,
+            boolean aggregate, String resolution, EventDataType dataType,
+            EventType type, boolean transitions, String fields, String filter)
+    {
+        // if the start is not specified, start from the epoch
+        boolean startGiven = (start != null);
+        if (!startGiven)
+            start = new Date(0);
+
         // if the offset is not specified set the default value of 0 , i.e.,
         // start from the first result.
         if (offset == null)
@@ -235,72 +778,120 @@ public class HistoryRESTEndpoint implements HistoryRESTApi
         if (limit == null)
             limit = EventStoreInfo.UNLIMITED_SIZE;
 
-        // if the aggregate parameter is not specified, set the default at true,
-        // i.e., results will be aggregated in a single stream.
-        if (aggregate == null)
+        // enforce the server-side maximum range and limit, if configured
+        HistoryConfiguration configuration = this.configuration;
+        if (configuration.getMaxRange() > 0)
         {
-            aggregate = true;
+            if (!startGiven)
+            {
+                // no start given, query the maximum range only; rounding to
+                // the second keeps concurrent requests coalescing
+                long last = (end != null) ? end.getTime()
+                        : (System.currentTimeMillis() / 1000L) * 1000L;
+                start = new Date(last - configuration.getMaxRange());
+            }
+            else if (((end != null) ? end.getTime()
+                    : System.currentTimeMillis())
+                    - start.getTime() > configuration.getMaxRange())
+            {
+                this.logger.log(LogService.LOG_WARNING,
+                        "Rejected query exceeding the maximum range for "
+                                + deviceId);
+                throw new WebApplicationException(Response.Status.BAD_REQUEST);
+            }
+        }
+        if ((configuration.getMaxLimit() > 0)
+                && ((limit == EventStoreInfo.UNLIMITED_SIZE)
+                        || (limit > configuration.getMaxLimit())))
+            limit = configuration.getMaxLimit();
+
+        // if a resolution is given, rollups shall be returned instead of the
+        // raw data points
+        RollupTier tier = null;
+        if ((resolution != null) && (!resolution.isEmpty()))
+        {
+            tier = RollupTier.fromResolution(resolution);
+            if (tier == null)
+            {
+                this.logger.log(LogService.LOG_ERROR,
+                        "Unknown rollup resolution: " + resolution);
+                throw new WebApplicationException(Response.Status.BAD_REQUEST);
+            }
+
+            // with no start, rollups begin at the tier horizon, so that they
+            // are served from the tiers rather than from a raw read of the
+            // whole history; rounding to the second keeps concurrent requests
+            // coalescing
+            if (!startGiven)
+                start = new Date(Math.max(start.getTime(),
+                        tier.getHorizon((System.currentTimeMillis() / 1000L)
+                                * 1000L)));
+        }
+
+        // parse the attributes to return, if given
+        FieldSelection selection = FieldSelection.parse(fields);
+        if (selection == null)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unknown attribute in the fields selection: " + fields);
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
 
+        // parse the filter on data points, if given; transitions are the
+        // points changing the value, each lasting until the next one
+        EventDataFilter dataFilter = null;
+        if (transitions)
+        {
+            filter = ((filter != null) && (!filter.trim().isEmpty()))
+                    ? filter + ";changes" : "changes";
+            selection = selection.withDurations();
+        }
         try
         {
-            EventDataStreamSet events = new EventDataStreamSet();
+            dataFilter = EventDataFilter.parse(filter);
+        }
+        catch (IllegalArgumentException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unable to parse the filter: " + filter, e);
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        if ((dataFilter != null) && (tier != null))
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Filters do not apply to rollups");
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
 
-            switch (type)
-            {
-                case NOTIFICATION:
-                {
-                    switch (dataType)
-                    {
-                        case MEASURE:
-                        {
-                            events = this.eventStore.get()
-                                    .getAllDeviceParametricNotifications(
-                                            deviceId, start, end, offset,
-                                            limit);
-                            break;
-                        }
-                        case NOTMEASURE:
-                        {
-                            events = this.eventStore.get()
-                                    .getAllDeviceNonParametricNotifications(
-                                            deviceId, start, end, offset, limit,
-                                            aggregate);
-                            break;
-                        }
-                    }
+        return new HistoryQuery(deviceId, name, params, start, end, offset,
+                limit, aggregate, tier, dataType, type, selection, dataFilter);
+    }
 
-                    break;
-                }
-                case STATE:
-                {
-                    switch (dataType)
-                    {
-                        case MEASURE:
-                        {
-                            events = this.eventStore.get()
-                                    .getAllDeviceContinuousStates(deviceId,
-                                            start, end, offset, limit);
-                            break;
-                        }
-                        case NOTMEASURE:
+    private String executeQuery(final HistoryQuery query, String client)
+    {
+        // The extracted notifications as JSON
+        String extractedNotificationsJSON = "";
+
+        try
+        {
+            // concurrent requests for the same data share a single
+            // extraction and serialization
+            extractedNotificationsJSON = this.executeQuery(query, client,
+                    this.inflight, this.lastKnownGood, new Callable<String>() {
+
+                        @Override
+                        public String call() throws Exception
                         {
-                            events = this.eventStore.get()
-                                    .getAllDeviceDiscreteStates(deviceId, start,
-                                            end, offset, limit, aggregate);
-                            break;
+                            return HistoryRESTEndpoint.this
+                                    .serializeQuery(query);
                         }
-                    }
-                }
-            }
-
-            extractedNotificationsJSON = this.mapper.writeValueAsString(events);
+                    });
         }
         catch (IOException e)
         {
             this.logger.log(LogService.LOG_ERROR,
-                    "Unable to compose the response message for the paramteric notifications of "
-                            + deviceId,
+                    "Unable to compose the response message for the history of "
+                            + query.getDeviceId(),
                     e);
         }
 
@@ -313,459 +904,3106 @@ public class HistoryRESTEndpoint implements HistoryRESTApi
             return extractedNotificationsJSON;
     }
 
-    @Override
-    public String getDeviceSpecificParametricNotification(String deviceId,
-            String notificationName, String notificationParams,
-            String startDate, String endDate, Integer offset, Integer limit,
-            HttpServletResponse httpResponse)
+    /**
+     * Runs the given query, charging its cost on the client budget: the
+     * response is shared with the concurrent requests for the same query and
+     * kept to be served again while no store is bound
+     */
+    private <V> V executeQuery(final HistoryQuery query, final String client,
+            SingleFlight<HistoryQuery, V> inflight,
+            final ResponseBuffer<HistoryQuery, V> lastKnownGood,
+            final Callable<V> producer) throws IOException
     {
-        this.setCORSSupport(httpResponse);
-        return this.getDeviceSpecificEventData(deviceId, notificationName,
-                notificationParams, startDate, endDate, offset, limit,
-                EventDataType.MEASURE, EventType.NOTIFICATION);
+        // charge the query cost on the client budget
+        final AdmissionController admission = this.admission;
+        final long cost = this.admit(admission, query, client);
+        final AtomicBoolean led = new AtomicBoolean();
+
+        // while no store is bound, repeated reads are served from the last
+        // known good responses
+        if (!this.eventStore.isAvailable())
+        {
+            V lastKnown = lastKnownGood.get(query);
+            if (lastKnown != null)
+            {
+                this.metrics.increment("store.buffer.hits");
+                return lastKnown;
+            }
+        }
+
+        try
+        {
+            return inflight.execute(query, new Callable<V>() {
+
+                @Override
+                public V call() throws Exception
+                {
+                    led.set(true);
+
+                    // heavy queries also need a global slot
+                    HistoryRESTEndpoint.this.acquire(admission, client, cost);
+                    try
+                    {
+                        V response = producer.call();
+                        lastKnownGood.put(query, response);
+                        return response;
+                    }
+                    finally
+                    {
+                        admission.release(cost);
+                    }
+                }
+            });
+        }
+        catch (WebApplicationException e)
+        {
+            // requests sharing the extraction of a leader which got no
+            // global slot did not run either, give their cost back as well
+            if ((!led.get()) && (e.getResponse() != null)
+                    && (e.getResponse().getStatus() == 429))
+                admission.refund(client, cost);
+            throw e;
+        }
     }
 
-    @Override
-    public String getDeviceSpecificParametricNotification(String deviceId,
-            String notificationName, String startDate, String endDate,
-            Integer offset, Integer limit, HttpServletResponse httpResponse)
+    /**
+     * Charges the cost of the given query on the client budget
+     * 
+     * @return the query cost
+     */
+    private long admit(AdmissionController admission, HistoryQuery query,
+            String client)
     {
-        this.setCORSSupport(httpResponse);
-        return this.getDeviceSpecificEventData(deviceId, notificationName, null,
-                startDate, endDate, offset, limit, EventDataType.MEASURE,
-                EventType.NOTIFICATION);
+        long cost = admission.estimateCost(query, System.currentTimeMillis());
+        this.admit(admission, client, cost, query.toString());
+        return cost;
     }
 
-    @Override
-    public String getDeviceSpecificNonParametricNotification(String deviceId,
-            String notificationName, String startDate, String endDate,
-            Integer offset, Integer limit, HttpServletResponse httpResponse)
+    /**
+     * Charges the given cost on the client budget
+     */
+    private void admit(AdmissionController admission, String client,
+            long cost, String request)
     {
-        this.setCORSSupport(httpResponse);
-        return this.getDeviceSpecificEventData(deviceId, notificationName, null,
-                startDate, endDate, offset, limit, EventDataType.NOTMEASURE,
-                EventType.NOTIFICATION);
+        long retryAfter = admission.admit(client, cost);
+        if (retryAfter > 0)
+        {
+            this.logger.log(LogService.LOG_WARNING, "Rate limited client "
+                    + client + " for query " + request + " (cost " + cost
+                    + ")");
+            throw this.tooManyRequests(retryAfter);
+        }
+    }
+
+    /**
+     * Acquires the global slot needed by heavy queries, giving back the cost
+     * already charged on the client budget if none is available
+     */
+    private void acquire(AdmissionController admission, String client,
+            long cost)
+    {
+        if (!admission.acquire(cost))
+        {
+            admission.refund(client, cost);
+            throw this.tooManyRequests(1000);
+        }
+    }
+
+    private String serializeQuery(HistoryQuery query) throws IOException
+    {
+        Date end = query.resolveEnd();
+
+        if (!query.isDeviceSpecific())
+        {
+            return this.jsonWriter.writeValueAsString(
+                    this.fetchDeviceEventData(query.getDeviceId(),
+                            query.getStart(), end, query.getOffset(),
+                            query.getLimit(), query.isAggregate(),
+                            query.getDataType(), query.getType(),
+                            query.getFilter()),
+                    query.getFields());
+        }
+        else if (query.getTier() != null)
+        {
+            return this.jsonWriter.writeValueAsString(
+                    this.getDeviceSpecificRollups(query.getStreamKey(),
+                            query.getTier(), query.getStart(), end,
+                            query.getOffset(), query.getLimit()),
+                    query.getFields());
+        }
+        else if (query.getFilter() != null)
+        {
+            return this.jsonWriter.writeValueAsString(
+                    this.fetchDeviceSpecificEventData(query.getStreamKey(),
+                            query.getStart(), end, query.getOffset(),
+                            query.getLimit(), query.getFilter()),
+                    query.getFields());
+        }
+        else
+        {
+            return this.jsonWriter.writeValueAsString(
+                    this.fetchDeviceSpecificEventData(query.getDeviceId(),
+                            query.getName(), query.getParams(),
+                            query.getStart(), end, query.getOffset(),
+                            query.getLimit(), query.getDataType(),
+                            query.getType()),
+                    query.getFields());
+        }
     }
 
     @Override
-    public String getDeviceSpecificContinuousStates(String deviceId,
-            String stateName, String stateParams, String startDate,
-            String endDate, Integer offset, Integer limit,
+    public Response getAllDeviceParametricNotificationsTimeSeries(
+            String deviceId, String startDate, String endDate, Integer offset,
+            Integer limit, String filter, HttpServletRequest httpRequest,
             HttpServletResponse httpResponse)
     {
-        this.setCORSSupport(httpResponse);
-        return this.getDeviceSpecificEventData(deviceId, stateName, stateParams,
-                startDate, endDate, offset, limit, EventDataType.MEASURE,
-                EventType.STATE);
+        return this.getDeviceEventDataTimeSeries(deviceId, startDate, endDate,
+                offset, limit, null, EventDataType.MEASURE,
+                EventType.NOTIFICATION, filter, httpRequest);
     }
 
     @Override
-    public String getDeviceSpecificContinuousStates(String deviceId,
-            String stateName, String startDate, String endDate, Integer offset,
-            Integer limit, HttpServletResponse httpResponse)
+    public Response getAllDeviceNonParametricNotificationsTimeSeries(
+            String deviceId, String startDate, String endDate, Integer offset,
+            Integer limit, Boolean aggregate, String filter,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
     {
-        this.setCORSSupport(httpResponse);
-        return this.getDeviceSpecificEventData(deviceId, stateName, null,
-                startDate, endDate, offset, limit, EventDataType.MEASURE,
-                EventType.STATE);
+        return this.getDeviceEventDataTimeSeries(deviceId, startDate, endDate,
+                offset, limit, aggregate, EventDataType.NOTMEASURE,
+                EventType.NOTIFICATION, filter, httpRequest);
     }
 
     @Override
-    public String getDeviceSpecificDiscreteStates(String deviceId,
-            String stateName, String startDate, String endDate, Integer offset,
-            Integer limit, HttpServletResponse httpResponse)
+    public Response getAllDeviceContinuousStatesTimeSeries(String deviceId,
+            String startDate, String endDate, Integer offset, Integer limit,
+            String filter, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
     {
-        this.setCORSSupport(httpResponse);
-        return this.getDeviceSpecificEventData(deviceId, stateName, null,
-                startDate, endDate, offset, limit, EventDataType.NOTMEASURE,
-                EventType.STATE);
+        return this.getDeviceEventDataTimeSeries(deviceId, startDate, endDate,
+                offset, limit, null, EventDataType.MEASURE, EventType.STATE,
+                filter, httpRequest);
     }
 
-    private String getDeviceSpecificEventData(String deviceId, String name,
-            String params, String startDate, String endDate, Integer offset,
-            Integer limit, EventDataType dataType, EventType type)
+    @Override
+    public Response getAllDeviceDiscreteStatesTimeSeries(String deviceId,
+            String startDate, String endDate, Integer offset, Integer limit,
+            Boolean aggregate, String filter, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
     {
-        // The extracted notifications as JSON
-        String extractedNotificationsJSON = "";
+        return this.getDeviceEventDataTimeSeries(deviceId, startDate, endDate,
+                offset, limit, aggregate, EventDataType.NOTMEASURE,
+                EventType.STATE, filter, httpRequest);
+    }
 
-        // parse the dates if present
-        Date start = new Date(0); // default, starts from the epoch
-        if ((startDate != null) && (!startDate.isEmpty()))
+    @Override
+    public Response getDeviceSpecificParametricNotificationTimeSeries(
+            String deviceId, String notificationName, String notificationParams,
+            String startDate, String endDate, Integer offset, Integer limit,
+            String filter, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+    {
+        return this.getDeviceSpecificEventDataTimeSeries(deviceId,
+                notificationName, notificationParams, startDate, endDate,
+                offset, limit, EventDataType.MEASURE, EventType.NOTIFICATION,
+                filter, httpRequest);
+    }
+
+    @Override
+    public Response getDeviceSpecificParametricNotificationTimeSeries(
+            String deviceId, String notificationName, String startDate,
+            String endDate, Integer offset, Integer limit, String filter,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+    {
+        return this.getDeviceSpecificEventDataTimeSeries(deviceId,
+                notificationName, null, startDate, endDate, offset, limit,
+                EventDataType.MEASURE, EventType.NOTIFICATION, filter,
+                httpRequest);
+    }
+
+    @Override
+    public Response getDeviceSpecificNonParametricNotificationTimeSeries(
+            String deviceId, String notificationName, String startDate,
+            String endDate, Integer offset, Integer limit, String filter,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+    {
+        return this.getDeviceSpecificEventDataTimeSeries(deviceId,
+                notificationName, null, startDate, endDate, offset, limit,
+                EventDataType.NOTMEASURE, EventType.NOTIFICATION, filter,
+                httpRequest);
+    }
+
+    @Override
+    public Response getDeviceSpecificContinuousStatesTimeSeries(String deviceId,
+            String stateName, String stateParams, String startDate,
+            String endDate, Integer offset, Integer limit, String filter,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+    {
+        return this.getDeviceSpecificEventDataTimeSeries(deviceId, stateName,
+                stateParams, startDate, endDate, offset, limit,
+                EventDataType.MEASURE, EventType.STATE, filter, httpRequest);
+    }
+
+    @Override
+    public Response getDeviceSpecificContinuousStatesTimeSeries(String deviceId,
+            String stateName, String startDate, String endDate, Integer offset,
+            Integer limit, String filter, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+    {
+        return this.getDeviceSpecificEventDataTimeSeries(deviceId, stateName,
+                null, startDate, endDate, offset, limit, EventDataType.MEASURE,
+                EventType.STATE, filter, httpRequest);
+    }
+
+    @Override
+    public Response getDeviceSpecificDiscreteStatesTimeSeries(String deviceId,
+            String stateName, String startDate, String endDate, Integer offset,
+            Integer limit, String filter, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+    {
+        return this.getDeviceSpecificEventDataTimeSeries(deviceId, stateName,
+                null, startDate, endDate, offset, limit,
+                EventDataType.NOTMEASURE, EventType.STATE, filter, httpRequest);
+    }
+
+    private Response getDeviceEventDataTimeSeries(String deviceId,
+            String startDate, String endDate, Integer offset, Integer limit,
+            Boolean aggregate, EventDataType dataType, EventType type,
+            String filter, HttpServletRequest httpRequest)
+    {
+        // aggregated by default, as for JSON responses
+        if (aggregate == null)
+            aggregate = true;
+
+        return this.executeTimeSeriesQuery(
+                this.parseQuery(deviceId, null, null, startDate, endDate,
+                        offset, limit, aggregate, null, dataType, type, false,
+                        null, filter),
+                this.getClientId(httpRequest));
+    }
+
+    private Response getDeviceSpecificEventDataTimeSeries(String deviceId,
+            String name, String params, String startDate, String endDate,
+            Integer offset, Integer limit, EventDataType dataType,
+            EventType type, String filter, HttpServletRequest httpRequest)
+    {
+        return this.executeTimeSeriesQuery(
+                this.parseQuery(deviceId, name, (params != null) ? params : "",
+                        startDate, endDate, offset, limit, true, null,
+                        dataType, type, false, null, filter),
+                this.getClientId(httpRequest));
+    }
+
+    private Response executeTimeSeriesQuery(final HistoryQuery query,
+            String client)
+    {
+        byte[] data = null;
+        try
+        {
+            // served as JSON queries are, only encoded differently
+            data = this.executeQuery(query, client, this.inflightTimeSeries,
+                    this.lastKnownTimeSeries, new Callable<byte[]>() {
+
+                        @Override
+                        public byte[] call() throws Exception
+                        {
+                            return HistoryRESTEndpoint.this.encodeQuery(query);
+                        }
+                    });
+        }
+        catch (IOException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unable to encode the history of " + query.getDeviceId(),
+                    e);
+            throw new WebApplicationException(
+                    Response.Status.INTERNAL_SERVER_ERROR);
+        }
+
+        return Response.ok(data, HistoryRESTApi.TIMESERIES)
+                .header("Access-Control-Allow-Origin", "*").build();
+    }
+
+    private byte[] encodeQuery(HistoryQuery query)
+    {
+        Date end = query.resolveEnd();
+        if (!query.isDeviceSpecific())
+            return TimeSeriesCodec.encode(this.fetchDeviceEventData(
+                    query.getDeviceId(), query.getStart(), end,
+                    query.getOffset(), query.getLimit(), query.isAggregate(),
+                    query.getDataType(), query.getType(), query.getFilter()));
+        else if (query.getFilter() != null)
+            return TimeSeriesCodec.encode(this.fetchDeviceSpecificEventData(
+                    query.getStreamKey(), query.getStart(), end,
+                    query.getOffset(), query.getLimit(), query.getFilter()));
+        else
+            return TimeSeriesCodec.encode(this.fetchDeviceSpecificEventData(
+                    query.getDeviceId(), query.getName(), query.getParams(),
+                    query.getStart(), end, query.getOffset(),
+                    query.getLimit(), query.getDataType(), query.getType()));
+    }
+
+    /**
+     * Extracts the points of a set of streams satisfying the given filter,
+     * offset and limit apply to the matching points of each stream
+     */
+    private EventDataStreamSet fetchDeviceEventData(String deviceId,
+            Date start, Date end, int offset, int limit, boolean aggregate,
+            EventDataType dataType, EventType type, EventDataFilter filter)
+    {
+        if (filter == null)
+            return this.fetchDeviceEventData(deviceId, start, end, offset,
+                    limit, aggregate, dataType, type);
+
+        // page through the store as for a single stream, keeping one pass
+        // per stream so that only the matching points are held in memory;
+        // depending on the store the page size applies to the whole set or
+        // to each stream, a page shorter than that is the last one anyway
+        String deviceUri = deviceId;
+        Map<String, EventDataStream> streams = new LinkedHashMap<>();
+        Map<String, EventDataFilter.Pass> passes = new HashMap<>();
+
+        int pageOffset = 0;
+        int pageSize;
+        do
+        {
+            EventDataStreamSet page = this.fetchDeviceEventData(deviceId,
+                    start, end, pageOffset,
+                    HistoryRESTEndpoint.FILTER_PAGE_SIZE, aggregate, dataType,
+                    type);
+            if (page.getDeviceUri() != null)
+                deviceUri = page.getDeviceUri();
+
+            pageSize = 0;
+            if (page.getDatastreams() != null)
+            {
+                for (EventDataStream stream : page.getDatastreams())
+                {
+                    if (stream.getDatapoints() == null)
+                        continue;
+
+                    String key = stream.getName() + "\u0000"
+                            + stream.getParams();
+                    EventDataStream target = streams.get(key);
+                    if (target == null)
+                    {
+                        target = new EventDataStream(stream.getName(),
+                                stream.getParams(), stream.getDeviceUri());
+                        streams.put(key, target);
+                        passes.put(key, filter.newPass(offset, limit));
+                    }
+
+                    EventDataFilter.Pass pass = passes.get(key);
+                    for (EventDataPoint point : stream.getDatapoints())
+                    {
+                        if (pass.isComplete())
+                            break;
+                        pass.offer(point, target);
+                    }
+                    pageSize += stream.getDatapoints().size();
+                }
+            }
+            pageOffset += HistoryRESTEndpoint.FILTER_PAGE_SIZE;
+        } while (pageSize >= HistoryRESTEndpoint.FILTER_PAGE_SIZE);
+
+        EventDataStreamSet filtered = new EventDataStreamSet(deviceUri);
+        for (EventDataStream stream : streams.values())
+            filtered.addDatastream(stream);
+        return filtered;
+    }
+
+    /**
+     * Extracts the points of a single stream satisfying the given filter,
+     * reading the store page by page until the limit is reached
+     */
+    private EventDataStream fetchDeviceSpecificEventData(EventStreamKey key,
+            Date start, Date end, int offset, int limit,
+            EventDataFilter filter)
+    {
+        EventDataStream filtered = new EventDataStream(key.getName(),
+                key.getParams(), key.getDeviceId());
+        EventDataFilter.Pass pass = filter.newPass(offset, limit);
+
+        int pageOffset = 0;
+        List<EventDataPoint> page;
+        do
+        {
+            page = this.fetchDeviceSpecificEventData(key.getDeviceId(),
+                    key.getName(), key.getParams(), start, end, pageOffset,
+                    HistoryRESTEndpoint.FILTER_PAGE_SIZE, key.getDataType(),
+                    key.getType()).getDatapoints();
+            if (page == null)
+                break;
+
+            for (EventDataPoint point : page)
+            {
+                pass.offer(point, filtered);
+                if (pass.isComplete())
+                    return filtered;
+            }
+            pageOffset += HistoryRESTEndpoint.FILTER_PAGE_SIZE;
+        } while (page.size() >= HistoryRESTEndpoint.FILTER_PAGE_SIZE);
+
+        return filtered;
+    }
+
+    /**
+     * Extracts the given range of a set of streams as planned, as for single
+     * streams; the sub-ranges of sets are not cached
+     */
+    private EventDataStreamSet fetchDeviceEventData(String deviceId,
+            Date start, Date end, int offset, int limit, boolean aggregate,
+            EventDataType dataType, EventType type)
+    {
+        EventStreamKey family = new EventStreamKey(deviceId, null, null,
+                dataType, type);
+        QueryPlanner planner = this.planner;
+        long generation = planner.getGeneration();
+        Date from = planner.clamp(family, start);
+        if (from.after(end))
+        {
+            this.metrics.increment("planner.skipped");
+            return new EventDataStreamSet(deviceId);
+        }
+        if (from != start)
+            this.metrics.increment("planner.clamped");
+
+        HistoryConfiguration configuration = this.configuration;
+        List<Date[]> ranges = ((offset == 0)
+                && (limit == EventStoreInfo.UNLIMITED_SIZE))
+                        ? QueryPlanner.split(from, end,
+                                configuration.getPlannerSplitSpan(),
+                                configuration.getPlannerSplitMax())
+                        : null;
+
+        EventDataStreamSet events;
+        if ((ranges == null) || (ranges.size() == 1))
+            events = this.readDeviceEventData(deviceId, from, end, offset,
+                    limit, aggregate, dataType, type);
+        else
+        {
+            // read all the sub-ranges from all the stores in parallel, then
+            // merge them in order
+            this.metrics.increment("planner.split");
+            List<List<Future<EventDataStreamSet>>> partials = new ArrayList<>();
+            for (Date[] range : ranges)
+                partials.add(this.submitDeviceEventData(
+                        this.acquireStores(deviceId, range[0], range[1]),
+                        deviceId, range[0], range[1], 0,
+                        EventStoreInfo.UNLIMITED_SIZE, aggregate, dataType,
+                        type));
+
+            List<EventDataStreamSet> parts = new ArrayList<>();
+            try
+            {
+                for (List<Future<EventDataStreamSet>> range : partials)
+                    parts.add(this.mergeDeviceEventData(range, deviceId, 0,
+                            EventStoreInfo.UNLIMITED_SIZE));
+            }
+            finally
+            {
+                // do not leave useless work behind on failures
+                for (List<Future<EventDataStreamSet>> range : partials)
+                    HistoryRESTEndpoint.cancel(range);
+            }
+            events = EventDataMerger.mergeSets(deviceId, parts, 0,
+                    EventStoreInfo.UNLIMITED_SIZE);
+        }
+
+        // with no offset, the first point found is the first of the range
+        if (offset == 0)
+        {
+            Long first = null;
+            if (events.getDatastreams() != null)
+            {
+                for (EventDataStream stream : events.getDatastreams())
+                {
+                    Long streamFirst = HistoryRESTEndpoint.firstAt(stream);
+                    if ((streamFirst != null)
+                            && ((first == null) || (streamFirst < first)))
+                        first = streamFirst;
+                }
+            }
+            planner.learn(family, from, end, first, generation);
+        }
+        return events;
+    }
+
+    /**
+     * Reads the given range of a set of streams from the bound stores, in
+     * parallel if held by several ones
+     */
+    private EventDataStreamSet readDeviceEventData(String deviceId,
+            Date start, Date end, int offset, int limit, boolean aggregate,
+            EventDataType dataType, EventType type)
+    {
+        // keep the same stores for the whole request
+        List<EventStoreBinding> stores = this.acquireStores(deviceId, start,
+                end);
+
+        // a single store is read by the requesting thread
+        if (stores.size() == 1)
+            return this.fetchDeviceEventData(stores.get(0).getStore(),
+                    deviceId, start, end, offset, limit, aggregate, dataType,
+                    type);
+
+        return this.mergeDeviceEventData(
+                this.submitDeviceEventData(stores, deviceId, start, end,
+                        offset, limit, aggregate, dataType, type),
+                deviceId, offset, limit);
+    }
+
+    /**
+     * Starts reading the given range of a set of streams from each of the
+     * given stores, for the part of the range it holds
+     */
+    private List<Future<EventDataStreamSet>> submitDeviceEventData(
+            List<EventStoreBinding> stores, final String deviceId, Date start,
+            Date end, int offset, int limit, final boolean aggregate,
+            final EventDataType dataType, final EventType type)
+    {
+        // with several stores, offset and limit apply to the merged result
+        final int partialOffset = (stores.size() == 1) ? offset : 0;
+        final int partialLimit = (stores.size() == 1) ? limit
+                : EventDataMerger.partialLimit(offset, limit);
+
+        List<Future<EventDataStreamSet>> partials = new ArrayList<>();
+        for (final EventStoreBinding binding : stores)
+        {
+            final Date from = new Date(
+                    Math.max(start.getTime(), binding.getStart()));
+            final Date to = new Date(Math.min(end.getTime(), binding.getEnd()));
+            partials.add(this.federation
+                    .submit(new Callable<EventDataStreamSet>() {
+
+                        @Override
+                        public EventDataStreamSet call() throws Exception
+                        {
+                            return HistoryRESTEndpoint.this
+                                    .fetchDeviceEventData(binding.getStore(),
+                                            deviceId, from, to, partialOffset,
+                                            partialLimit, aggregate, dataType,
+                                            type);
+                        }
+                    }));
+        }
+        return partials;
+    }
+
+    /**
+     * Waits for the reads started by
+     * {@link #submitDeviceEventData(List, String, Date, Date, int, int, boolean, EventDataType, EventType)}
+     * and merges their results
+     */
+    private EventDataStreamSet mergeDeviceEventData(
+            List<Future<EventDataStreamSet>> partials, String deviceId,
+            int offset, int limit)
+    {
+        List<EventDataStreamSet> results = this.collect(partials, deviceId);
+        if (results.isEmpty())
+            return new EventDataStreamSet(deviceId);
+        else if (results.size() == 1)
+            return results.get(0);
+        return EventDataMerger.mergeSets(deviceId, results, offset, limit);
+    }
+
+    private EventDataStreamSet fetchDeviceEventData(EventStore store,
+            String deviceId, Date start, Date end, int offset, int limit,
+            boolean aggregate, EventDataType dataType, EventType type)
+    {
+        EventDataStreamSet events = new EventDataStreamSet();
+
+        switch (type)
+        {
+            case NOTIFICATION:
+            {
+                switch (dataType)
+                {
+                    case MEASURE:
+                    {
+                        events = store
+                                .getAllDeviceParametricNotifications(deviceId,
+                                        start, end, offset, limit);
+                        break;
+                    }
+                    case NOTMEASURE:
+                    {
+                        events = store
+                                .getAllDeviceNonParametricNotifications(
+                                        deviceId, start, end, offset, limit,
+                                        aggregate);
+                        break;
+                    }
+                }
+
+                break;
+            }
+            case STATE:
+            {
+                switch (dataType)
+                {
+                    case MEASURE:
+                    {
+                        events = store
+                                .getAllDeviceContinuousStates(deviceId, start,
+                                        end, offset, limit);
+                        break;
+                    }
+                    case NOTMEASURE:
+                    {
+                        events = store
+                                .getAllDeviceDiscreteStates(deviceId, start,
+                                        end, offset, limit, aggregate);
+                        break;
+                    }
+                }
+            }
+        }
+
+        return events;
+    }
+
+    @Override
+    public String getDeviceSpecificParametricNotification(String deviceId,
+            String notificationName, String notificationParams,
+            String startDate, String endDate, Integer offset, Integer limit,
+            String resolution, String fields, String filter,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+    {
+        this.setCORSSupport(httpResponse);
+        return this.getDeviceSpecificEventData(deviceId, notificationName,
+                notificationParams, startDate, endDate, offset, limit,
+                resolution, EventDataType.MEASURE, EventType.NOTIFICATION, null,
+                fields, filter, httpRequest);
+    }
+
+    @Override
+    public String getDeviceSpecificParametricNotification(String deviceId,
+            String notificationName, String startDate, String endDate,
+            Integer offset, Integer limit, String resolution, String fields,
+            String filter, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+    {
+        this.setCORSSupport(httpResponse);
+        return this.getDeviceSpecificEventData(deviceId, notificationName, null,
+                startDate, endDate, offset, limit, resolution,
+                EventDataType.MEASURE, EventType.NOTIFICATION, null, fields,
+                filter, httpRequest);
+    }
+
+    @Override
+    public String getDeviceSpecificNonParametricNotification(String deviceId,
+            String notificationName, String startDate, String endDate,
+            Integer offset, Integer limit, Boolean transitions, String fields,
+            String filter, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+    {
+        this.setCORSSupport(httpResponse);
+        return this.getDeviceSpecificEventData(deviceId, notificationName, null,
+                startDate, endDate, offset, limit, null,
+                EventDataType.NOTMEASURE, EventType.NOTIFICATION, transitions,
+                fields, filter, httpRequest);
+    }
+
+    @Override
+    public String getDeviceSpecificContinuousStates(String deviceId,
+            String stateName, String stateParams, String startDate,
+            String endDate, Integer offset, Integer limit, String resolution,
+            String fields, String filter, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+    {
+        this.setCORSSupport(httpResponse);
+        return this.getDeviceSpecificEventData(deviceId, stateName, stateParams,
+                startDate, endDate, offset, limit, resolution,
+                EventDataType.MEASURE, EventType.STATE, null, fields, filter,
+                httpRequest);
+    }
+
+    @Override
+    public String getDeviceSpecificContinuousStates(String deviceId,
+            String stateName, String startDate, String endDate, Integer offset,
+            Integer limit, String resolution, String fields, String filter,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+    {
+        this.setCORSSupport(httpResponse);
+        return this.getDeviceSpecificEventData(deviceId, stateName, null,
+                startDate, endDate, offset, limit, resolution,
+                EventDataType.MEASURE, EventType.STATE, null, fields, filter,
+                httpRequest);
+    }
+
+    @Override
+    public String getDeviceSpecificDiscreteStates(String deviceId,
+            String stateName, String startDate, String endDate, Integer offset,
+            Integer limit, Boolean transitions, String fields, String filter,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+    {
+        this.setCORSSupport(httpResponse);
+        return this.getDeviceSpecificEventData(deviceId, stateName, null,
+                startDate, endDate, offset, limit, null,
+                EventDataType.NOTMEASURE, EventType.STATE, transitions, fields,
+                filter, httpRequest);
+    }
+
+    private String getDeviceSpecificEventData(String deviceId, String name,
+            String params, String startDate, String endDate, Integer offset,
+            Integer limit, String resolution, EventDataType dataType,
+            EventType type, Boolean transitions, String fields, String filter,
+            HttpServletRequest httpRequest)
+    {
+        // if the parameters are null replace with the empty string
+        if ((params == null) || (params.isEmpty()))
+            params = "";
+
+        // by default all the points are returned
+        if (transitions == null)
+            transitions = false;
+
+        return this.executeQuery(
+                this.parseQuery(deviceId, name, params, startDate, endDate,
+                        offset, limit, true, resolution, dataType, type,
+                        transitions, fields, filter),
+                this.getClientId(httpRequest));
+    }
+
+    /**
+     * Extracts the given range of a stream as planned: the range starts from
+     * the first point of the stream, if known, and whole-range reads are
+     * split into aligned sub-ranges read in parallel, the past ones being
+     * cached
+     */
+    private EventDataStream fetchDeviceSpecificEventData(String deviceId,
+            String name, String params, Date start, Date end, int offset,
+            int limit, EventDataType dataType, EventType type)
+    {
+        return this.finishDeviceSpecificEventData(
+                this.startDeviceSpecificEventData(new EventStreamKey(deviceId,
+                        name, params, dataType, type), start, end, offset,
+                        limit));
+    }
+
+    /**
+     * Plans the extraction of the given range of a stream and starts reading
+     * from the stores the parts not cached, without waiting for them, so
+     * that several streams can be read in parallel
+     */
+    private PlannedRead startDeviceSpecificEventData(EventStreamKey key,
+            Date start, Date end, int offset, int limit)
+    {
+        QueryPlanner planner = this.planner;
+        PlannedRead read = new PlannedRead(key, planner.getGeneration(),
+                planner.clamp(key, start), end, offset, limit,
+                this.chunks);
+        if (read.from.after(end))
+        {
+            this.metrics.increment("planner.skipped");
+            return read;
+        }
+        if (read.from != start)
+            this.metrics.increment("planner.clamped");
+
+        HistoryConfiguration configuration = this.configuration;
+        read.ranges = ((offset == 0)
+                && (limit == EventStoreInfo.UNLIMITED_SIZE))
+                        ? QueryPlanner.split(read.from, end,
+                                configuration.getPlannerSplitSpan(),
+                                configuration.getPlannerSplitMax())
+                        : Collections.singletonList(
+                                new Date[] { read.from, end });
+        if (read.ranges.size() > 1)
+            this.metrics.increment("planner.split");
+
+        // the sub-ranges of split reads may be cached
+        read.parts = new EventDataStream[read.ranges.size()];
+        for (int i = 0; i < read.parts.length; i++)
+        {
+            Date[] range = read.ranges.get(i);
+            if (read.ranges.size() > 1)
+                read.parts[i] = read.chunks.get(key, range[0].getTime(),
+                        range[1].getTime());
+            if (read.parts[i] != null)
+                this.metrics.increment("planner.cache.hits");
+            else
+                read.partials.add(this.submitDeviceSpecificEventData(
+                        this.acquireStores(key.getDeviceId(), range[0],
+                                range[1]),
+                        key, range[0], range[1], offset, limit));
+        }
+        return read;
+    }
+
+    /**
+     * Waits for the reads started by
+     * {@link #startDeviceSpecificEventData(EventStreamKey, Date, Date, int, int)}
+     * and merges the parts in order
+     */
+    private EventDataStream finishDeviceSpecificEventData(PlannedRead read)
+    {
+        EventStreamKey key = read.key;
+        if (read.parts == null)
+            return new EventDataStream(key.getName(), key.getParams(),
+                    key.getDeviceId());
+
+        Iterator<List<Future<EventDataStream>>> partials = read.partials
+                .iterator();
+        try
+        {
+            for (int i = 0; i < read.parts.length; i++)
+            {
+                if (read.parts[i] != null)
+                    continue;
+
+                read.parts[i] = this.mergeDeviceSpecificEventData(
+                        partials.next(), key, read.offset, read.limit);
+                if (read.parts.length > 1)
+                    read.chunks.put(key, read.ranges.get(i)[0].getTime(),
+                            read.ranges.get(i)[1].getTime(), read.parts[i],
+                            read.chunkGeneration);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            this.cancelDeviceSpecificEventData(read);
+            throw e;
+        }
+
+        // the sub-ranges are disjoint, merging keeps them in order
+        EventDataStream events = (read.parts.length == 1) ? read.parts[0]
+                : EventDataMerger.mergeStreams(Arrays.asList(read.parts), 0,
+                        EventStoreInfo.UNLIMITED_SIZE);
+        if (events == null)
+            events = new EventDataStream(key.getName(), key.getParams(),
+                    key.getDeviceId());
+
+        // with no offset, the first point found is the first of the range
+        if (read.offset == 0)
+            this.planner.learn(key, read.from, read.end,
+                    HistoryRESTEndpoint.firstAt(events), read.generation);
+        return events;
+    }
+
+    /**
+     * Prepends to the given stream, extracted from the given instant, the
+     * last point before that instant, unless the stream already holds a
+     * point not after the given limit
+     */
+    private EventDataStream withPreviousPoint(EventStreamKey key,
+            EventDataStream stream, Date from, Date limit, long width)
+    {
+        List<EventDataPoint> points = ((stream != null)
+                && (stream.getDatapoints() != null)) ? stream.getDatapoints()
+                        : Collections.<EventDataPoint> emptyList();
+        for (EventDataPoint point : points)
+        {
+            if (point.getAt() != null)
+            {
+                if (!point.getAt().after(limit))
+                    return stream;
+                break;
+            }
+        }
+
+        EventDataPoint previous = this.findLastPointBefore(key,
+                from.getTime(), width);
+        if (previous == null)
+            return stream;
+
+        // streams may be shared with the chunk cache, copy them
+        EventDataStream extended = new EventDataStream(key.getName(),
+                key.getParams(), key.getDeviceId());
+        List<EventDataPoint> extendedPoints = new ArrayList<>(
+                points.size() + 1);
+        extendedPoints.add(previous);
+        extendedPoints.addAll(points);
+        extended.setDatapoints(extendedPoints);
+        return extended;
+    }
+
+    /**
+     * Finds the last point of the given stream before the given instant,
+     * reading windows growing backwards from the given width with a small
+     * limit; a window holding more points than the limit is then halved
+     * until its last points are read
+     * 
+     * @return the last point, or null if none
+     */
+    private EventDataPoint findLastPointBefore(EventStreamKey key,
+            long before, long width)
+    {
+        int limit = HistoryRESTEndpoint.JOIN_LOOKBACK_LIMIT;
+
+        // look back until a window holds points, or the epoch is reached
+        long end = before - 1;
+        long start = end;
+        List<EventDataPoint> points = Collections.emptyList();
+        while (end >= 0)
+        {
+            start = Math.max(0, end - Math.max(1, width) + 1);
+            points = this.readPoints(key, start, end, limit);
+            if ((!points.isEmpty()) || (start == 0))
+                break;
+
+            end = start - 1;
+            width = (width < Long.MAX_VALUE / 2) ? width * 2 : Long.MAX_VALUE;
+        }
+        if (points.isEmpty())
+            return null;
+
+        // the last point of a full window may be later than the read ones
+        while ((points.size() >= limit) && (start < end))
+        {
+            long middle = start + (end - start) / 2 + 1;
+            List<EventDataPoint> later = this.readPoints(key, middle, end,
+                    limit);
+            if (later.isEmpty())
+                end = middle - 1;
+            else
+            {
+                start = middle;
+                points = later;
+            }
+        }
+        return points.get(points.size() - 1);
+    }
+
+    private List<EventDataPoint> readPoints(EventStreamKey key, long start,
+            long end, int limit)
+    {
+        EventDataStream stream = this.fetchDeviceSpecificEventData(
+                key.getDeviceId(), key.getName(), key.getParams(),
+                new Date(start), new Date(end), 0, limit, key.getDataType(),
+                key.getType());
+        return ((stream != null) && (stream.getDatapoints() != null))
+                ? stream.getDatapoints()
+                : Collections.<EventDataPoint> emptyList();
+    }
+
+    /**
+     * Stops the reads started by
+     * {@link #startDeviceSpecificEventData(EventStreamKey, Date, Date, int, int)}
+     * still in progress, e.g., on failures
+     */
+    private void cancelDeviceSpecificEventData(PlannedRead read)
+    {
+        for (List<Future<EventDataStream>> range : read.partials)
+            HistoryRESTEndpoint.cancel(range);
+    }
+
+    /**
+     * Reads the given range of a stream from the bound stores, in parallel if
+     * held by several ones
+     */
+    private EventDataStream readDeviceSpecificEventData(String deviceId,
+            String name, String params, Date start, Date end, int offset,
+            int limit, EventDataType dataType, EventType type)
+    {
+        // keep the same stores for the whole request
+        List<EventStoreBinding> stores = this.acquireStores(deviceId, start,
+                end);
+
+        // a single store is read by the requesting thread
+        if (stores.size() == 1)
+            return this.fetchDeviceSpecificEventData(stores.get(0).getStore(),
+                    deviceId, name, params, start, end, offset, limit,
+                    dataType, type);
+
+        EventStreamKey key = new EventStreamKey(deviceId, name, params,
+                dataType, type);
+        return this.mergeDeviceSpecificEventData(
+                this.submitDeviceSpecificEventData(stores, key, start, end,
+                        offset, limit),
+                key, offset, limit);
+    }
+
+    /**
+     * Starts reading the given range of a stream from each of the given
+     * stores, for the part of the range it holds
+     */
+    private List<Future<EventDataStream>> submitDeviceSpecificEventData(
+            List<EventStoreBinding> stores, final EventStreamKey key,
+            Date start, Date end, int offset, int limit)
+    {
+        // with several stores, offset and limit apply to the merged result
+        final int partialOffset = (stores.size() == 1) ? offset : 0;
+        final int partialLimit = (stores.size() == 1) ? limit
+                : EventDataMerger.partialLimit(offset, limit);
+
+        List<Future<EventDataStream>> partials = new ArrayList<>();
+        for (final EventStoreBinding binding : stores)
+        {
+            final Date from = new Date(
+                    Math.max(start.getTime(), binding.getStart()));
+            final Date to = new Date(Math.min(end.getTime(), binding.getEnd()));
+            partials.add(
+                    this.federation.submit(new Callable<EventDataStream>() {
+
+                        @Override
+                        public EventDataStream call() throws Exception
+                        {
+                            return HistoryRESTEndpoint.this
+                                    .fetchDeviceSpecificEventData(
+                                            binding.getStore(),
+                                            key.getDeviceId(), key.getName(),
+                                            key.getParams(), from, to,
+                                            partialOffset, partialLimit,
+                                            key.getDataType(), key.getType());
+                        }
+                    }));
+        }
+        return partials;
+    }
+
+    /**
+     * Waits for the reads started by
+     * {@link #submitDeviceSpecificEventData(List, EventStreamKey, Date, Date, int, int)}
+     * and merges their results
+     */
+    private EventDataStream mergeDeviceSpecificEventData(
+            List<Future<EventDataStream>> partials, EventStreamKey key,
+            int offset, int limit)
+    {
+        List<EventDataStream> results = this.collect(partials,
+                key.getDeviceId());
+        EventDataStream merged = (results.size() == 1) ? results.get(0)
+                : EventDataMerger.mergeStreams(results, offset, limit);
+        return (merged != null) ? merged
+                : new EventDataStream(key.getName(), key.getParams(),
+                        key.getDeviceId());
+    }
+
+    private static Long firstAt(EventDataStream stream)
+    {
+        if ((stream == null) || (stream.getDatapoints() == null))
+            return null;
+        for (EventDataPoint point : stream.getDatapoints())
+        {
+            if (point.getAt() != null)
+                return point.getAt().getTime();
+        }
+        return null;
+    }
+
+    private <T> List<T> collect(List<Future<T>> partials, String deviceId)
+    {
+        List<T> results = new ArrayList<>();
+        try
+        {
+            for (Future<T> partial : partials)
+                results.add(partial.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new WebApplicationException(
+                    Response.Status.SERVICE_UNAVAILABLE);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unable to extract the history of " + deviceId,
+                    e.getCause());
+            throw new WebApplicationException(
+                    Response.Status.INTERNAL_SERVER_ERROR);
+        }
+        finally
+        {
+            // do not leave useless work behind on failures
+            HistoryRESTEndpoint.cancel(partials);
+        }
+        return results;
+    }
+
+    private static <T> void cancel(List<Future<T>> partials)
+    {
+        for (Future<T> partial : partials)
+            partial.cancel(true);
+    }
+
+    private EventDataStream fetchDeviceSpecificEventData(EventStore store,
+            String deviceId, String name, String params, Date start, Date end,
+            int offset, int limit, EventDataType dataType, EventType type)
+    {
+        EventDataStream events = new EventDataStream();
+
+        switch (type)
+        {
+            case NOTIFICATION:
+            {
+                switch (dataType)
+                {
+                    case MEASURE:
+                    {
+                        events = store
+                                .getSpecificDeviceParametricNotifications(
+                                        deviceId, name, params, start, end,
+                                        offset, limit);
+                        break;
+                    }
+                    case NOTMEASURE:
+                    {
+                        events = store
+                                .getSpecificDeviceNonParametricNotifications(
+                                        deviceId, name, start, end, offset,
+                                        limit);
+                        break;
+                    }
+                }
+
+                break;
+            }
+            case STATE:
+            {
+                switch (dataType)
+                {
+                    case MEASURE:
+                    {
+                        events = store
+                                .getSpecificDeviceContinuousStates(deviceId,
+                                        name, params, start, end, offset,
+                                        limit);
+                        break;
+                    }
+                    case NOTMEASURE:
+                    {
+                        events = store
+                                .getSpecificDeviceDiscreteStates(deviceId, name,
+                                        start, end, offset, limit);
+                        break;
+                    }
+                }
+            }
+        }
+
+        return events;
+    }
+
+    private RollupStream getDeviceSpecificRollups(EventStreamKey key,
+            RollupTier tier, Date start, Date end, int offset, int limit)
+    {
+        long now = System.currentTimeMillis();
+        RollupSeries series = this.rollups.getSeries(key);
+
+        List<RollupBucket> buckets = null;
+        String unit = null;
+
+        if (series.covers(tier, start.getTime(), now))
+        {
+            // bring the series up to date with the EventStore; the points of
+            // the last moments may still be on their way to the store, they
+            // are read again at every query instead
+            this.syncRollups(series, key,
+                    Math.max(0, tier.getHorizon(now)), now);
+            synchronized (series)
+            {
+                EventDataStream missing = this.fetchDeviceSpecificEventData(
+                        key.getDeviceId(), key.getName(), key.getParams(),
+                        new Date(series.getSyncedUntil() + 1), new Date(now),
+                        0, EventStoreInfo.UNLIMITED_SIZE, key.getDataType(),
+                        key.getType());
+                List<EventDataPoint> recent = ((missing != null)
+                        && (missing.getDatapoints() != null))
+                                ? missing.getDatapoints()
+                                : Collections.<EventDataPoint> emptyList();
+
+                buckets = series.getBuckets(tier, start.getTime(),
+                        end.getTime(), recent);
+                unit = ((!recent.isEmpty()) && (recent
+                        .get(recent.size() - 1).getUnit() != null))
+                                ? recent.get(recent.size() - 1).getUnit()
+                                : series.getUnit();
+            }
+        }
+        else
+        {
+            // the range is older than the tier retention, aggregate the raw
+            // data points on the fly
+            EventDataStream events = this.fetchDeviceSpecificEventData(
+                    key.getDeviceId(), key.getName(), key.getParams(), start,
+                    end, 0, EventStoreInfo.UNLIMITED_SIZE, key.getDataType(),
+                    key.getType());
+            List<EventDataPoint> points = ((events != null)
+                    && (events.getDatapoints() != null))
+                            ? events.getDatapoints()
+                            : Collections.<EventDataPoint> emptyList();
+            buckets = RollupSeries.build(points, tier);
+            if (!points.isEmpty())
+                unit = points.get(points.size() - 1).getUnit();
+        }
+
+        // apply offset and limit on buckets
+        int from = Math.min(offset, buckets.size());
+        int to = (limit == EventStoreInfo.UNLIMITED_SIZE) ? buckets.size()
+                : Math.min(buckets.size(), from + limit);
+
+        return new RollupStream(key, tier, unit, buckets.subList(from, to));
+    }
+
+    /**
+     * Synchronizes the given series with the EventStore from the given
+     * instant up to the settled past, one page at a time. The series is
+     * rebuilt from scratch if it starts later, e.g., when a tier with a
+     * longer retention is queried for the first time. Inserts in the stream
+     * wait for a single page at most.
+     */
+    private void syncRollups(RollupSeries series, EventStreamKey key,
+            long from, long now)
+    {
+        synchronized (series)
+        {
+            if (!series.isSyncedFrom(from))
+                series.reset(from);
+        }
+
+        while (true)
+        {
+            synchronized (series)
+            {
+                long next = series.getSyncedUntil() + 1;
+                long settled = now - ChunkCache.SETTLE_TIME;
+                if (next > settled)
+                    return;
+
+                EventDataStream page = this.fetchDeviceSpecificEventData(
+                        key.getDeviceId(), key.getName(), key.getParams(),
+                        new Date(next), new Date(settled), 0,
+                        HistoryRESTEndpoint.ROLLUP_PAGE_SIZE,
+                        key.getDataType(), key.getType());
+                List<EventDataPoint> points = ((page != null)
+                        && (page.getDatapoints() != null))
+                                ? page.getDatapoints()
+                                : Collections.<EventDataPoint> emptyList();
+
+                // a full page may stop in the middle of its last instant,
+                // which is read again with the next page, unless the page
+                // holds that instant only
+                long synced = settled;
+                if (points.size() >= HistoryRESTEndpoint.ROLLUP_PAGE_SIZE)
+                {
+                    long last = points.get(points.size() - 1).getAt()
+                            .getTime();
+                    synced = (last > next) ? last - 1 : last;
+                }
+                series.add(points, now, synced);
+                series.setSyncedUntil(synced);
+            }
+        }
+    }
+
+    @Override
+    public Response getDeviceSpecificLiveHistory(String deviceId,
+            String eventType, String dataType, String name, String params,
+            String startDate, String lastEventId,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+    {
+        final EventStreamKey key = this.toEventStreamKey(deviceId, eventType,
+                dataType, name, params);
+
+        // the history to send before live data, if any; reconnecting clients
+        // resume right after the last received point
+        Date start = null;
+        if ((lastEventId != null) && (!lastEventId.isEmpty()))
+        {
+            try
+            {
+                start = new Date(Long.parseLong(lastEventId.trim()) + 1);
+            }
+            catch (NumberFormatException e)
+            {
+                this.logger.log(LogService.LOG_ERROR,
+                        "Unable to parse the last event id");
+                throw new WebApplicationException(Response.Status.BAD_REQUEST);
+            }
+        }
+        else if ((startDate != null) && (!startDate.isEmpty()))
+        {
+            try
+            {
+                start = this.parseDate(startDate);
+            }
+            catch (ParseException e)
+            {
+                this.logger.log(LogService.LOG_ERROR,
+                        "Unable to parse the start date");
+                throw new WebApplicationException(Response.Status.BAD_REQUEST);
+            }
+        }
+
+        // each client holds a request thread, their number is bounded
+        final LiveSubscriber subscriber = this.live.subscribe(key,
+                this.configuration.getLiveMaxClients());
+        if (subscriber == null)
+        {
+            this.metrics.increment("live.rejected");
+            this.logger.log(LogService.LOG_WARNING,
+                    "Rejected live history client of " + key
+                            + ", too many clients");
+            throw new WebApplicationException(
+                    Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                            .header("Retry-After", 5)
+                            .header("Access-Control-Allow-Origin", "*")
+                            .build());
+        }
+
+        // read the history after subscribing, so that points inserted in the
+        // meantime are not lost; the history is bounded and charged as any
+        // other query
+        List<EventDataPoint> history = Collections.emptyList();
+        boolean truncated = false;
+        try
+        {
+            if (start != null)
+            {
+                HistoryQuery query = this.parseQuery(key.getDeviceId(),
+                        key.getName(), key.getParams(), start, null, null,
+                        null, true, null, key.getDataType(), key.getType(),
+                        false, null, null);
+                history = this.fetchLiveBackfill(query,
+                        this.getClientId(httpRequest));
+                truncated = (query.getLimit() != EventStoreInfo.UNLIMITED_SIZE)
+                        && (history.size() >= query.getLimit());
+            }
+        }
+        catch (RuntimeException e)
+        {
+            this.live.unsubscribe(key, subscriber);
+            throw e;
+        }
+
+        final Date backfillStart = start;
+        final List<EventDataPoint> backfill = history;
+        final boolean backfillTruncated = truncated;
+        StreamingOutput output = new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream out) throws IOException
+            {
+                HistoryRESTEndpoint.this.streamLiveHistory(key, subscriber,
+                        backfillStart, backfill, backfillTruncated, out);
+            }
+        };
+
+        return Response.ok(output).type("text/event-stream")
+                .header("Cache-Control", "no-cache")
+                .header("Access-Control-Allow-Origin", "*").build();
+    }
+
+    /**
+     * Reads the history sent to a live client before the live data, after
+     * charging its cost on the client budget
+     */
+    private List<EventDataPoint> fetchLiveBackfill(HistoryQuery query,
+            String client)
+    {
+        AdmissionController admission = this.admission;
+        long cost = this.admit(admission, query, client);
+
+        // heavy queries also need a global slot
+        this.acquire(admission, client, cost);
+        try
+        {
+            EventDataStream events = this.fetchDeviceSpecificEventData(
+                    query.getDeviceId(), query.getName(), query.getParams(),
+                    query.getStart(), query.resolveEnd(), 0, query.getLimit(),
+                    query.getDataType(), query.getType());
+            return ((events != null) && (events.getDatapoints() != null))
+                    ? events.getDatapoints()
+                    : Collections.<EventDataPoint> emptyList();
+        }
+        finally
+        {
+            admission.release(cost);
+        }
+    }
+
+    @Override
+    public Response getDeviceSpecificPipelinedHistory(String deviceId,
+            String eventType, String dataType, String name, String params,
+            String startDate, String endDate, Integer offset, Integer limit,
+            String fields, String filter, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+    {
+        EventStreamKey key = this.toEventStreamKey(deviceId, eventType,
+                dataType, name, params);
+        HistoryQuery query = this.parseQuery(key.getDeviceId(), key.getName(),
+                key.getParams(), startDate, endDate, offset, limit, true, null,
+                key.getDataType(), key.getType(), false, fields, filter);
+
+        // charge the query cost on the client budget; heavy queries also
+        // need a global slot, held until the whole range has been streamed
+        final AdmissionController admission = this.admission;
+        String client = this.getClientId(httpRequest);
+        final long cost = this.admit(admission, query, client);
+        this.acquire(admission, client, cost);
+
+        final StreamingOutput pipeline;
+        try
+        {
+            // fail before the response is committed if no store can serve it
+            this.acquireStores(query.getDeviceId(), query.getStart(),
+                    query.resolveEnd());
+
+            this.metrics.increment("pipelined.requests");
+            HistoryConfiguration configuration = this.configuration;
+            pipeline = new PipelinedStreamOutput(this.dataSource,
+                    this.pipelines, this.jsonWriter, query,
+                    configuration.getPipelineChunkSize(),
+                    configuration.getPipelineChunks());
+        }
+        catch (RuntimeException e)
+        {
+            admission.release(cost);
+            throw e;
+        }
+
+        StreamingOutput output = new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream out) throws IOException
+            {
+                try
+                {
+                    pipeline.write(out);
+                }
+                finally
+                {
+                    admission.release(cost);
+                }
+            }
+        };
+
+        return Response.ok(output).type(MediaType.APPLICATION_JSON)
+                .header("Access-Control-Allow-Origin", "*").build();
+    }
+
+    @Override
+    public String getDeviceSpecificStatistics(String deviceId,
+            String eventType, String dataType, String name, String params,
+            String startDate, String endDate, String percentiles,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+    {
+        this.setCORSSupport(httpResponse);
+
+        EventStreamKey key = this.toEventStreamKey(deviceId, eventType,
+                dataType, name, params);
+        double[] ranks = this.parsePercentiles(percentiles);
+        HistoryQuery query = this.parseQuery(key.getDeviceId(), key.getName(),
+                key.getParams(), startDate, endDate, null, null, true, null,
+                key.getDataType(), key.getType(), false, null, null);
+
+        // a summary reads the whole range, as the equivalent history query
+        AdmissionController admission = this.admission;
+        String client = this.getClientId(httpRequest);
+        long cost = this.admit(admission, query, client);
+        this.acquire(admission, client, cost);
+        StreamStatistics statistics;
+        try
+        {
+            statistics = this.computeStatistics(key, query.getStart(),
+                    query.resolveEnd());
+        }
+        finally
+        {
+            admission.release(cost);
+        }
+        this.metrics.increment("stats.requests");
+
+        try
+        {
+            return this.jsonWriter.writeValueAsString(key, statistics, ranks);
+        }
+        catch (IOException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unable to compose the statistics of " + key, e);
+            throw new WebApplicationException(
+                    Response.Status.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @Override
+    public String getDeviceStatistics(String deviceId, String eventType,
+            String dataType, String startDate, String endDate,
+            String percentiles, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+    {
+        this.setCORSSupport(httpResponse);
+
+        EventStreamKey family = this.toEventStreamKey(deviceId, eventType,
+                dataType, null, null);
+        double[] ranks = this.parsePercentiles(percentiles);
+        HistoryQuery query = this.parseQuery(deviceId, null, null, startDate,
+                endDate, null, null, false, null, family.getDataType(),
+                family.getType(), false, null, null);
+
+        AdmissionController admission = this.admission;
+        String client = this.getClientId(httpRequest);
+        long cost = this.admit(admission, query, client);
+        this.acquire(admission, client, cost);
+        Map<EventStreamKey, StreamStatistics> summaries = new LinkedHashMap<>();
+        try
+        {
+            // page through all the streams at once, offset and limit apply
+            // to each stream
+            Date end = query.resolveEnd();
+            int offset = 0;
+            boolean more;
+            do
+            {
+                more = false;
+                EventDataStreamSet page = this.fetchDeviceEventData(deviceId,
+                        query.getStart(), end, offset,
+                        HistoryRESTEndpoint.FILTER_PAGE_SIZE, false,
+                        family.getDataType(), family.getType());
+                if (page.getDatastreams() == null)
+                    break;
+
+                for (EventDataStream stream : page.getDatastreams())
+                {
+                    EventStreamKey key = new EventStreamKey(deviceId,
+                            stream.getName(), stream.getParams(),
+                            family.getDataType(), family.getType());
+                    StreamStatistics streamStatistics = summaries.get(key);
+                    if (streamStatistics == null)
+                    {
+                        streamStatistics = new StreamStatistics();
+                        summaries.put(key, streamStatistics);
+                    }
+                    if (stream.getDatapoints() != null)
+                    {
+                        for (EventDataPoint point : stream.getDatapoints())
+                            streamStatistics.add(point);
+                        if (stream.getDatapoints()
+                                .size() >= HistoryRESTEndpoint.FILTER_PAGE_SIZE)
+                            more = true;
+                    }
+                }
+                offset += HistoryRESTEndpoint.FILTER_PAGE_SIZE;
+            } while (more);
+        }
+        finally
+        {
+            admission.release(cost);
+        }
+        this.metrics.increment("stats.requests");
+
+        try
+        {
+            return this.jsonWriter.writeValueAsString(deviceId, summaries,
+                    ranks);
+        }
+        catch (IOException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unable to compose the statistics of " + deviceId, e);
+            throw new WebApplicationException(
+                    Response.Status.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Summarizes the given range of a stream; whole past days are taken from
+     * the statistics cache or summarized and cached, the partial days at the
+     * range ends are always read from the EventStore
+     */
+    private StreamStatistics computeStatistics(EventStreamKey key, Date start,
+            Date end)
+    {
+        StreamStatistics statistics = new StreamStatistics();
+
+        // skip the range before the first point, e.g., for queries starting
+        // from the epoch
+        EventDataStream first = this.fetchDeviceSpecificEventData(
+                key.getDeviceId(), key.getName(), key.getParams(), start, end,
+                0, 1, key.getDataType(), key.getType());
+        if ((first.getDatapoints() == null) || first.getDatapoints().isEmpty()
+                || (first.getDatapoints().get(0).getAt() == null))
+            return statistics;
+        long from = Math.max(start.getTime(),
+                first.getDatapoints().get(0).getAt().getTime());
+        long to = end.getTime();
+
+        // the whole days in the range, only past days do not change anymore
+        StatisticsCache cache = this.statisticsCache;
+        long firstDay = StatisticsCache.dayOf(from);
+        if (firstDay < from)
+            firstDay += StatisticsCache.DAY;
+        long lastDay = StatisticsCache
+                .dayOf(Math.min(to + 1, System.currentTimeMillis()));
+        if (firstDay >= lastDay)
+        {
+            this.scanStatistics(key, from, to, statistics);
+            return statistics;
+        }
+
+        if (from < firstDay)
+            this.scanStatistics(key, from, firstDay - 1, statistics);
+        for (long day = firstDay; day < lastDay; day += StatisticsCache.DAY)
+        {
+            StreamStatistics daily = cache.get(key, day);
+            if (daily != null)
+                this.metrics.increment("stats.cache.hits");
+            else
+            {
+                long generation = cache.getGeneration();
+                daily = new StreamStatistics();
+                this.scanStatistics(key, day, day + StatisticsCache.DAY - 1,
+                        daily);
+                daily.compact();
+                cache.put(key, day, daily, generation);
+            }
+            statistics.merge(daily);
+        }
+        if (lastDay <= to)
+            this.scanStatistics(key, lastDay, to, statistics);
+
+        return statistics;
+    }
+
+    private void scanStatistics(EventStreamKey key, long from, long to,
+            StreamStatistics statistics)
+    {
+        int offset = 0;
+        List<EventDataPoint> page;
+        do
+        {
+            page = this.fetchDeviceSpecificEventData(key.getDeviceId(),
+                    key.getName(), key.getParams(), new Date(from),
+                    new Date(to), offset, HistoryRESTEndpoint.FILTER_PAGE_SIZE,
+                    key.getDataType(), key.getType()).getDatapoints();
+            if (page == null)
+                break;
+
+            for (EventDataPoint point : page)
+                statistics.add(point);
+            offset += HistoryRESTEndpoint.FILTER_PAGE_SIZE;
+        } while (page.size() >= HistoryRESTEndpoint.FILTER_PAGE_SIZE);
+    }
+
+    private double[] parsePercentiles(String percentiles)
+    {
+        if ((percentiles == null) || (percentiles.trim().isEmpty()))
+            return new double[] { 50, 90, 95, 99 };
+
+        String[] values = percentiles.split(",");
+        double[] ranks = new double[values.length];
+        try
+        {
+            for (int i = 0; i < values.length; i++)
+            {
+                ranks[i] = Double.parseDouble(values[i].trim());
+                if ((!(ranks[i] >= 0)) || (ranks[i] > 100))
+                    throw new NumberFormatException(values[i]);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Invalid percentiles: " + percentiles);
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+        return ranks;
+    }
+
+    private void streamLiveHistory(EventStreamKey key,
+            LiveSubscriber subscriber, Date start,
+            List<EventDataPoint> history, boolean truncated, OutputStream out)
+            throws IOException
+    {
+        long connected = System.currentTimeMillis();
+        long maxDuration = this.configuration.getLiveMaxDuration();
+
+        // the id a reconnecting client resumes from, only points later than
+        // the last sent one are sent
+        long lastSent = (start != null) ? start.getTime() - 1 : connected - 1;
+        try
+        {
+            for (EventDataPoint point : history)
+            {
+                LiveFrame frame = this.live.toFrame("history", point);
+                out.write(frame.getData());
+                lastSent = Math.max(lastSent, frame.getAt());
+            }
+            out.flush();
+
+            // a history longer than the maximum limit is sent over several
+            // connections
+            long remaining = (maxDuration > 0) ? maxDuration : Long.MAX_VALUE;
+            while ((!truncated) && (!subscriber.isOverflowed())
+                    && (!subscriber.isClosed()) && (remaining > 0))
+            {
+                LiveFrame frame = subscriber.poll(
+                        Math.min(LiveStreamHub.KEEPALIVE_INTERVAL, remaining));
+                if (subscriber.isClosed())
+                    break;
+                if (maxDuration > 0)
+                    remaining = connected + maxDuration
+                            - System.currentTimeMillis();
+                if (frame == null)
+                    out.write(LiveStreamHub.KEEPALIVE_FRAME);
+                else if (frame.getAt() > lastSent)
+                {
+                    out.write(frame.getData());
+                    lastSent = frame.getAt();
+                }
+                out.flush();
+            }
+
+            if (subscriber.isOverflowed())
+            {
+                // the client did not keep up, let it reconnect
+                LogHelper logger = this.logger;
+                if (logger != null)
+                    logger.log(LogService.LOG_WARNING,
+                            "Dropping slow live history client of " + key);
+                out.write(LiveStreamHub.OVERFLOW_FRAME);
+            }
+
+            // the connection ends here, the client reconnects from the last
+            // point it received, or from where it started
+            out.write(LiveStreamHub.toResumeFrame(lastSent));
+            out.flush();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            this.live.unsubscribe(key, subscriber);
+        }
+    }
+
+    /**
+     * Reads the streams followed by live clients, pushing the points written
+     * into the EventStore since the last read, including the ones not
+     * inserted through this endpoint
+     */
+    private void pollLiveStreams()
+    {
+        if (!this.eventStore.isAvailable())
+            return;
+
+        long now = System.currentTimeMillis();
+        for (EventStreamKey key : this.live.getStreams())
+        {
+            Long from = this.live.getReadStart(key);
+            if (from == null)
+                continue;
+            try
+            {
+                EventDataStream events = this.fetchDeviceSpecificEventData(
+                        key.getDeviceId(), key.getName(), key.getParams(),
+                        new Date(from), new Date(now), 0,
+                        EventStoreInfo.UNLIMITED_SIZE, key.getDataType(),
+                        key.getType());
+                this.live.publish(key,
+                        (events != null) ? events.getDatapoints() : null, now);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                this.metrics.increment("live.poll.failures");
+                LogHelper logger = this.logger;
+                if (logger != null)
+                    logger.log(LogService.LOG_WARNING,
+                            "Unable to read the live data of " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Schedules the next read of the streams followed by live clients
+     */
+    private void scheduleLivePoll()
+    {
+        ScheduledExecutorService background = this.background;
+        if (background == null)
+            return;
+        try
+        {
+            background.schedule(new Runnable() {
+
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        HistoryRESTEndpoint.this.pollLiveStreams();
+                    }
+                    finally
+                    {
+                        HistoryRESTEndpoint.this.scheduleLivePoll();
+                    }
+                }
+            }, this.configuration.getLivePollInterval(),
+                    TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // deactivated in the meantime
+        }
+    }
+
+    private EventStreamKey toEventStreamKey(String deviceId, String eventType,
+            String dataType, String name, String params)
+    {
+        // map the REST path segments on event families
+        EventType type = EventType.fromPathSegment(eventType);
+        EventDataType eventDataType = EventDataType.fromPathSegment(type,
+                dataType);
+
+        if ((type == null) || (eventDataType == null))
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+
+        return new EventStreamKey(deviceId, name, params, eventDataType,
+                type);
+    }
+
+    @Override
+    public Response insertSpecificDeviceParametricNotificationCSV(
+            String deviceId, String notificationName, Boolean header,
+            String delimiter, String timestampFormat, Boolean strict,
+            String idempotencyKey, String csvData,
+            HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificCSV(deviceId, notificationName, null,
+                csvData, header, delimiter, timestampFormat, strict,
+                EventDataType.MEASURE, EventType.NOTIFICATION, idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceParametricNotificationCSV(
+            String deviceId, String notificationName, String notificationParams,
+            Boolean header, String delimiter, String timestampFormat,
+            Boolean strict, String idempotencyKey, String csvData,
+            HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificCSV(deviceId, notificationName,
+                notificationParams, csvData, header, delimiter, timestampFormat,
+                strict, EventDataType.MEASURE, EventType.NOTIFICATION,
+                idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceNonParametricNotificationCSV(
+            String deviceId, String notificationName, Boolean header,
+            String delimiter, String timestampFormat, Boolean strict,
+            String idempotencyKey, String csvData,
+            HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificCSV(deviceId, notificationName, null,
+                csvData, header, delimiter, timestampFormat, strict,
+                EventDataType.NOTMEASURE, EventType.NOTIFICATION,
+                idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceContinuousStateCSV(String deviceId,
+            String stateName, Boolean header, String delimiter,
+            String timestampFormat, Boolean strict, String idempotencyKey,
+            String csvData, HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificCSV(deviceId, stateName, null, csvData,
+                header, delimiter, timestampFormat, strict,
+                EventDataType.MEASURE, EventType.STATE, idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceContinuousStateCSV(String deviceId,
+            String stateName, String stateParams, Boolean header,
+            String delimiter, String timestampFormat, Boolean strict,
+            String idempotencyKey, String csvData,
+            HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificCSV(deviceId, stateName, stateParams,
+                csvData, header, delimiter, timestampFormat, strict,
+                EventDataType.MEASURE, EventType.STATE, idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceDiscreteStateCSV(String deviceId,
+            String stateName, Boolean header, String delimiter,
+            String timestampFormat, Boolean strict, String idempotencyKey,
+            String csvData, HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificCSV(deviceId, stateName, null, csvData,
+                header, delimiter, timestampFormat, strict,
+                EventDataType.NOTMEASURE, EventType.STATE, idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceParametricNotificationJSON(
+            String deviceId, String notificationName, String idempotencyKey,
+            String jsonData, HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, notificationName,
+                null, jsonData, EventDataType.MEASURE, EventType.NOTIFICATION,
+                idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceParametricNotificationJSON(
+            String deviceId, String notificationName, String notificationParams,
+            String idempotencyKey, String jsonData,
+            HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, notificationName,
+                notificationParams, jsonData, EventDataType.MEASURE,
+                EventType.NOTIFICATION, idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceNonParametricNotificationJSON(
+            String deviceId, String notificationName, String idempotencyKey,
+            String jsonData, HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, notificationName,
+                null, jsonData, EventDataType.NOTMEASURE,
+                EventType.NOTIFICATION, idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceContinuousStateJSON(String deviceId,
+            String stateName, String idempotencyKey, String jsonData,
+            HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, stateName, null,
+                jsonData, EventDataType.MEASURE, EventType.STATE,
+                idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceContinuousStateJSON(String deviceId,
+            String stateName, String stateParams, String idempotencyKey,
+            String jsonData, HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, stateName,
+                stateParams, jsonData, EventDataType.MEASURE, EventType.STATE,
+                idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceDiscreteStateJSON(String deviceId,
+            String stateName, String idempotencyKey, String jsonData,
+            HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, stateName, null,
+                jsonData, EventDataType.NOTMEASURE, EventType.STATE,
+                idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceParametricNotificationTimeSeries(
+            String deviceId, String notificationName, String idempotencyKey,
+            byte[] timeSeriesData, HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, notificationName,
+                null, timeSeriesData, EventDataType.MEASURE,
+                EventType.NOTIFICATION, idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceParametricNotificationTimeSeries(
+            String deviceId, String notificationName, String notificationParams,
+            String idempotencyKey, byte[] timeSeriesData,
+            HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, notificationName,
+                notificationParams, timeSeriesData, EventDataType.MEASURE,
+                EventType.NOTIFICATION, idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceNonParametricNotificationTimeSeries(
+            String deviceId, String notificationName, String idempotencyKey,
+            byte[] timeSeriesData, HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, notificationName,
+                null, timeSeriesData, EventDataType.NOTMEASURE,
+                EventType.NOTIFICATION, idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceContinuousStateTimeSeries(
+            String deviceId, String stateName, String idempotencyKey,
+            byte[] timeSeriesData, HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, stateName, null,
+                timeSeriesData, EventDataType.MEASURE, EventType.STATE,
+                idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceContinuousStateTimeSeries(
+            String deviceId, String stateName, String stateParams,
+            String idempotencyKey, byte[] timeSeriesData,
+            HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, stateName,
+                stateParams, timeSeriesData, EventDataType.MEASURE,
+                EventType.STATE, idempotencyKey);
+    }
+
+    @Override
+    public Response insertSpecificDeviceDiscreteStateTimeSeries(String deviceId,
+            String stateName, String idempotencyKey, byte[] timeSeriesData,
+            HttpServletResponse httpResponse)
+    {
+        return this.insertDeviceSpecificEventData(deviceId, stateName, null,
+                timeSeriesData, EventDataType.NOTMEASURE, EventType.STATE,
+                idempotencyKey);
+    }
+
+    private Response insertDeviceSpecificEventData(String deviceId,
+            String name, String params, final byte[] data,
+            final EventDataType eventDataType, final EventType eventType,
+            String idempotencyKey)
+    {
+        // create the event stream
+        final EventDataStream stream = new EventDataStream(name,
+                (params != null ? params : ""), deviceId);
+
+        return this.insertOnce(idempotencyKey, stream, eventDataType,
+                eventType, new Callable<String>() {
+
+                    @Override
+                    public String call() throws Exception
+                    {
+                        // fill the stream
+                        HistoryRESTEndpoint.this
+                                .fillStreamFromTimeSeries(data, stream);
+
+                        HistoryRESTEndpoint.this.insertDeviceSpecificEventData(
+                                stream, eventDataType, eventType);
+                        return null;
+                    }
+                });
+    }
+
+    private Response insertDeviceSpecificEventData(String deviceId,
+            String name, String params, final String jsonData,
+            final EventDataType eventDataType, final EventType eventType,
+            String idempotencyKey)
+    {
+        // create the event stream
+        final EventDataStream stream = new EventDataStream(name,
+                (params != null ? params : ""), deviceId);
+
+        return this.insertOnce(idempotencyKey, stream, eventDataType,
+                eventType, new Callable<String>() {
+
+                    @Override
+                    public String call() throws Exception
+                    {
+                        // fill the stream
+                        HistoryRESTEndpoint.this.fillStreamFromJSON(jsonData,
+                                stream);
+
+                        HistoryRESTEndpoint.this.insertDeviceSpecificEventData(
+                                stream, eventDataType, eventType);
+                        return null;
+                    }
+                });
+    }
+
+    private Response insertDeviceSpecificCSV(String deviceId, String name,
+            String params, final String csvData, final Boolean header,
+            final String delimiter, final String timestampFormat,
+            final Boolean strict, final EventDataType eventDataType,
+            final EventType eventType, String idempotencyKey)
+    {
+        // create the event stream
+        final EventDataStream stream = new EventDataStream(name,
+                (params != null ? params : ""), deviceId);
+
+        return this.insertOnce(idempotencyKey, stream, eventDataType,
+                eventType, new Callable<String>() {
+
+                    @Override
+                    public String call() throws Exception
+                    {
+                        // fill the stream with the accepted rows
+                        CsvIngestReport report = HistoryRESTEndpoint.this
+                                .fillStreamFromCSV(csvData, stream,
+                                        (header != null) && header, delimiter,
+                                        timestampFormat);
+
+                        // in strict mode a single bad row fails the whole
+                        // upload
+                        if ((strict != null) && strict
+                                && (report.getRejected() > 0))
+                            throw new WebApplicationException(Response
+                                    .status(Response.Status.BAD_REQUEST)
+                                    .entity(HistoryRESTEndpoint.this
+                                            .writeReport(report))
+                                    .type(MediaType.APPLICATION_JSON)
+                                    .header("Access-Control-Allow-Origin", "*")
+                                    .build());
+
+                        HistoryRESTEndpoint.this.insertDeviceSpecificEventData(
+                                stream, eventDataType, eventType);
+                        report.setStored(true);
+
+                        return HistoryRESTEndpoint.this.writeReport(report);
+                    }
+                });
+    }
+
+    private String writeReport(CsvIngestReport report)
+    {
+        try
+        {
+            return this.mapper.writeValueAsString(report);
+        }
+        catch (IOException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unable to compose the CSV upload report", e);
+            return null;
+        }
+    }
+
+    /**
+     * Applies the given upload to the given stream, unless an upload with the
+     * same Idempotency-Key has already been applied to the stream, in which
+     * case the original response is returned
+     * 
+     * @param idempotencyKey
+     *            the Idempotency-Key header, if any
+     * @param stream
+     *            the target stream
+     * @param eventDataType
+     * @param eventType
+     * @param upload
+     *            the upload, providing the response entity, if any
+     * @return the response
+     */
+    private Response insertOnce(String idempotencyKey, EventDataStream stream,
+            EventDataType eventDataType, EventType eventType,
+            Callable<String> upload)
+    {
+        IdempotencyRegistry registry = this.idempotency;
+        String scope = null;
+        if ((idempotencyKey != null) && (!idempotencyKey.trim().isEmpty()))
+        {
+            // keys are scoped by stream
+            scope = new EventStreamKey(stream.getDeviceUri(), stream.getName(),
+                    stream.getParams(), eventDataType, eventType) + " "
+                    + idempotencyKey.trim();
+
+            IdempotencyRegistry.Outcome previous = registry.begin(scope);
+            if (previous == IdempotencyRegistry.PENDING)
+                throw new WebApplicationException(
+                        Response.status(Response.Status.CONFLICT)
+                                .header("Retry-After", 1)
+                                .header("Access-Control-Allow-Origin", "*")
+                                .build());
+            else if (previous != null)
+            {
+                this.metrics.increment("insert.replayed");
+                return this.insertResponse(previous.getEntity())
+                        .header("Idempotent-Replayed", "true").build();
+            }
+        }
+
+        String entity;
+        try
+        {
+            entity = upload.call();
+        }
+        catch (Exception e)
+        {
+            // not applied, the same key can be retried
+            if (scope != null)
+                registry.abort(scope);
+
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unable to store the history of " + stream.getDeviceUri(),
+                    e);
+            throw new WebApplicationException(e);
+        }
+
+        if (scope != null)
+            registry.complete(scope, new IdempotencyRegistry.Outcome(entity));
+        return this.insertResponse(entity).build();
+    }
+
+    private Response.ResponseBuilder insertResponse(String entity)
+    {
+        Response.ResponseBuilder response = Response.ok()
+                .header("Access-Control-Allow-Origin", "*");
+        if (entity != null)
+            response.entity(entity).type(MediaType.APPLICATION_JSON);
+        return response;
+    }
+
+    private void insertDeviceSpecificEventData(EventDataStream stream,
+            EventDataType eventDataType, EventType eventType)
+    {
+        if (!stream.getDatapoints().isEmpty())
+        {
+            EventStreamKey key = new EventStreamKey(stream.getDeviceUri(),
+                    stream.getName(), stream.getParams(), eventDataType,
+                    eventType);
+
+            RecentPointIndex recentPoints = this.recentPoints;
+            if (recentPoints == null)
+                this.insertDeviceSpecificEventData(key, stream, eventDataType,
+                        eventType);
+            else
+            {
+                // drop the points already stored, e.g., by a retried upload;
+                // filtering and storing while holding the stream window keeps
+                // concurrent retries consistent
+                RecentPointIndex.Window window = recentPoints.getWindow(key);
+                synchronized (window)
+                {
+                    EventDataStream fresh = window.removeDuplicates(stream);
+                    int duplicates = stream.getDatapoints().size()
+                            - fresh.getDatapoints().size();
+                    if (duplicates > 0)
+                        this.metrics.counter("insert.duplicates")
+                                .addAndGet(duplicates);
+
+                    if (!fresh.getDatapoints().isEmpty())
+                    {
+                        this.insertDeviceSpecificEventData(key, fresh,
+                                eventDataType, eventType);
+                        window.addAll(fresh.getDatapoints());
+                    }
+                }
+            }
+        }
+    }
+
+    private void insertDeviceSpecificEventData(EventStreamKey key,
+            EventDataStream stream, EventDataType eventDataType,
+            EventType eventType)
+    {
+        if (eventDataType == EventDataType.MEASURE)
+        {
+            // numeric data, keep the rollup tiers of queried streams up to
+            // date; inserting while holding the series lock prevents a
+            // concurrent re-synchronization from counting the same points
+            // twice
+            RollupSeries series = this.rollups.findSeries(key);
+            if (series == null)
+                this.storeDeviceSpecificEventData(stream, eventDataType,
+                        eventType);
+            else
+            {
+                synchronized (series)
+                {
+                    this.storeDeviceSpecificEventData(stream, eventDataType,
+                            eventType);
+
+                    if (series.isSynced())
+                        series.add(stream.getDatapoints(),
+                                System.currentTimeMillis(),
+                                series.getSyncedUntil());
+                }
+            }
+        }
+        else if (this.configuration.isInsertDedup())
+        {
+            // discrete data, drop the points repeating the last stored
+            // value; compressing and storing while holding the stream
+            // state keeps concurrent inserts consistent
+            ChangePointTracker.LastPoint last = this.changePoints
+                    .getLastPoint(key);
+            synchronized (last)
+            {
+                stream = last.compress(stream,
+                        this.configuration.getInsertDedupHeartbeat());
+                try
+                {
+                    if (!stream.getDatapoints().isEmpty())
+                        this.storeDeviceSpecificEventData(stream,
+                                eventDataType, eventType);
+                }
+                catch (RuntimeException e)
+                {
+                    // the points may not be stored, do not rely on them
+                    last.reset();
+                    throw e;
+                }
+            }
+        }
+        else
+            this.storeDeviceSpecificEventData(stream, eventDataType,
+                    eventType);
+
+        // the days summarized before the insert are outdated
+        if (!stream.getDatapoints().isEmpty())
+        {
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for (EventDataPoint point : stream.getDatapoints())
+            {
+                if (point.getAt() != null)
+                {
+                    first = Math.min(first, point.getAt().getTime());
+                    last = Math.max(last, point.getAt().getTime());
+                }
+            }
+            if (first <= last)
+            {
+                this.statisticsCache.invalidate(key, first, last);
+                this.chunks.invalidate(key, first, last);
+                this.planner.inserted(key, first);
+                this.planner.inserted(new EventStreamKey(key.getDeviceId(),
+                        null, null, key.getDataType(), key.getType()), first);
+            }
+        }
+
+        // push the new points to live clients
+        if ((!stream.getDatapoints().isEmpty())
+                && this.live.hasSubscribers(key))
+        {
+            try
+            {
+                this.live.publish(key, stream.getDatapoints());
+            }
+            catch (IOException e)
+            {
+                this.logger.log(LogService.LOG_ERROR,
+                        "Unable to publish the live data of " + key, e);
+            }
+        }
+    }
+
+    private void storeDeviceSpecificEventData(EventDataStream stream,
+            EventDataType eventDataType, EventType eventType)
+    {
+        // the stores possibly owning the inserted points
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (EventDataPoint point : stream.getDatapoints())
+        {
+            long at = (point.getAt() != null) ? point.getAt().getTime() : 0;
+            first = Math.min(first, at);
+            last = Math.max(last, at);
+        }
+        if (first > last)
+            return;
+        List<EventStoreBinding> stores = this.acquireStores(
+                stream.getDeviceUri(), new Date(first), new Date(last));
+
+        // route each point to the store owning it, looking the owner up
+        // again only outside the range it owns; points no store holds are
+        // rejected before anything is written, as they could never be read
+        Map<EventStore, EventDataStream> routed = new LinkedHashMap<>();
+        EventStoreBinding owner = null;
+        long[] owned = null;
+        for (EventDataPoint point : stream.getDatapoints())
+        {
+            long at = (point.getAt() != null) ? point.getAt().getTime() : 0;
+            if ((owner == null) || (at < owned[0]) || (at > owned[1]))
+            {
+                owner = EventStoreHolder.owner(stores, stream.getDeviceUri(),
+                        at);
+                if (owner == null)
+                {
+                    this.logger.log(LogService.LOG_WARNING,
+                            "No EventStore holds the data of "
+                                    + stream.getDeviceUri() + " at " + at);
+                    throw new WebApplicationException(
+                            Response.Status.BAD_REQUEST);
+                }
+                owned = EventStoreHolder.ownedRange(stores, owner,
+                        stream.getDeviceUri(), at);
+            }
+
+            EventDataStream part = routed.get(owner.getStore());
+            if (part == null)
+            {
+                part = new EventDataStream(stream.getName(),
+                        stream.getParams(), stream.getDeviceUri());
+                routed.put(owner.getStore(), part);
+            }
+            part.addDatapoint(point);
+        }
+
+        for (Map.Entry<EventStore, EventDataStream> part : routed.entrySet())
+        {
+            EventDataStreamSet streamSet = new EventDataStreamSet(
+                    stream.getDeviceUri());
+            streamSet.addDatastream(part.getValue());
+            this.storeDeviceSpecificEventData(part.getKey(), streamSet,
+                    eventDataType, eventType);
+        }
+    }
+
+    private void storeDeviceSpecificEventData(EventStore store,
+            EventDataStreamSet streamSet, EventDataType eventDataType,
+            EventType eventType)
+    {
+        switch (eventType)
+        {
+            case NOTIFICATION:
+            {
+                switch (eventDataType)
+                {
+                    case MEASURE:
+                    {
+                        store.insertParametricNotifications(streamSet);
+                        break;
+                    }
+                    case NOTMEASURE:
+                    {
+                        store.insertNonParametricNotifications(streamSet);
+                        break;
+                    }
+                }
+                break;
+            }
+            case STATE:
+            {
+                switch (eventDataType)
+                {
+                    case MEASURE:
+                    {
+                        store.insertContinuousStates(streamSet);
+                        break;
+                    }
+                    case NOTMEASURE:
+                    {
+                        store.insertDiscreteStates(streamSet);
+                        break;
+                    }
+                }
+                break;
+            }
+        }
+    }
+
+    private void fillStreamFromTimeSeries(byte[] data, EventDataStream stream)
+    {
+        // fill the stream with the points of all the encoded streams, the
+        // target stream is identified by the request path
+        try
+        {
+            EventDataStreamSet decoded = TimeSeriesCodec.decode(data);
+            for (EventDataStream part : decoded.getDatastreams())
+            {
+                for (EventDataPoint point : part.getDatapoints())
+                    stream.addDatapoint(point);
+            }
+        }
+        catch (IOException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Error while parsing the given time series data", e);
+
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+    }
+
+    private void fillStreamFromJSON(String jsonData, EventDataStream stream)
+    {
+        try
+        {
+            // extract the set of datapoints to add
+            ArrayList<EventDataPoint> dataPoints = this.pointsReader
+                    .readValue(jsonData);
+
+            // store the datapoints
+            stream.setDatapoints(dataPoints);
+        }
+        catch (IOException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Error while parsing the given json data", e);
+
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+    }
+
+    private CsvIngestReport fillStreamFromCSV(String csvData,
+            EventDataStream stream, boolean header, String delimiter,
+            String timestampFormat)
+    {
+        try
+        {
+            // large uploads are parsed in parallel, as large responses are
+            // serialized
+            CsvStreamParser parser = new CsvStreamParser(delimiter, header,
+                    (timestampFormat != null) ? timestampFormat
+                            : HistoryRESTEndpoint.DATE_PATTERN,
+                    this.serialization);
+            CsvIngestReport report = parser.parse(csvData, stream);
+            if (report.getRejected() > 0)
+                this.logger.log(LogService.LOG_WARNING,
+                        "Rejected " + report.getRejected()
+                                + " rows of the csv data for "
+                                + stream.getDeviceUri());
+            return report;
+        }
+        catch (IllegalArgumentException | IOException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Error while parsing the given csv data", e);
+
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+    }
+
+    @Override
+    public Response joinDeviceHistory(String jsonData,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+    {
+        JoinRequest request = null;
+        try
+        {
+            request = this.joinReader.readValue(jsonData);
+        }
+        catch (IOException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Error while parsing the given join request", e);
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+
+        if ((request.getSeries() == null) || (request.getSeries().isEmpty())
+                || (request.getSeries().size() > MAX_JOIN_SERIES)
+                || (request.getStep() <= 0) || (request.getStart() == null))
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+
+        JoinTable.Fill fill = JoinTable.Fill.fromName(request.getFill());
+        final boolean csv = "csv".equalsIgnoreCase(request.getFormat());
+        if ((fill == null) || ((!csv) && (request.getFormat() != null)
+                && (!"json".equalsIgnoreCase(request.getFormat()))))
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+
+        Date start = null;
+        Date end = new Date();
+        try
         {
-            try
-            {
-                start = this.sdf.parse(startDate);
-            }
-            catch (ParseException e)
+            start = this.parseDate(request.getStart());
+            if ((request.getEnd() != null) && (!request.getEnd().isEmpty()))
+                end = this.parseDate(request.getEnd());
+        }
+        catch (ParseException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unable to parse the join range", e);
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+
+        long step = request.getStep() * 1000L;
+        if ((end.before(start)) || ((end.getTime() - start.getTime()) / step
+                + 1 > JoinTable.MAX_ROWS))
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+
+        // the points around the grid are needed to fill its first and last
+        // rows
+        final Date from = new Date(start.getTime() - step);
+        final Date to = new Date(end.getTime() + step);
+
+        // the streams to join, charged as a whole on the client budget
+        AdmissionController admission = this.admission;
+        String client = this.getClientId(httpRequest);
+        long now = System.currentTimeMillis();
+        long cost = 0;
+        List<EventStreamKey> columns = new ArrayList<>();
+        for (JoinRequest.Series series : request.getSeries())
+        {
+            String family = (series.getFamily() != null) ? series.getFamily()
+                    : "states/continuous";
+            String segments[] = family.split("/");
+            EventType type = EventType.fromPathSegment(segments[0]);
+            EventDataType dataType = (segments.length == 2)
+                    ? EventDataType.fromPathSegment(type, segments[1]) : null;
+            if ((dataType == null) || (series.getDevice() == null)
+                    || (series.getName() == null))
             {
                 this.logger.log(LogService.LOG_ERROR,
-                        "Unable to parse the start date");
+                        "Invalid join series: " + series.getDevice() + "/"
+                                + family + "/" + series.getName());
                 throw new WebApplicationException(Response.Status.BAD_REQUEST);
             }
+
+            HistoryQuery query = new HistoryQuery(series.getDevice(),
+                    series.getName(), series.getParams(), from, to, 0,
+                    EventStoreInfo.UNLIMITED_SIZE, true, null, dataType, type,
+                    null, null);
+            cost += admission.estimateCost(query, now);
+            columns.add(query.getStreamKey());
         }
+        this.admit(admission, client, cost, "join of " + columns);
 
-        // parse the dates if present
-        Date end = new Date(); // default, the current time
-        if ((endDate != null) && (!endDate.isEmpty()))
+        // the join as a whole may need a global slot
+        this.acquire(admission, client, cost);
+        JoinTable table;
+        try
         {
+            // extract all the streams in parallel, starting all the store
+            // reads before waiting for any of them
+            List<PlannedRead> reads = new ArrayList<>();
+            for (EventStreamKey key : columns)
+                reads.add(this.startDeviceSpecificEventData(key, from, to, 0,
+                        EventStoreInfo.UNLIMITED_SIZE));
+            List<EventDataStream> streams = new ArrayList<>();
             try
             {
-                end = sdf.parse(endDate);
+                for (PlannedRead read : reads)
+                    streams.add(this.finishDeviceSpecificEventData(read));
             }
-            catch (ParseException e)
+            catch (RuntimeException e)
             {
-                this.logger.log(LogService.LOG_ERROR,
-                        "Unable to parse the end date");
-                throw new WebApplicationException(Response.Status.BAD_REQUEST);
+                for (PlannedRead read : reads)
+                    this.cancelDeviceSpecificEventData(read);
+                throw e;
             }
-        }
-
-        // if the offset is not specified set the default value of 0 , i.e.,
-        // start from the first result.
-        if (offset == null)
-            offset = 0;
-
-        // if the limit parameter is not specified, set the default value at
-        // EventStoreInfo.UNLIMITED_SIZE, i.e., do not limit result size.
-        if (limit == null)
-            limit = EventStoreInfo.UNLIMITED_SIZE;
 
-        // if the parameters are null replace with the empty string
-        if ((params == null) || (params.isEmpty()))
-            params = "";
+            // filled values may come from before the grid, whatever their
+            // age, for series with no point up to its first instant
+            if (fill != JoinTable.Fill.NULL)
+            {
+                for (int i = 0; i < streams.size(); i++)
+                    streams.set(i, this.withPreviousPoint(columns.get(i),
+                            streams.get(i), from, start, step));
+            }
 
-        try
+            table = JoinTable.join(columns, streams, start.getTime(),
+                    end.getTime(), step, fill);
+        }
+        finally
         {
-            EventDataStream events = new EventDataStream();
+            admission.release(cost);
+        }
+        this.metrics.increment("join.requests");
+
+        final JoinTable joined = table;
+        final EventDataWriter writer = this.jsonWriter;
+        StreamingOutput output = new StreamingOutput() {
 
-            switch (type)
+            @Override
+            public void write(OutputStream out) throws IOException
             {
-                case NOTIFICATION:
+                if (csv)
                 {
-                    switch (dataType)
-                    {
-                        case MEASURE:
-                        {
-                            events = this.eventStore.get()
-                                    .getSpecificDeviceParametricNotifications(
-                                            deviceId, name, params, start, end,
-                                            offset, limit);
-                            break;
-                        }
-                        case NOTMEASURE:
-                        {
-                            events = this.eventStore.get()
-                                    .getSpecificDeviceNonParametricNotifications(
-                                            deviceId, name, start, end, offset,
-                                            limit);
-                            break;
-                        }
-                    }
-
-                    break;
+                    Writer csvWriter = new BufferedWriter(
+                            new OutputStreamWriter(out, "UTF-8"));
+                    writer.writeCsv(csvWriter, joined);
+                    csvWriter.flush();
                 }
-                case STATE:
+                else
                 {
-                    switch (dataType)
-                    {
-                        case MEASURE:
-                        {
-                            events = this.eventStore.get()
-                                    .getSpecificDeviceContinuousStates(deviceId,
-                                            name, params, start, end, offset,
-                                            limit);
-                            break;
-                        }
-                        case NOTMEASURE:
-                        {
-                            events = this.eventStore.get()
-                                    .getSpecificDeviceDiscreteStates(deviceId,
-                                            name, start, end, offset, limit);
-                            break;
-                        }
-                    }
+                    JsonGenerator generator = writer.createGenerator(out);
+                    writer.write(generator, joined);
+                    generator.flush();
                 }
             }
+        };
 
-            extractedNotificationsJSON = this.mapper.writeValueAsString(events);
+        return Response.ok(output)
+                .type(csv ? "text/csv" : MediaType.APPLICATION_JSON)
+                .header("Access-Control-Allow-Origin", "*").build();
+    }
+
+    @Override
+    public Response submitExportJob(String jsonData,
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+    {
+        ExportJobRequest request = null;
+        try
+        {
+            request = this.exportReader.readValue(jsonData);
         }
         catch (IOException e)
         {
             this.logger.log(LogService.LOG_ERROR,
-                    "Unable to compose the response message for the paramteric notifications of "
-                            + deviceId,
-                    e);
+                    "Error while parsing the given export request", e);
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
         }
 
-        if (extractedNotificationsJSON.isEmpty())
+        if ((request.getDevices() == null) || (request.getDevices().isEmpty()))
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+
+        // the families to export, all by default
+        List<ExportJob.Family> families = new ArrayList<>();
+        if ((request.getFamilies() == null)
+                || (request.getFamilies().isEmpty()))
         {
-            // launch the exception responsible for sending the HTTP response
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
+            for (EventType type : EventType.values())
+                for (EventDataType dataType : EventDataType.values())
+                    families.add(new ExportJob.Family(type, dataType));
         }
         else
-            return extractedNotificationsJSON;
-    }
+        {
+            for (String family : request.getFamilies())
+            {
+                String segments[] = family.split("/");
+                EventType type = EventType.fromPathSegment(segments[0]);
+                EventDataType dataType = (segments.length == 2)
+                        ? EventDataType.fromPathSegment(type, segments[1])
+                        : null;
+                if (dataType == null)
+                {
+                    this.logger.log(LogService.LOG_ERROR,
+                            "Unknown event family: " + family);
+                    throw new WebApplicationException(
+                            Response.Status.BAD_REQUEST);
+                }
+                families.add(new ExportJob.Family(type, dataType));
+            }
+        }
 
-    @Override
-    public Response insertSpecificDeviceParametricNotificationCSV(
-            String deviceId, String notificationName, String csvData,
-            HttpServletResponse httpResponse)
-    {
-        this.insertDeviceSpecificEventData(deviceId, notificationName, null,
-                csvData, EventDataType.MEASURE, EventType.NOTIFICATION,
-                MediaType.TEXT_PLAIN);
+        ExportFormat format = ExportFormat.fromName(request.getFormat());
+        if (format == null)
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+
+        Date start = new Date(0);
+        Date end = new Date();
+        try
+        {
+            if ((request.getStart() != null) && (!request.getStart().isEmpty()))
+                start = this.parseDate(request.getStart());
+            if ((request.getEnd() != null) && (!request.getEnd().isEmpty()))
+                end = this.parseDate(request.getEnd());
+        }
+        catch (ParseException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unable to parse the export range", e);
+            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+        }
+
+        // no further job while the artifacts fill the disk space
+        ExportJobManager exports = this.exports;
+        if (exports.isFull())
+        {
+            this.logger.log(LogService.LOG_WARNING,
+                    "Rejected export job, the export disk space is full");
+            throw new WebApplicationException(Response.status(507)
+                    .header("Access-Control-Allow-Origin", "*").build());
+        }
+
+        // each device and family is charged as the equivalent history query
+        AdmissionController admission = this.admission;
+        String client = this.getClientId(httpRequest);
+        long now = System.currentTimeMillis();
+        long cost = 0;
+        for (String device : request.getDevices())
+        {
+            for (ExportJob.Family family : families)
+                cost += admission.estimateCost(new HistoryQuery(device, null,
+                        null, start, end, 0, EventStoreInfo.UNLIMITED_SIZE,
+                        true, null, family.getDataType(), family.getType(),
+                        null, null), now);
+        }
+        this.admit(admission, client, cost,
+                "export of " + request.getDevices());
 
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
+        ExportJob job = exports.submit(new ArrayList<>(request.getDevices()),
+                families, start, end, format);
+        if (job == null)
+        {
+            // too many jobs queued, this one never runs
+            admission.refund(client, cost);
+            this.logger.log(LogService.LOG_WARNING,
+                    "Rejected export job, too many jobs queued");
+            throw this.tooManyRequests(60L * 1000L);
+        }
+
+        return Response.status(Response.Status.ACCEPTED)
+                .entity(this.toJSON(job))
+                .header("Location", "exports/" + job.getId())
+                .header("Access-Control-Allow-Origin", "*").build();
     }
 
     @Override
-    public Response insertSpecificDeviceParametricNotificationCSV(
-            String deviceId, String notificationName, String notificationParams,
-            String csvData, HttpServletResponse httpResponse)
+    public String getExportJob(String jobId, HttpServletResponse httpResponse)
     {
-        this.insertDeviceSpecificEventData(deviceId, notificationName,
-                notificationParams, csvData, EventDataType.MEASURE,
-                EventType.NOTIFICATION, MediaType.TEXT_PLAIN);
+        this.setCORSSupport(httpResponse);
+
+        ExportJob job = this.exports.get(jobId);
+        if (job == null)
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
 
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
+        return this.toJSON(job);
     }
 
     @Override
-    public Response insertSpecificDeviceNonParametricNotificationCSV(
-            String deviceId, String notificationName, String csvData,
+    public Response getExportJobData(String jobId, String range,
             HttpServletResponse httpResponse)
     {
-        this.insertDeviceSpecificEventData(deviceId, notificationName, null,
-                csvData, EventDataType.NOTMEASURE, EventType.NOTIFICATION,
-                MediaType.TEXT_PLAIN);
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
-    }
+        ExportJob job = this.exports.get(jobId);
+        if (job == null)
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        if (job.getStatus() != ExportJob.Status.COMPLETED)
+            throw new WebApplicationException(Response.Status.CONFLICT);
+
+        final File file = job.getFile();
+        final long length = file.length();
+        String fileName = file.getName();
+
+        // parse single byte ranges only, i.e., bytes=first-last,
+        // bytes=first- or bytes=-suffix, multiple ranges get the whole file
+        long first = 0;
+        long last = length - 1;
+        boolean partial = false;
+        if ((range != null) && (range.startsWith("bytes="))
+                && (range.indexOf(',') < 0))
+        {
+            String bounds[] = range.substring(6).trim().split("-", -1);
+            try
+            {
+                if (bounds[0].isEmpty())
+                    first = Math.max(0,
+                            length - Long.parseLong(bounds[1].trim()));
+                else
+                {
+                    first = Long.parseLong(bounds[0].trim());
+                    if (!bounds[1].isEmpty())
+                        last = Math.min(last,
+                                Long.parseLong(bounds[1].trim()));
+                }
+            }
+            catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+            {
+                throw new WebApplicationException(Response.Status.BAD_REQUEST);
+            }
 
-    @Override
-    public Response insertSpecificDeviceContinuousStateCSV(String deviceId,
-            String stateName, String csvData, HttpServletResponse httpResponse)
-    {
-        this.insertDeviceSpecificEventData(deviceId, stateName, null, csvData,
-                EventDataType.MEASURE, EventType.STATE, MediaType.TEXT_PLAIN);
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
+            if ((first > last) || (first >= length))
+                throw new WebApplicationException(Response.status(416)
+                        .header("Content-Range", "bytes */" + length)
+                        .header("Access-Control-Allow-Origin", "*").build());
+            partial = true;
+        }
+
+        final long from = first;
+        final long count = last - first + 1;
+        StreamingOutput output = new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream out) throws IOException
+            {
+                try (RandomAccessFile artifact = new RandomAccessFile(file,
+                        "r"))
+                {
+                    artifact.seek(from);
+                    byte buffer[] = new byte[64 * 1024];
+                    long remaining = count;
+                    while (remaining > 0)
+                    {
+                        int read = artifact.read(buffer, 0,
+                                (int) Math.min(buffer.length, remaining));
+                        if (read < 0)
+                            break;
+                        out.write(buffer, 0, read);
+                        remaining -= read;
+                    }
+                }
+            }
+        };
+
+        Response.ResponseBuilder response = Response
+                .status(partial ? 206 : 200).entity(output)
+                .type("application/gzip").header("Accept-Ranges", "bytes")
+                .header("Content-Length", count)
+                .header("Content-Disposition",
+                        "attachment; filename=\"" + fileName + "\"")
+                .header("Access-Control-Allow-Origin", "*");
+        if (partial)
+            response.header("Content-Range",
+                    "bytes " + first + "-" + last + "/" + length);
+
+        return response.build();
     }
 
     @Override
-    public Response insertSpecificDeviceContinuousStateCSV(String deviceId,
-            String stateName, String stateParams, String csvData,
+    public Response deleteExportJob(String jobId,
             HttpServletResponse httpResponse)
     {
-        this.insertDeviceSpecificEventData(deviceId, stateName, stateParams,
-                csvData, EventDataType.MEASURE, EventType.STATE,
-                MediaType.TEXT_PLAIN);
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
-    }
+        if (this.exports.remove(jobId) == null)
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
 
-    @Override
-    public Response insertSpecificDeviceDiscreteStateCSV(String deviceId,
-            String stateName, String csvData, HttpServletResponse httpResponse)
-    {
-        this.insertDeviceSpecificEventData(deviceId, stateName, null, csvData,
-                EventDataType.NOTMEASURE, EventType.STATE,
-                MediaType.TEXT_PLAIN);
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
+        return Response.noContent().header("Access-Control-Allow-Origin", "*")
+                .build();
     }
 
     @Override
-    public Response insertSpecificDeviceParametricNotificationJSON(
-            String deviceId, String notificationName, String jsonData,
-            HttpServletResponse httpResponse)
+    public String getMetrics(HttpServletResponse httpResponse)
     {
-        this.insertDeviceSpecificEventData(deviceId, notificationName, null,
-                jsonData, EventDataType.MEASURE, EventType.NOTIFICATION,
-                MediaType.APPLICATION_JSON);
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
+        this.setCORSSupport(httpResponse);
+
+        Map<String, Long> metrics = this.metrics.snapshot();
+        metrics.put("store.available",
+                this.eventStore.isAvailable() ? 1L : 0L);
+        metrics.put("store.count", (long) this.eventStore.size());
+        metrics.put("store.swaps", this.eventStore.getSwaps());
+        metrics.put("store.swap.latency.last",
+                this.eventStore.getLastSwapLatency());
+        metrics.put("store.unavailable.time",
+                this.eventStore.getUnavailableTime());
+        metrics.put("store.wait.timeouts", this.eventStore.getTimeouts());
+        metrics.put("queries.coalesced", this.inflight.getCoalesced()
+                + this.inflightTimeSeries.getCoalesced());
+        metrics.put("admission.rejected", this.admission.getRejected());
+
+        try
+        {
+            return this.mapper.writeValueAsString(metrics);
+        }
+        catch (IOException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unable to compose the metrics", e);
+            throw new WebApplicationException(
+                    Response.Status.INTERNAL_SERVER_ERROR);
+        }
     }
 
-    @Override
-    public Response insertSpecificDeviceParametricNotificationJSON(
-            String deviceId, String notificationName, String notificationParams,
-            String jsonData, HttpServletResponse httpResponse)
+    private String toJSON(ExportJob job)
     {
-        this.insertDeviceSpecificEventData(deviceId, notificationName,
-                notificationParams, jsonData, EventDataType.MEASURE,
-                EventType.NOTIFICATION, MediaType.APPLICATION_JSON);
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
+        try
+        {
+            return this.mapper.writeValueAsString(job);
+        }
+        catch (IOException e)
+        {
+            this.logger.log(LogService.LOG_ERROR,
+                    "Unable to compose the status of export job "
+                            + job.getId(),
+                    e);
+            throw new WebApplicationException(
+                    Response.Status.INTERNAL_SERVER_ERROR);
+        }
     }
 
-    @Override
-    public Response insertSpecificDeviceNonParametricNotificationJSON(
-            String deviceId, String notificationName, String jsonData,
-            HttpServletResponse httpResponse)
+    private List<EventStoreBinding> acquireStores(String deviceId, Date start,
+            Date end)
     {
-        this.insertDeviceSpecificEventData(deviceId, notificationName, null,
-                jsonData, EventDataType.NOTMEASURE, EventType.NOTIFICATION,
-                MediaType.APPLICATION_JSON);
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
+        List<EventStoreBinding> stores = this.eventStore.acquire(deviceId,
+                start.getTime(), end.getTime(),
+                this.configuration.getStoreWaitTimeout());
+        if (stores == null)
+            throw this.storeUnavailable();
+        return stores;
     }
 
-    @Override
-    public Response insertSpecificDeviceContinuousStateJSON(String deviceId,
-            String stateName, String jsonData, HttpServletResponse httpResponse)
+    private WebApplicationException storeUnavailable()
     {
-        this.insertDeviceSpecificEventData(deviceId, stateName, null, jsonData,
-                EventDataType.MEASURE, EventType.STATE,
-                MediaType.APPLICATION_JSON);
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
+        this.logger.log(LogService.LOG_ERROR,
+                "No EventStore available to serve the request");
+        return new WebApplicationException(
+                Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                        .header("Retry-After", 5)
+                        .header("Access-Control-Allow-Origin", "*").build());
     }
 
-    @Override
-    public Response insertSpecificDeviceContinuousStateJSON(String deviceId,
-            String stateName, String stateParams, String jsonData,
-            HttpServletResponse httpResponse)
+    private WebApplicationException tooManyRequests(long retryAfter)
     {
-        this.insertDeviceSpecificEventData(deviceId, stateName, stateParams,
-                jsonData, EventDataType.MEASURE, EventType.STATE,
-                MediaType.APPLICATION_JSON);
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
+        // Retry-After is expressed in seconds, rounded up; buckets which
+        // never refill give Long.MAX_VALUE
+        long seconds = (retryAfter > Long.MAX_VALUE - 999)
+                ? Long.MAX_VALUE / 1000 : (retryAfter + 999) / 1000;
+        return new WebApplicationException(Response.status(429)
+                .header("Retry-After", Math.max(1, seconds))
+                .header("Access-Control-Allow-Origin", "*").build());
     }
 
-    @Override
-    public Response insertSpecificDeviceDiscreteStateJSON(String deviceId,
-            String stateName, String jsonData, HttpServletResponse httpResponse)
+    private String getClientId(HttpServletRequest request)
     {
-        this.insertDeviceSpecificEventData(deviceId, stateName, null, jsonData,
-                EventDataType.NOTMEASURE, EventType.STATE,
-                MediaType.APPLICATION_JSON);
-        return Response.ok().header("Access-Control-Allow-Origin", "*").build();
+        return ((request != null) && (request.getRemoteAddr() != null))
+                ? request.getRemoteAddr() : "unknown";
     }
 
-    private void insertDeviceSpecificEventData(String deviceId, String name,
-            String params, String data, EventDataType eventDataType,
-            EventType eventType, String mediaType)
+    private Date parseDate(String date) throws ParseException
     {
-        // create the event stream
-        EventDataStream stream = new EventDataStream(name,
-                (params != null ? params : ""), deviceId);
-
-        // fill the stream
-        switch (mediaType)
+        // SimpleDateFormat is not thread-safe
+        synchronized (this.sdf)
         {
-            case MediaType.APPLICATION_JSON:
-            {
-                fillStreamFromJSON(data, stream);
-                break;
-            }
-            case MediaType.TEXT_PLAIN:
-            {
-                fillStreamFromCSV(data, stream);
-                break;
-            }
+            return this.sdf.parse(date);
         }
+    }
 
-        if (!stream.getDatapoints().isEmpty())
-        {
-            EventDataStreamSet streamSet = new EventDataStreamSet(deviceId);
-            streamSet.addDatastream(stream);
+    private void setCORSSupport(HttpServletResponse response)
+    {
+        response.addHeader("Access-Control-Allow-Origin", "*");
+    }
 
-            switch (eventType)
+    private static ThreadFactory daemonThreads(final String name)
+    {
+        return new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r)
             {
-                case NOTIFICATION:
-                {
-                    switch (eventDataType)
-                    {
-                        case MEASURE:
-                        {
-                            this.eventStore.get()
-                                    .insertParametricNotifications(streamSet);
-                            break;
-                        }
-                        case NOTMEASURE:
-                        {
-                            this.eventStore.get()
-                                    .insertNonParametricNotifications(
-                                            streamSet);
-                            break;
-                        }
-                    }
-                    break;
-                }
-                case STATE:
-                {
-                    switch (eventDataType)
-                    {
-                        case MEASURE:
-                        {
-                            this.eventStore.get()
-                                    .insertContinuousStates(streamSet);
-                            break;
-                        }
-                        case NOTMEASURE:
-                        {
-                            this.eventStore.get()
-                                    .insertDiscreteStates(streamSet);
-                            break;
-                        }
-                    }
-                    break;
-                }
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
             }
-
-        }
-
+        };
     }
 
-    private void fillStreamFromJSON(String jsonData, EventDataStream stream)
+    private static void resize(ThreadPoolExecutor pool, int size)
     {
-        try
-        {
-            // extract the set of datapoints to add
-            ArrayList<EventDataPoint> dataPoints = this.mapper.readValue(
-                    jsonData, mapper.getTypeFactory().constructCollectionType(
-                            ArrayList.class, EventDataPoint.class));
+        if (pool == null)
+            return;
 
-            // store the datapoints
-            stream.setDatapoints(dataPoints);
+        // the core size shall not exceed the maximum size
+        int threads = Math.max(1, size);
+        if (threads > pool.getMaximumPoolSize())
+        {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
         }
-        catch (IOException e)
+        else
         {
-            this.logger.log(LogService.LOG_ERROR,
-                    "Error while parsing the given json data", e);
-
-            throw new WebApplicationException(Response.Status.BAD_REQUEST);
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
         }
     }
 
-    private void fillStreamFromCSV(String csvData, EventDataStream stream)
+    /**
+     * The extraction of a stream range in progress, as planned by
+     * {@link HistoryRESTEndpoint#startDeviceSpecificEventData(EventStreamKey, Date, Date, int, int)}
+     */
+    private static class PlannedRead
     {
-        StringReader csvReader = new StringReader(csvData);
-        BufferedReader bufferedCsvReader = new BufferedReader(csvReader);
+        // the stream
+        private final EventStreamKey key;
 
-        // iterate over csv lines
-        String line = "";
-        EventDataPoint point = null;
-        try
-        {
-            while ((line = bufferedCsvReader.readLine()) != null)
-            {
-                String data[] = line.trim().split(",");
-                if (data.length >= 3)
-                {
-                    Date timestamp = this.sdf.parse(data[0]);
-                    point = new EventDataPoint(timestamp, data[1], data[2]);
+        // the planner generation taken before reading
+        private final long generation;
 
-                    // add the point
-                    stream.addDatapoint(point);
-                }
-            }
-        }
-        catch (IOException | ParseException e)
-        {
-            this.logger.log(LogService.LOG_ERROR,
-                    "Error while parsing the given csv data", e);
+        // the read range, starting from the first known point
+        private final Date from;
+        private final Date end;
+        private final int offset;
+        private final int limit;
 
-            throw new WebApplicationException(Response.Status.BAD_REQUEST);
-        }
-    }
+        // the cache of the sub-ranges, and its generation taken before
+        // reading
+        private final ChunkCache chunks;
+        private final long chunkGeneration;
 
-    private void setCORSSupport(HttpServletResponse response)
-    {
-        response.addHeader("Access-Control-Allow-Origin", "*");
-    }
+        // the sub-ranges in time order, and their points when available, null
+        // if there is nothing to read
+        private List<Date[]> ranges;
+        private EventDataStream[] parts;
 
+        // the store reads in progress, for each sub-range not cached
+        private final List<List<Future<EventDataStream>>> partials;
+
+        public PlannedRead(EventStreamKey key, long generation, Date from,
+                Date end, int offset, int limit, ChunkCache chunks)
+        {
+            this.key = key;
+            this.generation = generation;
+            this.from = from;
+            this.end = end;
+            this.offset = offset;
+            this.limit = limit;
+            this.chunks = chunks;
+            this.chunkGeneration = chunks.getGeneration();
+            this.partials = new ArrayList<>();
+        }
+    }
 }
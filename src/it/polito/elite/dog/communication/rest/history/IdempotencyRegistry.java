@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records the outcome of recently applied requests carrying an
+ * Idempotency-Key header, so that retries of the same request are answered
+ * with the original outcome instead of being applied again. The record is
+ * bounded in size and its entries expire after a fixed time; a request in
+ * progress is recorded as pending, so that concurrent retries can be told
+ * apart. Thread safe.
+ *
+ * @author bonino
+ *
+ */
+public class IdempotencyRegistry
+{
+    // the outcome of requests still in progress, compared by identity
+    public static final Outcome PENDING = new Outcome(null);
+
+    // the maximum number of recorded keys
+    private final int capacity;
+
+    // the time after which a key is forgotten, in milliseconds
+    private final long ttl;
+
+    // the recorded keys, oldest first
+    private final LinkedHashMap<String, Record> records;
+
+    /**
+     * Creates a registry
+     *
+     * @param capacity
+     *            the maximum number of recorded keys
+     * @param ttl
+     *            the time after which a key is forgotten, in milliseconds
+     */
+    public IdempotencyRegistry(final int capacity, long ttl)
+    {
+        this.capacity = Math.max(1, capacity);
+        this.ttl = ttl;
+        this.records = new LinkedHashMap<String, Record>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Record> eldest)
+            {
+                return this.size() > IdempotencyRegistry.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Starts a request with the given key
+     *
+     * @param key
+     *            the idempotency key, scoped by the caller
+     * @return null if the request shall be applied, {@link #PENDING} if the
+     *         same request is in progress, the original outcome otherwise
+     */
+    public synchronized Outcome begin(String key)
+    {
+        long now = System.currentTimeMillis();
+        this.expire(now);
+
+        Record record = this.records.get(key);
+        if (record != null)
+            return record.outcome;
+
+        this.records.put(key, new Record(PENDING, now));
+        return null;
+    }
+
+    /**
+     * Records the outcome of a request started with {@link #begin(String)}
+     *
+     * @param key
+     *            the idempotency key
+     * @param outcome
+     *            the outcome to return to retries
+     */
+    public synchronized void complete(String key, Outcome outcome)
+    {
+        // re-inserted, the key expires from now on
+        this.records.remove(key);
+        this.records.put(key, new Record(outcome, System.currentTimeMillis()));
+    }
+
+    /**
+     * Forgets a request started with {@link #begin(String)} that has not been
+     * applied, so that it can be retried
+     *
+     * @param key
+     *            the idempotency key
+     */
+    public synchronized void abort(String key)
+    {
+        this.records.remove(key);
+    }
+
+    private void expire(long now)
+    {
+        Iterator<Record> iterator = this.records.values().iterator();
+        while (iterator.hasNext())
+        {
+            // records are in time order
+            if (now - iterator.next().time < this.ttl)
+                break;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * The outcome of an applied request
+     */
+    public static class Outcome
+    {
+        // the response entity, if any
+        private final String entity;
+
+        public Outcome(String entity)
+        {
+            this.entity = entity;
+        }
+
+        public String getEntity()
+        {
+            return entity;
+        }
+    }
+
+    private static class Record
+    {
+        private final Outcome outcome;
+        private final long time;
+
+        public Record(Outcome outcome, long time)
+        {
+            this.outcome = outcome;
+            this.time = time;
+        }
+    }
+}
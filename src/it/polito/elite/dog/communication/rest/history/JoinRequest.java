@@ -0,0 +1,152 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.List;
+
+/**
+ * The JSON body of a join query, aligning several event streams on a common
+ * time grid.
+ *
+ * @author bonino
+ *
+ */
+public class JoinRequest
+{
+    // the streams to join, one column each
+    private List<Series> series;
+
+    // the grid start
+    private String start;
+
+    // the grid end, NOW if not given
+    private String end;
+
+    // the grid step, in seconds
+    private long step;
+
+    // the fill policy, null, previous or linear; previous if not given
+    private String fill;
+
+    // the table format, json or csv; json if not given
+    private String format;
+
+    public List<Series> getSeries()
+    {
+        return series;
+    }
+
+    public void setSeries(List<Series> series)
+    {
+        this.series = series;
+    }
+
+    public String getStart()
+    {
+        return start;
+    }
+
+    public void setStart(String start)
+    {
+        this.start = start;
+    }
+
+    public String getEnd()
+    {
+        return end;
+    }
+
+    public void setEnd(String end)
+    {
+        this.end = end;
+    }
+
+    public long getStep()
+    {
+        return step;
+    }
+
+    public void setStep(long step)
+    {
+        this.step = step;
+    }
+
+    public String getFill()
+    {
+        return fill;
+    }
+
+    public void setFill(String fill)
+    {
+        this.fill = fill;
+    }
+
+    public String getFormat()
+    {
+        return format;
+    }
+
+    public void setFormat(String format)
+    {
+        this.format = format;
+    }
+
+    /**
+     * A stream to join
+     */
+    public static class Series
+    {
+        // the device URI
+        private String device;
+
+        // the event family, as REST path, states/continuous if not given
+        private String family;
+
+        // the notification or state name
+        private String name;
+
+        // the notification or state parameters, if any
+        private String params;
+
+        public String getDevice()
+        {
+            return device;
+        }
+
+        public void setDevice(String device)
+        {
+            this.device = device;
+        }
+
+        public String getFamily()
+        {
+            return family;
+        }
+
+        public void setFamily(String family)
+        {
+            this.family = family;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public void setName(String name)
+        {
+            this.name = name;
+        }
+
+        public String getParams()
+        {
+            return params;
+        }
+
+        public void setParams(String params)
+        {
+            this.params = params;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+import it.polito.elite.dog.addons.storage.EventDataStream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several event streams aligned on a common time grid, one column per stream
+ * and one row per grid instant. Each column is resampled at the grid instants
+ * according to a {@link Fill} policy, in a single pass merging the grid with
+ * all the streams at once. Instances are immutable.
+ *
+ * @author bonino
+ *
+ */
+public class JoinTable
+{
+    // the maximum number of rows of a table
+    public static final int MAX_ROWS = 100000;
+
+    /**
+     * The value given to a column at a grid instant
+     */
+    public enum Fill
+    {
+        // the last value within the step before the instant, gaps stay empty
+        NULL,
+        // the last value before the instant, whatever its age
+        PREVIOUS,
+        // the value interpolated between the points around the instant,
+        // numeric values only; non-numeric values are held as for PREVIOUS
+        LINEAR;
+
+        /**
+         * Provides the policy with the given name, case insensitive
+         *
+         * @param name
+         *            the policy name, null for the default policy
+         * @return the policy, or null if unknown
+         */
+        public static Fill fromName(String name)
+        {
+            if ((name == null) || (name.isEmpty()))
+                return PREVIOUS;
+            for (Fill fill : Fill.values())
+            {
+                if (fill.name().equalsIgnoreCase(name))
+                    return fill;
+            }
+            return null;
+        }
+    }
+
+    // the joined streams
+    private final List<EventStreamKey> columns;
+
+    // the first grid instant, in milliseconds since the epoch
+    private final long start;
+
+    // the grid step, in milliseconds
+    private final long step;
+
+    // the number of grid instants
+    private final int rows;
+
+    // the values, by column and row
+    private final String[][] values;
+
+    private JoinTable(List<EventStreamKey> columns, long start, long step,
+            int rows, String[][] values)
+    {
+        this.columns = columns;
+        this.start = start;
+        this.step = step;
+        this.rows = rows;
+        this.values = values;
+    }
+
+    /**
+     * Aligns the given streams on the grid going from start to end, both
+     * included, at the given step
+     *
+     * @param columns
+     *            the keys of the streams
+     * @param streams
+     *            the streams, in the same order and with points in time
+     *            order; the range they cover shall extend one step beyond the
+     *            grid on both sides, to fill the first and last rows
+     * @param start
+     *            the first grid instant, in milliseconds since the epoch
+     * @param end
+     *            the grid end, in milliseconds since the epoch
+     * @param step
+     *            the grid step, in milliseconds
+     * @param fill
+     *            the fill policy
+     * @return the table
+     * @throws IllegalArgumentException
+     *             if the grid is empty or exceeds {@link #MAX_ROWS}
+     */
+    public static JoinTable join(List<EventStreamKey> columns,
+            List<EventDataStream> streams, long start, long end, long step,
+            Fill fill)
+    {
+        if ((step <= 0) || (end < start))
+            throw new IllegalArgumentException("Empty grid");
+        long rows = (end - start) / step + 1;
+        if (rows > MAX_ROWS)
+            throw new IllegalArgumentException(
+                    "Too many rows: " + rows + " > " + MAX_ROWS);
+
+        // the points and the merge cursor of each column
+        int width = streams.size();
+        List<List<EventDataPoint>> points = new ArrayList<>(width);
+        int[] next = new int[width];
+        EventDataPoint[] previous = new EventDataPoint[width];
+        for (EventDataStream stream : streams)
+            points.add(JoinTable.timedPoints(stream));
+
+        String[][] values = new String[width][(int) rows];
+        for (int row = 0; row < rows; row++)
+        {
+            long at = start + row * step;
+            for (int column = 0; column < width; column++)
+            {
+                // advance the column to the last point not after the instant
+                List<EventDataPoint> columnPoints = points.get(column);
+                while ((next[column] < columnPoints.size()) && (columnPoints
+                        .get(next[column]).getAt().getTime() <= at))
+                    previous[column] = columnPoints.get(next[column]++);
+
+                EventDataPoint following = (next[column] < columnPoints
+                        .size()) ? columnPoints.get(next[column]) : null;
+                values[column][row] = JoinTable.sample(previous[column],
+                        following, at, step, fill);
+            }
+        }
+
+        return new JoinTable(
+                Collections.unmodifiableList(new ArrayList<>(columns)), start,
+                step, (int) rows, values);
+    }
+
+    public List<EventStreamKey> getColumns()
+    {
+        return columns;
+    }
+
+    public long getStart()
+    {
+        return start;
+    }
+
+    public long getStep()
+    {
+        return step;
+    }
+
+    public int getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Provides the grid instant of the given row
+     *
+     * @param row
+     *            the row
+     * @return the instant, in milliseconds since the epoch
+     */
+    public long getAt(int row)
+    {
+        return this.start + row * this.step;
+    }
+
+    /**
+     * Provides the value of the given cell
+     *
+     * @param column
+     *            the column
+     * @param row
+     *            the row
+     * @return the value, or null if the cell is empty
+     */
+    public String getValue(int column, int row)
+    {
+        return this.values[column][row];
+    }
+
+    private static String sample(EventDataPoint previous,
+            EventDataPoint following, long at, long step, Fill fill)
+    {
+        if (previous == null)
+            return null;
+
+        long age = at - previous.getAt().getTime();
+        switch (fill)
+        {
+            case NULL:
+                return (age < step) ? previous.getValue() : null;
+            case LINEAR:
+            {
+                if (age == 0)
+                    return previous.getValue();
+
+                // no extrapolation past the last point
+                if (following == null)
+                    return null;
+
+                Double from = JoinTable.toNumber(previous.getValue());
+                Double to = JoinTable.toNumber(following.getValue());
+                if ((from == null) || (to == null))
+                    return previous.getValue();
+
+                long span = following.getAt().getTime()
+                        - previous.getAt().getTime();
+                return String.valueOf(from + (to - from) * age / span);
+            }
+            default:
+                return previous.getValue();
+        }
+    }
+
+    private static List<EventDataPoint> timedPoints(EventDataStream stream)
+    {
+        List<EventDataPoint> points = new ArrayList<>();
+        if ((stream != null) && (stream.getDatapoints() != null))
+        {
+            for (EventDataPoint point : stream.getDatapoints())
+            {
+                if (point.getAt() != null)
+                    points.add(point);
+            }
+        }
+        return points;
+    }
+
+    private static Double toNumber(String value)
+    {
+        if (value == null)
+            return null;
+        try
+        {
+            return Double.valueOf(value.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+}
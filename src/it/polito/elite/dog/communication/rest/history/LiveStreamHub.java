@@ -0,0 +1,352 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+import it.polito.elite.dog.communication.rest.history.LiveSubscriber.LiveFrame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Fans out new data points to the clients following the live tail of an
+ * event stream. Points reach the hub from the inserts of this endpoint and
+ * from the periodic reads of the streams being followed, which catch the
+ * points written into the EventStore by other bundles; each point is pushed
+ * once, serialized as a Server-Sent Event frame whose bytes are shared by all
+ * the subscribers of the stream. Points reaching the store more than
+ * {@link #LATE_TIME} after their timestamp are not pushed.
+ * 
+ * @author bonino
+ *
+ */
+public class LiveStreamHub
+{
+    // the default per-client buffer size, in frames
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    // the interval between keep-alive comments sent to idle clients, in
+    // milliseconds
+    public static final long KEEPALIVE_INTERVAL = 15000;
+
+    // the time a point may take to reach the EventStore after its timestamp,
+    // in milliseconds, the followed streams are read again over this time
+    public static final long LATE_TIME = 10000;
+
+    // the keep-alive comment, also used to detect disconnected clients
+    public static final byte[] KEEPALIVE_FRAME = ": keepalive\n\n"
+            .getBytes(StandardCharsets.UTF_8);
+
+    // the frame sent to clients dropped for being too slow
+    public static final byte[] OVERFLOW_FRAME = "event: overflow\ndata: \n\n"
+            .getBytes(StandardCharsets.UTF_8);
+
+    // the followed streams
+    private final ConcurrentMap<EventStreamKey, Topic> topics;
+
+    // the writer used to serialize data points on a single line
+    private final ObjectWriter writer;
+
+    // the per-client buffer size
+    private final int bufferSize;
+
+    // the number of subscribers, over all the streams
+    private int clients;
+
+    // true once the hub has been closed
+    private boolean closed;
+
+    /**
+     * Creates a hub serializing points with the given writer
+     * 
+     * @param writer
+     *            the writer, must not indent its output
+     * @param bufferSize
+     *            the per-client buffer size, in frames
+     */
+    public LiveStreamHub(ObjectWriter writer, int bufferSize)
+    {
+        this.topics = new ConcurrentHashMap<>();
+        this.writer = writer;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Registers a new client for the given stream
+     * 
+     * @param key
+     *            the stream key
+     * @param maxClients
+     *            the maximum number of subscribers over all the streams, 0
+     *            for no limit
+     * @return the subscriber, or null if the maximum number of subscribers
+     *         has been reached or the hub has been closed
+     */
+    public synchronized LiveSubscriber subscribe(EventStreamKey key,
+            int maxClients)
+    {
+        if ((this.closed)
+                || ((maxClients > 0) && (this.clients >= maxClients)))
+            return null;
+
+        Topic topic = this.topics.get(key);
+        if (topic == null)
+        {
+            topic = new Topic(System.currentTimeMillis());
+            this.topics.put(key, topic);
+        }
+
+        LiveSubscriber subscriber = new LiveSubscriber(this.bufferSize);
+        topic.subscribers.add(subscriber);
+        this.clients++;
+        return subscriber;
+    }
+
+    /**
+     * Removes the given client
+     * 
+     * @param key
+     *            the stream key
+     * @param subscriber
+     *            the subscriber to remove
+     */
+    public synchronized void unsubscribe(EventStreamKey key,
+            LiveSubscriber subscriber)
+    {
+        Topic topic = this.topics.get(key);
+        if ((topic != null) && (topic.subscribers.remove(subscriber)))
+        {
+            this.clients--;
+            if (topic.subscribers.isEmpty())
+                this.topics.remove(key);
+        }
+    }
+
+    /**
+     * Disconnects all the clients and refuses new ones, e.g., when the
+     * endpoint is deactivated
+     */
+    public synchronized void close()
+    {
+        this.closed = true;
+        for (Topic topic : this.topics.values())
+        {
+            for (LiveSubscriber subscriber : topic.subscribers)
+                subscriber.close();
+        }
+        this.topics.clear();
+        this.clients = 0;
+    }
+
+    /**
+     * Checks whether anybody is following the given stream
+     * 
+     * @param key
+     *            the stream key
+     * @return true if at least one subscriber exists
+     */
+    public boolean hasSubscribers(EventStreamKey key)
+    {
+        return this.topics.containsKey(key);
+    }
+
+    /**
+     * Provides the streams followed by at least one client
+     * 
+     * @return the stream keys
+     */
+    public Set<EventStreamKey> getStreams()
+    {
+        return this.topics.keySet();
+    }
+
+    /**
+     * Provides the time from which the given stream shall be read to find
+     * the points not pushed yet
+     * 
+     * @param key
+     *            the stream key
+     * @return the time in milliseconds since the epoch, or null if nobody is
+     *         following the stream
+     */
+    public Long getReadStart(EventStreamKey key)
+    {
+        Topic topic = this.topics.get(key);
+        if (topic == null)
+            return null;
+        synchronized (topic)
+        {
+            return topic.readUntil - LATE_TIME;
+        }
+    }
+
+    /**
+     * Publishes the given new points to all the subscribers of the given
+     * stream, e.g., as they are inserted. Subscribers whose buffer is full
+     * are dropped.
+     * 
+     * @param key
+     *            the stream key
+     * @param points
+     *            the new points
+     * @throws IOException
+     *             if the points cannot be serialized
+     */
+    public void publish(EventStreamKey key, List<EventDataPoint> points)
+            throws IOException
+    {
+        this.publish(key, points, Long.MIN_VALUE);
+    }
+
+    /**
+     * Publishes the points read from the EventStore for the given stream,
+     * starting from the time given by {@link #getReadStart(EventStreamKey)};
+     * the points already pushed are skipped.
+     * 
+     * @param key
+     *            the stream key
+     * @param points
+     *            the points read, null if none
+     * @param readUntil
+     *            the end of the read range, in milliseconds since the epoch
+     * @throws IOException
+     *             if the points cannot be serialized
+     */
+    public void publish(EventStreamKey key, List<EventDataPoint> points,
+            long readUntil) throws IOException
+    {
+        Topic topic = this.topics.get(key);
+        if (topic == null)
+            return;
+        if (points == null)
+            points = Collections.emptyList();
+
+        synchronized (topic)
+        {
+            // points older than the last read range are not live anymore,
+            // the ones in range are pushed once, in time order
+            long floor = topic.readUntil - LATE_TIME;
+            List<EventDataPoint> fresh = new ArrayList<>();
+            for (EventDataPoint point : points)
+            {
+                if ((point.getAt() != null)
+                        && (point.getAt().getTime() >= floor)
+                        && (topic.markPushed(point)))
+                    fresh.add(point);
+            }
+            Collections.sort(fresh, new Comparator<EventDataPoint>() {
+
+                @Override
+                public int compare(EventDataPoint a, EventDataPoint b)
+                {
+                    return a.getAt().compareTo(b.getAt());
+                }
+            });
+
+            for (EventDataPoint point : fresh)
+            {
+                // serialize once, share with everybody
+                LiveFrame frame = this.toFrame("datapoint", point);
+                for (LiveSubscriber subscriber : topic.subscribers)
+                {
+                    if (!subscriber.offer(frame))
+                        this.unsubscribe(key, subscriber);
+                }
+            }
+
+            // forget the pushed points which will not be read again
+            if (readUntil > topic.readUntil)
+            {
+                topic.readUntil = readUntil;
+                topic.pushed.headMap(readUntil - LATE_TIME).clear();
+            }
+        }
+    }
+
+    /**
+     * Encodes a data point as a Server-Sent Event frame, the event id is the
+     * point timestamp so that clients can resume with Last-Event-ID.
+     * 
+     * @param event
+     *            the event name
+     * @param point
+     *            the point to encode
+     * @return the frame
+     * @throws IOException
+     *             if the point cannot be serialized
+     */
+    public LiveFrame toFrame(String event, EventDataPoint point)
+            throws IOException
+    {
+        long at = (point.getAt() != null) ? point.getAt().getTime() : 0;
+        String frame = "event: " + event + "\nid: " + at + "\ndata: "
+                + this.writer.writeValueAsString(point) + "\n\n";
+        return new LiveFrame(at, frame.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encodes the id a client shall resume from when reconnecting, as a
+     * Server-Sent Event frame carrying no data
+     * 
+     * @param at
+     *            the time of the last point received by the client
+     * @return the frame
+     */
+    public static byte[] toResumeFrame(long at)
+    {
+        return ("id: " + at + "\n\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A followed stream
+     */
+    private static class Topic
+    {
+        // the subscribers
+        private final CopyOnWriteArrayList<LiveSubscriber> subscribers;
+
+        // the end of the last read range, in milliseconds
+        private long readUntil;
+
+        // the values of the points pushed since the last read range start,
+        // by time, as distinct points may share the same time
+        private final TreeMap<Long, Set<String>> pushed;
+
+        public Topic(long readUntil)
+        {
+            this.subscribers = new CopyOnWriteArrayList<>();
+            this.readUntil = readUntil;
+            this.pushed = new TreeMap<>();
+        }
+
+        /**
+         * Records the given point as pushed
+         *
+         * @return false if a point with the same time and value has already
+         *         been pushed
+         */
+        private boolean markPushed(EventDataPoint point)
+        {
+            Set<String> values = this.pushed.get(point.getAt().getTime());
+            if (values == null)
+            {
+                values = new HashSet<>();
+                this.pushed.put(point.getAt().getTime(), values);
+            }
+            return values.add(point.getValue());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single client subscribed to the live tail of an event stream. Frames are
+ * serialized once by the {@link LiveStreamHub} and queued in a bounded
+ * per-client buffer; a client which does not keep up with the stream is
+ * flagged as overflowed and dropped. Subscribers are closed when the endpoint
+ * goes away, waking up the request threads waiting for frames.
+ * 
+ * @author bonino
+ *
+ */
+public class LiveSubscriber
+{
+    // the frame waking up a closed subscriber
+    private static final LiveFrame CLOSED = new LiveFrame(0, new byte[0]);
+
+    // the pending frames
+    private final BlockingQueue<LiveFrame> frames;
+
+    // true if the client fell behind the stream
+    private volatile boolean overflowed;
+
+    // true if the client shall be disconnected
+    private volatile boolean closed;
+
+    /**
+     * Creates a subscriber with the given buffer capacity
+     * 
+     * @param capacity
+     *            the maximum number of frames waiting to be written
+     */
+    public LiveSubscriber(int capacity)
+    {
+        this.frames = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Queues a frame without blocking the publisher
+     * 
+     * @param frame
+     *            the frame to queue
+     * @return false if the buffer is full, i.e., the client is too slow
+     */
+    boolean offer(LiveFrame frame)
+    {
+        if (!this.frames.offer(frame))
+        {
+            this.overflowed = true;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the next frame
+     * 
+     * @param timeout
+     *            the maximum time to wait, in milliseconds
+     * @return the frame or null if none arrived within the timeout, or if
+     *         the subscriber has been closed
+     * @throws InterruptedException
+     */
+    public LiveFrame poll(long timeout) throws InterruptedException
+    {
+        LiveFrame frame = this.frames.poll(timeout, TimeUnit.MILLISECONDS);
+        return (frame != CLOSED) ? frame : null;
+    }
+
+    /**
+     * Disconnects the client, the pending frames are discarded
+     */
+    void close()
+    {
+        this.closed = true;
+        this.frames.clear();
+        this.frames.offer(CLOSED);
+    }
+
+    /**
+     * Provides the number of frames waiting to be written
+     * 
+     * @return the number of pending frames
+     */
+    public int pending()
+    {
+        return this.frames.size();
+    }
+
+    public boolean isOverflowed()
+    {
+        return overflowed;
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * A serialized event, shared among all the subscribers of a stream
+     */
+    public static class LiveFrame
+    {
+        // the timestamp of the point carried by the frame
+        private final long at;
+
+        // the encoded frame
+        private final byte[] data;
+
+        public LiveFrame(long at, byte[] data)
+        {
+            this.at = at;
+            this.data = data;
+        }
+
+        public long getAt()
+        {
+            return at;
+        }
+
+        public byte[] getData()
+        {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+import it.polito.elite.dog.addons.storage.EventDataStream;
+import it.polito.elite.dog.addons.storage.EventStoreInfo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Streams the history of a single event stream as a JSON document while it is
+ * being extracted: a producer thread reads the requested range from the
+ * EventStore in chunks of consecutive points, while the request thread
+ * serializes and flushes the chunks already read. At most a fixed number of
+ * chunks is buffered between the two, so that memory stays bounded and the
+ * first bytes are sent as soon as the first chunk is available, whatever the
+ * range length. When all the producer threads are busy, the request thread
+ * reads and serializes the chunks by itself, one after the other. The
+ * document is the same returned by the device-specific history queries.
+ *
+ * @author bonino
+ *
+ */
+public class PipelinedStreamOutput implements StreamingOutput
+{
+    // marks the end of the chunks, compared by identity
+    private static final List<EventDataPoint> END = new ArrayList<>(0);
+
+    // the source of the chunks
+    private final EventDataSource source;
+
+    // the threads running the producers, bounded
+    private final ExecutorService executor;
+
+    // the JSON writer
+    private final EventDataWriter writer;
+
+    // the query to execute, device-specific
+    private final HistoryQuery query;
+
+    // the number of points per chunk
+    private final int chunkSize;
+
+    // the number of chunks that can be read ahead of serialization
+    private final int chunks;
+
+    /**
+     * Creates the output for the given device-specific query
+     *
+     * @param source
+     *            the source of historical data
+     * @param executor
+     *            the threads running the producer
+     * @param writer
+     *            the JSON writer
+     * @param query
+     *            the query to execute
+     * @param chunkSize
+     *            the number of points per chunk
+     * @param chunks
+     *            the number of chunks that can be read ahead of
+     *            serialization
+     */
+    public PipelinedStreamOutput(EventDataSource source,
+            ExecutorService executor, EventDataWriter writer,
+            HistoryQuery query, int chunkSize, int chunks)
+    {
+        this.source = source;
+        this.executor = executor;
+        this.writer = writer;
+        this.query = query;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.chunks = Math.max(1, chunks);
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException
+    {
+        final BlockingQueue<List<EventDataPoint>> queue;
+        queue = new ArrayBlockingQueue<>(this.chunks);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Future<?> producer;
+        try
+        {
+            producer = this.executor.submit(new Runnable() {
+
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        PipelinedStreamOutput.this.produce(new ChunkSink() {
+
+                            @Override
+                            public boolean put(List<EventDataPoint> chunk)
+                                    throws InterruptedException
+                            {
+                                // blocks while the consumer is behind
+                                queue.put(chunk);
+                                return true;
+                            }
+                        });
+                    }
+                    catch (InterruptedException e)
+                    {
+                        // the consumer is gone
+                        Thread.currentThread().interrupt();
+                    }
+                    catch (Throwable t)
+                    {
+                        failure.set(t);
+                    }
+                    finally
+                    {
+                        try
+                        {
+                            queue.put(END);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            // no producer thread is available, read without read-ahead
+            this.writeSequentially(out);
+            return;
+        }
+
+        try
+        {
+            ChunkWriter writer = new ChunkWriter(out);
+            List<EventDataPoint> chunk;
+            while ((chunk = queue.take()) != END)
+            {
+                if (!writer.write(chunk))
+                    break;
+            }
+            writer.close();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while streaming the history");
+        }
+        finally
+        {
+            // stops reading if the client went away or the limit was reached
+            producer.cancel(true);
+        }
+
+        if (failure.get() != null)
+            throw new IOException("Unable to read the history of "
+                    + this.query.getDeviceId(), failure.get());
+    }
+
+    /**
+     * Reads and serializes the chunks in the requesting thread, each chunk
+     * being read once the previous one has been sent
+     */
+    private void writeSequentially(OutputStream out) throws IOException
+    {
+        final ChunkWriter writer = new ChunkWriter(out);
+        try
+        {
+            this.produce(new ChunkSink() {
+
+                @Override
+                public boolean put(List<EventDataPoint> chunk)
+                        throws IOException
+                {
+                    return writer.write(chunk);
+                }
+            });
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while streaming the history");
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("Unable to read the history of "
+                    + this.query.getDeviceId(), e);
+        }
+        writer.close();
+    }
+
+    /**
+     * Reads the requested range chunk by chunk; when a filter is given,
+     * offset and limit apply to the matching points and are enforced by the
+     * consumer. Chunks advance on time rather than on the offset, so that
+     * each read costs the same whatever its position in the range, and points
+     * inserted meanwhile are neither repeated nor make others be skipped:
+     * the next chunk starts at the instant of the last point read, skipping
+     * the points of that instant already read.
+     */
+    private void produce(ChunkSink sink) throws IOException,
+            InterruptedException
+    {
+        EventStreamKey key = this.query.getStreamKey();
+        Date start = this.query.getStart();
+        Date end = this.query.resolveEnd();
+        boolean filtered = this.query.getFilter() != null;
+
+        int offset = filtered ? 0 : this.query.getOffset();
+        int remaining = filtered ? EventStoreInfo.UNLIMITED_SIZE
+                : this.query.getLimit();
+
+        // true when the offset only counts points read at the start instant,
+        // false while it still includes points skipped as requested
+        boolean anchored = offset == 0;
+
+        while (!Thread.currentThread().isInterrupted())
+        {
+            int size = (remaining == EventStoreInfo.UNLIMITED_SIZE)
+                    ? this.chunkSize : Math.min(this.chunkSize, remaining);
+            if (size <= 0)
+                break;
+
+            List<EventDataPoint> points = this.source
+                    .getDeviceSpecificEventData(key, start, end, offset, size)
+                    .getDatapoints();
+            if ((points == null) || (points.isEmpty()))
+                break;
+
+            if (!sink.put(points))
+                break;
+
+            if (remaining != EventStoreInfo.UNLIMITED_SIZE)
+                remaining -= points.size();
+
+            // a short chunk is the last one
+            if (points.size() < size)
+                break;
+
+            // a chunk holding a single instant moves the cursor there, the
+            // offset counting all the points read at that instant so far
+            Date first = points.get(0).getAt();
+            Date last = points.get(points.size() - 1).getAt();
+            if ((first == null) || (last == null) || (!first.before(last)))
+            {
+                if ((anchored) && (last != null) && (!last.equals(start)))
+                {
+                    start = last;
+                    offset = points.size();
+                }
+                else
+                    offset += points.size();
+                continue;
+            }
+
+            // otherwise the points of the last instant read so far are all
+            // in this chunk
+            int read = 0;
+            for (int i = points.size() - 1; i >= 0; i--)
+            {
+                if (!last.equals(points.get(i).getAt()))
+                    break;
+                read++;
+            }
+            start = last;
+            offset = read;
+            anchored = true;
+        }
+    }
+
+    /**
+     * The destination of the chunks read by the producer
+     */
+    private interface ChunkSink
+    {
+        /**
+         * Accepts the next chunk
+         *
+         * @return false if no more chunks are needed
+         */
+        boolean put(List<EventDataPoint> chunk) throws IOException,
+                InterruptedException;
+    }
+
+    /**
+     * Serializes the chunks as they are read, flushing after each of them
+     */
+    private class ChunkWriter
+    {
+        private final JsonGenerator generator;
+        private final FieldSelection fields;
+        private final EventDataFilter.Pass pass;
+
+        // the array is opened with the first point, as for complete
+        // documents
+        private boolean open;
+
+        // with durations, each point is written once the next one is known
+        private EventDataPoint pending;
+
+        private ChunkWriter(OutputStream out) throws IOException
+        {
+            HistoryQuery query = PipelinedStreamOutput.this.query;
+            EventStreamKey key = query.getStreamKey();
+            this.fields = query.getFields();
+            this.pass = (query.getFilter() != null)
+                    ? query.getFilter().newPass(query.getOffset(),
+                            query.getLimit())
+                    : null;
+
+            this.generator = PipelinedStreamOutput.this.writer
+                    .createGenerator(out);
+            PipelinedStreamOutput.this.writer.writeStart(this.generator,
+                    new EventDataStream(key.getName(), key.getParams(),
+                            key.getDeviceId()),
+                    this.fields);
+        }
+
+        /**
+         * Writes the given chunk and sends it to the client
+         *
+         * @return false if the limit has been reached
+         */
+        private boolean write(List<EventDataPoint> chunk) throws IOException
+        {
+            List<EventDataPoint> points = chunk;
+            if (this.pass != null)
+            {
+                EventDataStream matching = new EventDataStream();
+                for (EventDataPoint point : chunk)
+                {
+                    if (this.pass.isComplete())
+                        break;
+                    this.pass.offer(point, matching);
+                }
+                points = matching.getDatapoints();
+            }
+
+            if ((points != null) && (!points.isEmpty()))
+            {
+                if (!this.open)
+                {
+                    this.generator.writeArrayFieldStart("datapoints");
+                    this.open = true;
+                }
+
+                EventDataWriter writer = PipelinedStreamOutput.this.writer;
+                for (EventDataPoint point : points)
+                {
+                    if (this.fields.isDurations())
+                    {
+                        if (this.pending != null)
+                            writer.write(this.generator, this.pending,
+                                    this.fields, PipelinedStreamOutput
+                                            .duration(this.pending, point));
+                        this.pending = point;
+                    }
+                    else
+                        writer.write(this.generator, point, this.fields,
+                                null);
+                }
+            }
+
+            // send the chunk to the client before reading the next one
+            this.generator.flush();
+
+            return (this.pass == null) || (!this.pass.isComplete());
+        }
+
+        /**
+         * Completes the document
+         */
+        private void close() throws IOException
+        {
+            // the duration of the last point is unknown
+            if (this.pending != null)
+                PipelinedStreamOutput.this.writer.write(this.generator,
+                        this.pending, this.fields, null);
+            if (this.open)
+                this.generator.writeEndArray();
+            this.generator.writeEndObject();
+            this.generator.flush();
+        }
+    }
+
+    private static Long duration(EventDataPoint point, EventDataPoint next)
+    {
+        if ((point.getAt() == null) || (next.getAt() == null))
+            return null;
+        return next.getAt().getTime() - point.getAt().getTime();
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Plans the time ranges read from the EventStore. The planner learns the
+ * time of the first point of each stream, or family of streams of a device,
+ * from the queries reaching back to it and from the inserts preceding it, so
+ * that later queries do not scan the empty range before it, e.g., when no
+ * start is given. When a query finds the first point later than known, older
+ * points have been dropped, e.g., by the store retention, and the extent
+ * moves forward. Wide ranges are split into sub-ranges aligned on multiples
+ * of a fixed span, so that the same sub-ranges recur across queries. Thread
+ * safe.
+ *
+ * @author bonino
+ *
+ */
+public class QueryPlanner
+{
+    // the time of the first point of each stream or family, if known
+    private final ConcurrentMap<EventStreamKey, Long> firsts;
+
+    // changed by every insert, to recognize outdated query results
+    private long generation;
+
+    public QueryPlanner()
+    {
+        this.firsts = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Provides the current generation, to be taken before reading the
+     * EventStore and passed to
+     * {@link #learn(EventStreamKey, Date, Date, Long, long)}
+     *
+     * @return the generation
+     */
+    public synchronized long getGeneration()
+    {
+        return this.generation;
+    }
+
+    /**
+     * Moves the given start to the first point of the given stream, if known
+     * and later
+     *
+     * @param key
+     *            the stream key, or the family key of a device
+     * @param start
+     *            the range start
+     * @return the range start to read
+     */
+    public Date clamp(EventStreamKey key, Date start)
+    {
+        Long first = this.firsts.get(key);
+        return ((first != null) && (first > start.getTime()))
+                ? new Date(first) : start;
+    }
+
+    /**
+     * Learns the extent of a stream from the result of a query starting from
+     * the first point found, i.e., with no offset
+     *
+     * @param key
+     *            the stream key, or the family key of a device
+     * @param start
+     *            the start of the read range
+     * @param end
+     *            the end of the read range
+     * @param first
+     *            the time of the first point found, null if none
+     * @param generation
+     *            the generation taken before reading the range
+     */
+    public synchronized void learn(EventStreamKey key, Date start, Date end,
+            Long first, long generation)
+    {
+        // points inserted in the meantime may precede the result
+        if (generation != this.generation)
+            return;
+
+        // the first point is known only if nothing can precede the range
+        Long known = this.firsts.get(key);
+        if ((start.getTime() > 0)
+                && ((known == null) || (start.getTime() > known)))
+            return;
+
+        if (first != null)
+            this.firsts.put(key, first);
+        else if ((known != null) && (known <= end.getTime()))
+            this.firsts.remove(key);
+    }
+
+    /**
+     * Records an insert in the given stream
+     *
+     * @param key
+     *            the stream key, or the family key of a device
+     * @param first
+     *            the time of the first inserted point
+     */
+    public synchronized void inserted(EventStreamKey key, long first)
+    {
+        this.generation++;
+
+        // the first point is still unknown if it was
+        Long known = this.firsts.get(key);
+        if ((known != null) && (first < known))
+            this.firsts.put(key, first);
+    }
+
+    /**
+     * Forgets all the learned extents, e.g., when the underlying store
+     * changes
+     */
+    public synchronized void clear()
+    {
+        this.generation++;
+        this.firsts.clear();
+    }
+
+    /**
+     * Splits the given range into sub-ranges aligned on multiples of the
+     * given span since the epoch; the span is doubled until the number of
+     * sub-ranges does not exceed the given maximum
+     *
+     * @param start
+     *            the range start
+     * @param end
+     *            the range end, included
+     * @param span
+     *            the sub-range span, in milliseconds, 0 not to split
+     * @param maxRanges
+     *            the maximum number of sub-ranges
+     * @return the sub-ranges in time order, each as start and end included;
+     *         the whole range if not worth splitting
+     */
+    public static List<Date[]> split(Date start, Date end, long span,
+            int maxRanges)
+    {
+        List<Date[]> ranges = new ArrayList<>();
+        long from = start.getTime();
+        long to = end.getTime();
+        if ((span > 0) && (maxRanges > 1) && (to > from))
+        {
+            while (QueryPlanner.floor(to, span)
+                    - QueryPlanner.floor(from, span) >= maxRanges * span)
+                span *= 2;
+
+            long boundary = QueryPlanner.floor(from, span) + span;
+            while (boundary <= to)
+            {
+                ranges.add(new Date[] { new Date(from),
+                        new Date(boundary - 1) });
+                from = boundary;
+                boundary += span;
+            }
+        }
+        ranges.add(new Date[] { new Date(from), new Date(to) });
+        return ranges;
+    }
+
+    private static long floor(long time, long span)
+    {
+        long floor = (time / span) * span;
+        return ((time < 0) && (floor != time)) ? floor - span : floor;
+    }
+}
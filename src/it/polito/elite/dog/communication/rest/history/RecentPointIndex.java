@@ -0,0 +1,230 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+import it.polito.elite.dog.addons.storage.EventDataStream;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Indexes the most recent points stored for each event stream, to drop the
+ * points of retried uploads before they reach the EventStore. Each stream
+ * keeps a tail window of the last stored timestamps, with their values; a
+ * point is a duplicate if a point with the same timestamp and value is in the
+ * window. Points older than the window cannot be judged and are kept. The
+ * number of streams is bounded, the streams least recently written are
+ * forgotten first.
+ *
+ * @author bonino
+ *
+ */
+public class RecentPointIndex
+{
+    // the number of timestamps kept for each stream
+    private final int capacity;
+
+    // the window of each stream, least recently written first
+    private final LinkedHashMap<EventStreamKey, Window> streams;
+
+    // the maximum number of streams
+    private int maxStreams;
+
+    /**
+     * Creates an index
+     *
+     * @param capacity
+     *            the number of timestamps kept for each stream
+     * @param maxStreams
+     *            the maximum number of streams
+     */
+    public RecentPointIndex(int capacity, int maxStreams)
+    {
+        this.capacity = capacity;
+        this.streams = new LinkedHashMap<>();
+        this.maxStreams = maxStreams;
+    }
+
+    /**
+     * Provides the window of the given stream, callers shall synchronize on
+     * it while filtering and storing points
+     *
+     * @param key
+     *            the stream key
+     * @return the window
+     */
+    public synchronized Window getWindow(EventStreamKey key)
+    {
+        // move the window last, as the most recently written
+        Window window = this.streams.remove(key);
+        if (window == null)
+            window = new Window(this.capacity);
+        this.streams.put(key, window);
+
+        this.evict();
+        return window;
+    }
+
+    /**
+     * Changes the maximum number of streams, forgetting the least recently
+     * written ones if needed
+     *
+     * @param maxStreams
+     *            the maximum number of streams
+     */
+    public synchronized void setMaxStreams(int maxStreams)
+    {
+        this.maxStreams = maxStreams;
+        this.evict();
+    }
+
+    /**
+     * Forgets all the indexed streams, e.g., when the underlying store changes
+     */
+    public synchronized void clear()
+    {
+        this.streams.clear();
+    }
+
+    private void evict()
+    {
+        Iterator<Window> eldest = this.streams.values().iterator();
+        while (this.streams.size() > Math.max(1, this.maxStreams))
+        {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * The tail window of a stream. Not thread safe.
+     */
+    public static class Window
+    {
+        private final int capacity;
+
+        // the stored values, by timestamp; a String, or a List of Strings if
+        // several values share the same timestamp
+        private final TreeMap<Long, Object> points;
+
+        private Window(int capacity)
+        {
+            this.capacity = capacity;
+            this.points = new TreeMap<>();
+        }
+
+        /**
+         * Drops from the given stream the points already in the window or
+         * repeated within the stream itself
+         *
+         * @param stream
+         *            the stream to filter
+         * @return the stream of new points, the given one if all the points
+         *         are new
+         */
+        public EventDataStream removeDuplicates(EventDataStream stream)
+        {
+            // the points of the stream are added to a scratch window, so that
+            // duplicates within the same upload are found as well
+            Window seen = null;
+            List<EventDataPoint> fresh = null;
+            List<EventDataPoint> points = stream.getDatapoints();
+            for (int i = 0; i < points.size(); i++)
+            {
+                EventDataPoint point = points.get(i);
+                boolean duplicate = this.contains(point);
+                if (!duplicate)
+                {
+                    if (seen == null)
+                        seen = new Window(Integer.MAX_VALUE);
+                    duplicate = !seen.add(point);
+                }
+
+                if (duplicate && (fresh == null))
+                    fresh = new ArrayList<>(points.subList(0, i));
+                else if ((!duplicate) && (fresh != null))
+                    fresh.add(point);
+            }
+
+            if (fresh == null)
+                return stream;
+
+            EventDataStream filtered = new EventDataStream(stream.getName(),
+                    stream.getParams(), stream.getDeviceUri());
+            filtered.setDatapoints(fresh);
+            return filtered;
+        }
+
+        /**
+         * Adds the given stored points to the window, evicting the oldest
+         * timestamps beyond the capacity
+         *
+         * @param stored
+         *            the points just stored
+         */
+        public void addAll(List<EventDataPoint> stored)
+        {
+            for (EventDataPoint point : stored)
+                this.add(point);
+
+            while (this.points.size() > this.capacity)
+                this.points.pollFirstEntry();
+        }
+
+        private boolean contains(EventDataPoint point)
+        {
+            if ((point.getAt() == null) || this.points.isEmpty()
+                    || (point.getAt().getTime() < this.points.firstKey()))
+                return false;
+
+            Object values = this.points.get(point.getAt().getTime());
+            if (values instanceof List)
+                return ((List<?>) values).contains(point.getValue());
+            return (values != null) && RecentPointIndex.equalsOrNull(
+                    (String) values, point.getValue());
+        }
+
+        /**
+         * @return false if the point is already in the window
+         */
+        @SuppressWarnings("unchecked")
+        private boolean add(EventDataPoint point)
+        {
+            if (point.getAt() == null)
+                return true;
+
+            long at = point.getAt().getTime();
+            Object values = this.points.get(at);
+            if ((values == null) && (!this.points.containsKey(at)))
+                this.points.put(at, point.getValue());
+            else if (values instanceof List)
+            {
+                List<String> list = (List<String>) values;
+                if (list.contains(point.getValue()))
+                    return false;
+                list.add(point.getValue());
+            }
+            else
+            {
+                if (RecentPointIndex.equalsOrNull((String) values,
+                        point.getValue()))
+                    return false;
+                List<String> list = new ArrayList<>(2);
+                list.add((String) values);
+                list.add(point.getValue());
+                this.points.put(at, list);
+            }
+            return true;
+        }
+    }
+
+    private static boolean equalsOrNull(String a, String b)
+    {
+        return (a == null) ? (b == null) : a.equals(b);
+    }
+}
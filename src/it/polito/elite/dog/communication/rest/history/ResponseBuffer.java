@@ -0,0 +1,95 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A small least-recently-used buffer of the last known good responses, used
+ * to keep serving repeated reads while no EventStore is bound. The buffer is
+ * bounded both in the number of responses and in their total size; responses
+ * larger than a quarter of the size bound are not buffered, so that a few
+ * large ones do not evict all the others.
+ * 
+ * @author bonino
+ *
+ * @param <K>
+ *            the request key type
+ * @param <V>
+ *            the response type, either textual or binary
+ */
+public class ResponseBuffer<K, V>
+{
+    // the maximum number of responses
+    private final int capacity;
+
+    // the maximum total size of the responses, in bytes
+    private final long maxBytes;
+
+    // the buffered responses, in access order
+    private final LinkedHashMap<K, V> responses;
+
+    // the total size of the buffered responses, in bytes
+    private long bytes;
+
+    /**
+     * Creates a buffer holding at most the given number of responses
+     * 
+     * @param capacity
+     *            the buffer capacity, 0 disables buffering
+     * @param maxBytes
+     *            the maximum total size of the buffered responses, in bytes
+     */
+    public ResponseBuffer(int capacity, long maxBytes)
+    {
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.responses = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public synchronized void put(K key, V response)
+    {
+        long size = ResponseBuffer.sizeOf(response);
+        if ((this.capacity <= 0) || (size > this.maxBytes / 4))
+        {
+            // an outdated response shall not be served either
+            this.bytes -= ResponseBuffer.sizeOf(this.responses.remove(key));
+            return;
+        }
+
+        this.bytes += size
+                - ResponseBuffer.sizeOf(this.responses.put(key, response));
+
+        // evict the least recently used responses
+        Iterator<V> eldest = this.responses.values().iterator();
+        while ((this.responses.size() > this.capacity)
+                || (this.bytes > this.maxBytes))
+        {
+            this.bytes -= ResponseBuffer.sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    public synchronized V get(K key)
+    {
+        return this.responses.get(key);
+    }
+
+    public synchronized void clear()
+    {
+        this.responses.clear();
+        this.bytes = 0;
+    }
+
+    private static long sizeOf(Object response)
+    {
+        // strings hold two bytes per character
+        if (response instanceof String)
+            return 2L * ((String) response).length();
+        if (response instanceof byte[])
+            return ((byte[]) response).length;
+        return 0;
+    }
+}
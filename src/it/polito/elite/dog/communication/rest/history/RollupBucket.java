@@ -0,0 +1,153 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.Date;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * A single rollup bucket, summarizing all the numeric data points falling in
+ * the bucket time span.
+ * 
+ * @author bonino
+ *
+ */
+public class RollupBucket
+{
+    // the bucket start, in milliseconds since the epoch
+    private final long start;
+
+    // the number of aggregated points
+    private long count;
+
+    // the minimum value
+    private double min;
+
+    // the maximum value
+    private double max;
+
+    // the sum of values
+    private double sum;
+
+    // the first value and the corresponding timestamp
+    private double first;
+    private long firstAt;
+
+    // the last value and the corresponding timestamp
+    private double last;
+    private long lastAt;
+
+    /**
+     * Creates an empty bucket starting at the given time
+     * 
+     * @param start
+     *            the bucket start, in milliseconds since the epoch
+     */
+    public RollupBucket(long start)
+    {
+        this.start = start;
+        this.min = Double.POSITIVE_INFINITY;
+        this.max = Double.NEGATIVE_INFINITY;
+        this.firstAt = Long.MAX_VALUE;
+        this.lastAt = Long.MIN_VALUE;
+    }
+
+    /**
+     * Adds a value to the bucket
+     * 
+     * @param time
+     *            the value timestamp, in milliseconds since the epoch
+     * @param value
+     *            the value
+     */
+    public void add(long time, double value)
+    {
+        this.count++;
+        this.sum += value;
+        this.min = Math.min(this.min, value);
+        this.max = Math.max(this.max, value);
+
+        // ties keep the earliest inserted first and the latest inserted last
+        if (time < this.firstAt)
+        {
+            this.firstAt = time;
+            this.first = value;
+        }
+        if (time >= this.lastAt)
+        {
+            this.lastAt = time;
+            this.last = value;
+        }
+    }
+
+    /**
+     * Merges the given bucket into this one, used to re-aggregate buckets at
+     * coarser resolutions.
+     * 
+     * @param other
+     *            the bucket to merge
+     */
+    public void merge(RollupBucket other)
+    {
+        if (other.count == 0)
+            return;
+
+        this.count += other.count;
+        this.sum += other.sum;
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+        if (other.firstAt < this.firstAt)
+        {
+            this.firstAt = other.firstAt;
+            this.first = other.first;
+        }
+        if (other.lastAt >= this.lastAt)
+        {
+            this.lastAt = other.lastAt;
+            this.last = other.last;
+        }
+    }
+
+    public Date getAt()
+    {
+        return new Date(this.start);
+    }
+
+    @JsonIgnore
+    public long getStart()
+    {
+        return start;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public double getMin()
+    {
+        return min;
+    }
+
+    public double getMax()
+    {
+        return max;
+    }
+
+    public double getSum()
+    {
+        return sum;
+    }
+
+    public double getFirst()
+    {
+        return first;
+    }
+
+    public double getLast()
+    {
+        return last;
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The rollup tiers of a single event stream. All methods must be called while
+ * holding the series monitor, which is also used by the endpoint to make
+ * inserts and re-synchronization with the EventStore mutually exclusive.
+ * 
+ * @author bonino
+ *
+ */
+public class RollupSeries
+{
+    // the buckets of each tier, indexed by bucket start
+    private final Map<RollupTier, TreeMap<Long, RollupBucket>> tiers;
+
+    // the instant from which the series reflects the EventStore content
+    private long syncedFrom;
+
+    // the instant up to which the series reflects the EventStore content,
+    // before syncedFrom if the series has never been synchronized
+    private long syncedUntil;
+
+    // the last seen unit of measure
+    private String unit;
+
+    public RollupSeries()
+    {
+        this.tiers = new EnumMap<>(RollupTier.class);
+        for (RollupTier tier : RollupTier.values())
+            this.tiers.put(tier, new TreeMap<Long, RollupBucket>());
+
+        this.syncedFrom = 0;
+        this.syncedUntil = -1;
+    }
+
+    /**
+     * Checks whether the series has already been built from the EventStore
+     * 
+     * @return true if synchronized at least once
+     */
+    public boolean isSynced()
+    {
+        return this.syncedUntil >= this.syncedFrom;
+    }
+
+    /**
+     * Checks whether the series is being built from the EventStore starting
+     * from the given instant or earlier
+     * 
+     * @param from
+     *            the first instant, in milliseconds
+     * @return true if the series can serve buckets from the given instant
+     */
+    public boolean isSyncedFrom(long from)
+    {
+        return this.syncedFrom <= from;
+    }
+
+    /**
+     * Empties the series, to be built again from the EventStore starting from
+     * the given instant
+     * 
+     * @param from
+     *            the first instant, in milliseconds
+     */
+    public void reset(long from)
+    {
+        for (TreeMap<Long, RollupBucket> buckets : this.tiers.values())
+            buckets.clear();
+        this.syncedFrom = from;
+        this.syncedUntil = from - 1;
+    }
+
+    public long getSyncedUntil()
+    {
+        return syncedUntil;
+    }
+
+    public void setSyncedUntil(long syncedUntil)
+    {
+        this.syncedUntil = syncedUntil;
+    }
+
+    public String getUnit()
+    {
+        return unit;
+    }
+
+    /**
+     * Folds the given points in all the rollup tiers, discarding buckets
+     * falling behind the tier retention.
+     * 
+     * @param points
+     *            the points to add
+     * @param now
+     *            the current time, in milliseconds
+     */
+    public void add(List<EventDataPoint> points, long now)
+    {
+        this.add(points, now, Long.MAX_VALUE);
+    }
+
+    /**
+     * Folds the given points whose timestamp is not after the given bound, in
+     * all the rollup tiers. Used on ingest, where points newer than the last
+     * synchronization are left to the next re-synchronization to avoid
+     * counting them twice; points before the synchronized range are ignored
+     * as well.
+     * 
+     * @param points
+     *            the points to add
+     * @param now
+     *            the current time, in milliseconds
+     * @param until
+     *            the newest timestamp to fold, in milliseconds
+     */
+    public void add(List<EventDataPoint> points, long now, long until)
+    {
+        for (Map.Entry<RollupTier, TreeMap<Long, RollupBucket>> tier : this.tiers
+                .entrySet())
+        {
+            long horizon = tier.getKey().getHorizon(now);
+            for (EventDataPoint point : points)
+            {
+                long time = point.getAt().getTime();
+                Double value = RollupSeries.toDouble(point);
+                if ((value != null) && (time <= until) && (time >= horizon)
+                        && (time >= this.syncedFrom))
+                {
+                    RollupSeries.fold(tier.getValue(), tier.getKey(), time,
+                            value);
+
+                    if (point.getUnit() != null)
+                        this.unit = point.getUnit();
+                }
+            }
+
+            // prune expired buckets
+            tier.getValue().headMap(horizon).clear();
+        }
+    }
+
+    /**
+     * Checks whether the given tier still holds buckets starting from the
+     * given instant.
+     * 
+     * @param tier
+     *            the tier
+     * @param start
+     *            the first instant, in milliseconds
+     * @param now
+     *            the current time, in milliseconds
+     * @return true if the tier covers the given start
+     */
+    public boolean covers(RollupTier tier, long start, long now)
+    {
+        return tier.covers(start, now);
+    }
+
+    /**
+     * Provides a snapshot of the buckets of the given tier overlapping the
+     * given range, including the given points newer than the last
+     * synchronization, which are not part of the series.
+     * 
+     * @param tier
+     *            the tier to read
+     * @param start
+     *            the range start, in milliseconds
+     * @param end
+     *            the range end, in milliseconds
+     * @param recent
+     *            the points stored after the last synchronization
+     * @return the (copied) buckets, in time order
+     */
+    public List<RollupBucket> getBuckets(RollupTier tier, long start, long end,
+            List<EventDataPoint> recent)
+    {
+        TreeMap<Long, RollupBucket> buckets = new TreeMap<>();
+        for (RollupBucket bucket : this.tiers.get(tier)
+                .subMap(tier.bucketStart(start), true, end, true).values())
+        {
+            RollupBucket copy = new RollupBucket(bucket.getStart());
+            copy.merge(bucket);
+            buckets.put(copy.getStart(), copy);
+        }
+
+        for (EventDataPoint point : recent)
+        {
+            Double value = RollupSeries.toDouble(point);
+            long time = (value != null) ? point.getAt().getTime() : 0;
+            if ((value != null) && (time > this.syncedUntil)
+                    && (time >= tier.bucketStart(start)) && (time <= end))
+                RollupSeries.fold(buckets, tier, time, value);
+        }
+        return new ArrayList<>(buckets.values());
+    }
+
+    /**
+     * Builds the buckets of the given tier directly from a list of raw points,
+     * used when the requested range falls outside the tier retention.
+     * 
+     * @param points
+     *            the raw points
+     * @param tier
+     *            the tier defining the bucket width
+     * @return the buckets, in time order
+     */
+    public static List<RollupBucket> build(List<EventDataPoint> points,
+            RollupTier tier)
+    {
+        TreeMap<Long, RollupBucket> buckets = new TreeMap<>();
+        for (EventDataPoint point : points)
+        {
+            Double value = RollupSeries.toDouble(point);
+            if (value != null)
+                RollupSeries.fold(buckets, tier, point.getAt().getTime(),
+                        value);
+        }
+        return new ArrayList<>(buckets.values());
+    }
+
+    private static void fold(TreeMap<Long, RollupBucket> buckets,
+            RollupTier tier, long time, double value)
+    {
+        long start = tier.bucketStart(time);
+        RollupBucket bucket = buckets.get(start);
+        if (bucket == null)
+        {
+            bucket = new RollupBucket(start);
+            buckets.put(start, bucket);
+        }
+        bucket.add(time, value);
+    }
+
+    private static Double toDouble(EventDataPoint point)
+    {
+        // only numeric points with a timestamp can be rolled up
+        if ((point.getAt() == null) || (point.getValue() == null))
+            return null;
+
+        try
+        {
+            double value = Double.parseDouble(point.getValue().trim());
+            return Double.isNaN(value) ? null : value;
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Holds the rollup series of the event streams queried through the endpoint.
+ * The number of series is bounded, the series least recently queried are
+ * dropped first and built again from the EventStore when queried again.
+ * 
+ * @author bonino
+ *
+ */
+public class RollupStore
+{
+    // the series, indexed by stream, least recently queried first
+    private final LinkedHashMap<EventStreamKey, RollupSeries> series;
+
+    // the maximum number of series
+    private int maxSeries;
+
+    /**
+     * Creates an empty store
+     * 
+     * @param maxSeries
+     *            the maximum number of series
+     */
+    public RollupStore(int maxSeries)
+    {
+        this.series = new LinkedHashMap<>();
+        this.maxSeries = maxSeries;
+    }
+
+    /**
+     * Provides the rollup series associated to the given stream, creating it
+     * if needed, as the stream is queried. Newly created series are not
+     * synchronized with the EventStore.
+     * 
+     * @param key
+     *            the stream key
+     * @return the series
+     */
+    public synchronized RollupSeries getSeries(EventStreamKey key)
+    {
+        // move the series last, as the most recently queried
+        RollupSeries current = this.series.remove(key);
+        if (current == null)
+            current = new RollupSeries();
+        this.series.put(key, current);
+
+        this.evict();
+        return current;
+    }
+
+    /**
+     * Provides the rollup series associated to the given stream, if any,
+     * e.g., to keep it up to date on ingest
+     * 
+     * @param key
+     *            the stream key
+     * @return the series, or null if the stream has not been queried
+     */
+    public synchronized RollupSeries findSeries(EventStreamKey key)
+    {
+        return this.series.get(key);
+    }
+
+    /**
+     * Changes the maximum number of series, dropping the least recently
+     * queried ones if needed
+     * 
+     * @param maxSeries
+     *            the maximum number of series
+     */
+    public synchronized void setMaxSeries(int maxSeries)
+    {
+        this.maxSeries = maxSeries;
+        this.evict();
+    }
+
+    /**
+     * Drops all the series, e.g., when the underlying EventStore changes.
+     */
+    public synchronized void clear()
+    {
+        this.series.clear();
+    }
+
+    private void evict()
+    {
+        Iterator<RollupSeries> eldest = this.series.values().iterator();
+        while (this.series.size() > Math.max(1, this.maxSeries))
+        {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.List;
+
+/**
+ * The JSON representation of the rollup buckets of a single event stream.
+ * 
+ * @author bonino
+ *
+ */
+public class RollupStream
+{
+    private String deviceUri;
+    private String name;
+    private String params;
+    private String resolution;
+    private String unit;
+    private List<RollupBucket> buckets;
+
+    public RollupStream(EventStreamKey key, RollupTier tier, String unit,
+            List<RollupBucket> buckets)
+    {
+        this.deviceUri = key.getDeviceId();
+        this.name = key.getName();
+        this.params = key.getParams().isEmpty() ? null : key.getParams();
+        this.resolution = tier.name().toLowerCase();
+        this.unit = unit;
+        this.buckets = buckets;
+    }
+
+    public String getDeviceUri()
+    {
+        return deviceUri;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public String getParams()
+    {
+        return params;
+    }
+
+    public String getResolution()
+    {
+        return resolution;
+    }
+
+    public String getUnit()
+    {
+        return unit;
+    }
+
+    public List<RollupBucket> getBuckets()
+    {
+        return buckets;
+    }
+}
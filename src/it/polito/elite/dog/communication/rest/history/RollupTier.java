@@ -0,0 +1,100 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+/**
+ * The pre-computed rollup tiers maintained by the history endpoint. Each tier
+ * defines the width of its buckets and how far back in time buckets are
+ * retained in memory (0 means forever).
+ * 
+ * @author bonino
+ *
+ */
+public enum RollupTier
+{
+    MINUTE(60L * 1000L, 7L * 24L * 60L * 60L * 1000L),
+    HOUR(60L * 60L * 1000L, 366L * 24L * 60L * 60L * 1000L),
+    DAY(24L * 60L * 60L * 1000L, 0L);
+
+    // the bucket width in milliseconds
+    private final long width;
+
+    // the retention in milliseconds, 0 means unlimited
+    private final long retention;
+
+    private RollupTier(long width, long retention)
+    {
+        this.width = width;
+        this.retention = retention;
+    }
+
+    /**
+     * Provides the width of the tier buckets, in milliseconds
+     * 
+     * @return the bucket width
+     */
+    public long getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Provides the oldest bucket start retained by this tier at the given
+     * time.
+     * 
+     * @param now
+     *            the reference time, in milliseconds
+     * @return the horizon, in milliseconds since the epoch
+     */
+    public long getHorizon(long now)
+    {
+        return (this.retention > 0) ? this.bucketStart(now - this.retention)
+                : Long.MIN_VALUE;
+    }
+
+    /**
+     * Checks whether this tier still holds buckets starting from the given
+     * instant, at the given time.
+     * 
+     * @param start
+     *            the first instant, in milliseconds
+     * @param now
+     *            the reference time, in milliseconds
+     * @return true if the tier covers the given start
+     */
+    public boolean covers(long start, long now)
+    {
+        return this.bucketStart(start) >= this.getHorizon(now);
+    }
+
+    /**
+     * Provides the start of the bucket containing the given instant. Buckets
+     * are aligned to UTC.
+     * 
+     * @param time
+     *            the instant, in milliseconds since the epoch
+     * @return the bucket start
+     */
+    public long bucketStart(long time)
+    {
+        return time - (((time % this.width) + this.width) % this.width);
+    }
+
+    /**
+     * Parses the resolution given as query parameter, ignoring case.
+     * 
+     * @param resolution
+     *            the resolution name, e.g., "hour"
+     * @return the corresponding tier or null if no tier matches
+     */
+    public static RollupTier fromResolution(String resolution)
+    {
+        for (RollupTier tier : RollupTier.values())
+        {
+            if (tier.name().equalsIgnoreCase(resolution))
+                return tier;
+        }
+        return null;
+    }
+}
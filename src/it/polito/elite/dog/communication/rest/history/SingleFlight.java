@@ -0,0 +1,122 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * De-duplicates concurrent computations of the same value: the first caller
+ * for a given key runs the computation, callers arriving while it is in
+ * flight wait for and share its result. Nothing is retained once the
+ * computation completes.
+ * 
+ * @author bonino
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public class SingleFlight<K, V>
+{
+    // the computations in flight
+    private final ConcurrentMap<K, FutureTask<V>> calls;
+
+    // the number of callers which shared the result of another caller
+    private final AtomicLong coalesced;
+
+    public SingleFlight()
+    {
+        this.calls = new ConcurrentHashMap<>();
+        this.coalesced = new AtomicLong();
+    }
+
+    /**
+     * Computes the value associated to the given key, or waits for the
+     * computation already running for the same key.
+     * 
+     * @param key
+     *            the computation key
+     * @param loader
+     *            the computation
+     * @return the computed value
+     * @throws IOException
+     *             if the computation fails with a checked exception
+     */
+    public V execute(K key, Callable<V> loader) throws IOException
+    {
+        FutureTask<V> task = new FutureTask<>(loader);
+        FutureTask<V> running = this.calls.putIfAbsent(key, task);
+
+        if (running == null)
+        {
+            // leader, run in the caller thread
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                this.calls.remove(key, task);
+            }
+            return SingleFlight.get(task);
+        }
+
+        // follower, share the leader result
+        this.coalesced.incrementAndGet();
+        return SingleFlight.get(running);
+    }
+
+    /**
+     * Provides the number of callers which did not run their own computation
+     * 
+     * @return the number of coalesced calls
+     */
+    public long getCoalesced()
+    {
+        return this.coalesced.get();
+    }
+
+    private static <V> V get(FutureTask<V> task) throws IOException
+    {
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return task.get();
+                }
+                catch (InterruptedException e)
+                {
+                    // the leader is still running, keep waiting
+                    interrupted = true;
+                }
+            }
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(cause);
+        }
+        finally
+        {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
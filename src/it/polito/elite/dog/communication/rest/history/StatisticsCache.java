@@ -0,0 +1,175 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Caches the statistics of whole UTC days of event streams, so that
+ * statistics queries only read from the EventStore the days not seen before
+ * and the partial days at the range ends. The cache is bounded in the total
+ * number of days, evicting the least recently used streams first. Inserts
+ * invalidate the days they touch; a summary computed while an insert was in
+ * progress is not cached. Thread safe.
+ *
+ * @author bonino
+ *
+ */
+public class StatisticsCache
+{
+    // the length of a day, in milliseconds
+    public static final long DAY = 24L * 3600L * 1000L;
+
+    // the maximum number of cached days
+    private final int capacity;
+
+    // the cached days of each stream, by day start, least recently used
+    // stream first
+    private final Map<EventStreamKey, TreeMap<Long, StreamStatistics>> streams;
+
+    // the number of cached days
+    private int size;
+
+    // changed by every invalidation, to recognize stale summaries
+    private long generation;
+
+    /**
+     * Creates a cache
+     *
+     * @param capacity
+     *            the maximum number of cached days
+     */
+    public StatisticsCache(int capacity)
+    {
+        this.capacity = capacity;
+        this.streams = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Provides the current generation, to be taken before reading the
+     * EventStore and passed to
+     * {@link #put(EventStreamKey, long, StreamStatistics, long)}
+     *
+     * @return the generation
+     */
+    public synchronized long getGeneration()
+    {
+        return this.generation;
+    }
+
+    /**
+     * Provides the cached statistics of a day
+     *
+     * @param key
+     *            the stream key
+     * @param day
+     *            the day start, in milliseconds since the epoch
+     * @return the statistics, not to be modified, or null if not cached
+     */
+    public synchronized StreamStatistics get(EventStreamKey key, long day)
+    {
+        TreeMap<Long, StreamStatistics> days = this.streams.get(key);
+        return (days != null) ? days.get(day) : null;
+    }
+
+    /**
+     * Caches the statistics of a day, unless the stream changed since the
+     * given generation
+     *
+     * @param key
+     *            the stream key
+     * @param day
+     *            the day start, in milliseconds since the epoch
+     * @param statistics
+     *            the statistics, not to be modified afterwards
+     * @param generation
+     *            the generation taken before reading the day
+     */
+    public synchronized void put(EventStreamKey key, long day,
+            StreamStatistics statistics, long generation)
+    {
+        if ((generation != this.generation) || (this.capacity <= 0))
+            return;
+
+        TreeMap<Long, StreamStatistics> days = this.streams.get(key);
+        if (days == null)
+        {
+            days = new TreeMap<>();
+            this.streams.put(key, days);
+        }
+        if (days.put(day, statistics) == null)
+            this.size++;
+
+        // evict the least recently used streams, keeping the current one
+        Iterator<TreeMap<Long, StreamStatistics>> eldest = this.streams
+                .values().iterator();
+        while ((this.size > this.capacity) && eldest.hasNext())
+        {
+            TreeMap<Long, StreamStatistics> evicted = eldest.next();
+            if (evicted == days)
+                break;
+            this.size -= evicted.size();
+            eldest.remove();
+        }
+        while (this.size > this.capacity)
+        {
+            days.pollFirstEntry();
+            this.size--;
+        }
+    }
+
+    /**
+     * Forgets the cached days overlapping the given range of a stream
+     *
+     * @param key
+     *            the stream key
+     * @param start
+     *            the range start, in milliseconds since the epoch
+     * @param end
+     *            the range end, in milliseconds since the epoch
+     */
+    public synchronized void invalidate(EventStreamKey key, long start,
+            long end)
+    {
+        this.generation++;
+
+        TreeMap<Long, StreamStatistics> days = this.streams.get(key);
+        if (days != null)
+        {
+            Map<Long, StreamStatistics> touched = days.subMap(
+                    StatisticsCache.dayOf(start), true,
+                    StatisticsCache.dayOf(end), true);
+            this.size -= touched.size();
+            touched.clear();
+        }
+    }
+
+    /**
+     * Forgets all the cached days, e.g., when the underlying store changes
+     */
+    public synchronized void clear()
+    {
+        this.generation++;
+        this.streams.clear();
+        this.size = 0;
+    }
+
+    /**
+     * Provides the start of the UTC day including the given time
+     *
+     * @param time
+     *            the time, in milliseconds since the epoch
+     * @return the day start, in milliseconds since the epoch
+     */
+    public static long dayOf(long time)
+    {
+        long day = time / DAY;
+        if ((time < 0) && (day * DAY != time))
+            day--;
+        return day * DAY;
+    }
+}
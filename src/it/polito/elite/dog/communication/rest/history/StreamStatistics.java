@@ -0,0 +1,204 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+
+/**
+ * The summary statistics of the data points of a stream over a time range,
+ * computed in a single pass without holding the points: count, time extent,
+ * minimum, maximum, mean and standard deviation of the numeric values, and a
+ * {@link TDigest} estimating their percentiles. Summaries of disjoint ranges
+ * can be merged, giving the summary of their union. Not thread safe.
+ *
+ * @author bonino
+ *
+ */
+public class StreamStatistics
+{
+    // the number of points, and of points with a numeric value
+    private long count;
+    private long numericCount;
+
+    // the time extent, in milliseconds since the epoch
+    private long firstAt = Long.MAX_VALUE;
+    private long lastAt = Long.MIN_VALUE;
+
+    // the numeric values summary, the mean and the sum of the squared
+    // deviations being updated as in Welford's algorithm
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private double mean;
+    private double m2;
+
+    // the unit of the last point, if any
+    private String unit;
+    private long unitAt = Long.MIN_VALUE;
+
+    // the distribution of the numeric values
+    private final TDigest digest;
+
+    public StreamStatistics()
+    {
+        this.digest = new TDigest();
+    }
+
+    /**
+     * Adds a data point
+     *
+     * @param point
+     *            the point
+     */
+    public void add(EventDataPoint point)
+    {
+        this.count++;
+        if (point.getAt() != null)
+        {
+            long at = point.getAt().getTime();
+            this.firstAt = Math.min(this.firstAt, at);
+            this.lastAt = Math.max(this.lastAt, at);
+            if ((point.getUnit() != null) && (at >= this.unitAt))
+            {
+                this.unit = point.getUnit();
+                this.unitAt = at;
+            }
+        }
+
+        Double value = StreamStatistics.toNumber(point.getValue());
+        if (value != null)
+        {
+            this.numericCount++;
+            this.min = Math.min(this.min, value);
+            this.max = Math.max(this.max, value);
+            double delta = value - this.mean;
+            this.mean += delta / this.numericCount;
+            this.m2 += delta * (value - this.mean);
+            this.digest.add(value);
+        }
+    }
+
+    /**
+     * Adds the points summarized by the given statistics, which shall cover
+     * a range disjoint from this one
+     *
+     * @param other
+     *            the statistics to merge, left unchanged
+     */
+    public void merge(StreamStatistics other)
+    {
+        this.count += other.count;
+        this.firstAt = Math.min(this.firstAt, other.firstAt);
+        this.lastAt = Math.max(this.lastAt, other.lastAt);
+        if ((other.unit != null) && (other.unitAt >= this.unitAt))
+        {
+            this.unit = other.unit;
+            this.unitAt = other.unitAt;
+        }
+
+        if (other.numericCount > 0)
+        {
+            // combine mean and squared deviations as in Chan et al.
+            long total = this.numericCount + other.numericCount;
+            double delta = other.mean - this.mean;
+            this.mean += delta * other.numericCount / total;
+            this.m2 += other.m2 + delta * delta * this.numericCount
+                    * other.numericCount / total;
+            this.numericCount = total;
+            this.min = Math.min(this.min, other.min);
+            this.max = Math.max(this.max, other.max);
+            this.digest.merge(other.digest);
+        }
+    }
+
+    /**
+     * Reduces the memory held by the statistics, e.g., before caching them
+     */
+    public void compact()
+    {
+        this.digest.trim();
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getNumericCount()
+    {
+        return numericCount;
+    }
+
+    /**
+     * @return the time of the first point, or null if there are no points
+     */
+    public Long getFirstAt()
+    {
+        return (this.firstAt <= this.lastAt) ? this.firstAt : null;
+    }
+
+    /**
+     * @return the time of the last point, or null if there are no points
+     */
+    public Long getLastAt()
+    {
+        return (this.firstAt <= this.lastAt) ? this.lastAt : null;
+    }
+
+    public String getUnit()
+    {
+        return unit;
+    }
+
+    public double getMin()
+    {
+        return min;
+    }
+
+    public double getMax()
+    {
+        return max;
+    }
+
+    public double getMean()
+    {
+        return mean;
+    }
+
+    /**
+     * @return the population standard deviation of the numeric values
+     */
+    public double getStandardDeviation()
+    {
+        return (this.numericCount > 0)
+                ? Math.sqrt(this.m2 / this.numericCount) : 0;
+    }
+
+    /**
+     * Estimates a percentile of the numeric values
+     *
+     * @param percentile
+     *            the percentile, between 0 and 100
+     * @return the estimated value, NaN if there are no numeric values
+     */
+    public double getPercentile(double percentile)
+    {
+        return this.digest.quantile(percentile / 100);
+    }
+
+    private static Double toNumber(String value)
+    {
+        if (value == null)
+            return null;
+        try
+        {
+            double number = Double.parseDouble(value.trim());
+            return (Double.isNaN(number) || Double.isInfinite(number)) ? null
+                    : number;
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A merging t-digest, estimating the quantiles of a distribution of values in
+ * bounded memory: values are summarized by a small number of weighted
+ * centroids, finer at the tails than in the middle of the distribution.
+ * Digests of disjoint sets of values can be merged, giving the digest of
+ * their union. Not thread safe; {@link #merge(TDigest)} only reads the merged
+ * digest, which can be shared once no more values are added to it.
+ *
+ * @author bonino
+ *
+ */
+public class TDigest
+{
+    // the default accuracy, about 2 * compression centroids are kept
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    // no centroids, arrays are allocated as values are added
+    private static final double[] EMPTY = new double[0];
+
+    private final double compression;
+
+    // the maximum number of buffered centroids
+    private final int bufferSize;
+
+    // the merged centroids, sorted by mean
+    private double[] means;
+    private double[] weights;
+    private int centroids;
+
+    // the centroids added since the last compression, unsorted
+    private double[] bufferMeans;
+    private double[] bufferWeights;
+    private int buffered;
+
+    // the total weight, and the extreme values
+    private double count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest()
+    {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates an empty digest
+     *
+     * @param compression
+     *            the accuracy, higher values keep more centroids
+     */
+    public TDigest(double compression)
+    {
+        this.compression = compression;
+        this.bufferSize = 5 * ((int) Math.ceil(2 * compression) + 10);
+        this.means = EMPTY;
+        this.weights = EMPTY;
+        this.bufferMeans = EMPTY;
+        this.bufferWeights = EMPTY;
+    }
+
+    /**
+     * Adds a value
+     *
+     * @param value
+     *            the value, not NaN
+     */
+    public void add(double value)
+    {
+        this.add(value, 1);
+    }
+
+    /**
+     * Adds all the values of the given digest
+     *
+     * @param other
+     *            the digest to merge, left unchanged
+     */
+    public void merge(TDigest other)
+    {
+        for (int i = 0; i < other.centroids; i++)
+            this.add(other.means[i], other.weights[i]);
+        for (int i = 0; i < other.buffered; i++)
+            this.add(other.bufferMeans[i], other.bufferWeights[i]);
+        this.min = Math.min(this.min, other.min);
+        this.max = Math.max(this.max, other.max);
+    }
+
+    /**
+     * Provides the total number of values
+     *
+     * @return the number of values
+     */
+    public long size()
+    {
+        return (long) this.count;
+    }
+
+    /**
+     * Estimates the value below which the given fraction of values falls
+     *
+     * @param q
+     *            the fraction, between 0 and 1
+     * @return the estimated quantile, NaN if the digest is empty
+     */
+    public double quantile(double q)
+    {
+        this.compress();
+        if (this.centroids == 0)
+            return Double.NaN;
+        if (this.centroids == 1)
+            return this.means[0];
+
+        double index = q * this.count;
+        if (index <= 0)
+            return this.min;
+        if (index >= this.count)
+            return this.max;
+
+        // between the minimum and the first centroid
+        double half = this.weights[0] / 2;
+        if (index < half)
+            return this.min + (this.means[0] - this.min) * index / half;
+
+        // between consecutive centroids, values are spread uniformly
+        double cumulative = half;
+        for (int i = 0; i < this.centroids - 1; i++)
+        {
+            double gap = (this.weights[i] + this.weights[i + 1]) / 2;
+            if (cumulative + gap > index)
+            {
+                double t = (index - cumulative) / gap;
+                return this.means[i]
+                        + t * (this.means[i + 1] - this.means[i]);
+            }
+            cumulative += gap;
+        }
+
+        // between the last centroid and the maximum
+        int last = this.centroids - 1;
+        half = this.weights[last] / 2;
+        return this.means[last] + (this.max - this.means[last])
+                * Math.min(1, (index - cumulative) / half);
+    }
+
+    /**
+     * Merges the buffered values into the centroids
+     */
+    public void compress()
+    {
+        if (this.buffered == 0)
+            return;
+
+        // all the centroids, sorted by mean
+        int total = this.centroids + this.buffered;
+        double[][] all = new double[total][];
+        for (int i = 0; i < this.centroids; i++)
+            all[i] = new double[] { this.means[i], this.weights[i] };
+        for (int i = 0; i < this.buffered; i++)
+            all[this.centroids + i] = new double[] { this.bufferMeans[i],
+                    this.bufferWeights[i] };
+        Arrays.sort(all, new Comparator<double[]>() {
+
+            @Override
+            public int compare(double[] a, double[] b)
+            {
+                return Double.compare(a[0], b[0]);
+            }
+        });
+
+        // merge neighbours while the centroid size stays within the bound
+        // given by its quantile, 4 * n * q * (1 - q) / compression
+        int merged = 0;
+        double mean = all[0][0];
+        double weight = all[0][1];
+        double before = 0;
+        for (int i = 1; i < total; i++)
+        {
+            double proposed = weight + all[i][1];
+            double q = (before + proposed / 2) / this.count;
+            double limit = 4 * this.count * q * (1 - q) / this.compression;
+            if (proposed <= Math.max(1, limit))
+            {
+                mean += (all[i][0] - mean) * all[i][1] / proposed;
+                weight = proposed;
+            }
+            else
+            {
+                merged = this.emit(merged, mean, weight);
+                before += weight;
+                mean = all[i][0];
+                weight = all[i][1];
+            }
+        }
+        this.centroids = this.emit(merged, mean, weight);
+        this.buffered = 0;
+    }
+
+    /**
+     * Merges the buffered values into the centroids and releases the unused
+     * memory, e.g., before keeping the digest for long
+     */
+    public void trim()
+    {
+        this.compress();
+        this.means = Arrays.copyOf(this.means, this.centroids);
+        this.weights = Arrays.copyOf(this.weights, this.centroids);
+        this.bufferMeans = EMPTY;
+        this.bufferWeights = EMPTY;
+    }
+
+    private void add(double mean, double weight)
+    {
+        if (this.buffered == this.bufferMeans.length)
+        {
+            if (this.buffered < this.bufferSize)
+            {
+                int size = Math.min(this.bufferSize,
+                        Math.max(16, 2 * this.buffered));
+                this.bufferMeans = Arrays.copyOf(this.bufferMeans, size);
+                this.bufferWeights = Arrays.copyOf(this.bufferWeights, size);
+            }
+            else
+                this.compress();
+        }
+        this.bufferMeans[this.buffered] = mean;
+        this.bufferWeights[this.buffered] = weight;
+        this.buffered++;
+        this.count += weight;
+        this.min = Math.min(this.min, mean);
+        this.max = Math.max(this.max, mean);
+    }
+
+    private int emit(int index, double mean, double weight)
+    {
+        if (index == this.means.length)
+        {
+            int size = Math.max(16, 2 * index);
+            this.means = Arrays.copyOf(this.means, size);
+            this.weights = Arrays.copyOf(this.weights, size);
+        }
+        this.means[index] = mean;
+        this.weights[index] = weight;
+        return index + 1;
+    }
+}
@@ -0,0 +1,547 @@
+/**
+ *
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+import it.polito.elite.dog.addons.storage.EventDataPoint;
+import it.polito.elite.dog.addons.storage.EventDataStream;
+import it.polito.elite.dog.addons.storage.EventDataStreamSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, lossless binary encoding of event data streams, in the spirit of
+ * the Gorilla time series compression: timestamps are written as
+ * delta-of-delta, numeric values as the XOR with the previous value and
+ * textual values and units through per-stream dictionaries.
+ *
+ * The encoding starts with a 4-byte magic number (DOGT) and a 1-byte version,
+ * followed by a bit stream holding the device uri, the number of streams and,
+ * for each stream, its name, parameters, device uri, number of points and
+ * points. Values are encoded as numbers only when their textual form is
+ * rebuilt exactly on decode, otherwise they go through the dictionary; points
+ * without timestamp are encoded at the epoch.
+ *
+ * @author bonino
+ *
+ */
+public class TimeSeriesCodec
+{
+    private static final byte[] MAGIC = { 'D', 'O', 'G', 'T' };
+    private static final int VERSION = 1;
+
+    // the value kinds
+    private static final int DOUBLE = 0;
+    private static final int LONG = 1;
+    private static final int STRING = 2;
+
+    // the largest integer exactly represented by a double
+    private static final long MAX_EXACT_LONG = 1L << 53;
+
+    /**
+     * Encodes the given stream
+     *
+     * @param stream
+     *            the stream to encode
+     * @return the encoded bytes
+     */
+    public static byte[] encode(EventDataStream stream)
+    {
+        EventDataStreamSet streamSet = new EventDataStreamSet(
+                stream.getDeviceUri());
+        streamSet.addDatastream(stream);
+        return TimeSeriesCodec.encode(streamSet);
+    }
+
+    /**
+     * Encodes the given set of streams
+     *
+     * @param streamSet
+     *            the set to encode
+     * @return the encoded bytes
+     */
+    public static byte[] encode(EventDataStreamSet streamSet)
+    {
+        BitWriter out = new BitWriter();
+        for (byte b : MAGIC)
+            out.write(b, 8);
+        out.write(VERSION, 8);
+
+        List<EventDataStream> streams = (streamSet.getDatastreams() != null)
+                ? streamSet.getDatastreams()
+                : new ArrayList<EventDataStream>();
+        out.writeString(streamSet.getDeviceUri());
+        out.write(streams.size(), 32);
+        for (EventDataStream stream : streams)
+            TimeSeriesCodec.encode(stream, out);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a set of streams
+     *
+     * @param data
+     *            the encoded bytes
+     * @return the decoded set
+     * @throws IOException
+     *             if the data is not a valid encoding
+     */
+    public static EventDataStreamSet decode(byte[] data) throws IOException
+    {
+        BitReader in = new BitReader(data);
+        for (byte b : MAGIC)
+        {
+            if (in.read(8) != b)
+                throw new IOException("Not a DOG time series");
+        }
+        int version = (int) in.read(8);
+        if (version != VERSION)
+            throw new IOException("Unsupported time series version: "
+                    + version);
+
+        EventDataStreamSet streamSet = new EventDataStreamSet(
+                in.readString());
+        int streams = (int) in.read(32);
+        for (int i = 0; i < streams; i++)
+            streamSet.addDatastream(TimeSeriesCodec.decodeStream(in));
+
+        return streamSet;
+    }
+
+    private static void encode(EventDataStream stream, BitWriter out)
+    {
+        out.writeString(stream.getName());
+        out.writeString(stream.getParams());
+        out.writeString(stream.getDeviceUri());
+
+        List<EventDataPoint> points = (stream.getDatapoints() != null)
+                ? stream.getDatapoints() : new ArrayList<EventDataPoint>();
+        out.write(points.size(), 32);
+
+        long previousTime = 0;
+        long previousDelta = 0;
+        int previousKind = -1;
+        String previousUnit = null;
+        XorState numbers = new XorState();
+        Dictionary values = new Dictionary();
+        Dictionary units = new Dictionary();
+
+        boolean first = true;
+        for (EventDataPoint point : points)
+        {
+            // the timestamp, raw for the first point
+            long time = (point.getAt() != null) ? point.getAt().getTime() : 0;
+            if (first)
+                out.write(time, 64);
+            else
+            {
+                long delta = time - previousTime;
+                TimeSeriesCodec.writeDeltaOfDelta(delta - previousDelta, out);
+                previousDelta = delta;
+            }
+            previousTime = time;
+
+            // the value kind, only if it changes
+            String value = point.getValue();
+            int kind = TimeSeriesCodec.kindOf(value);
+            if (kind == previousKind)
+                out.write(0, 1);
+            else
+            {
+                out.write(1, 1);
+                out.write(kind, 2);
+                previousKind = kind;
+            }
+
+            // the value
+            switch (kind)
+            {
+                case DOUBLE:
+                    numbers.write(Double.doubleToRawLongBits(
+                            Double.parseDouble(value)), out);
+                    break;
+                case LONG:
+                    numbers.write(Double.doubleToRawLongBits(
+                            (double) Long.parseLong(value)), out);
+                    break;
+                default:
+                    values.write(value, out);
+            }
+
+            // the unit, only if it changes
+            String unit = point.getUnit();
+            if (first || ((unit == null) ? (previousUnit != null)
+                    : (!unit.equals(previousUnit))))
+            {
+                out.write(1, 1);
+                units.write(unit, out);
+                previousUnit = unit;
+            }
+            else
+                out.write(0, 1);
+
+            first = false;
+        }
+    }
+
+    private static EventDataStream decodeStream(BitReader in)
+            throws IOException
+    {
+        EventDataStream stream = new EventDataStream(in.readString(),
+                in.readString(), in.readString());
+        int count = (int) in.read(32);
+
+        long previousTime = 0;
+        long previousDelta = 0;
+        int kind = -1;
+        String unit = null;
+        XorState numbers = new XorState();
+        Dictionary values = new Dictionary();
+        Dictionary units = new Dictionary();
+
+        for (int i = 0; i < count; i++)
+        {
+            long time;
+            if (i == 0)
+                time = in.read(64);
+            else
+            {
+                long delta = previousDelta
+                        + TimeSeriesCodec.readDeltaOfDelta(in);
+                time = previousTime + delta;
+                previousDelta = delta;
+            }
+            previousTime = time;
+
+            if (in.read(1) == 1)
+                kind = (int) in.read(2);
+
+            String value;
+            switch (kind)
+            {
+                case DOUBLE:
+                    value = Double.toString(
+                            Double.longBitsToDouble(numbers.read(in)));
+                    break;
+                case LONG:
+                    value = Long.toString((long) Double
+                            .longBitsToDouble(numbers.read(in)));
+                    break;
+                case STRING:
+                    value = values.read(in);
+                    break;
+                default:
+                    throw new IOException("Unknown value kind: " + kind);
+            }
+
+            if (in.read(1) == 1)
+                unit = units.read(in);
+
+            stream.addDatapoint(new EventDataPoint(new Date(time), value,
+                    unit));
+        }
+        return stream;
+    }
+
+    private static int kindOf(String value)
+    {
+        if ((value == null) || value.isEmpty())
+            return STRING;
+
+        char c = value.charAt(0);
+        if ((c != '-') && ((c < '0') || (c > '9')))
+            return STRING;
+
+        try
+        {
+            long number = Long.parseLong(value);
+            if ((Math.abs(number) <= MAX_EXACT_LONG)
+                    && Long.toString(number).equals(value))
+                return LONG;
+        }
+        catch (NumberFormatException e)
+        {
+            // not an integer
+        }
+        try
+        {
+            if (Double.toString(Double.parseDouble(value)).equals(value))
+                return DOUBLE;
+        }
+        catch (NumberFormatException e)
+        {
+            // not a number
+        }
+        return STRING;
+    }
+
+    private static void writeDeltaOfDelta(long deltaOfDelta, BitWriter out)
+    {
+        // zig-zag, to have small magnitudes in few bits
+        long encoded = (deltaOfDelta << 1) ^ (deltaOfDelta >> 63);
+        if (encoded == 0)
+            out.write(0, 1);
+        else if ((encoded >>> 7) == 0)
+        {
+            out.write(0b10, 2);
+            out.write(encoded, 7);
+        }
+        else if ((encoded >>> 9) == 0)
+        {
+            out.write(0b110, 3);
+            out.write(encoded, 9);
+        }
+        else if ((encoded >>> 12) == 0)
+        {
+            out.write(0b1110, 4);
+            out.write(encoded, 12);
+        }
+        else
+        {
+            out.write(0b1111, 4);
+            out.write(encoded, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader in) throws IOException
+    {
+        long encoded;
+        if (in.read(1) == 0)
+            encoded = 0;
+        else if (in.read(1) == 0)
+            encoded = in.read(7);
+        else if (in.read(1) == 0)
+            encoded = in.read(9);
+        else if (in.read(1) == 0)
+            encoded = in.read(12);
+        else
+            encoded = in.read(64);
+        return (encoded >>> 1) ^ -(encoded & 1);
+    }
+
+    /**
+     * The XOR encoding state of a sequence of numeric values
+     */
+    private static class XorState
+    {
+        private long previous = 0;
+        private int leading = -1;
+        private int trailing = 0;
+
+        public void write(long bits, BitWriter out)
+        {
+            long xor = bits ^ this.previous;
+            this.previous = bits;
+            if (xor == 0)
+            {
+                out.write(0, 1);
+                return;
+            }
+            out.write(1, 1);
+
+            int leading = Long.numberOfLeadingZeros(xor);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if ((this.leading >= 0) && (leading >= this.leading)
+                    && (trailing >= this.trailing))
+            {
+                // the meaningful bits fit the previous window
+                out.write(0, 1);
+                out.write(xor >>> this.trailing,
+                        64 - this.leading - this.trailing);
+            }
+            else
+            {
+                int meaningful = 64 - leading - trailing;
+                out.write(1, 1);
+                out.write(leading, 6);
+                out.write(meaningful - 1, 6);
+                out.write(xor >>> trailing, meaningful);
+                this.leading = leading;
+                this.trailing = trailing;
+            }
+        }
+
+        public long read(BitReader in) throws IOException
+        {
+            if (in.read(1) == 1)
+            {
+                if (in.read(1) == 1)
+                {
+                    this.leading = (int) in.read(6);
+                    this.trailing = 64 - this.leading - (int) in.read(6) - 1;
+                }
+                int meaningful = 64 - this.leading - this.trailing;
+                this.previous ^= in.read(meaningful) << this.trailing;
+            }
+            return this.previous;
+        }
+    }
+
+    /**
+     * A dictionary of strings, built while encoding / decoding; entry 0 is
+     * null and the index equal to the dictionary size introduces a new entry
+     */
+    private static class Dictionary
+    {
+        private final List<String> entries;
+        private final Map<String, Integer> indexes;
+
+        public Dictionary()
+        {
+            this.entries = new ArrayList<>();
+            this.entries.add(null);
+            this.indexes = new HashMap<>();
+        }
+
+        public void write(String value, BitWriter out)
+        {
+            int width = Dictionary.widthOf(this.entries.size());
+            Integer index = (value == null) ? Integer.valueOf(0)
+                    : this.indexes.get(value);
+            if (index != null)
+                out.write(index, width);
+            else
+            {
+                out.write(this.entries.size(), width);
+                out.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+                this.indexes.put(value, this.entries.size());
+                this.entries.add(value);
+            }
+        }
+
+        public String read(BitReader in) throws IOException
+        {
+            int index = (int) in.read(Dictionary.widthOf(this.entries.size()));
+            if (index < this.entries.size())
+                return this.entries.get(index);
+            if (index > this.entries.size())
+                throw new IOException("Invalid dictionary index: " + index);
+
+            String value = new String(in.readBytes(), StandardCharsets.UTF_8);
+            this.entries.add(value);
+            return value;
+        }
+
+        private static int widthOf(int size)
+        {
+            // the bits needed for indexes from 0 to size
+            return 32 - Integer.numberOfLeadingZeros(size);
+        }
+    }
+
+    /**
+     * Writes bits, most significant first
+     */
+    private static class BitWriter
+    {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // the bits not yet written, less than 8 between calls
+        private long pending = 0;
+        private int used = 0;
+
+        public void write(long value, int bits)
+        {
+            while (bits > 0)
+            {
+                // keep the pending bits within the accumulator
+                int chunk = Math.min(bits, 56 - this.used);
+                long part = (value >>> (bits - chunk)) & ((1L << chunk) - 1);
+                this.pending = (this.pending << chunk) | part;
+                this.used += chunk;
+                bits -= chunk;
+
+                while (this.used >= 8)
+                {
+                    this.out.write((int) (this.pending >>> (this.used - 8)));
+                    this.used -= 8;
+                }
+                this.pending &= (1L << this.used) - 1;
+            }
+        }
+
+        public void writeBytes(byte[] bytes)
+        {
+            this.write(bytes.length, 32);
+            for (byte b : bytes)
+                this.write(b, 8);
+        }
+
+        public void writeString(String value)
+        {
+            this.write((value != null) ? 1 : 0, 1);
+            if (value != null)
+                this.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public byte[] toByteArray()
+        {
+            // pad the last byte with zeros
+            if (this.used > 0)
+                this.write(0, 8 - this.used);
+            return this.out.toByteArray();
+        }
+    }
+
+    /**
+     * Reads bits, most significant first
+     */
+    private static class BitReader
+    {
+        private final byte[] data;
+        private long position = 0;
+
+        public BitReader(byte[] data)
+        {
+            this.data = data;
+        }
+
+        public long read(int bits) throws IOException
+        {
+            if (this.position + bits > this.data.length * 8L)
+                throw new IOException("Truncated time series");
+
+            // read byte by byte, at most 8 bits at a time
+            long value = 0;
+            while (bits > 0)
+            {
+                int available = 8 - (int) (this.position & 7);
+                int chunk = Math.min(available, bits);
+                int current = this.data[(int) (this.position >>> 3)] & 0xff;
+                int part = (current >>> (available - chunk))
+                        & ((1 << chunk) - 1);
+                value = (value << chunk) | part;
+                this.position += chunk;
+                bits -= chunk;
+            }
+            return value;
+        }
+
+        public byte[] readBytes() throws IOException
+        {
+            long length = this.read(32);
+            if (length * 8 > this.data.length * 8L - this.position)
+                throw new IOException("Truncated time series");
+
+            byte[] bytes = new byte[(int) length];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = (byte) this.read(8);
+            return bytes;
+        }
+
+        public String readString() throws IOException
+        {
+            if (this.read(1) == 0)
+                return null;
+            return new String(this.readBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
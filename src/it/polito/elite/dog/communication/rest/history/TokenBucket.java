@@ -0,0 +1,111 @@
+/**
+ * 
+ */
+package it.polito.elite.dog.communication.rest.history;
+
+/**
+ * A token bucket rate limiter: tokens are consumed by requests according to
+ * their cost and refilled at a constant rate, up to the bucket capacity.
+ * 
+ * @author bonino
+ *
+ */
+public class TokenBucket
+{
+    // the maximum number of tokens
+    private final double capacity;
+
+    // the refill rate, in tokens per millisecond
+    private final double refill;
+
+    // the available tokens
+    private double tokens;
+
+    // the last refill time, in milliseconds
+    private long lastRefill;
+
+    /**
+     * Creates a full bucket
+     * 
+     * @param capacity
+     *            the bucket capacity
+     * @param refillPerSecond
+     *            the tokens refilled per second
+     * @param now
+     *            the current time, in milliseconds
+     */
+    public TokenBucket(double capacity, double refillPerSecond, long now)
+    {
+        this.capacity = capacity;
+        this.refill = refillPerSecond / 1000.0;
+        this.tokens = capacity;
+        this.lastRefill = now;
+    }
+
+    /**
+     * Tries to consume the given number of tokens, costs exceeding the bucket
+     * capacity are capped to the capacity.
+     * 
+     * @param cost
+     *            the tokens to consume
+     * @param now
+     *            the current time, in milliseconds
+     * @return 0 if the tokens have been consumed, otherwise the time after
+     *         which enough tokens will be available, in milliseconds
+     */
+    public synchronized long tryConsume(double cost, long now)
+    {
+        this.refill(now);
+
+        double needed = Math.min(cost, this.capacity);
+        if (this.tokens >= needed)
+        {
+            this.tokens -= needed;
+            return 0;
+        }
+
+        if (this.refill <= 0)
+            return Long.MAX_VALUE;
+        return (long) Math.ceil((needed - this.tokens) / this.refill);
+    }
+
+    /**
+     * Gives back tokens consumed by {@link #tryConsume(double, long)}, e.g.,
+     * when the request could not run after all
+     * 
+     * @param cost
+     *            the consumed tokens
+     * @param now
+     *            the current time, in milliseconds
+     */
+    public synchronized void refund(double cost, long now)
+    {
+        this.refill(now);
+        this.tokens = Math.min(this.capacity,
+                this.tokens + Math.min(cost, this.capacity));
+    }
+
+    /**
+     * Checks whether the bucket is full, i.e., the client has been idle long
+     * enough for its bucket to be discarded.
+     * 
+     * @param now
+     *            the current time, in milliseconds
+     * @return true if full
+     */
+    public synchronized boolean isFull(long now)
+    {
+        this.refill(now);
+        return this.tokens >= this.capacity;
+    }
+
+    private void refill(long now)
+    {
+        if (now > this.lastRefill)
+        {
+            this.tokens = Math.min(this.capacity,
+                    this.tokens + (now - this.lastRefill) * this.refill);
+            this.lastRefill = now;
+        }
+    }
+}
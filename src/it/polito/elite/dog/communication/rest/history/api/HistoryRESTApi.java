@@ -3,9 +3,13 @@
  */
 package it.polito.elite.dog.communication.rest.history.api;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -26,6 +30,12 @@ import javax.ws.rs.core.Response;
 @Path("/api/v1/history/")
 public interface HistoryRESTApi
 {
+	// the media type of the compact binary time series encoding
+	public static final String TIMESERIES = "application/x-dog-timeseries";
+
+	// the binary responses, ranked below JSON for clients accepting any type
+	public static final String TIMESERIES_RANKED = TIMESERIES + ";qs=0.5";
+
 	/**
 	 * Provides the history of all parametric notifications associated to the
 	 * given device, identified by the given device id.
@@ -44,6 +54,16 @@ public interface HistoryRESTApi
 	 *            default)
 	 * @param limit
 	 *            The maximum number of result to return (UNLIMITED by default)
+	 * @param fields
+	 *            The comma-separated attributes to return, among name, params,
+	 *            deviceUri, at, value and unit (resolution, count, min, max,
+	 *            sum, first and last for rollups). All attributes are returned
+	 *            by default.
+	 * @param filter
+	 *            The semicolon-separated conditions the returned data points
+	 *            shall satisfy, e.g., value>30;time 08:00-18:00;day mon-fri;
+	 *            value in (on,off);changes. Offset and limit apply to the
+	 *            matching points.
 	 * 
 	 * @return The stored notifications, in JSON
 	 */
@@ -55,7 +75,11 @@ public interface HistoryRESTApi
 			@QueryParam("start") String startDate,
 			@QueryParam("end") String endDate,
 			@QueryParam("offset") Integer offset,
-			@QueryParam("limit") Integer limit, @Context HttpServletResponse httpResponse);
+			@QueryParam("limit") Integer limit,
+			@QueryParam("fields") String fields,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
 
 	/**
 	 * Provides the history of all non parametric notifications associated to
@@ -79,6 +103,20 @@ public interface HistoryRESTApi
 	 *            The aggregation flag. If true all notifications are aggregated
 	 *            in a single event stream, otherwise one stream per
 	 *            notification will be generated. (default, true)
+	 * @param transitions
+	 *            If true, only the points changing the value are returned,
+	 *            each with its duration, in milliseconds, until the next
+	 *            transition (false by default).
+	 * @param fields
+	 *            The comma-separated attributes to return, among name, params,
+	 *            deviceUri, at, value and unit (resolution, count, min, max,
+	 *            sum, first and last for rollups). All attributes are returned
+	 *            by default.
+	 * @param filter
+	 *            The semicolon-separated conditions the returned data points
+	 *            shall satisfy, e.g., value>30;time 08:00-18:00;day mon-fri;
+	 *            value in (on,off);changes. Offset and limit apply to the
+	 *            matching points.
 	 * @return
 	 */
 	@GET
@@ -90,7 +128,12 @@ public interface HistoryRESTApi
 			@QueryParam("end") String endDate,
 			@QueryParam("offset") Integer offset,
 			@QueryParam("limit") Integer limit,
-			@QueryParam("aggregate") Boolean aggregate, @Context HttpServletResponse httpResponse);
+			@QueryParam("aggregate") Boolean aggregate,
+			@QueryParam("transitions") Boolean transitions,
+			@QueryParam("fields") String fields,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
 
 	/**
 	 * Provides the history of all continuous states associated to the given
@@ -110,6 +153,16 @@ public interface HistoryRESTApi
 	 *            default)
 	 * @param limit
 	 *            The maximum number of result to return (UNLIMITED by default)
+	 * @param fields
+	 *            The comma-separated attributes to return, among name, params,
+	 *            deviceUri, at, value and unit (resolution, count, min, max,
+	 *            sum, first and last for rollups). All attributes are returned
+	 *            by default.
+	 * @param filter
+	 *            The semicolon-separated conditions the returned data points
+	 *            shall satisfy, e.g., value>30;time 08:00-18:00;day mon-fri;
+	 *            value in (on,off);changes. Offset and limit apply to the
+	 *            matching points.
 	 * 
 	 * @return The stored notifications, in JSON
 	 */
@@ -121,7 +174,11 @@ public interface HistoryRESTApi
 			@QueryParam("start") String startDate,
 			@QueryParam("end") String endDate,
 			@QueryParam("offset") Integer offset,
-			@QueryParam("limit") Integer limit, @Context HttpServletResponse httpResponse);
+			@QueryParam("limit") Integer limit,
+			@QueryParam("fields") String fields,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
 
 	/**
 	 * Provides the history of all discrete states associated to the given
@@ -145,6 +202,20 @@ public interface HistoryRESTApi
 	 *            The aggregation flag. If true all notifications are aggregated
 	 *            in a single event stream, otherwise one stream per
 	 *            notification will be generated. (default, true)
+	 * @param transitions
+	 *            If true, only the points changing the value are returned,
+	 *            each with its duration, in milliseconds, until the next
+	 *            transition (false by default).
+	 * @param fields
+	 *            The comma-separated attributes to return, among name, params,
+	 *            deviceUri, at, value and unit (resolution, count, min, max,
+	 *            sum, first and last for rollups). All attributes are returned
+	 *            by default.
+	 * @param filter
+	 *            The semicolon-separated conditions the returned data points
+	 *            shall satisfy, e.g., value>30;time 08:00-18:00;day mon-fri;
+	 *            value in (on,off);changes. Offset and limit apply to the
+	 *            matching points.
 	 * @return
 	 */
 	@GET
@@ -156,8 +227,53 @@ public interface HistoryRESTApi
 			@QueryParam("end") String endDate,
 			@QueryParam("offset") Integer offset,
 			@QueryParam("limit") Integer limit,
-			@QueryParam("aggregate") Boolean aggregate, @Context HttpServletResponse httpResponse);
+			@QueryParam("aggregate") Boolean aggregate,
+			@QueryParam("transitions") Boolean transitions,
+			@QueryParam("fields") String fields,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
 
+	/**
+	 * Provides the history of the given parametric notification of the given
+	 * device, either as raw data points or, if a resolution is specified, as
+	 * pre-computed rollup buckets (count, min, max, sum, first and last value
+	 * per bucket).
+	 * 
+	 * @param deviceId
+	 *            The URI of the device for which the history should be
+	 *            extracted.
+	 * @param notificationName
+	 *            The name of the parametric notification.
+	 * @param notificationParams
+	 *            The parametric notification parameters.
+	 * @param startDate
+	 *            The date from which starting to extract the history, if not
+	 *            given is set to the EPOCH value.
+	 * @param endDate
+	 *            The date at which extraction should end, if not given is set
+	 *            to NOW by default.
+	 * @param offset
+	 *            The offset from which returned results should start (0 by
+	 *            default)
+	 * @param limit
+	 *            The maximum number of result to return (UNLIMITED by default)
+	 * @param resolution
+	 *            The rollup resolution, one of minute, hour or day. If not
+	 *            given raw data points are returned.
+	 * @param fields
+	 *            The comma-separated attributes to return, among name, params,
+	 *            deviceUri, at, value and unit (resolution, count, min, max,
+	 *            sum, first and last for rollups). All attributes are returned
+	 *            by default.
+	 * @param filter
+	 *            The semicolon-separated conditions the returned data points
+	 *            shall satisfy, e.g., value>30;time 08:00-18:00;day mon-fri;
+	 *            value in (on,off);changes. Offset and limit apply to the
+	 *            matching points.
+	 * 
+	 * @return The stored parametric notifications, in JSON
+	 */
 	@GET
 	@Path("/devices/{device-id}/notifications/parametric/{notification-name}/{notification-params}")
 	@Produces(MediaType.APPLICATION_JSON)
@@ -168,8 +284,51 @@ public interface HistoryRESTApi
 			@QueryParam("start") String startDate,
 			@QueryParam("end") String endDate,
 			@QueryParam("offset") Integer offset,
-			@QueryParam("limit") Integer limit, @Context HttpServletResponse httpResponse);
+			@QueryParam("limit") Integer limit,
+			@QueryParam("resolution") String resolution,
+			@QueryParam("fields") String fields,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
 
+	/**
+	 * Provides the history of the given parametric notification of the given
+	 * device, either as raw data points or, if a resolution is specified, as
+	 * pre-computed rollup buckets (count, min, max, sum, first and last value
+	 * per bucket).
+	 * 
+	 * @param deviceId
+	 *            The URI of the device for which the history should be
+	 *            extracted.
+	 * @param notificationName
+	 *            The name of the parametric notification.
+	 * @param startDate
+	 *            The date from which starting to extract the history, if not
+	 *            given is set to the EPOCH value.
+	 * @param endDate
+	 *            The date at which extraction should end, if not given is set
+	 *            to NOW by default.
+	 * @param offset
+	 *            The offset from which returned results should start (0 by
+	 *            default)
+	 * @param limit
+	 *            The maximum number of result to return (UNLIMITED by default)
+	 * @param resolution
+	 *            The rollup resolution, one of minute, hour or day. If not
+	 *            given raw data points are returned.
+	 * @param fields
+	 *            The comma-separated attributes to return, among name, params,
+	 *            deviceUri, at, value and unit (resolution, count, min, max,
+	 *            sum, first and last for rollups). All attributes are returned
+	 *            by default.
+	 * @param filter
+	 *            The semicolon-separated conditions the returned data points
+	 *            shall satisfy, e.g., value>30;time 08:00-18:00;day mon-fri;
+	 *            value in (on,off);changes. Offset and limit apply to the
+	 *            matching points.
+	 * 
+	 * @return The stored parametric notifications, in JSON
+	 */
 	@GET
 	@Path("/devices/{device-id}/notifications/parametric/{notification-name}")
 	@Produces(MediaType.APPLICATION_JSON)
@@ -179,7 +338,12 @@ public interface HistoryRESTApi
 			@QueryParam("start") String startDate,
 			@QueryParam("end") String endDate,
 			@QueryParam("offset") Integer offset,
-			@QueryParam("limit") Integer limit, @Context HttpServletResponse httpResponse);
+			@QueryParam("limit") Integer limit,
+			@QueryParam("resolution") String resolution,
+			@QueryParam("fields") String fields,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
 
 	@GET
 	@Path("/devices/{device-id}/notifications/nonparametric/{notification-name}")
@@ -190,8 +354,53 @@ public interface HistoryRESTApi
 			@QueryParam("start") String startDate,
 			@QueryParam("end") String endDate,
 			@QueryParam("offset") Integer offset,
-			@QueryParam("limit") Integer limit, @Context HttpServletResponse httpResponse);
+			@QueryParam("limit") Integer limit,
+			@QueryParam("transitions") Boolean transitions,
+			@QueryParam("fields") String fields,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
 
+	/**
+	 * Provides the history of the given continuous state of the given
+	 * device, either as raw data points or, if a resolution is specified, as
+	 * pre-computed rollup buckets (count, min, max, sum, first and last value
+	 * per bucket).
+	 * 
+	 * @param deviceId
+	 *            The URI of the device for which the history should be
+	 *            extracted.
+	 * @param stateName
+	 *            The name of the continuous state.
+	 * @param stateParams
+	 *            The continuous state parameters.
+	 * @param startDate
+	 *            The date from which starting to extract the history, if not
+	 *            given is set to the EPOCH value.
+	 * @param endDate
+	 *            The date at which extraction should end, if not given is set
+	 *            to NOW by default.
+	 * @param offset
+	 *            The offset from which returned results should start (0 by
+	 *            default)
+	 * @param limit
+	 *            The maximum number of result to return (UNLIMITED by default)
+	 * @param resolution
+	 *            The rollup resolution, one of minute, hour or day. If not
+	 *            given raw data points are returned.
+	 * @param fields
+	 *            The comma-separated attributes to return, among name, params,
+	 *            deviceUri, at, value and unit (resolution, count, min, max,
+	 *            sum, first and last for rollups). All attributes are returned
+	 *            by default.
+	 * @param filter
+	 *            The semicolon-separated conditions the returned data points
+	 *            shall satisfy, e.g., value>30;time 08:00-18:00;day mon-fri;
+	 *            value in (on,off);changes. Offset and limit apply to the
+	 *            matching points.
+	 * 
+	 * @return The stored continuous states, in JSON
+	 */
 	@GET
 	@Path("/devices/{device-id}/states/continuous/{state-name}/{state-params}")
 	@Produces(MediaType.APPLICATION_JSON)
@@ -202,8 +411,51 @@ public interface HistoryRESTApi
 			@QueryParam("start") String startDate,
 			@QueryParam("end") String endDate,
 			@QueryParam("offset") Integer offset,
-			@QueryParam("limit") Integer limit, @Context HttpServletResponse httpResponse);
+			@QueryParam("limit") Integer limit,
+			@QueryParam("resolution") String resolution,
+			@QueryParam("fields") String fields,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
 
+	/**
+	 * Provides the history of the given continuous state of the given
+	 * device, either as raw data points or, if a resolution is specified, as
+	 * pre-computed rollup buckets (count, min, max, sum, first and last value
+	 * per bucket).
+	 * 
+	 * @param deviceId
+	 *            The URI of the device for which the history should be
+	 *            extracted.
+	 * @param stateName
+	 *            The name of the continuous state.
+	 * @param startDate
+	 *            The date from which starting to extract the history, if not
+	 *            given is set to the EPOCH value.
+	 * @param endDate
+	 *            The date at which extraction should end, if not given is set
+	 *            to NOW by default.
+	 * @param offset
+	 *            The offset from which returned results should start (0 by
+	 *            default)
+	 * @param limit
+	 *            The maximum number of result to return (UNLIMITED by default)
+	 * @param resolution
+	 *            The rollup resolution, one of minute, hour or day. If not
+	 *            given raw data points are returned.
+	 * @param fields
+	 *            The comma-separated attributes to return, among name, params,
+	 *            deviceUri, at, value and unit (resolution, count, min, max,
+	 *            sum, first and last for rollups). All attributes are returned
+	 *            by default.
+	 * @param filter
+	 *            The semicolon-separated conditions the returned data points
+	 *            shall satisfy, e.g., value>30;time 08:00-18:00;day mon-fri;
+	 *            value in (on,off);changes. Offset and limit apply to the
+	 *            matching points.
+	 * 
+	 * @return The stored continuous states, in JSON
+	 */
 	@GET
 	@Path("/devices/{device-id}/states/continuous/{state-name}")
 	@Produces(MediaType.APPLICATION_JSON)
@@ -213,7 +465,12 @@ public interface HistoryRESTApi
 			@QueryParam("start") String startDate,
 			@QueryParam("end") String endDate,
 			@QueryParam("offset") Integer offset,
-			@QueryParam("limit") Integer limit, @Context HttpServletResponse httpResponse);
+			@QueryParam("limit") Integer limit,
+			@QueryParam("resolution") String resolution,
+			@QueryParam("fields") String fields,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
 
 	@GET
 	@Path("/devices/{device-id}/states/discrete/{state-name}")
@@ -224,16 +481,378 @@ public interface HistoryRESTApi
 			@QueryParam("start") String startDate,
 			@QueryParam("end") String endDate,
 			@QueryParam("offset") Integer offset,
-			@QueryParam("limit") Integer limit, @Context HttpServletResponse httpResponse);
+			@QueryParam("limit") Integer limit,
+			@QueryParam("transitions") Boolean transitions,
+			@QueryParam("fields") String fields,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+	
+	/**
+	 * Provides the endpoint metrics, e.g., EventStore availability and swap
+	 * latency, coalesced and rejected queries.
+	 * 
+	 * @return The metrics, in JSON
+	 */
+	@GET
+	@Path("/metrics")
+	@Produces(MediaType.APPLICATION_JSON)
+	public String getMetrics(@Context HttpServletResponse httpResponse);
+
+	// -------------- TIME SERIES GET -------------------------
+
+	/*
+	 * The history GETs above, answering with the compact binary time series
+	 * encoding (delta-of-delta timestamps, XOR-encoded numeric values,
+	 * dictionary-encoded texts and units) to clients accepting it.
+	 */
+
+	@GET
+	@Path("/devices/{device-id}/notifications/parametric/all")
+	@Produces(HistoryRESTApi.TIMESERIES_RANKED)
+	public Response getAllDeviceParametricNotificationsTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("offset") Integer offset,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	@GET
+	@Path("/devices/{device-id}/notifications/nonparametric/all")
+	@Produces(HistoryRESTApi.TIMESERIES_RANKED)
+	public Response getAllDeviceNonParametricNotificationsTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("offset") Integer offset,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("aggregate") Boolean aggregate,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	@GET
+	@Path("/devices/{device-id}/states/continuous/all")
+	@Produces(HistoryRESTApi.TIMESERIES_RANKED)
+	public Response getAllDeviceContinuousStatesTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("offset") Integer offset,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	@GET
+	@Path("/devices/{device-id}/states/discrete/all")
+	@Produces(HistoryRESTApi.TIMESERIES_RANKED)
+	public Response getAllDeviceDiscreteStatesTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("offset") Integer offset,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("aggregate") Boolean aggregate,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	@GET
+	@Path("/devices/{device-id}/notifications/parametric/{notification-name}/{notification-params}")
+	@Produces(HistoryRESTApi.TIMESERIES_RANKED)
+	public Response getDeviceSpecificParametricNotificationTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("notification-name") String notificationName,
+			@PathParam("notification-params") String notificationParams,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("offset") Integer offset,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	@GET
+	@Path("/devices/{device-id}/notifications/parametric/{notification-name}")
+	@Produces(HistoryRESTApi.TIMESERIES_RANKED)
+	public Response getDeviceSpecificParametricNotificationTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("notification-name") String notificationName,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("offset") Integer offset,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	@GET
+	@Path("/devices/{device-id}/notifications/nonparametric/{notification-name}")
+	@Produces(HistoryRESTApi.TIMESERIES_RANKED)
+	public Response getDeviceSpecificNonParametricNotificationTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("notification-name") String notificationName,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("offset") Integer offset,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	@GET
+	@Path("/devices/{device-id}/states/continuous/{state-name}/{state-params}")
+	@Produces(HistoryRESTApi.TIMESERIES_RANKED)
+	public Response getDeviceSpecificContinuousStatesTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("state-name") String stateName,
+			@PathParam("state-params") String stateParams,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("offset") Integer offset,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	@GET
+	@Path("/devices/{device-id}/states/continuous/{state-name}")
+	@Produces(HistoryRESTApi.TIMESERIES_RANKED)
+	public Response getDeviceSpecificContinuousStatesTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("state-name") String stateName,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("offset") Integer offset,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	@GET
+	@Path("/devices/{device-id}/states/discrete/{state-name}")
+	@Produces(HistoryRESTApi.TIMESERIES_RANKED)
+	public Response getDeviceSpecificDiscreteStatesTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("state-name") String stateName,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("offset") Integer offset,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	// -------------- LIVE GET -------------------------
+
+	/**
+	 * Streams the history of the given device event stream as Server-Sent
+	 * Events: the requested historical range is sent first, then every data
+	 * point stored for the same stream is pushed as soon as it is found in
+	 * the EventStore. The historical range is bounded and charged as the
+	 * other history queries; connections are closed after a configured time,
+	 * or after the maximum number of results, and clients resume from the
+	 * last event id they received.
+	 * 
+	 * @param deviceId
+	 *            The URI of the device for which the history should be
+	 *            extracted.
+	 * @param eventType
+	 *            The event family, either notifications or states.
+	 * @param dataType
+	 *            The event kind, i.e., parametric or nonparametric for
+	 *            notifications and continuous or discrete for states.
+	 * @param name
+	 *            The name of the notification or state.
+	 * @param params
+	 *            The notification or state parameters, if any.
+	 * @param startDate
+	 *            The date from which starting to send the history, if not
+	 *            given only new data points are sent.
+	 * @param lastEventId
+	 *            The id of the last event received by a reconnecting client,
+	 *            used in place of the start date if given.
+	 * @return The event stream
+	 */
+	@GET
+	@Path("/live/devices/{device-id}/{event-type}/{data-type}/{name}")
+	@Produces("text/event-stream")
+	public Response getDeviceSpecificLiveHistory(
+			@PathParam("device-id") String deviceId,
+			@PathParam("event-type") String eventType,
+			@PathParam("data-type") String dataType,
+			@PathParam("name") String name,
+			@QueryParam("params") String params,
+			@QueryParam("start") String startDate,
+			@HeaderParam("Last-Event-ID") String lastEventId,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	// -------------- PIPELINED GET -------------------------
+
+	/**
+	 * Provides the history of the given device event stream, as the
+	 * device-specific history queries do, sending data points while they are
+	 * still being read from the EventStore: the range is read in chunks and
+	 * each chunk is sent as soon as it is available, so that long ranges start
+	 * arriving immediately and never need to be held in memory as a whole.
+	 * 
+	 * @param deviceId
+	 *            The URI of the device for which the history should be
+	 *            extracted.
+	 * @param eventType
+	 *            The event family, either notifications or states.
+	 * @param dataType
+	 *            The event kind, i.e., parametric or nonparametric for
+	 *            notifications and continuous or discrete for states.
+	 * @param name
+	 *            The name of the notification or state.
+	 * @param params
+	 *            The notification or state parameters, if any.
+	 * @param startDate
+	 *            The date from which starting to extract the history.
+	 * @param endDate
+	 *            The date at which the history extraction should end.
+	 * @param offset
+	 *            The offset from which results should start.
+	 * @param limit
+	 *            The maximum number of results.
+	 * @param fields
+	 *            The comma-separated attributes to include, all if not given.
+	 * @param filter
+	 *            The conditions data points shall satisfy, if any.
+	 * @return The event stream, as JSON
+	 */
+	@GET
+	@Path("/pipelined/devices/{device-id}/{event-type}/{data-type}/{name}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getDeviceSpecificPipelinedHistory(
+			@PathParam("device-id") String deviceId,
+			@PathParam("event-type") String eventType,
+			@PathParam("data-type") String dataType,
+			@PathParam("name") String name,
+			@QueryParam("params") String params,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("offset") Integer offset,
+			@QueryParam("limit") Integer limit,
+			@QueryParam("fields") String fields,
+			@QueryParam("filter") String filter,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
 	
+	// -------------- STATISTICS GET -------------------------
+
+	/**
+	 * Summarizes the history of the given device event stream without
+	 * returning its data points: count, first and last time, and, for numeric
+	 * values, minimum, maximum, mean, standard deviation and estimated
+	 * percentiles. The summary is computed in a single pass over the range;
+	 * whole past days are summarized once and cached, so that repeated
+	 * queries over long ranges only read the new data.
+	 * 
+	 * @param deviceId
+	 *            The URI of the device for which the history should be
+	 *            summarized.
+	 * @param eventType
+	 *            The event family, either notifications or states.
+	 * @param dataType
+	 *            The event kind, i.e., parametric or nonparametric for
+	 *            notifications and continuous or discrete for states.
+	 * @param name
+	 *            The name of the notification or state.
+	 * @param params
+	 *            The notification or state parameters, if any.
+	 * @param startDate
+	 *            The date from which starting to summarize the history.
+	 * @param endDate
+	 *            The date at which the summary should end.
+	 * @param percentiles
+	 *            The comma-separated percentiles to estimate, between 0 and
+	 *            100, 50,90,95,99 if not given.
+	 * @return The summary, as JSON
+	 */
+	@GET
+	@Path("/stats/devices/{device-id}/{event-type}/{data-type}/{name}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public String getDeviceSpecificStatistics(
+			@PathParam("device-id") String deviceId,
+			@PathParam("event-type") String eventType,
+			@PathParam("data-type") String dataType,
+			@PathParam("name") String name,
+			@QueryParam("params") String params,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("percentiles") String percentiles,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	/**
+	 * Summarizes the history of all the event streams of the given device in
+	 * the given family, one summary per stream, as
+	 * getDeviceSpecificStatistics does.
+	 * 
+	 * @param deviceId
+	 *            The URI of the device for which the history should be
+	 *            summarized.
+	 * @param eventType
+	 *            The event family, either notifications or states.
+	 * @param dataType
+	 *            The event kind, i.e., parametric or nonparametric for
+	 *            notifications and continuous or discrete for states.
+	 * @param startDate
+	 *            The date from which starting to summarize the history.
+	 * @param endDate
+	 *            The date at which the summary should end.
+	 * @param percentiles
+	 *            The comma-separated percentiles to estimate, between 0 and
+	 *            100, 50,90,95,99 if not given.
+	 * @return The summaries, as JSON
+	 */
+	@GET
+	@Path("/stats/devices/{device-id}/{event-type}/{data-type}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public String getDeviceStatistics(@PathParam("device-id") String deviceId,
+			@PathParam("event-type") String eventType,
+			@PathParam("data-type") String dataType,
+			@QueryParam("start") String startDate,
+			@QueryParam("end") String endDate,
+			@QueryParam("percentiles") String percentiles,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
 	// -------------- CSV PUT -------------------------
 
+	/*
+	 * CSV uploads carry one data point per row: timestamp, value and,
+	 * optionally, unit. The header, delimiter (a character or "tab") and
+	 * timestampFormat (a date pattern or "epoch") parameters describe the
+	 * data; rows that cannot be parsed are rejected one by one and described
+	 * in the JSON response, unless strict is true, in which case any rejected
+	 * row fails the whole upload with 400 and nothing is stored.
+	 * 
+	 * All the uploads (CSV, JSON and time series) accept an Idempotency-Key
+	 * header: a retry carrying the key of an upload already applied to the
+	 * same stream is answered with the original response and not applied
+	 * again. Regardless of the header, points equal to recently stored ones
+	 * (same timestamp and value) are dropped.
+	 */
+
 	@PUT
 	@Path("/devices/{device-id}/notifications/parametric/{notification-name}")
 	@Consumes(MediaType.TEXT_PLAIN)
 	public Response insertSpecificDeviceParametricNotificationCSV(
 			@PathParam("device-id") String deviceId,
 			@PathParam("notification-name") String notificationName,
+			@QueryParam("header") Boolean header,
+			@QueryParam("delimiter") String delimiter,
+			@QueryParam("timestampFormat") String timestampFormat,
+			@QueryParam("strict") Boolean strict,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String csvData, @Context HttpServletResponse httpResponse);
 
 	@PUT
@@ -243,6 +862,11 @@ public interface HistoryRESTApi
 			@PathParam("device-id") String deviceId,
 			@PathParam("notification-name") String notificationName,
 			@PathParam("notification-params") String notificationParams,
+			@QueryParam("header") Boolean header,
+			@QueryParam("delimiter") String delimiter,
+			@QueryParam("timestampFormat") String timestampFormat,
+			@QueryParam("strict") Boolean strict,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String csvData, @Context HttpServletResponse httpResponse);
 	
 	@PUT
@@ -251,6 +875,11 @@ public interface HistoryRESTApi
 	public Response insertSpecificDeviceNonParametricNotificationCSV(
 			@PathParam("device-id") String deviceId,
 			@PathParam("notification-name") String notificationName,
+			@QueryParam("header") Boolean header,
+			@QueryParam("delimiter") String delimiter,
+			@QueryParam("timestampFormat") String timestampFormat,
+			@QueryParam("strict") Boolean strict,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String csvData, @Context HttpServletResponse httpResponse);
 	
 	@PUT
@@ -259,6 +888,11 @@ public interface HistoryRESTApi
 	public Response insertSpecificDeviceContinuousStateCSV(
 			@PathParam("device-id") String deviceId,
 			@PathParam("state-name") String stateName,
+			@QueryParam("header") Boolean header,
+			@QueryParam("delimiter") String delimiter,
+			@QueryParam("timestampFormat") String timestampFormat,
+			@QueryParam("strict") Boolean strict,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String csvData, @Context HttpServletResponse httpResponse);
 
 	@PUT
@@ -268,6 +902,11 @@ public interface HistoryRESTApi
 			@PathParam("device-id") String deviceId,
 			@PathParam("state-name") String stateName,
 			@PathParam("state-params") String stateParams,
+			@QueryParam("header") Boolean header,
+			@QueryParam("delimiter") String delimiter,
+			@QueryParam("timestampFormat") String timestampFormat,
+			@QueryParam("strict") Boolean strict,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String csvData, @Context HttpServletResponse httpResponse);
 	
 	@PUT
@@ -276,6 +915,11 @@ public interface HistoryRESTApi
 	public Response insertSpecificDeviceDiscreteStateCSV(
 			@PathParam("device-id") String deviceId,
 			@PathParam("state-name") String stateName,
+			@QueryParam("header") Boolean header,
+			@QueryParam("delimiter") String delimiter,
+			@QueryParam("timestampFormat") String timestampFormat,
+			@QueryParam("strict") Boolean strict,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String csvData, @Context HttpServletResponse httpResponse);
 	
 	// ------------ JSON PUT ------------------
@@ -286,6 +930,7 @@ public interface HistoryRESTApi
 	public Response insertSpecificDeviceParametricNotificationJSON(
 			@PathParam("device-id") String deviceId,
 			@PathParam("notification-name") String notificationName,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String jsonData, @Context HttpServletResponse httpResponse);
 
 	@PUT
@@ -295,6 +940,7 @@ public interface HistoryRESTApi
 			@PathParam("device-id") String deviceId,
 			@PathParam("notification-name") String notificationName,
 			@PathParam("notification-params") String notificationParams,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String jsonData, @Context HttpServletResponse httpResponse);
 	
 	@PUT
@@ -303,6 +949,7 @@ public interface HistoryRESTApi
 	public Response insertSpecificDeviceNonParametricNotificationJSON(
 			@PathParam("device-id") String deviceId,
 			@PathParam("notification-name") String notificationName,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String jsonData, @Context HttpServletResponse httpResponse);
 	
 	@PUT
@@ -311,6 +958,7 @@ public interface HistoryRESTApi
 	public Response insertSpecificDeviceContinuousStateJSON(
 			@PathParam("device-id") String deviceId,
 			@PathParam("state-name") String stateName,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String jsonData, @Context HttpServletResponse httpResponse);
 
 	@PUT
@@ -320,6 +968,7 @@ public interface HistoryRESTApi
 			@PathParam("device-id") String deviceId,
 			@PathParam("state-name") String stateName,
 			@PathParam("state-params") String stateParams,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String jsonData, @Context HttpServletResponse httpResponse);
 	
 	@PUT
@@ -328,6 +977,155 @@ public interface HistoryRESTApi
 	public Response insertSpecificDeviceDiscreteStateJSON(
 			@PathParam("device-id") String deviceId,
 			@PathParam("state-name") String stateName,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
 			String jsonData, @Context HttpServletResponse httpResponse);
 
+	// ------------ TIME SERIES PUT ------------------
+
+	@PUT
+	@Path("/devices/{device-id}/notifications/parametric/{notification-name}")
+	@Consumes(HistoryRESTApi.TIMESERIES)
+	public Response insertSpecificDeviceParametricNotificationTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("notification-name") String notificationName,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
+			byte[] timeSeriesData, @Context HttpServletResponse httpResponse);
+
+	@PUT
+	@Path("/devices/{device-id}/notifications/parametric/{notification-name}/{notification-params}")
+	@Consumes(HistoryRESTApi.TIMESERIES)
+	public Response insertSpecificDeviceParametricNotificationTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("notification-name") String notificationName,
+			@PathParam("notification-params") String notificationParams,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
+			byte[] timeSeriesData, @Context HttpServletResponse httpResponse);
+
+	@PUT
+	@Path("/devices/{device-id}/notifications/nonparametric/{notification-name}")
+	@Consumes(HistoryRESTApi.TIMESERIES)
+	public Response insertSpecificDeviceNonParametricNotificationTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("notification-name") String notificationName,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
+			byte[] timeSeriesData, @Context HttpServletResponse httpResponse);
+
+	@PUT
+	@Path("/devices/{device-id}/states/continuous/{state-name}")
+	@Consumes(HistoryRESTApi.TIMESERIES)
+	public Response insertSpecificDeviceContinuousStateTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("state-name") String stateName,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
+			byte[] timeSeriesData, @Context HttpServletResponse httpResponse);
+
+	@PUT
+	@Path("/devices/{device-id}/states/continuous/{state-name}/{state-params}")
+	@Consumes(HistoryRESTApi.TIMESERIES)
+	public Response insertSpecificDeviceContinuousStateTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("state-name") String stateName,
+			@PathParam("state-params") String stateParams,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
+			byte[] timeSeriesData, @Context HttpServletResponse httpResponse);
+
+	@PUT
+	@Path("/devices/{device-id}/states/discrete/{state-name}")
+	@Consumes(HistoryRESTApi.TIMESERIES)
+	public Response insertSpecificDeviceDiscreteStateTimeSeries(
+			@PathParam("device-id") String deviceId,
+			@PathParam("state-name") String stateName,
+			@HeaderParam("Idempotency-Key") String idempotencyKey,
+			byte[] timeSeriesData, @Context HttpServletResponse httpResponse);
+
+	// ------------ JOIN ------------------
+
+	/**
+	 * Aligns the history of several event streams on a common time grid,
+	 * e.g., the power of several meters every 15 minutes, as a table with one
+	 * column per stream and one row per grid instant. The request body is a
+	 * JSON object with the fields: series (array of objects with device,
+	 * name, params and family, e.g., states/continuous, the default), start
+	 * and end (dates, NOW by default for end), step (seconds), fill (null,
+	 * previous or linear, previous by default) and format (json or csv, json
+	 * by default).
+	 * 
+	 * @param jsonData
+	 *            The join request.
+	 * @return The table, in columnar JSON or CSV
+	 */
+	@POST
+	@Path("/join")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces({ MediaType.APPLICATION_JSON, "text/csv" })
+	public Response joinDeviceHistory(String jsonData,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	// ------------ EXPORT ------------------
+
+	/**
+	 * Submits an asynchronous export job, which extracts the history of the
+	 * given devices into a compressed file on the gateway. The request body
+	 * is a JSON object with the fields: devices (array of device URIs),
+	 * families (array of event families, e.g., states/continuous, all
+	 * families if omitted), start and end (dates, EPOCH and NOW by default)
+	 * and format (csv, json, binary or timeseries, csv by default).
+	 * 
+	 * @param jsonData
+	 *            The export request.
+	 * @return The job status, in JSON, with the job URI as Location header
+	 */
+	@POST
+	@Path("/exports")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response submitExportJob(String jsonData,
+			@Context HttpServletRequest httpRequest,
+			@Context HttpServletResponse httpResponse);
+
+	/**
+	 * Provides the status and progress of the given export job.
+	 * 
+	 * @param jobId
+	 *            The job id.
+	 * @return The job status, in JSON
+	 */
+	@GET
+	@Path("/exports/{job-id}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public String getExportJob(@PathParam("job-id") String jobId,
+			@Context HttpServletResponse httpResponse);
+
+	/**
+	 * Downloads the gzip-compressed artifact of a completed export job.
+	 * Single byte ranges are supported, so that interrupted downloads can be
+	 * resumed.
+	 * 
+	 * @param jobId
+	 *            The job id.
+	 * @param range
+	 *            The HTTP Range header, if any.
+	 * @return The (partial) artifact
+	 */
+	@GET
+	@Path("/exports/{job-id}/data")
+	@Produces("application/gzip")
+	public Response getExportJobData(@PathParam("job-id") String jobId,
+			@HeaderParam("Range") String range,
+			@Context HttpServletResponse httpResponse);
+
+	/**
+	 * Cancels the given export job, if still running, and deletes its
+	 * artifact.
+	 * 
+	 * @param jobId
+	 *            The job id.
+	 * @return No content
+	 */
+	@DELETE
+	@Path("/exports/{job-id}")
+	public Response deleteExportJob(@PathParam("job-id") String jobId,
+			@Context HttpServletResponse httpResponse);
+
 }